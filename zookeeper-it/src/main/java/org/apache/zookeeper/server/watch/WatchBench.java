@@ -65,7 +65,7 @@ static long getMemoryUse() {
     @State(Scope.Benchmark)
     public static class IterationState {
 
-        @Param({"WatchManager", "WatchManagerOptimized"})
+        @Param({"WatchManager", "WatchManagerOptimized", "ConcurrentWatchManager"})
         public String watchManagerClass;
 
         @Param({"10000"})
@@ -128,7 +128,7 @@ public void testAddConcentrateWatch(IterationState state) throws Exception {
     @State(Scope.Benchmark)
     public static class InvocationState {
 
-        @Param({"WatchManager", "WatchManagerOptimized"})
+        @Param({"WatchManager", "WatchManagerOptimized", "ConcurrentWatchManager"})
         public String watchManagerClass;
 
         @Param({"1", "1000"})
@@ -297,4 +297,66 @@ public void testTriggerSparseWatch(TriggerSparseWatchState state) throws Excepti
             state.watchManager.triggerWatch(path, event, WatchedEvent.NO_ZXID, null);
         }
     }
+
+    @State(Scope.Group)
+    public static class ContendedState {
+
+        @Param({"WatchManager", "WatchManagerOptimized", "ConcurrentWatchManager"})
+        public String watchManagerClass;
+
+        @Param({"10000"})
+        public int pathCount;
+
+        String[] paths;
+        IWatchManager watchManager;
+
+        @Setup(Level.Iteration)
+        public void setup() throws Exception {
+            paths = new String[pathCount];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = pathPrefix + i;
+            }
+            watchManager = createWatchManager(watchManagerClass);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WatcherState {
+
+        final Watcher watcher = new DumbWatcher();
+        int next = 0;
+
+        String nextPath(ContendedState state) {
+            next = (next + 1) % state.paths.length;
+            return state.paths[next];
+        }
+    }
+
+    /**
+     * Test readers setting watches while writers trigger watches on other
+     * paths, as getData with watch and setData requests do on a busy server.
+     *
+     * The output of this test is the throughput of each of the operations.
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+    @Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+    public boolean testContendedAddWatch(ContendedState state, WatcherState watcherState) {
+        return state.watchManager.addWatch(watcherState.nextPath(state), watcherState.watcher);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+    @Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+    public WatcherOrBitSet testContendedTriggerWatch(ContendedState state, WatcherState watcherState) {
+        return state.watchManager.triggerWatch(watcherState.nextPath(state), event, WatchedEvent.NO_ZXID, null);
+    }
 }
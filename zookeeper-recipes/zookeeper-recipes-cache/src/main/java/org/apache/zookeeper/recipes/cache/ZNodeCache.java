@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.recipes.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-through cache of the data and the children of the znodes of a
+ * subtree.
+ *
+ * <p>The reads of the znodes under the root of the cache are served from the
+ * cache when possible, and otherwise read from the server and added to the
+ * cache. A persistent recursive watch on the root removes the znodes from
+ * the cache when they change, so a read returns what the server would have
+ * returned, except that a change made by another client may be seen slightly
+ * later, like with any watch. The reads of the znodes outside of the subtree
+ * are sent to the server.
+ *
+ * <p>The cache is bounded by the approximate size in bytes of the paths, the
+ * data and the children it holds: the least recently used znodes are evicted
+ * when it is full.
+ *
+ * <p>The events may be missed while the client is disconnected, so the cache
+ * is emptied and bypassed until the watch is added again after the client
+ * reconnects. It is no longer used once the session expires or the cache is
+ * closed.
+ */
+public class ZNodeCache implements Watcher, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZNodeCache.class);
+
+    // the approximate size of an entry without its path, data and children
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final ZooKeeper zookeeper;
+    private final String root;
+    private final long maxBytes;
+
+    // the znodes by path, in access order, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // guarded by entries
+    private long bytes;
+
+    private volatile boolean enabled;
+    private volatile boolean closed;
+
+    // incremented by every change, so that a read from the server is not
+    // cached if the znode changed meanwhile
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+
+        // the data is cached if the stat is not null
+        byte[] data;
+        Stat stat;
+        List<String> children;
+        int bytes;
+
+    }
+
+    /**
+     * @param zookeeper the client reading the znodes
+     * @param root the root of the subtree to cache
+     * @param maxBytes the approximate maximum size of the cache
+     */
+    public ZNodeCache(ZooKeeper zookeeper, String root, long maxBytes) {
+        this.zookeeper = zookeeper;
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Add the watch on the root of the cache, which is used from then on.
+     */
+    public void start() throws KeeperException, InterruptedException {
+        zookeeper.addWatch(root, this, AddWatchMode.PERSISTENT_RECURSIVE);
+        enable();
+    }
+
+    /**
+     * Remove the watch on the root of the cache, and empty it.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        disable();
+        try {
+            zookeeper.removeWatches(root, this, WatcherType.Any, true);
+        } catch (KeeperException e) {
+            LOG.warn("Failed to remove the watch of the cache of {}", root, e);
+        }
+    }
+
+    /**
+     * Return the data and the stat of the node of the given path, like
+     * {@link ZooKeeper#getData(String, boolean, Stat)} without a watch.
+     */
+    public byte[] getData(String path, Stat stat) throws KeeperException, InterruptedException {
+        if (!isCached(path)) {
+            return zookeeper.getData(path, false, stat);
+        }
+        long readEpoch = epoch.get();
+        synchronized (entries) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.stat != null) {
+                hits.incrementAndGet();
+                copyStat(entry.stat, stat);
+                return entry.data == null ? null : entry.data.clone();
+            }
+        }
+        misses.incrementAndGet();
+        Stat readStat = new Stat();
+        byte[] data = zookeeper.getData(path, false, readStat);
+        synchronized (entries) {
+            if (enabled && epoch.get() == readEpoch) {
+                Entry entry = getOrAddEntry(path);
+                bytes -= entry.bytes;
+                entry.data = data == null ? null : data.clone();
+                entry.stat = readStat;
+                updateSize(path, entry);
+            }
+        }
+        copyStat(readStat, stat);
+        return data;
+    }
+
+    /**
+     * Return the children of the node of the given path, like
+     * {@link ZooKeeper#getChildren(String, boolean)} without a watch.
+     */
+    public List<String> getChildren(String path) throws KeeperException, InterruptedException {
+        if (!isCached(path)) {
+            return zookeeper.getChildren(path, false);
+        }
+        long readEpoch = epoch.get();
+        synchronized (entries) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.children != null) {
+                hits.incrementAndGet();
+                return new ArrayList<>(entry.children);
+            }
+        }
+        misses.incrementAndGet();
+        List<String> children = zookeeper.getChildren(path, false);
+        synchronized (entries) {
+            if (enabled && epoch.get() == readEpoch) {
+                Entry entry = getOrAddEntry(path);
+                bytes -= entry.bytes;
+                entry.children = new ArrayList<>(children);
+                updateSize(path, entry);
+            }
+        }
+        return children;
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        String path = event.getPath();
+        switch (event.getType()) {
+        case None:
+            disable();
+            if (event.getState() == Event.KeeperState.SyncConnected && !closed) {
+                // the changes made while disconnected may have been missed,
+                // and the watch is not added back if the auto reset is
+                // disabled
+                zookeeper.addWatch(root, this, AddWatchMode.PERSISTENT_RECURSIVE, (rc, p, ctx) -> {
+                    if (rc == KeeperException.Code.OK.intValue() && !closed) {
+                        enable();
+                    } else {
+                        LOG.warn("Failed to add the watch of the cache of {}: {}", root, KeeperException.Code.get(rc));
+                    }
+                }, null);
+            }
+            break;
+        case NodeCreated:
+        case NodeDeleted:
+            invalidate(path, true, true);
+            if (!path.equals(root)) {
+                // the stat of the parent changes with its children
+                invalidate(getParent(path), true, true);
+            }
+            break;
+        case NodeDataChanged:
+            invalidate(path, true, false);
+            break;
+        default:
+            // the other events are not sent to a persistent recursive watch
+            invalidate(path, true, true);
+        }
+    }
+
+    /**
+     * @return the number of znodes in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the approximate size of the cache in bytes
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private boolean isCached(String path) {
+        return enabled && (path.equals(root) || path.startsWith(root.equals("/") ? "/" : root + "/"));
+    }
+
+    private void enable() {
+        synchronized (entries) {
+            epoch.incrementAndGet();
+            entries.clear();
+            bytes = 0;
+            enabled = !closed && zookeeper.getState().isConnected();
+        }
+    }
+
+    private void disable() {
+        synchronized (entries) {
+            enabled = false;
+            epoch.incrementAndGet();
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    private void invalidate(String path, boolean data, boolean children) {
+        synchronized (entries) {
+            epoch.incrementAndGet();
+            Entry entry = entries.get(path);
+            if (entry == null) {
+                return;
+            }
+            if (data) {
+                entry.data = null;
+                entry.stat = null;
+            }
+            if (children) {
+                entry.children = null;
+            }
+            bytes -= entry.bytes;
+            if (entry.stat == null && entry.children == null) {
+                entries.remove(path);
+            } else {
+                updateSize(path, entry);
+            }
+        }
+    }
+
+    private Entry getOrAddEntry(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(path, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Add the size of the entry to the size of the cache, and evict the
+     * least recently used entries until it fits.
+     */
+    private void updateSize(String path, Entry entry) {
+        int size = ENTRY_OVERHEAD + 2 * path.length();
+        if (entry.data != null) {
+            size += entry.data.length;
+        }
+        if (entry.children != null) {
+            for (String child : entry.children) {
+                size += ENTRY_OVERHEAD / 4 + 2 * child.length();
+            }
+        }
+        entry.bytes = size;
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            Entry evicted = iter.next().getValue();
+            bytes -= evicted.bytes;
+            iter.remove();
+        }
+    }
+
+    private static String getParent(String path) {
+        int index = path.lastIndexOf('/');
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
+    private static void copyStat(Stat from, Stat to) {
+        if (to == null) {
+            return;
+        }
+        to.setCzxid(from.getCzxid());
+        to.setMzxid(from.getMzxid());
+        to.setCtime(from.getCtime());
+        to.setMtime(from.getMtime());
+        to.setVersion(from.getVersion());
+        to.setCversion(from.getCversion());
+        to.setAversion(from.getAversion());
+        to.setEphemeralOwner(from.getEphemeralOwner());
+        to.setDataLength(from.getDataLength());
+        to.setNumChildren(from.getNumChildren());
+        to.setPzxid(from.getPzxid());
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.recipes.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ZNodeCache}.
+ */
+public class ZNodeCacheTest extends ClientBase {
+
+    @Test
+    public void testReadThrough() throws Exception {
+        ZooKeeper zk = createClient();
+        ZooKeeper writer = createClient();
+        zk.create("/config", "a".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.create("/config/x", "x".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.create("/other", "o".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        try (ZNodeCache cache = new ZNodeCache(zk, "/config", 1024 * 1024)) {
+            cache.start();
+            Stat stat = new Stat();
+            assertArrayEquals("x".getBytes(UTF_8), cache.getData("/config/x", stat));
+            assertEquals(0, stat.getVersion());
+            assertArrayEquals("x".getBytes(UTF_8), cache.getData("/config/x", null));
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(Collections.singletonList("x"), cache.getChildren("/config"));
+            assertEquals(Collections.singletonList("x"), cache.getChildren("/config"));
+            assertEquals(2, cache.getHitCount());
+
+            // not under the root
+            assertArrayEquals("o".getBytes(UTF_8), cache.getData("/other", null));
+            assertEquals(2, cache.getHitCount());
+            assertEquals(2, cache.getMissCount());
+
+            writer.setData("/config/x", "y".getBytes(UTF_8), -1);
+            waitUntil(() -> Arrays.equals("y".getBytes(UTF_8), cache.getData("/config/x", stat)));
+            assertEquals(1, stat.getVersion());
+
+            writer.create("/config/z", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            waitUntil(() -> cache.getChildren("/config").size() == 2);
+            assertEquals(null, cache.getData("/config/z", null));
+            assertEquals(null, cache.getData("/config/z", null));
+
+            writer.delete("/config/z", -1);
+            waitUntil(() -> cache.getChildren("/config").size() == 1);
+            assertThrows(KeeperException.NoNodeException.class, () -> cache.getData("/config/z", null));
+            waitUntil(() -> cache.getData("/config", stat) != null && stat.getNumChildren() == 1);
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ZooKeeper zk = createClient();
+        zk.create("/big", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        for (int i = 0; i < 20; i++) {
+            zk.create("/big/n" + i, new byte[1000], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+        try (ZNodeCache cache = new ZNodeCache(zk, "/big", 5000)) {
+            cache.start();
+            for (int i = 0; i < 20; i++) {
+                cache.getData("/big/n" + i, null);
+                assertTrue(cache.getBytes() <= 5000);
+            }
+            assertTrue(cache.size() < 5);
+            // the most recently used node is kept
+            long hits = cache.getHitCount();
+            cache.getData("/big/n19", null);
+            assertEquals(hits + 1, cache.getHitCount());
+            // the least recently used one is evicted
+            cache.getData("/big/n0", null);
+            assertEquals(hits + 1, cache.getHitCount());
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        ZooKeeper zk = createClient();
+        zk.create("/conf", "1".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        try (ZNodeCache cache = new ZNodeCache(zk, "/conf", 1024 * 1024)) {
+            cache.start();
+            assertArrayEquals("1".getBytes(UTF_8), cache.getData("/conf", null));
+            assertEquals(1, cache.size());
+
+            stopServer();
+            waitUntil(() -> !zk.getState().isConnected());
+            // not served from the cache while disconnected
+            waitUntil(() -> cache.size() == 0);
+            assertThrows(KeeperException.ConnectionLossException.class, () -> cache.getData("/conf", null));
+            startServer();
+            waitUntil(() -> zk.getState().isConnected());
+
+            ZooKeeper writer = createClient();
+            writer.setData("/conf", "2".getBytes(UTF_8), -1);
+            waitUntil(() -> Arrays.equals("2".getBytes(UTF_8), cache.getData("/conf", null)));
+            // cached again once the watch is added back
+            waitUntil(() -> {
+                long hits = cache.getHitCount();
+                cache.getData("/conf", null);
+                return cache.getHitCount() > hits;
+            });
+            writer.setData("/conf", "3".getBytes(UTF_8), -1);
+            waitUntil(() -> Arrays.equals("3".getBytes(UTF_8), cache.getData("/conf", null)));
+        }
+    }
+
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        for (int i = 0; i < 300; i++) {
+            if (condition.call()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Timed out waiting for the condition");
+    }
+
+}
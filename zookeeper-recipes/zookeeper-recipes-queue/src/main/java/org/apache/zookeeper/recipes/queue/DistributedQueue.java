@@ -23,6 +23,7 @@
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
+import org.apache.zookeeper.ChildrenPage;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
@@ -47,27 +48,66 @@ public class DistributedQueue {
 
     private final String prefix = "qn-";
 
+    // the number of children read at once from the head of the queue
+    private static final int HEAD_PAGE_SIZE = 64;
+
+    // whether to read the head of the queue with getChildrenPage, turned off
+    // if the servers don't support it
+    private volatile boolean pagedChildren;
+
     public DistributedQueue(ZooKeeper zookeeper, String dir, List<ACL> acl) {
+        this(zookeeper, dir, acl, false);
+    }
+
+    /**
+     * @param pagedChildren whether to read only the head of the queue with
+     *                      getChildrenPage rather than all the children. Only
+     *                      set it once all the servers support getChildrenPage,
+     *                      as the servers which don't may close the connection
+     *                      instead of failing the request.
+     */
+    public DistributedQueue(ZooKeeper zookeeper, String dir, List<ACL> acl, boolean pagedChildren) {
         this.dir = dir;
 
         if (acl != null) {
             this.acl = acl;
         }
         this.zookeeper = zookeeper;
+        this.pagedChildren = pagedChildren;
 
     }
 
     /**
-     * Returns a Map of the children, ordered by id.
+     * Returns a Map of the children at the head of the queue, ordered by id.
      * @param watcher optional watcher on getChildren() operation.
-     * @return map from id to child name for all children
+     * @return map from id to child name for the first children
      */
     private Map<Long, String> orderedChildren(Watcher watcher) throws KeeperException, InterruptedException {
         Map<Long, String> orderedChildren = new TreeMap<>();
 
-        List<String> childNames;
-        childNames = zookeeper.getChildren(dir, watcher);
+        if (pagedChildren) {
+            try {
+                // the children are sorted by name, which sorts them by id, so the
+                // first page with a well formed child holds the head of the queue
+                String cursor = null;
+                ChildrenPage page;
+                do {
+                    page = zookeeper.getChildrenPage(dir, cursor, HEAD_PAGE_SIZE, watcher);
+                    addChildren(page.getChildren(), orderedChildren);
+                    cursor = page.getNextCursor();
+                } while (orderedChildren.isEmpty() && page.hasMore());
+                return orderedChildren;
+            } catch (KeeperException.UnimplementedException e) {
+                LOG.info("Servers do not support getChildrenPage, reading all the children of {}", dir);
+                pagedChildren = false;
+            }
+        }
 
+        addChildren(zookeeper.getChildren(dir, watcher), orderedChildren);
+        return orderedChildren;
+    }
+
+    private void addChildren(List<String> childNames, Map<Long, String> orderedChildren) {
         for (String childName : childNames) {
             try {
                 //Check format
@@ -82,8 +122,6 @@ private Map<Long, String> orderedChildren(Watcher watcher) throws KeeperExceptio
                 LOG.warn("Found child node with improper format : {}", childName, e);
             }
         }
-
-        return orderedChildren;
     }
 
     /**
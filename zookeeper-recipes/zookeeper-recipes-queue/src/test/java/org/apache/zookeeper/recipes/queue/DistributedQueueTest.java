@@ -114,13 +114,17 @@ public void testRemove1() throws Exception {
     }
 
     public void createNremoveMtest(String dir, int n, int m) throws Exception {
+        createNremoveMtest(dir, n, m, false);
+    }
+
+    public void createNremoveMtest(String dir, int n, int m, boolean pagedChildren) throws Exception {
         String testString = "Hello World";
         final int numClients = 2;
         ZooKeeper[] clients = new ZooKeeper[numClients];
         DistributedQueue[] queueHandles = new DistributedQueue[numClients];
         for (int i = 0; i < clients.length; i++) {
             clients[i] = createClient();
-            queueHandles[i] = new DistributedQueue(clients[i], dir, null);
+            queueHandles[i] = new DistributedQueue(clients[i], dir, null, pagedChildren);
         }
 
         for (int i = 0; i < n; i++) {
@@ -146,6 +150,11 @@ public void testRemove3() throws Exception {
         createNremoveMtest("/testRemove3", 1000, 1000);
     }
 
+    @Test
+    public void testRemovePagedChildren() throws Exception {
+        createNremoveMtest("/testRemovePagedChildren", 1000, 1000, true);
+    }
+
     public void createNremoveMelementTest(String dir, int n, int m) throws Exception {
         String testString = "Hello World";
         final int numClients = 2;
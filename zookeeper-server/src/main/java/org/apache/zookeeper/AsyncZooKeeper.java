@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A view of a {@link ZooKeeper} client whose operations return a
+ * {@link CompletableFuture} rather than take a callback, obtained from
+ * {@link ZooKeeper#async()} or {@link ZooKeeper#async(Executor)}.
+ *
+ * <p>The operations are the asynchronous operations of the client, so any
+ * number of them may be in flight at once, and they are sent in the order
+ * they are called. A future completes normally with the result of the
+ * operation, or exceptionally with the {@link KeeperException} of the error
+ * code the server returned. An invalid argument is reported by an
+ * {@link IllegalArgumentException} thrown by the call, as for the
+ * asynchronous operations of {@link ZooKeeper}.
+ *
+ * <p>The futures are completed on the event thread of the client unless an
+ * executor was given, in which case they are completed on the executor. The
+ * functions chained to a future completed on the event thread delay the
+ * events and callbacks after it, so they should not block.
+ *
+ * @since 3.10.0
+ */
+@InterfaceAudience.Public
+public class AsyncZooKeeper {
+
+    private final ZooKeeper zk;
+    private final Executor executor;
+
+    AsyncZooKeeper(ZooKeeper zk, Executor executor) {
+        this.zk = zk;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the client this view sends its operations with
+     */
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    /**
+     * @return a future of the result of the creation, with the actual path of
+     * the node and its stat
+     * @see ZooKeeper#create(String, byte[], List, CreateMode, Stat)
+     */
+    public CompletableFuture<OpResult.CreateResult> create(String path, byte[] data, List<ACL> acl, CreateMode createMode) {
+        CompletableFuture<OpResult.CreateResult> future = new CompletableFuture<>();
+        zk.create(path, data, acl, createMode, (int rc, String p, Object ctx, String name, Stat stat) ->
+            complete(future, rc, p, () -> new OpResult.CreateResult(name, stat)), null);
+        return future;
+    }
+
+    /**
+     * @return a future of nothing, completed once the node is deleted
+     * @see ZooKeeper#delete(String, int)
+     */
+    public CompletableFuture<Void> delete(String path, int version) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        zk.delete(path, version, (rc, p, ctx) -> complete(future, rc, p, () -> null), null);
+        return future;
+    }
+
+    /**
+     * @param watcher the watcher to set on the node, or null
+     * @return a future of the stat of the node, or of null if it does not exist
+     * @see ZooKeeper#exists(String, Watcher)
+     */
+    public CompletableFuture<Stat> exists(String path, Watcher watcher) {
+        CompletableFuture<Stat> future = new CompletableFuture<>();
+        zk.exists(path, watcher, (rc, p, ctx, stat) -> {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                complete(future, KeeperException.Code.OK.intValue(), p, () -> null);
+            } else {
+                complete(future, rc, p, () -> stat);
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * @param watcher the watcher to set on the node, or null
+     * @return a future of the data and the stat of the node
+     * @see ZooKeeper#getData(String, Watcher, Stat)
+     */
+    public CompletableFuture<OpResult.GetDataResult> getData(String path, Watcher watcher) {
+        CompletableFuture<OpResult.GetDataResult> future = new CompletableFuture<>();
+        zk.getData(path, watcher, (rc, p, ctx, data, stat) ->
+            complete(future, rc, p, () -> new OpResult.GetDataResult(data, stat)), null);
+        return future;
+    }
+
+    /**
+     * @return a future of the new stat of the node
+     * @see ZooKeeper#setData(String, byte[], int)
+     */
+    public CompletableFuture<Stat> setData(String path, byte[] data, int version) {
+        CompletableFuture<Stat> future = new CompletableFuture<>();
+        zk.setData(path, data, version, (rc, p, ctx, stat) -> complete(future, rc, p, () -> stat), null);
+        return future;
+    }
+
+    /**
+     * @param watcher the watcher to set on the node, or null
+     * @return a future of the children of the node, in no particular order
+     * @see ZooKeeper#getChildren(String, Watcher)
+     */
+    public CompletableFuture<List<String>> getChildren(String path, Watcher watcher) {
+        CompletableFuture<List<String>> future = new CompletableFuture<>();
+        zk.getChildren(path, watcher, (AsyncCallback.ChildrenCallback) (rc, p, ctx, children) ->
+            complete(future, rc, p, () -> children), null);
+        return future;
+    }
+
+    /**
+     * Executes the operations as {@link ZooKeeper#multi(Iterable)} does. If
+     * one of them fails, the future completes with the exception of its error,
+     * whose {@link KeeperException#getResults()} are the results of all of
+     * them.
+     *
+     * @return a future of the results of the operations, in their order
+     */
+    public CompletableFuture<List<OpResult>> multi(Iterable<Op> ops) {
+        CompletableFuture<List<OpResult>> future = new CompletableFuture<>();
+        zk.multi(ops, (rc, p, ctx, results) -> {
+            List<OpResult> opResults = results != null ? results : Collections.emptyList();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                complete(future, rc, p, () -> opResults);
+            } else {
+                KeeperException e = KeeperException.create(KeeperException.Code.get(rc));
+                e.setMultiResults(opResults);
+                completeExceptionally(future, e);
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * @return a future of nothing, completed once the server the client is
+     * connected to is in sync with the leader
+     * @see ZooKeeper#sync(String)
+     */
+    public CompletableFuture<Void> sync(String path) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        zk.sync(path, (rc, p, ctx) -> complete(future, rc, p, () -> null), null);
+        return future;
+    }
+
+    /**
+     * @return a future of nothing, completed once the watch is added
+     * @see ZooKeeper#addWatch(String, Watcher, AddWatchMode)
+     */
+    public CompletableFuture<Void> addWatch(String basePath, Watcher watcher, AddWatchMode mode) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        zk.addWatch(basePath, watcher, mode, (rc, p, ctx) -> complete(future, rc, p, () -> null), null);
+        return future;
+    }
+
+    private <T> void complete(CompletableFuture<T> future, int rc, String path, Supplier<T> result) {
+        if (rc != KeeperException.Code.OK.intValue()) {
+            completeExceptionally(future, KeeperException.create(KeeperException.Code.get(rc), path));
+        } else if (executor == null) {
+            future.complete(result.get());
+        } else {
+            T value = result.get();
+            execute(() -> future.complete(value), future);
+        }
+    }
+
+    private void completeExceptionally(CompletableFuture<?> future, KeeperException e) {
+        if (executor == null) {
+            future.completeExceptionally(e);
+        } else {
+            execute(() -> future.completeExceptionally(e), future);
+        }
+    }
+
+    private void execute(Runnable completion, CompletableFuture<?> future) {
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+}
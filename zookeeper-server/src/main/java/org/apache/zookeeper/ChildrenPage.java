@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.List;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A page of the children of a node, as returned by
+ * {@link ZooKeeper#getChildrenPage(String, String, int, Watcher)}.
+ *
+ * @since 3.10.0
+ */
+@InterfaceAudience.Public
+public class ChildrenPage {
+
+    private final List<String> children;
+    private final Stat stat;
+    private final boolean more;
+
+    public ChildrenPage(List<String> children, Stat stat, boolean more) {
+        this.children = children;
+        this.stat = stat;
+        this.more = more;
+    }
+
+    /**
+     * @return the children of the page, in sorted order
+     */
+    public List<String> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return the stat of the node when the page was read
+     */
+    public Stat getStat() {
+        return stat;
+    }
+
+    /**
+     * @return whether there are children after this page
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+    /**
+     * @return the cursor to read the next page with, or null if this is the
+     * last page
+     */
+    public String getNextCursor() {
+        return more ? children.get(children.size() - 1) : null;
+    }
+
+}
@@ -25,20 +25,22 @@
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.security.auth.login.LoginException;
 import javax.security.sasl.SaslException;
@@ -68,8 +70,10 @@
 import org.apache.zookeeper.client.HostProvider;
 import org.apache.zookeeper.client.ZKClientConfig;
 import org.apache.zookeeper.client.ZooKeeperSaslClient;
+import org.apache.zookeeper.common.CompactPathList;
 import org.apache.zookeeper.common.Time;
 import org.apache.zookeeper.common.X509Exception;
+import org.apache.zookeeper.common.ZKConfig;
 import org.apache.zookeeper.proto.AuthPacket;
 import org.apache.zookeeper.proto.ConnectRequest;
 import org.apache.zookeeper.proto.Create2Response;
@@ -88,6 +92,7 @@
 import org.apache.zookeeper.proto.SetDataResponse;
 import org.apache.zookeeper.proto.SetWatches;
 import org.apache.zookeeper.proto.SetWatches2;
+import org.apache.zookeeper.proto.SetWatches3;
 import org.apache.zookeeper.proto.WatcherEvent;
 import org.apache.zookeeper.server.ByteBufferInputStream;
 import org.apache.zookeeper.server.ZooKeeperThread;
@@ -117,6 +122,11 @@ public class ClientCnxn {
      */
     private static final int SET_WATCHES_MAX_LENGTH = 128 * 1024;
 
+    /**
+     * The maximum decoded size of the paths of a SetWatches3 call.
+     */
+    private static final int SET_WATCHES_MAX_DECODED_LENGTH = 4 * SET_WATCHES_MAX_LENGTH;
+
     /* predefined xid's values recognized as special by the server */
     // -1 means notification(WATCHER_EVENT)
     public static final int NOTIFICATION_XID = -1;
@@ -144,13 +154,20 @@ static class AuthData {
 
     /**
      * These are the packets that have been sent and are waiting for a response.
+     * They are added by the thread sending them and removed by the thread
+     * reading the responses.
      */
-    private final Queue<Packet> pendingQueue = new ArrayDeque<>();
+    private final Queue<Packet> pendingQueue = new ConcurrentLinkedQueue<>();
 
     /**
      * These are the packets that need to be sent.
      */
-    private final LinkedBlockingDeque<Packet> outgoingQueue = new LinkedBlockingDeque<>();
+    private final OutgoingPacketQueue outgoingQueue = new OutgoingPacketQueue();
+
+    /**
+     * The number of requests queued by the client which are not finished yet.
+     */
+    private final AtomicInteger outstandingCount = new AtomicInteger();
 
     private int connectTimeout;
 
@@ -221,6 +238,12 @@ static class AuthData {
      */
     private long requestTimeout;
 
+    /**
+     * Packs the async writes into multi requests, null unless
+     * {@link ZKClientConfig#ZOOKEEPER_WRITE_BATCH_SIZE} is above 1.
+     */
+    private final WriteBatcher writeBatcher;
+
     ZKWatchManager getWatcherManager() {
         return watchManager;
     }
@@ -252,7 +275,7 @@ public String toString() {
           .append(" recv:").append(sendThread.getClientCnxnSocket().getRecvCount())
           .append(" queuedpkts:").append(outgoingQueue.size())
           .append(" pendingresp:").append(pendingQueue.size())
-          .append(" queuedevents:").append(eventThread.waitingEvents.size());
+          .append(" queuedevents:").append(eventThread.getQueuedEventCount());
 
         return sb.toString();
     }
@@ -287,6 +310,12 @@ static class Packet {
 
         WatchDeregistration watchDeregistration;
 
+        /** The requests packed into this multi request by the WriteBatcher **/
+        List<Packet> batch;
+
+        /** Whether the packet counts in outstandingCount **/
+        boolean outstanding;
+
         /** Convenience ctor */
         Packet(
             RequestHeader requestHeader,
@@ -417,6 +446,7 @@ public ClientCnxn(
         this.sendThread = new SendThread(clientCnxnSocket);
         this.eventThread = new EventThread();
         initRequestTimeout();
+        this.writeBatcher = initWriteBatcher();
     }
 
     public void start() {
@@ -471,9 +501,32 @@ class EventThread extends ZooKeeperThread {
         private volatile boolean wasKilled = false;
         private volatile boolean isRunning = false;
 
+        /**
+         * Runs the events in parallel, null unless
+         * {@link ZKClientConfig#ZOOKEEPER_EVENT_THREADS} is above 1.
+         */
+        private final EventDispatcher dispatcher;
+
         EventThread() {
             super(makeThreadName("-EventThread"));
             setDaemon(true);
+            int threads = clientConfig.getInt(
+                ZKClientConfig.ZOOKEEPER_EVENT_THREADS,
+                ZKClientConfig.ZOOKEEPER_EVENT_THREADS_DEFAULT);
+            LOG.info(
+                "{} value is {}. feature enabled={}",
+                ZKClientConfig.ZOOKEEPER_EVENT_THREADS,
+                threads,
+                threads > 1);
+            if (threads > 1) {
+                dispatcher = new EventDispatcher(
+                    threads,
+                    clientConfig.getBoolean(ZKClientConfig.ZOOKEEPER_EVENT_VIRTUAL_THREADS),
+                    getName(),
+                    this::processEvent);
+            } else {
+                dispatcher = null;
+            }
         }
 
         public void queueEvent(WatchedEvent event) {
@@ -529,10 +582,16 @@ public void run() {
                     Object event = waitingEvents.take();
                     if (event == eventOfDeath) {
                         wasKilled = true;
+                    } else if (dispatcher != null) {
+                        dispatcher.dispatch(event, getPath(event));
                     } else {
                         processEvent(event);
                     }
                     if (wasKilled) {
+                        if (dispatcher != null) {
+                            // the events queued once stopped are run inline
+                            dispatcher.awaitIdle();
+                        }
                         synchronized (waitingEvents) {
                             if (waitingEvents.isEmpty()) {
                                 isRunning = false;
@@ -543,11 +602,46 @@ public void run() {
                 }
             } catch (InterruptedException e) {
                 LOG.error("Event thread exiting due to interruption", e);
+            } finally {
+                if (dispatcher != null) {
+                    dispatcher.shutdown();
+                }
             }
 
             LOG.info("EventThread shut down for session: 0x{}", Long.toHexString(getSessionId()));
         }
 
+        /**
+         * @return the path the event is ordered by, or null if it is ordered
+         *         with all the other events
+         */
+        private String getPath(Object event) {
+            if (event instanceof WatcherSetEventPair) {
+                return ((WatcherSetEventPair) event).event.getPath();
+            } else if (event instanceof LocalCallback) {
+                return ((LocalCallback) event).path;
+            } else if (event instanceof Packet) {
+                return ((Packet) event).clientPath;
+            }
+            return null;
+        }
+
+        /**
+         * @return the number of events queued and not processed yet
+         */
+        int getQueuedEventCount() {
+            return waitingEvents.size() + (dispatcher == null ? 0 : dispatcher.getPendingCount());
+        }
+
+        Map<String, Object> getMetrics() {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("event_queue_size", getQueuedEventCount());
+            if (dispatcher != null) {
+                metrics.putAll(dispatcher.getDispatchLatency().values());
+            }
+            return metrics;
+        }
+
         private void processEvent(Object event) {
             try {
                 if (event instanceof WatcherSetEventPair) {
@@ -711,6 +805,13 @@ private void processEvent(Object event) {
 
     // @VisibleForTesting
     protected void finishPacket(Packet p) {
+        if (p.outstanding) {
+            p.outstanding = false;
+            outstandingCount.decrementAndGet();
+        }
+        if (writeBatcher != null && writeBatcher.complete(p)) {
+            return;
+        }
         int err = p.replyHeader.getErr();
         if (p.watchRegistration != null) {
             p.watchRegistration.register(err);
@@ -790,6 +891,13 @@ public long getLastZxid() {
         return lastZxid;
     }
 
+    /**
+     * @return whether some requests queued by the client are not finished yet
+     */
+    boolean hasOutstandingRequests() {
+        return outstandingCount.get() > 0;
+    }
+
     static class EndOfStreamException extends IOException {
 
         private static final long serialVersionUID = -5438877188796231422L;
@@ -898,12 +1006,9 @@ void readResponse(ByteBuffer incomingBuffer) throws IOException {
                 return;
             }
 
-            Packet packet;
-            synchronized (pendingQueue) {
-                if (pendingQueue.size() == 0) {
-                    throw new IOException("Nothing in the queue, but got " + replyHdr.getXid());
-                }
-                packet = pendingQueue.remove();
+            Packet packet = pendingQueue.poll();
+            if (packet == null) {
+                throw new IOException("Nothing in the queue, but got " + replyHdr.getXid());
             }
             /*
              * Since requests are processed in order, we better get a response
@@ -980,12 +1085,17 @@ void primeConnection() throws IOException {
             ConnectRequest conReq = new ConnectRequest(0, lastZxid, sessionTimeout, sessId, sessionPasswd, readOnly);
             // We add backwards since we are pushing into the front
             // Only send if there's a pending watch
-            if (!clientConfig.getBoolean(ZKClientConfig.DISABLE_AUTO_WATCH_RESET)) {
-                List<String> dataWatches = watchManager.getDataWatchList();
-                List<String> existWatches = watchManager.getExistWatchList();
-                List<String> childWatches = watchManager.getChildWatchList();
-                List<String> persistentWatches = watchManager.getPersistentWatchList();
-                List<String> persistentRecursiveWatches = watchManager.getPersistentRecursiveWatchList();
+            boolean resetWatches = !clientConfig.getBoolean(ZKClientConfig.DISABLE_AUTO_WATCH_RESET);
+            if (resetWatches && clientConfig.getBoolean(ZKClientConfig.ZOOKEEPER_COMPACT_SET_WATCHES)) {
+                queueCompactSetWatches();
+            } else if (resetWatches) {
+                // iterate over the watched paths in place rather than copying
+                // them, the maps are concurrent
+                Collection<String> dataWatches = watchManager.getDataWatches().keySet();
+                Collection<String> existWatches = watchManager.getExistWatches().keySet();
+                Collection<String> childWatches = watchManager.getChildWatches().keySet();
+                Collection<String> persistentWatches = watchManager.getPersistentWatches().keySet();
+                Collection<String> persistentRecursiveWatches = watchManager.getPersistentRecursiveWatches().keySet();
                 if (!dataWatches.isEmpty() || !existWatches.isEmpty() || !childWatches.isEmpty()
                         || !persistentWatches.isEmpty() || !persistentRecursiveWatches.isEmpty()) {
                     Iterator<String> dataWatchesIter = dataWatches.iterator();
@@ -1062,6 +1172,64 @@ void primeConnection() throws IOException {
             LOG.debug("Session establishment request sent on {}", clientCnxnSocket.getRemoteSocketAddress());
         }
 
+        /**
+         * Queue the watches to set again in SetWatches3 packets, in which the
+         * sorted paths are prefix compressed. The packets are filled up to
+         * SET_WATCHES_MAX_LENGTH bytes of encoded paths, and a few times that
+         * once decoded, as the server bounds the decoded size too.
+         */
+        private void queueCompactSetWatches() {
+            List<List<String>> watches = new ArrayList<>(5);
+            watches.add(sorted(watchManager.getDataWatches().keySet()));
+            watches.add(sorted(watchManager.getExistWatches().keySet()));
+            watches.add(sorted(watchManager.getChildWatches().keySet()));
+            watches.add(sorted(watchManager.getPersistentWatches().keySet()));
+            watches.add(sorted(watchManager.getPersistentRecursiveWatches().keySet()));
+            int type = 0;
+            Iterator<String> iter = watches.get(type).iterator();
+            while (type < watches.size()) {
+                CompactPathList.Encoder[] encoders = new CompactPathList.Encoder[watches.size()];
+                int batchLength = 0;
+                long decodedLength = 0;
+                int count = 0;
+                while (batchLength < SET_WATCHES_MAX_LENGTH && decodedLength < SET_WATCHES_MAX_DECODED_LENGTH
+                       && type < watches.size()) {
+                    if (!iter.hasNext()) {
+                        if (++type < watches.size()) {
+                            iter = watches.get(type).iterator();
+                        }
+                        continue;
+                    }
+                    if (encoders[type] == null) {
+                        encoders[type] = new CompactPathList.Encoder();
+                    }
+                    int size = encoders[type].size();
+                    long decodedSize = encoders[type].decodedSize();
+                    encoders[type].add(iter.next());
+                    batchLength += encoders[type].size() - size;
+                    decodedLength += encoders[type].decodedSize() - decodedSize;
+                    count++;
+                }
+                if (count == 0) {
+                    break;
+                }
+                SetWatches3 record = new SetWatches3(lastZxid, toByteArray(encoders[0]), toByteArray(encoders[1]),
+                    toByteArray(encoders[2]), toByteArray(encoders[3]), toByteArray(encoders[4]));
+                RequestHeader header = new RequestHeader(ClientCnxn.SET_WATCHES_XID, OpCode.setWatches3);
+                outgoingQueue.addFirst(new Packet(header, new ReplyHeader(), record, null, null));
+            }
+        }
+
+        private List<String> sorted(Collection<String> paths) {
+            List<String> list = new ArrayList<>(paths);
+            Collections.sort(list);
+            return list;
+        }
+
+        private byte[] toByteArray(CompactPathList.Encoder encoder) {
+            return encoder == null ? null : encoder.toByteArray();
+        }
+
         private void sendPing() {
             lastPingSentNs = System.nanoTime();
             RequestHeader h = new RequestHeader(ClientCnxn.PING_XID, OpCode.ping);
@@ -1263,11 +1431,11 @@ public void run() {
                 }
             }
 
-            synchronized (outgoingQueue) {
-                // When it comes to this point, it guarantees that later queued
-                // packet to outgoingQueue will be notified of death.
-                cleanup();
-            }
+            // Once sealed, the packets queued later are refused and notified
+            // of death by queuePacket(), and the ones queued before are
+            // notified by cleanup().
+            outgoingQueue.seal();
+            cleanup();
             clientCnxnSocket.close();
             if (state.isAlive()) {
                 eventThread.queueEvent(new WatchedEvent(Event.EventType.None, Event.KeeperState.Disconnected, null));
@@ -1323,20 +1491,14 @@ private void pingRwServer() throws RWServerFoundException {
 
         private void cleanup() {
             clientCnxnSocket.cleanup();
-            synchronized (pendingQueue) {
-                for (Packet p : pendingQueue) {
-                    conLossPacket(p);
-                }
-                pendingQueue.clear();
-            }
-            // We can't call outgoingQueue.clear() here because
-            // between iterating and clear up there might be new
-            // packets added in queuePacket().
-            Iterator<Packet> iter = outgoingQueue.iterator();
-            while (iter.hasNext()) {
-                Packet p = iter.next();
+            Packet p;
+            while ((p = pendingQueue.poll()) != null) {
                 conLossPacket(p);
-                iter.remove();
+            }
+            // The packets added meanwhile by queuePacket() are left for the
+            // next connection, or for the final cleanup.
+            for (Packet packet : outgoingQueue.drain()) {
+                conLossPacket(packet);
             }
         }
 
@@ -1609,24 +1771,44 @@ public Packet queuePacket(
         packet.clientPath = clientPath;
         packet.serverPath = serverPath;
         packet.watchDeregistration = watchDeregistration;
-        // The synchronized block here is for two purpose:
-        // 1. synchronize with the final cleanup() in SendThread.run() to avoid race
-        // 2. synchronized against each packet. So if a closeSession packet is added,
-        // later packet will be notified.
-        synchronized (outgoingQueue) {
-            if (!state.isAlive() || closing) {
-                conLossPacket(packet);
-            } else {
-                // If the client is asking to close the session then
-                // mark as closing
-                if (h.getType() == OpCode.closeSession) {
-                    closing = true;
-                }
-                outgoingQueue.add(packet);
+        if (r != null) {
+            // the packets without a reply header are never finished
+            packet.outstanding = true;
+            outstandingCount.incrementAndGet();
+        }
+        if (writeBatcher != null && h.getType() != OpCode.ping) {
+            writeBatcher.submit(packet);
+        } else {
+            enqueue(packet);
+        }
+        return packet;
+    }
+
+    /**
+     * Add the packet to the outgoing queue, or finish it with a connection
+     * loss if the connection is closed.
+     */
+    void enqueue(Packet packet) {
+        // The outgoing queue is sealed for two purpose:
+        // 1. by the final cleanup() in SendThread.run(), so that no packet is
+        // left in the queue
+        // 2. by a closeSession packet, so that the later packets are notified.
+        boolean queued;
+        if (!state.isAlive() || closing) {
+            queued = false;
+        } else if (packet.requestHeader.getType() == OpCode.closeSession) {
+            queued = outgoingQueue.offerLast(packet);
+            if (queued) {
+                // the client is asking to close the session
+                closing = true;
             }
+        } else {
+            queued = outgoingQueue.offer(packet);
+        }
+        if (!queued) {
+            conLossPacket(packet);
         }
         sendThread.getClientCnxnSocket().packetAdded();
-        return packet;
     }
 
     public void addAuthInfo(String scheme, byte[] auth) {
@@ -1685,6 +1867,35 @@ private void initRequestTimeout() {
         }
     }
 
+    /**
+     * @return the size of the queue of the events and callbacks not
+     *         processed yet, and the latency of their dispatch when they are
+     *         run in parallel
+     */
+    Map<String, Object> getEventMetrics() {
+        return eventThread.getMetrics();
+    }
+
+    private WriteBatcher initWriteBatcher() {
+        int batchSize = clientConfig.getInt(
+            ZKClientConfig.ZOOKEEPER_WRITE_BATCH_SIZE,
+            ZKClientConfig.ZOOKEEPER_WRITE_BATCH_SIZE_DEFAULT);
+        LOG.info(
+            "{} value is {}. feature enabled={}",
+            ZKClientConfig.ZOOKEEPER_WRITE_BATCH_SIZE,
+            batchSize,
+            batchSize > 1);
+        if (batchSize <= 1) {
+            return null;
+        }
+        // leave room for the headers, the requests may be as large as the
+        // limit of the server when sent one by one
+        int maxBytes = clientConfig.getInt(
+            ZKConfig.JUTE_MAXBUFFER,
+            ZKClientConfig.CLIENT_MAX_PACKET_LENGTH_DEFAULT) / 2;
+        return new WriteBatcher(this, batchSize, maxBytes);
+    }
+
     public ZooKeeperSaslClient getZooKeeperSaslClient() {
         return sendThread.getZooKeeperSaslClient();
     }
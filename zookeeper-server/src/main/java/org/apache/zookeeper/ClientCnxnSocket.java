@@ -24,7 +24,6 @@
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.jute.BinaryInputArchive;
 import org.apache.zookeeper.ClientCnxn.Packet;
@@ -71,7 +70,7 @@ abstract class ClientCnxnSocket {
     protected long lastSend;
     protected long now;
     protected ClientCnxn.SendThread sendThread;
-    protected LinkedBlockingDeque<Packet> outgoingQueue;
+    protected OutgoingPacketQueue outgoingQueue;
     protected ZKClientConfig clientConfig;
     private int packetLen = ZKClientConfig.CLIENT_MAX_PACKET_LENGTH_DEFAULT;
 
@@ -81,7 +80,7 @@ abstract class ClientCnxnSocket {
      */
     protected long sessionId;
 
-    void introduce(ClientCnxn.SendThread sendThread, long sessionId, LinkedBlockingDeque<Packet> outgoingQueue) {
+    void introduce(ClientCnxn.SendThread sendThread, long sessionId, OutgoingPacketQueue outgoingQueue) {
         this.sendThread = sendThread;
         this.sessionId = sessionId;
         this.outgoingQueue = outgoingQueue;
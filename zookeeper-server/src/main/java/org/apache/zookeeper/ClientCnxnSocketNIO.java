@@ -28,10 +28,8 @@
 import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
 import java.nio.channels.UnsupportedAddressTypeException;
-import java.util.Iterator;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
 import org.apache.zookeeper.ClientCnxn.EndOfStreamException;
 import org.apache.zookeeper.ClientCnxn.Packet;
 import org.apache.zookeeper.ZooDefs.OpCode;
@@ -119,13 +117,11 @@ void doIO(Queue<Packet> pendingQueue, ClientCnxn cnxn) throws InterruptedExcepti
                 sock.write(p.bb);
                 if (!p.bb.hasRemaining()) {
                     sentCount.getAndIncrement();
-                    outgoingQueue.removeFirstOccurrence(p);
+                    outgoingQueue.remove(p);
                     if (p.requestHeader != null
                         && p.requestHeader.getType() != OpCode.ping
                         && p.requestHeader.getType() != OpCode.auth) {
-                        synchronized (pendingQueue) {
-                            pendingQueue.add(p);
-                        }
+                        pendingQueue.add(p);
                     }
                 }
             }
@@ -154,34 +150,30 @@ void doIO(Queue<Packet> pendingQueue, ClientCnxn cnxn) throws InterruptedExcepti
         }
     }
 
-    private Packet findSendablePacket(LinkedBlockingDeque<Packet> outgoingQueue, boolean tunneledAuthInProgress) {
-        if (outgoingQueue.isEmpty()) {
+    private Packet findSendablePacket(OutgoingPacketQueue outgoingQueue, boolean tunneledAuthInProgress) {
+        Packet first = outgoingQueue.peek();
+        if (first == null) {
             return null;
         }
         // If we've already starting sending the first packet, we better finish
-        if (outgoingQueue.getFirst().bb != null || !tunneledAuthInProgress) {
-            return outgoingQueue.getFirst();
+        if (first.bb != null || !tunneledAuthInProgress) {
+            return first;
         }
         // Since client's authentication with server is in progress,
         // send only the null-header packet queued by primeConnection().
         // This packet must be sent so that the SASL authentication process
         // can proceed, but all other packets should wait until
         // SASL authentication completes.
-        Iterator<Packet> iter = outgoingQueue.iterator();
-        while (iter.hasNext()) {
-            Packet p = iter.next();
+        // We move the priming-packet to the beginning of the queue.
+        return outgoingQueue.moveToFront(p -> {
             if (p.requestHeader == null) {
-                // We've found the priming-packet. Move it to the beginning of the queue.
-                iter.remove();
-                outgoingQueue.addFirst(p);
-                return p;
-            } else {
-                // Non-priming packet: defer it until later, leaving it in the queue
-                // until authentication completes.
-                LOG.debug("Deferring non-priming packet {} until SASL authentication completes.", p);
+                return true;
             }
-        }
-        return null;
+            // Non-priming packet: defer it until later, leaving it in the queue
+            // until authentication completes.
+            LOG.debug("Deferring non-priming packet {} until SASL authentication completes.", p);
+            return false;
+        });
     }
 
     @Override
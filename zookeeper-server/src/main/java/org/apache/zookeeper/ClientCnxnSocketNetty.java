@@ -38,7 +38,6 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
@@ -209,13 +208,6 @@ void cleanup() {
         } finally {
             connectLock.unlock();
         }
-        Iterator<Packet> iter = outgoingQueue.iterator();
-        while (iter.hasNext()) {
-            Packet p = iter.next();
-            if (p == WakeupPacket.getInstance()) {
-                iter.remove();
-            }
-        }
     }
 
     @Override
@@ -236,8 +228,7 @@ void connectionPrimed() {
     @Override
     void packetAdded() {
         // NO-OP. Adding a packet will already wake up a netty connection
-        // so we don't need to add a dummy packet to the queue to trigger
-        // a wake-up.
+        // so we don't need to wake it up explicitly.
     }
 
     @Override
@@ -254,7 +245,7 @@ private void wakeupCnxn() {
             waitSasl.release();
         }
         if (outgoingQueue != null) {
-          outgoingQueue.add(WakeupPacket.getInstance());
+          outgoingQueue.wakeup();
         }
     }
 
@@ -295,7 +286,7 @@ void doTransport(
     }
 
     private void addBack(Packet head) {
-        if (head != null && head != WakeupPacket.getInstance()) {
+        if (head != null) {
             outgoingQueue.addFirst(head);
         }
     }
@@ -352,23 +343,16 @@ private void sendPrimePacket() throws IOException {
     private void doWrite(Queue<Packet> pendingQueue, Packet p, ClientCnxn cnxn) throws IOException {
         updateNow();
         boolean anyPacketsSent = false;
-        while (true) {
-            if (p != WakeupPacket.getInstance()) {
-                if ((p.requestHeader != null)
-                    && (p.requestHeader.getType() != ZooDefs.OpCode.ping)
-                    && (p.requestHeader.getType() != ZooDefs.OpCode.auth)) {
-                    p.requestHeader.setXid(cnxn.getXid());
-                    synchronized (pendingQueue) {
-                        pendingQueue.add(p);
-                    }
-                }
-                sendPktOnly(p);
-                anyPacketsSent = true;
+        while (p != null) {
+            if ((p.requestHeader != null)
+                && (p.requestHeader.getType() != ZooDefs.OpCode.ping)
+                && (p.requestHeader.getType() != ZooDefs.OpCode.auth)) {
+                p.requestHeader.setXid(cnxn.getXid());
+                pendingQueue.add(p);
             }
-            if (outgoingQueue.isEmpty()) {
-                break;
-            }
-            p = outgoingQueue.remove();
+            sendPktOnly(p);
+            anyPacketsSent = true;
+            p = outgoingQueue.poll();
         }
         // TODO: maybe we should flush in the loop above every N packets/bytes?
         // But, how do we determine the right value for N ...
@@ -403,20 +387,6 @@ void testableCloseSocket() throws IOException {
     }
 
     // *************** <END> ClientCnxnSocketNetty </END> ******************
-    private static class WakeupPacket {
-
-        private static final Packet instance = new Packet(null, null, null, null, null);
-
-        protected WakeupPacket() {
-            // Exists only to defeat instantiation.
-        }
-
-        public static Packet getInstance() {
-            return instance;
-        }
-
-    }
-
     /**
      * ZKClientPipelineFactory is the netty pipeline factory for this netty
      * connection implementation.
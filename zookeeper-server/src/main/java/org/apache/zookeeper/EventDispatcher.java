@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.zookeeper.server.ZooKeeperThread;
+import org.apache.zookeeper.server.metric.AvgMinMaxCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the watch events and the async callbacks of a {@link ClientCnxn} on
+ * a pool of threads, instead of the EventThread alone.
+ *
+ * The events are spread by path over lanes, and the events of a lane are
+ * run one at a time in the order they were dispatched, so the events of a
+ * path are still delivered in order. A lane is not bound to a thread: a slow
+ * watcher only delays the events of its lane, the other lanes are run by the
+ * other threads. The events without a path, like the session state changes
+ * and the multi callbacks, are barriers: they are run by the dispatching
+ * thread once all the events dispatched before them have been run.
+ */
+class EventDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventDispatcher.class);
+
+    // the number of events a lane runs before yielding its thread
+    private static final int LANE_BATCH = 64;
+
+    private final Consumer<Object> processor;
+    private final ExecutorService executor;
+    private final Lane[] lanes;
+
+    // the events dispatched to a lane and not run yet
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AvgMinMaxCounter dispatchLatency = new AvgMinMaxCounter("event_dispatch_latency_ms");
+
+    /**
+     * @param threads the number of threads running the events
+     * @param virtual whether to run each lane on a virtual thread, when the
+     *                JDK supports them
+     * @param threadName the prefix of the names of the threads
+     * @param processor runs an event
+     */
+    EventDispatcher(int threads, boolean virtual, String threadName, Consumer<Object> processor) {
+        this.processor = processor;
+        ExecutorService virtualExecutor = virtual ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new ZooKeeperThread(r, threadName + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        // more lanes than threads, so that a lane blocked by a slow watcher
+        // doesn't delay the paths hashed to the same thread
+        this.lanes = new Lane[threads * 4];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Virtual threads are not supported by this JDK, using platform threads to run the events");
+            return null;
+        }
+    }
+
+    /**
+     * Run the event after the ones dispatched before it for the same path,
+     * or after all of them if the path is null.
+     */
+    void dispatch(Object event, String path) throws InterruptedException {
+        if (path == null) {
+            awaitIdle();
+            processor.accept(event);
+            return;
+        }
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        pending.incrementAndGet();
+        lanes[(h & 0x7fffffff) % lanes.length].add(event);
+    }
+
+    /**
+     * Wait until all the events dispatched have been run.
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                pending.wait();
+            }
+        }
+    }
+
+    /**
+     * Stop the threads once they have run the events dispatched.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the number of events dispatched and not run yet
+     */
+    int getPendingCount() {
+        return pending.get();
+    }
+
+    AvgMinMaxCounter getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private static class Task {
+
+        final Object event;
+        final long dispatchTime;
+
+        Task(Object event) {
+            this.event = event;
+            this.dispatchTime = System.nanoTime();
+        }
+
+    }
+
+    private class Lane implements Runnable {
+
+        // guarded by this
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+
+        void add(Object event) {
+            synchronized (this) {
+                tasks.addLast(new Task(event));
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the client is closed, run the events left on this thread
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                Task task;
+                synchronized (this) {
+                    task = tasks.pollFirst();
+                    if (task == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                dispatchLatency.add((System.nanoTime() - task.dispatchTime) / 1000000);
+                try {
+                    processor.accept(task.event);
+                } finally {
+                    done();
+                }
+            }
+            // let the other lanes run
+            schedule();
+        }
+
+    }
+
+}
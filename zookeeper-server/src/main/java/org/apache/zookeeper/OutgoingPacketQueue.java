@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import org.apache.zookeeper.ClientCnxn.Packet;
+
+/**
+ * The packets waiting to be sent by a {@link ClientCnxn}.
+ *
+ * The application threads add packets without taking any lock: each packet
+ * is linked after the tail of the queue, which is swapped by a CAS, like in
+ * a multi-producer single-consumer queue. All the other operations are done
+ * by the consumer, which is the SendThread, or the Netty event loop while
+ * the SendThread waits for the connection to be established. They are
+ * serialized by the monitor of the queue, which the producers never take.
+ * The packets the consumer puts back at the head of the queue, like the
+ * connect request, are kept in a deque only used by the consumer.
+ *
+ * Once the queue is sealed, either by the closeSession packet or when the
+ * SendThread exits, no packet can be added to it anymore. So every packet
+ * is either refused, or sent or cleaned up by the SendThread.
+ */
+final class OutgoingPacketQueue {
+
+    private static final class Node {
+
+        // null for the node sealing the queue, and once consumed
+        Packet packet;
+        // no node can be linked after this one
+        final boolean last;
+        // number of nodes linked before this one
+        long seq;
+        volatile Node next;
+
+        Node(Packet packet, boolean last) {
+            this.packet = packet;
+            this.last = last;
+        }
+
+    }
+
+    private final AtomicReference<Node> tail;
+
+    // the last node consumed, guarded by this
+    private Node head;
+
+    // the packets put back at the head of the queue, guarded by this
+    private final ArrayDeque<Packet> front = new ArrayDeque<>();
+
+    private volatile Thread waiter;
+    private volatile boolean wakeup;
+
+    OutgoingPacketQueue() {
+        head = new Node(null, false);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Add the packet at the tail of the queue, unless it is sealed.
+     *
+     * @return false if the queue is sealed
+     */
+    boolean offer(Packet packet) {
+        return append(new Node(packet, false));
+    }
+
+    /**
+     * Add the packet at the tail of the queue and seal it, unless it is
+     * already sealed.
+     *
+     * @return false if the queue was already sealed
+     */
+    boolean offerLast(Packet packet) {
+        return append(new Node(packet, true));
+    }
+
+    /**
+     * Refuse any packet added from now on.
+     */
+    void seal() {
+        append(new Node(null, true));
+    }
+
+    private boolean append(Node node) {
+        while (true) {
+            Node t = tail.get();
+            if (t.last) {
+                return false;
+            }
+            node.seq = t.seq + 1;
+            if (tail.compareAndSet(t, node)) {
+                t.next = node;
+                Thread w = waiter;
+                if (w != null) {
+                    LockSupport.unpark(w);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Wake up the consumer waiting in {@link #poll(long, TimeUnit)}, which
+     * returns null if the queue is empty.
+     */
+    void wakeup() {
+        wakeup = true;
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    synchronized void addFirst(Packet packet) {
+        front.addFirst(packet);
+    }
+
+    synchronized Packet peek() {
+        Packet packet = front.peekFirst();
+        if (packet != null) {
+            return packet;
+        }
+        Node first = firstLinked();
+        return first == null ? null : first.packet;
+    }
+
+    synchronized Packet poll() {
+        Packet packet = front.pollFirst();
+        if (packet != null) {
+            return packet;
+        }
+        Node first = firstLinked();
+        if (first == null) {
+            return null;
+        }
+        head = first;
+        packet = first.packet;
+        first.packet = null;
+        return packet;
+    }
+
+    /**
+     * Wait up to the timeout for a packet, or for {@link #wakeup()}.
+     *
+     * @return the head of the queue, or null if there is none
+     */
+    Packet poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Packet packet = poll();
+            if (packet != null) {
+                return packet;
+            }
+            if (wakeup) {
+                wakeup = false;
+                return null;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            // the producers read the waiter after linking their packet, so
+            // either it is seen below or they unpark this thread
+            waiter = Thread.currentThread();
+            try {
+                if (isEmpty() && !wakeup) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                waiter = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    synchronized Packet remove() {
+        Packet packet = poll();
+        if (packet == null) {
+            throw new NoSuchElementException();
+        }
+        return packet;
+    }
+
+    synchronized boolean remove(Packet packet) {
+        if (peek() == packet) {
+            poll();
+            return true;
+        }
+        drainToFront();
+        return front.removeFirstOccurrence(packet);
+    }
+
+    /**
+     * Move the first packet matching the predicate to the head of the queue.
+     *
+     * @return the packet moved, or null if none matched
+     */
+    synchronized Packet moveToFront(Predicate<Packet> predicate) {
+        drainToFront();
+        Iterator<Packet> iter = front.iterator();
+        while (iter.hasNext()) {
+            Packet packet = iter.next();
+            if (predicate.test(packet)) {
+                iter.remove();
+                front.addFirst(packet);
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the packets of the queue. The packets added meanwhile are left
+     * in the queue, so that it doesn't spin as long as producers keep adding.
+     *
+     * @return the packets removed, in order
+     */
+    synchronized List<Packet> drain() {
+        drainToFront();
+        List<Packet> packets = new ArrayList<>(front);
+        front.clear();
+        return packets;
+    }
+
+    synchronized boolean isEmpty() {
+        return front.isEmpty() && firstLinked() == null;
+    }
+
+    /**
+     * @return the number of packets in the queue, which may be off by one
+     *         if the queue was sealed
+     */
+    synchronized int size() {
+        return front.size() + (int) (tail.get().seq - head.seq);
+    }
+
+    /**
+     * @return the first linked node not consumed yet which holds a packet
+     */
+    private Node firstLinked() {
+        while (head != tail.get()) {
+            Node next = head.next;
+            if (next == null) {
+                // a producer swapped the tail but didn't link its node yet
+                Thread.yield();
+                continue;
+            }
+            if (next.packet != null) {
+                return next;
+            }
+            // skip the node sealing the queue
+            head = next;
+        }
+        return null;
+    }
+
+    /**
+     * Move the linked packets to the deque, up to the current tail.
+     */
+    private void drainToFront() {
+        Node t = tail.get();
+        while (head != t) {
+            Node first = firstLinked();
+            if (first == null) {
+                // t was the node sealing the queue
+                break;
+            }
+            head = first;
+            front.addLast(first.packet);
+            first.packet = null;
+        }
+    }
+
+}
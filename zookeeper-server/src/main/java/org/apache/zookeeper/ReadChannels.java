@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.zookeeper.client.ZKClientConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Secondary connections of a {@link ZooKeeper} client, which serve its reads
+ * without a watch, so that the reads of a client are spread over several
+ * servers and connections rather than one.
+ *
+ * Each channel is a separate session, which may be connected to any server,
+ * including a read-only one. The writes, the watches and the reads with a
+ * watch stay on the session of the client. The channels keep a high-water
+ * mark, the highest zxid seen by the client or by a channel after a read it
+ * served. A read is only sent to a channel if the client has no request in
+ * progress, so that it is not reordered before an earlier request, and if
+ * the last zxid the channel has seen is at least the high-water mark: its
+ * server has then applied all the changes the client and the previous reads
+ * have seen. Otherwise the read is sent by the client itself, after a sync
+ * if the client is behind the high-water mark, and the channel is synced so
+ * that it catches up for the next reads.
+ */
+class ReadChannels {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadChannels.class);
+
+    private final ZooKeeper primary;
+    private final String connectString;
+    private final int sessionTimeout;
+    private final ZKClientConfig clientConfig;
+
+    // guarded by this
+    private final ZooKeeper[] channels;
+    private final List<AuthInfo> authInfo = new ArrayList<>();
+    private boolean closed;
+
+    private final AtomicBoolean[] syncing;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private final AtomicLong servedCount = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /**
+     * A read without a watch.
+     */
+    interface Read<T> {
+
+        T apply(ZooKeeper zk) throws KeeperException, InterruptedException;
+
+    }
+
+    /**
+     * The result of a read served by a channel.
+     */
+    static final class Served<T> {
+
+        final T result;
+
+        Served(T result) {
+            this.result = result;
+        }
+
+    }
+
+    private static class AuthInfo {
+
+        final String scheme;
+        final byte[] auth;
+
+        AuthInfo(String scheme, byte[] auth) {
+            this.scheme = scheme;
+            this.auth = auth;
+        }
+
+    }
+
+    ReadChannels(ZooKeeper primary, String connectString, int sessionTimeout, ZKClientConfig clientConfig, int count) {
+        this.primary = primary;
+        this.connectString = connectString;
+        this.sessionTimeout = sessionTimeout;
+        this.clientConfig = clientConfig;
+        this.channels = new ZooKeeper[count];
+        this.syncing = new AtomicBoolean[count];
+        for (int i = 0; i < count; i++) {
+            syncing[i] = new AtomicBoolean();
+        }
+    }
+
+    /**
+     * Send the read to a channel if one can serve it.
+     *
+     * @return the result of the read, or null if the read should be sent by
+     * the client, whose connection is then synced first if it is behind the
+     * reads served by the channels
+     */
+    <T> Served<T> read(Read<T> read) throws KeeperException, InterruptedException {
+        ZooKeeper channel = select();
+        if (channel != null) {
+            try {
+                return new Served<>(read.apply(channel));
+            } catch (KeeperException e) {
+                if (!isChannelFailure(e)) {
+                    throw e;
+                }
+            } finally {
+                readServed(channel);
+            }
+        }
+        if (primary.cnxn.getLastZxid() < highWaterMark.get()) {
+            // the requests of the client are ordered, so the read follows the sync
+            primary.sync("/", (rc, path, ctx) -> { }, null);
+        }
+        return null;
+    }
+
+    /**
+     * @return a channel which can serve a read of the client, or null if the
+     * read should be sent by the client
+     */
+    ZooKeeper select() {
+        if (primary.cnxn.hasOutstandingRequests()) {
+            return null;
+        }
+        long lastZxid = highWaterMark.accumulateAndGet(primary.cnxn.getLastZxid(), Math::max);
+        for (int i = 0; i < channels.length; i++) {
+            int index = (nextChannel.getAndIncrement() & Integer.MAX_VALUE) % channels.length;
+            ZooKeeper channel = getChannel(index);
+            if (channel == null || !channel.getState().isConnected()) {
+                continue;
+            }
+            if (channel.cnxn.getLastZxid() >= lastZxid) {
+                servedCount.incrementAndGet();
+                return channel;
+            }
+            catchUp(index, channel);
+        }
+        return null;
+    }
+
+    /**
+     * Raise the high-water mark to the last zxid seen by a channel returned by
+     * {@link #select()}, once the read sent to it completed.
+     */
+    void readServed(ZooKeeper channel) {
+        highWaterMark.accumulateAndGet(channel.cnxn.getLastZxid(), Math::max);
+    }
+
+    /**
+     * @return whether the read failed because of the channel rather than the
+     * request, so that it should be sent by the client instead
+     */
+    private static boolean isChannelFailure(KeeperException e) {
+        switch (e.code()) {
+        case CONNECTIONLOSS:
+        case SESSIONEXPIRED:
+        case SESSIONMOVED:
+        case OPERATIONTIMEOUT:
+        case REQUESTTIMEOUT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    synchronized void addAuthInfo(String scheme, byte[] auth) {
+        authInfo.add(new AuthInfo(scheme, auth));
+        for (ZooKeeper channel : channels) {
+            if (channel != null) {
+                channel.addAuthInfo(scheme, auth);
+            }
+        }
+    }
+
+    synchronized void close() throws InterruptedException {
+        closed = true;
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != null) {
+                channels[i].close();
+                channels[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of reads served by the channels
+     */
+    long getServedCount() {
+        return servedCount.get();
+    }
+
+    /**
+     * Return the channel, opening it first if it is not open yet or its
+     * session is closed.
+     */
+    private synchronized ZooKeeper getChannel(int index) {
+        if (closed) {
+            return null;
+        }
+        ZooKeeper channel = channels[index];
+        if (channel != null && channel.getState().isAlive()) {
+            return channel;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            channel = new ZooKeeper(ZooKeeper.builder(connectString, Duration.ofMillis(sessionTimeout))
+                .withCanBeReadOnly(true)
+                .withClientConfig(clientConfig)
+                .toOptions(), false);
+        } catch (IOException e) {
+            LOG.warn("Failed to open read channel {} of session 0x{}", index, Long.toHexString(primary.getSessionId()), e);
+            channels[index] = null;
+            return null;
+        }
+        for (AuthInfo auth : authInfo) {
+            channel.addAuthInfo(auth.scheme, auth.auth);
+        }
+        channels[index] = channel;
+        syncing[index].set(false);
+        return channel;
+    }
+
+    private void catchUp(int index, ZooKeeper channel) {
+        if (syncing[index].compareAndSet(false, true)) {
+            channel.sync("/", (rc, path, ctx) -> syncing[index].set(false), null);
+        }
+    }
+
+}
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the events of a persistent watch to subscribers which ask for
+ * them as they can process them, obtained from
+ * {@link ZooKeeper#watchPublisher(String, AddWatchMode)}.
+ *
+ * <p>Each subscription adds its own persistent watch, which is removed when it
+ * is cancelled. The events are buffered per subscription until the
+ * subscriber requests them, up to the buffer size, and the events which do
+ * not fit are handled as the {@link Overflow} policy says, so that a slow
+ * subscriber uses a bounded amount of memory however many nodes change under
+ * the watch. The state events of the connection are published as well, and
+ * the subscription completes once the session expires or the client is
+ * closed.
+ *
+ * <p>The {@link Subscriber} and {@link Subscription} interfaces follow
+ * {@code java.util.concurrent.Flow}, which is not available on every Java
+ * version the client runs on, so that they can be adapted to it and to other
+ * reactive streams libraries with a few lines.
+ *
+ * @since 3.10.0
+ */
+@InterfaceAudience.Public
+public class WatchPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WatchPublisher.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * What to do with an event when the buffer of a subscription is full.
+     */
+    public enum Overflow {
+        /**
+         * Drop the event. An event of the same type for the same path as an
+         * event in the buffer is dropped even when the buffer is not full, as
+         * the subscriber is notified of the change already. The other events
+         * dropped are replaced with one {@link EventsLost} event after the
+         * buffered ones, so that the subscriber knows to read the nodes again.
+         */
+        COALESCE,
+        /**
+         * Drop the event.
+         */
+        DROP,
+        /**
+         * Drop all the events and fail the subscription with an
+         * {@link OverflowException}, removing its watch.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Receives the events of a subscription, as
+     * {@code java.util.concurrent.Flow.Subscriber} does. The methods are
+     * called one at a time.
+     */
+    public interface Subscriber {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(WatchedEvent event);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+
+    }
+
+    /**
+     * Controls a subscription, as {@code java.util.concurrent.Flow.Subscription}
+     * does.
+     */
+    public interface Subscription {
+
+        /**
+         * Ask for up to n more events.
+         */
+        void request(long n);
+
+        /**
+         * Stop the events and remove the watch.
+         */
+        void cancel();
+
+    }
+
+    /**
+     * The error of a subscription whose buffer overflowed with the
+     * {@link Overflow#DISCONNECT} policy.
+     */
+    public static class OverflowException extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        public OverflowException(String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Published in place of the events dropped for a full buffer with the
+     * {@link Overflow#COALESCE} policy. Its type is {@link EventType#None}
+     * and its path is the path of the watch: the subscriber should read the
+     * nodes under the watch again, as some of them changed unnoticed.
+     */
+    public static class EventsLost extends WatchedEvent {
+
+        private long lostCount;
+
+        EventsLost(String path) {
+            super(EventType.None, KeeperState.SyncConnected, path);
+        }
+
+        /**
+         * @return the number of events replaced by this one
+         */
+        public synchronized long getLostCount() {
+            return lostCount;
+        }
+
+        synchronized void lost() {
+            lostCount++;
+        }
+
+    }
+
+    private final ZooKeeper zk;
+    private final String basePath;
+    private final AddWatchMode mode;
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private volatile Overflow overflow = Overflow.COALESCE;
+    private volatile Executor executor;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    WatchPublisher(ZooKeeper zk, String basePath, AddWatchMode mode) {
+        this.zk = zk;
+        this.basePath = basePath;
+        this.mode = mode;
+    }
+
+    /**
+     * Set the number of events buffered per subscription, for the
+     * subscriptions made after. {@link #DEFAULT_BUFFER_SIZE} by default.
+     *
+     * @return this publisher
+     */
+    public WatchPublisher withBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Set what to do with the events which do not fit in the buffer, for the
+     * subscriptions made after. {@link Overflow#COALESCE} by default.
+     *
+     * @return this publisher
+     */
+    public WatchPublisher withOverflow(Overflow overflow) {
+        this.overflow = Objects.requireNonNull(overflow, "overflow");
+        return this;
+    }
+
+    /**
+     * Set the executor to signal the subscribers on, for the subscriptions
+     * made after. By default they are signalled on the event thread of the
+     * client or on the thread which requests the events, so they should not
+     * block.
+     *
+     * @return this publisher
+     */
+    public WatchPublisher withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Subscribe to the events of a new persistent watch. The subscription
+     * fails if the watch cannot be added.
+     */
+    public void subscribe(Subscriber subscriber) {
+        WatchSubscription subscription = new WatchSubscription(Objects.requireNonNull(subscriber, "subscriber"));
+        subscriber.onSubscribe(subscription);
+        if (subscription.cancelled) {
+            return;
+        }
+        zk.addWatch(basePath, subscription, mode, (rc, path, ctx) -> {
+            if (rc != KeeperException.Code.OK.intValue()) {
+                subscription.fail(KeeperException.create(KeeperException.Code.get(rc), path), false);
+            } else if (subscription.cancelled) {
+                // cancelled before the watch was added
+                subscription.removeWatch();
+            }
+        }, null);
+    }
+
+    /**
+     * @return the number of events dropped by the subscriptions because their
+     * buffer was full or held the same event
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private class WatchSubscription implements Subscription, Watcher {
+
+        private final Subscriber subscriber;
+        private final int bufferSize = WatchPublisher.this.bufferSize;
+        private final Overflow overflow = WatchPublisher.this.overflow;
+        private final Executor executor = WatchPublisher.this.executor;
+
+        // guarded by this
+        private final Queue<WatchedEvent> buffer = new ArrayDeque<>();
+        private final Set<String> buffered = new HashSet<>();
+        private EventsLost lost;
+        private boolean done;
+        private Throwable error;
+
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        WatchSubscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (cancelled) {
+                return;
+            }
+            boolean overflowed = false;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (event.getType() == EventType.None
+                    && (event.getState() == KeeperState.Expired || event.getState() == KeeperState.Closed)) {
+                    buffer.add(event);
+                    done = true;
+                } else if (overflow == Overflow.COALESCE && buffered.contains(key(event))) {
+                    droppedCount.incrementAndGet();
+                } else if (buffer.size() >= bufferSize) {
+                    if (overflow == Overflow.DISCONNECT) {
+                        overflowed = true;
+                    } else {
+                        if (overflow == Overflow.COALESCE) {
+                            if (lost == null) {
+                                // may exceed the buffer size by one
+                                lost = new EventsLost(basePath);
+                                buffer.add(lost);
+                            }
+                            lost.lost();
+                        }
+                        droppedCount.incrementAndGet();
+                    }
+                } else {
+                    buffer.add(event);
+                    if (overflow == Overflow.COALESCE) {
+                        buffered.add(key(event));
+                    }
+                }
+            }
+            if (overflowed) {
+                fail(new OverflowException("More than " + bufferSize + " events of the watch on " + basePath
+                    + " were not requested"), true);
+            } else {
+                drain();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("The number of requested events must be positive: " + n), true);
+                return;
+            }
+            requested.accumulateAndGet(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                removeWatch();
+                synchronized (this) {
+                    buffer.clear();
+                    buffered.clear();
+                    lost = null;
+                }
+            }
+        }
+
+        void fail(Throwable throwable, boolean removeWatch) {
+            synchronized (this) {
+                if (done && error != null) {
+                    return;
+                }
+                done = true;
+                error = throwable;
+            }
+            if (removeWatch) {
+                removeWatch();
+            }
+            drain();
+        }
+
+        void removeWatch() {
+            zk.removeWatches(basePath, this, WatcherType.Any, true, (rc, path, ctx) -> {
+                if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NOWATCHER.intValue()) {
+                    LOG.debug("Failed to remove the watch on {}: {}", path, KeeperException.Code.get(rc));
+                }
+            }, null);
+        }
+
+        private String key(WatchedEvent event) {
+            return event.getType() + " " + event.getState() + " " + event.getPath();
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            if (executor == null) {
+                signal();
+                return;
+            }
+            try {
+                executor.execute(this::signal);
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Failed to signal the subscriber of the watch on {}", basePath, e);
+                cancel();
+            }
+        }
+
+        /**
+         * Signal the subscriber until there is nothing more to signal. Only
+         * one thread runs this at a time.
+         */
+        private void signal() {
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    WatchedEvent event = null;
+                    Throwable failure;
+                    boolean completed;
+                    synchronized (this) {
+                        failure = error;
+                        if (failure != null) {
+                            buffer.clear();
+                        } else if (requested.get() > 0) {
+                            event = buffer.poll();
+                            if (event == lost) {
+                                // the events dropped from now on need another one
+                                lost = null;
+                            } else if (event != null && overflow == Overflow.COALESCE) {
+                                buffered.remove(key(event));
+                            }
+                        }
+                        completed = done && buffer.isEmpty();
+                    }
+                    if (failure != null) {
+                        cancelled = true;
+                        subscriber.onError(failure);
+                    } else if (event != null) {
+                        if (requested.get() != Long.MAX_VALUE) {
+                            requested.decrementAndGet();
+                        }
+                        subscriber.onNext(event);
+                    } else if (completed) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    } else {
+                        break;
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+    }
+
+}
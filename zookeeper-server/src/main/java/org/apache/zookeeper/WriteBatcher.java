@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.ClientCnxn.Packet;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.OpResult.CreateResult;
+import org.apache.zookeeper.OpResult.ErrorResult;
+import org.apache.zookeeper.OpResult.SetDataResult;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.proto.Create2Response;
+import org.apache.zookeeper.proto.CreateRequest;
+import org.apache.zookeeper.proto.CreateResponse;
+import org.apache.zookeeper.proto.CreateTTLRequest;
+import org.apache.zookeeper.proto.DeleteRequest;
+import org.apache.zookeeper.proto.ReplyHeader;
+import org.apache.zookeeper.proto.RequestHeader;
+import org.apache.zookeeper.proto.SetDataRequest;
+import org.apache.zookeeper.proto.SetDataResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs the async create, setData and delete requests of a {@link ClientCnxn}
+ * into multi requests.
+ *
+ * While a batchable request is in flight, the requests queued after it are
+ * held, like in a group commit. Once its response is read, the run of
+ * batchable requests at the head of the held ones is sent as a single multi
+ * request, or alone if there is only one, and the requests following it are
+ * sent until the next batchable one, which is held again. So the requests
+ * are still sent in the order they were queued, and a request is delayed by
+ * at most the round trip of the request in flight.
+ *
+ * A multi request is atomic while the requests packed in it are independent:
+ * if any of them fails, none is applied, and they are sent again one by one,
+ * so that each callback gets the result it would have got without batching.
+ * When the connection is lost, they all get the error of the multi request,
+ * and so do the held requests, like the requests in the outgoing queue.
+ */
+class WriteBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBatcher.class);
+
+    private final int maxOps;
+    private final int maxBytes;
+    private final ClientCnxn cnxn;
+
+    // the last batchable request or batch sent, guarded by this
+    private volatile Packet inFlight;
+
+    // the requests queued after inFlight, guarded by this
+    private final ArrayDeque<Packet> held = new ArrayDeque<>();
+
+    // set while sending the held requests, since a request refused by the
+    // outgoing queue completes synchronously, guarded by this
+    private boolean releasing;
+
+    /**
+     * @param maxOps the maximum number of requests packed into a multi
+     * @param maxBytes the maximum serialized size of the requests packed
+     *                 into a multi
+     */
+    WriteBatcher(ClientCnxn cnxn, int maxOps, int maxBytes) {
+        this.cnxn = cnxn;
+        this.maxOps = maxOps;
+        this.maxBytes = maxBytes;
+    }
+
+    static boolean isBatchable(Packet p) {
+        if (p.cb == null || p.watchRegistration != null || p.watchDeregistration != null) {
+            return false;
+        }
+        switch (p.requestHeader.getType()) {
+        case OpCode.create:
+        case OpCode.create2:
+        case OpCode.createContainer:
+        case OpCode.createTTL:
+        case OpCode.setData:
+        case OpCode.delete:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Send the packet, or hold it until the request in flight completes.
+     */
+    synchronized void submit(Packet p) {
+        if (held.isEmpty()) {
+            if (!isBatchable(p)) {
+                cnxn.enqueue(p);
+                return;
+            }
+            if (inFlight == null) {
+                inFlight = p;
+                cnxn.enqueue(p);
+                return;
+            }
+        }
+        held.addLast(p);
+    }
+
+    /**
+     * Called when the packet is finished, before its callback is queued.
+     *
+     * @return true if the packet was a batch, whose requests are finished
+     *         or sent again by this call, or if the packet failed with a
+     *         connection error and was finished by this call
+     */
+    boolean complete(Packet p) {
+        if (p != inFlight) {
+            return false;
+        }
+        synchronized (this) {
+            if (p != inFlight) {
+                return false;
+            }
+            inFlight = null;
+            int err = p.replyHeader.getErr();
+            if (isConnectionError(err)) {
+                // the held requests were queued before the connection was
+                // lost, they must not be sent on the next connection after
+                // an earlier request failed
+                if (p.batch != null) {
+                    completeBatch(p);
+                } else {
+                    cnxn.finishPacket(p);
+                }
+                failHeld(err);
+                return true;
+            }
+            if (p.batch != null) {
+                completeBatch(p);
+            }
+            release();
+        }
+        return p.batch != null;
+    }
+
+    synchronized int getHeldCount() {
+        return held.size();
+    }
+
+    private void completeBatch(Packet batch) {
+        int err = batch.replyHeader.getErr();
+        List<OpResult> results = err == Code.OK.intValue()
+            ? ((MultiResponse) batch.response).getResultList()
+            : null;
+        boolean failed = results == null;
+        if (!failed) {
+            for (OpResult result : results) {
+                if (result instanceof ErrorResult) {
+                    failed = true;
+                    break;
+                }
+            }
+        }
+        if (failed && !isConnectionError(err)) {
+            // nothing was applied, the requests are sent again in order
+            LOG.debug("Batch of {} requests failed with {}, sending them one by one", batch.batch.size(), err);
+            for (Packet p : batch.batch) {
+                cnxn.enqueue(p);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.batch.size(); i++) {
+            Packet p = batch.batch.get(i);
+            p.replyHeader.setErr(err);
+            p.replyHeader.setZxid(batch.replyHeader.getZxid());
+            if (!failed) {
+                setResponse(p, results.get(i));
+            }
+            cnxn.finishPacket(p);
+        }
+    }
+
+    private void failHeld(int err) {
+        Packet p;
+        while ((p = held.pollFirst()) != null) {
+            if (p.replyHeader != null) {
+                p.replyHeader.setErr(err);
+                cnxn.finishPacket(p);
+            }
+        }
+    }
+
+    private static boolean isConnectionError(int err) {
+        return err == Code.CONNECTIONLOSS.intValue()
+            || err == Code.SESSIONEXPIRED.intValue()
+            || err == Code.AUTHFAILED.intValue()
+            || err == Code.REQUESTTIMEOUT.intValue();
+    }
+
+    private static void setResponse(Packet p, OpResult result) {
+        if (p.response instanceof CreateResponse) {
+            ((CreateResponse) p.response).setPath(((CreateResult) result).getPath());
+        } else if (p.response instanceof Create2Response) {
+            Create2Response response = (Create2Response) p.response;
+            response.setPath(((CreateResult) result).getPath());
+            response.setStat(((CreateResult) result).getStat());
+        } else if (p.response instanceof SetDataResponse) {
+            ((SetDataResponse) p.response).setStat(((SetDataResult) result).getStat());
+        }
+    }
+
+    /**
+     * Send the held packets up to the next batchable one, which becomes the
+     * packet in flight.
+     */
+    private void release() {
+        if (releasing) {
+            return;
+        }
+        releasing = true;
+        try {
+            while (inFlight == null && !held.isEmpty()) {
+                Packet first = held.pollFirst();
+                if (!isBatchable(first)) {
+                    cnxn.enqueue(first);
+                    continue;
+                }
+                List<Packet> ops = new ArrayList<>();
+                ops.add(first);
+                int bytes = estimateSize(first);
+                while (ops.size() < maxOps && !held.isEmpty() && isBatchable(held.peekFirst())) {
+                    int size = estimateSize(held.peekFirst());
+                    if (bytes + size > maxBytes) {
+                        break;
+                    }
+                    bytes += size;
+                    ops.add(held.pollFirst());
+                }
+                Packet p = ops.size() == 1 ? first : newBatch(ops);
+                inFlight = p;
+                cnxn.enqueue(p);
+            }
+        } finally {
+            releasing = false;
+        }
+    }
+
+    private static Packet newBatch(List<Packet> ops) {
+        Packet batch = new Packet(
+            new RequestHeader(0, OpCode.multi),
+            new ReplyHeader(),
+            toMultiRecord(ops),
+            new MultiResponse(),
+            null);
+        batch.batch = ops;
+        return batch;
+    }
+
+    private static int estimateSize(Packet p) {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            p.request.serialize(BinaryOutputArchive.getArchive(out), "request");
+        } catch (IOException e) {
+            // not thrown by the counting stream
+            throw new IllegalStateException(e);
+        }
+        return out.count;
+    }
+
+    private static MultiOperationRecord toMultiRecord(List<Packet> ops) {
+        MultiOperationRecord record = new MultiOperationRecord();
+        for (Packet p : ops) {
+            record.add(toOp(p));
+        }
+        return record;
+    }
+
+    /**
+     * @return the op sending the same request as the packet, whose path is
+     *         the server path already
+     */
+    private static Op toOp(Packet p) {
+        int type = p.requestHeader.getType();
+        switch (type) {
+        case OpCode.create:
+        case OpCode.create2:
+        case OpCode.createContainer:
+            CreateRequest create = (CreateRequest) p.request;
+            CreateMode createMode = CreateMode.fromFlag(create.getFlags(), CreateMode.PERSISTENT);
+            CreateOptions options = CreateOptions.newBuilder(create.getAcl(), createMode).build();
+            return Op.create(create.getPath(), create.getData(), options, type);
+        case OpCode.createTTL:
+            CreateTTLRequest createTtl = (CreateTTLRequest) p.request;
+            return Op.create(createTtl.getPath(), createTtl.getData(), createTtl.getAcl(), createTtl.getFlags(),
+                createTtl.getTtl());
+        case OpCode.setData:
+            SetDataRequest setData = (SetDataRequest) p.request;
+            return Op.setData(setData.getPath(), setData.getData(), setData.getVersion());
+        case OpCode.delete:
+            DeleteRequest delete = (DeleteRequest) p.request;
+            return Op.delete(delete.getPath(), delete.getVersion());
+        default:
+            throw new IllegalArgumentException("Not a batchable request: " + type);
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        int count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+}
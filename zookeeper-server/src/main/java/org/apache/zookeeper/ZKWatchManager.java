@@ -19,12 +19,14 @@
 package org.apache.zookeeper;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.apache.zookeeper.server.watch.PathParentIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.zookeeper.server.watch.RecursiveWatchIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,16 +35,26 @@
  * <p>
  * This class is intended to be packaged-private so that it doesn't serve
  * as part of ZooKeeper client API.
+ * <p>
+ * The watches are kept in concurrent maps, so that the registrations and the
+ * events don't contend on a lock. The sets of watchers of the maps are never
+ * modified once added: a watcher is added or removed by replacing the set of
+ * its path atomically, with {@link #addWatcher} and {@link #removeWatcher}.
+ * The paths of the persistent recursive watches are also indexed by a
+ * {@link RecursiveWatchIndex}, so that the watches of the parents of a path
+ * are found without looking up each of the parents.
  */
 class ZKWatchManager implements ClientWatchManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(ZKWatchManager.class);
 
-    private final Map<String, Set<Watcher>> dataWatches = new HashMap<>();
-    private final Map<String, Set<Watcher>> existWatches = new HashMap<>();
-    private final Map<String, Set<Watcher>> childWatches = new HashMap<>();
-    private final Map<String, Set<Watcher>> persistentWatches = new HashMap<>();
-    private final Map<String, Set<Watcher>> persistentRecursiveWatches = new HashMap<>();
+    private final Map<String, Set<Watcher>> dataWatches = new ConcurrentHashMap<>();
+    private final Map<String, Set<Watcher>> existWatches = new ConcurrentHashMap<>();
+    private final Map<String, Set<Watcher>> childWatches = new ConcurrentHashMap<>();
+    private final Map<String, Set<Watcher>> persistentWatches = new ConcurrentHashMap<>();
+    private final Map<String, Set<Watcher>> persistentRecursiveWatches = new ConcurrentHashMap<>();
+    // the paths of persistentRecursiveWatches, updated under its own lock
+    private final RecursiveWatchIndex persistentRecursivePaths = new RecursiveWatchIndex();
     private final boolean disableAutoWatchReset;
 
     private volatile Watcher defaultWatcher;
@@ -61,33 +73,23 @@ Watcher getDefaultWatcher() {
     }
 
     List<String> getDataWatchList() {
-        synchronized (dataWatches) {
-            return new ArrayList<>(dataWatches.keySet());
-        }
+        return new ArrayList<>(dataWatches.keySet());
     }
 
     List<String> getChildWatchList() {
-        synchronized (childWatches) {
-            return new ArrayList<>(childWatches.keySet());
-        }
+        return new ArrayList<>(childWatches.keySet());
     }
 
     List<String> getExistWatchList() {
-        synchronized (existWatches) {
-            return new ArrayList<>(existWatches.keySet());
-        }
+        return new ArrayList<>(existWatches.keySet());
     }
 
     List<String> getPersistentWatchList() {
-        synchronized (persistentWatches) {
-            return new ArrayList<>(persistentWatches.keySet());
-        }
+        return new ArrayList<>(persistentWatches.keySet());
     }
 
     List<String> getPersistentRecursiveWatchList() {
-        synchronized (persistentRecursiveWatches) {
-            return new ArrayList<>(persistentRecursiveWatches.keySet());
-        }
+        return new ArrayList<>(persistentRecursiveWatches.keySet());
     }
 
     Map<String, Set<Watcher>> getDataWatches() {
@@ -110,6 +112,62 @@ Map<String, Set<Watcher>> getPersistentRecursiveWatches() {
         return persistentRecursiveWatches;
     }
 
+    /**
+     * Add the watcher to the watchers of the path, replacing the set of
+     * watchers of the path atomically.
+     */
+    static void addWatcher(Map<String, Set<Watcher>> watches, String path, Watcher watcher) {
+        watches.compute(path, (p, watchers) -> {
+            if (watchers == null) {
+                return Collections.singleton(watcher);
+            }
+            if (watchers.contains(watcher)) {
+                return watchers;
+            }
+            Set<Watcher> added = new HashSet<>(watchers);
+            added.add(watcher);
+            return added;
+        });
+    }
+
+    /**
+     * Remove the watcher from the watchers of the path, and the path if it
+     * has no watcher left.
+     *
+     * @return whether the watcher was removed
+     */
+    static boolean removeWatcher(Map<String, Set<Watcher>> watches, String path, Watcher watcher) {
+        boolean[] removed = new boolean[1];
+        watches.computeIfPresent(path, (p, watchers) -> {
+            if (!watchers.contains(watcher)) {
+                return watchers;
+            }
+            removed[0] = true;
+            if (watchers.size() == 1) {
+                return null;
+            }
+            Set<Watcher> remaining = new HashSet<>(watchers);
+            remaining.remove(watcher);
+            return remaining;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Add the path to the index of the persistent recursive watches, or
+     * remove it, depending on whether it has any such watch.
+     */
+    void updatePersistentRecursiveIndex(String path) {
+        synchronized (persistentRecursivePaths) {
+            boolean watched = persistentRecursiveWatches.containsKey(path);
+            if (watched && !persistentRecursivePaths.contains(path)) {
+                persistentRecursivePaths.add(path);
+            } else if (!watched && persistentRecursivePaths.contains(path)) {
+                persistentRecursivePaths.remove(path);
+            }
+        }
+    }
+
     private void addTo(Set<Watcher> from, Set<Watcher> to) {
         if (from != null) {
             to.addAll(from);
@@ -137,60 +195,32 @@ public Map<Watcher.Event.EventType, Set<Watcher>> removeWatcher(
         boolean removedWatcher = false;
         switch (watcherType) {
         case Children: {
-            synchronized (childWatches) {
-                removedWatcher = removeWatches(childWatches, watcher, clientPath, local, rc, childWatchersToRem);
-            }
+            removedWatcher = removeWatches(childWatches, watcher, clientPath, local, rc, childWatchersToRem);
             break;
         }
         case Data: {
-            synchronized (dataWatches) {
-                removedWatcher = removeWatches(dataWatches, watcher, clientPath, local, rc, dataWatchersToRem);
-            }
-
-            synchronized (existWatches) {
-                boolean removedDataWatcher = removeWatches(existWatches, watcher, clientPath, local, rc, dataWatchersToRem);
-                removedWatcher |= removedDataWatcher;
-            }
+            removedWatcher = removeWatches(dataWatches, watcher, clientPath, local, rc, dataWatchersToRem);
+            removedWatcher |= removeWatches(existWatches, watcher, clientPath, local, rc, dataWatchersToRem);
             break;
         }
         case Persistent: {
-            synchronized (persistentWatches) {
-                removedWatcher = removeWatches(persistentWatches, watcher, clientPath, local, rc, persistentWatchersToRem);
-            }
+            removedWatcher = removeWatches(persistentWatches, watcher, clientPath, local, rc, persistentWatchersToRem);
             break;
         }
         case PersistentRecursive: {
-            synchronized (persistentRecursiveWatches) {
-                removedWatcher = removeWatches(persistentRecursiveWatches, watcher, clientPath, local, rc, persistentWatchersToRem);
-            }
+            removedWatcher = removeWatches(persistentRecursiveWatches, watcher, clientPath, local, rc, persistentWatchersToRem);
+            updatePersistentRecursiveIndex(clientPath);
             break;
         }
         case Any: {
-            synchronized (childWatches) {
-                removedWatcher = removeWatches(childWatches, watcher, clientPath, local, rc, childWatchersToRem);
-            }
-
-            synchronized (dataWatches) {
-                boolean removedDataWatcher = removeWatches(dataWatches, watcher, clientPath, local, rc, dataWatchersToRem);
-                removedWatcher |= removedDataWatcher;
-            }
-
-            synchronized (existWatches) {
-                boolean removedDataWatcher = removeWatches(existWatches, watcher, clientPath, local, rc, dataWatchersToRem);
-                removedWatcher |= removedDataWatcher;
-            }
-
-            synchronized (persistentWatches) {
-                boolean removedPersistentWatcher = removeWatches(persistentWatches,
-                        watcher, clientPath, local, rc, persistentWatchersToRem);
-                removedWatcher |= removedPersistentWatcher;
-            }
-
-            synchronized (persistentRecursiveWatches) {
-                boolean removedPersistentRecursiveWatcher = removeWatches(persistentRecursiveWatches,
-                        watcher, clientPath, local, rc, persistentWatchersToRem);
-                removedWatcher |= removedPersistentRecursiveWatcher;
-            }
+            removedWatcher = removeWatches(childWatches, watcher, clientPath, local, rc, childWatchersToRem);
+            removedWatcher |= removeWatches(dataWatches, watcher, clientPath, local, rc, dataWatchersToRem);
+            removedWatcher |= removeWatches(existWatches, watcher, clientPath, local, rc, dataWatchersToRem);
+            removedWatcher |= removeWatches(persistentWatches,
+                    watcher, clientPath, local, rc, persistentWatchersToRem);
+            removedWatcher |= removeWatches(persistentRecursiveWatches,
+                    watcher, clientPath, local, rc, persistentWatchersToRem);
+            updatePersistentRecursiveIndex(clientPath);
         }
         }
         // Watcher function doesn't exists for the specified params
@@ -234,60 +264,28 @@ void containsWatcher(String path, Watcher watcher, Watcher.WatcherType watcherTy
         boolean containsWatcher = false;
         switch (watcherType) {
         case Children: {
-            synchronized (childWatches) {
-                containsWatcher = contains(path, watcher, childWatches);
-            }
+            containsWatcher = contains(path, watcher, childWatches);
             break;
         }
         case Data: {
-            synchronized (dataWatches) {
-                containsWatcher = contains(path, watcher, dataWatches);
-            }
-
-            synchronized (existWatches) {
-                boolean contains_temp = contains(path, watcher, existWatches);
-                containsWatcher |= contains_temp;
-            }
+            containsWatcher = contains(path, watcher, dataWatches);
+            containsWatcher |= contains(path, watcher, existWatches);
             break;
         }
         case Persistent: {
-            synchronized (persistentWatches) {
-                containsWatcher |= contains(path, watcher, persistentWatches);
-            }
+            containsWatcher |= contains(path, watcher, persistentWatches);
             break;
         }
         case PersistentRecursive: {
-            synchronized (persistentRecursiveWatches) {
-                containsWatcher |= contains(path, watcher, persistentRecursiveWatches);
-            }
+            containsWatcher |= contains(path, watcher, persistentRecursiveWatches);
             break;
         }
         case Any: {
-            synchronized (childWatches) {
-                containsWatcher = contains(path, watcher, childWatches);
-            }
-
-            synchronized (dataWatches) {
-                boolean contains_temp = contains(path, watcher, dataWatches);
-                containsWatcher |= contains_temp;
-            }
-
-            synchronized (existWatches) {
-                boolean contains_temp = contains(path, watcher, existWatches);
-                containsWatcher |= contains_temp;
-            }
-
-            synchronized (persistentWatches) {
-                boolean contains_temp = contains(path, watcher,
-                        persistentWatches);
-                containsWatcher |= contains_temp;
-            }
-
-            synchronized (persistentRecursiveWatches) {
-                boolean contains_temp = contains(path, watcher,
-                        persistentRecursiveWatches);
-                containsWatcher |= contains_temp;
-            }
+            containsWatcher = contains(path, watcher, childWatches);
+            containsWatcher |= contains(path, watcher, dataWatches);
+            containsWatcher |= contains(path, watcher, existWatches);
+            containsWatcher |= contains(path, watcher, persistentWatches);
+            containsWatcher |= contains(path, watcher, persistentRecursiveWatches);
         }
         }
         // Watcher function doesn't exists for the specified params
@@ -319,19 +317,10 @@ protected boolean removeWatches(
                     removedWatchers.addAll(pathWatchers);
                     success = true;
                 }
-            } else {
-                Set<Watcher> watchers = pathVsWatcher.get(path);
-                if (watchers != null) {
-                    if (watchers.remove(watcher)) {
-                        // found path watcher
-                        removedWatchers.add(watcher);
-                        // cleanup <path vs watchlist>
-                        if (watchers.size() <= 0) {
-                            pathVsWatcher.remove(path);
-                        }
-                        success = true;
-                    }
-                }
+            } else if (removeWatcher(pathVsWatcher, path, watcher)) {
+                // found path watcher
+                removedWatchers.add(watcher);
+                success = true;
             }
         }
         return success;
@@ -356,77 +345,32 @@ public Set<Watcher> materialize(
             }
 
             boolean clear = disableAutoWatchReset && state != Watcher.Event.KeeperState.SyncConnected;
-            synchronized (dataWatches) {
-                for (Set<Watcher> ws : dataWatches.values()) {
-                    result.addAll(ws);
-                }
-                if (clear) {
-                    dataWatches.clear();
-                }
-            }
-
-            synchronized (existWatches) {
-                for (Set<Watcher> ws : existWatches.values()) {
-                    result.addAll(ws);
-                }
-                if (clear) {
-                    existWatches.clear();
-                }
-            }
-
-            synchronized (childWatches) {
-                for (Set<Watcher> ws : childWatches.values()) {
-                    result.addAll(ws);
-                }
-                if (clear) {
-                    childWatches.clear();
-                }
-            }
-
-            synchronized (persistentWatches) {
-                for (Set<Watcher> ws: persistentWatches.values()) {
-                    result.addAll(ws);
-                }
-            }
-
-            synchronized (persistentRecursiveWatches) {
-                for (Set<Watcher> ws: persistentRecursiveWatches.values()) {
-                    result.addAll(ws);
-                }
-            }
+            addAll(dataWatches, clear, result);
+            addAll(existWatches, clear, result);
+            addAll(childWatches, clear, result);
+            addAll(persistentWatches, false, result);
+            addAll(persistentRecursiveWatches, false, result);
 
             return result;
         case NodeDataChanged:
         case NodeCreated:
-            synchronized (dataWatches) {
-                addTo(dataWatches.remove(clientPath), result);
-            }
-            synchronized (existWatches) {
-                addTo(existWatches.remove(clientPath), result);
-            }
+            addTo(dataWatches.remove(clientPath), result);
+            addTo(existWatches.remove(clientPath), result);
             addPersistentWatches(clientPath, type, result);
             break;
         case NodeChildrenChanged:
-            synchronized (childWatches) {
-                addTo(childWatches.remove(clientPath), result);
-            }
+            addTo(childWatches.remove(clientPath), result);
             addPersistentWatches(clientPath, type, result);
             break;
         case NodeDeleted:
-            synchronized (dataWatches) {
-                addTo(dataWatches.remove(clientPath), result);
-            }
+            addTo(dataWatches.remove(clientPath), result);
             // TODO This shouldn't be needed, but just in case
-            synchronized (existWatches) {
-                Set<Watcher> list = existWatches.remove(clientPath);
-                if (list != null) {
-                    addTo(list, result);
-                    LOG.warn("We are triggering an exists watch for delete! Shouldn't happen!");
-                }
-            }
-            synchronized (childWatches) {
-                addTo(childWatches.remove(clientPath), result);
+            Set<Watcher> list = existWatches.remove(clientPath);
+            if (list != null) {
+                addTo(list, result);
+                LOG.warn("We are triggering an exists watch for delete! Shouldn't happen!");
             }
+            addTo(childWatches.remove(clientPath), result);
             addPersistentWatches(clientPath, type, result);
             break;
         default:
@@ -442,10 +386,22 @@ public Set<Watcher> materialize(
         return result;
     }
 
-    private void addPersistentWatches(String clientPath, Watcher.Event.EventType type, Set<Watcher> result) {
-        synchronized (persistentWatches) {
-            addTo(persistentWatches.get(clientPath), result);
+    private void addAll(Map<String, Set<Watcher>> watches, boolean remove, Set<Watcher> result) {
+        if (!remove) {
+            for (Set<Watcher> ws : watches.values()) {
+                result.addAll(ws);
+            }
+            return;
         }
+        // remove the paths one by one, so that a watch registered meanwhile
+        // is either triggered or kept
+        for (String path : watches.keySet()) {
+            addTo(watches.remove(path), result);
+        }
+    }
+
+    private void addPersistentWatches(String clientPath, Watcher.Event.EventType type, Set<Watcher> result) {
+        addTo(persistentWatches.get(clientPath), result);
         // The semantics of persistent recursive watch promise no child events on descendant nodes. When there
         // are standard child watches on descendants of node being watched in persistent recursive mode, server
         // will deliver child events to client inevitably. So we have to filter out child events for persistent
@@ -453,10 +409,9 @@ private void addPersistentWatches(String clientPath, Watcher.Event.EventType typ
         if (type == Watcher.Event.EventType.NodeChildrenChanged) {
             return;
         }
-        synchronized (persistentRecursiveWatches) {
-            for (String path : PathParentIterator.forAll(clientPath).asIterable()) {
-                addTo(persistentRecursiveWatches.get(path), result);
-            }
+        for (String path : persistentRecursivePaths.getWatchedParents(clientPath)) {
+            addTo(persistentRecursiveWatches.get(path), result);
         }
+        addTo(persistentRecursiveWatches.get(clientPath), result);
     }
 }
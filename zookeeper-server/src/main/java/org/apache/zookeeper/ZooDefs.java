@@ -95,10 +95,16 @@ public interface OpCode {
 
         int whoAmI = 107;
 
+        int setWatches3 = 108;
+
+        int getChildrenPage = 109;
+
         int createSession = -10;
 
         int closeSession = -11;
 
+        int closeSessions = -12;
+
         int error = -1;
 
     }
@@ -26,10 +26,11 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import org.apache.jute.Record;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.zookeeper.AsyncCallback.ACLCallback;
@@ -70,6 +71,8 @@
 import org.apache.zookeeper.proto.GetAllChildrenNumberResponse;
 import org.apache.zookeeper.proto.GetChildren2Request;
 import org.apache.zookeeper.proto.GetChildren2Response;
+import org.apache.zookeeper.proto.GetChildrenPageRequest;
+import org.apache.zookeeper.proto.GetChildrenPageResponse;
 import org.apache.zookeeper.proto.GetChildrenRequest;
 import org.apache.zookeeper.proto.GetChildrenResponse;
 import org.apache.zookeeper.proto.GetDataRequest;
@@ -175,6 +178,8 @@ public class ZooKeeper implements AutoCloseable {
 
     private final Chroot chroot;
 
+    private final ReadChannels readChannels;
+
     /**
      * This function allows a client to update the connection string by providing
      * a new comma separated list of host:port pairs, each corresponding to a
@@ -285,17 +290,14 @@ public WatchRegistration(Watcher watcher, String serverPath) {
          */
         public void register(int rc) {
             if (shouldAddWatch(rc)) {
-                Map<String, Set<Watcher>> watches = getWatches(rc);
-                synchronized (watches) {
-                    Set<Watcher> watchers = watches.get(serverPath);
-                    if (watchers == null) {
-                        watchers = new HashSet<>();
-                        watches.put(serverPath, watchers);
-                    }
-                    watchers.add(watcher);
-                }
+                ZKWatchManager.addWatcher(getWatches(rc), serverPath, watcher);
             }
         }
+
+        String getServerPath() {
+            return serverPath;
+        }
+
         /**
          * Determine whether the watch should be added based on return code.
          * @param rc the result code of the operation that attempted to add the
@@ -387,6 +389,14 @@ protected Map<String, Set<Watcher>> getWatches(int rc) {
             throw new IllegalArgumentException("Mode not supported: " + mode);
         }
 
+        @Override
+        public void register(int rc) {
+            super.register(rc);
+            if (mode == AddWatchMode.PERSISTENT_RECURSIVE) {
+                getWatchManager().updatePersistentRecursiveIndex(getServerPath());
+            }
+        }
+
         @Override
         protected boolean shouldAddWatch(int rc) {
             return rc == KeeperException.Code.OK.intValue() || rc == KeeperException.Code.NONODE.intValue();
@@ -1109,6 +1119,15 @@ public ZooKeeper(
      */
     @InterfaceAudience.Private
     public ZooKeeper(ZooKeeperOptions options) throws IOException {
+        this(options, true);
+    }
+
+    /**
+     * @param withReadChannels whether to open the read channels configured by
+     * {@link ZKClientConfig#ZOOKEEPER_READ_CHANNELS}, false for the channels
+     * themselves
+     */
+    ZooKeeper(ZooKeeperOptions options, boolean withReadChannels) throws IOException {
         String connectString = options.getConnectString();
         int sessionTimeout = options.getSessionTimeoutMs();
         long sessionId = options.getSessionId();
@@ -1156,6 +1175,13 @@ public ZooKeeper(ZooKeeperOptions options) throws IOException {
             canBeReadOnly);
         cnxn.seenRwServerBefore = sessionId != 0; // since user has provided sessionId
         cnxn.start();
+
+        int readChannelCount = withReadChannels ? this.clientConfig.getInt(
+            ZKClientConfig.ZOOKEEPER_READ_CHANNELS,
+            ZKClientConfig.ZOOKEEPER_READ_CHANNELS_DEFAULT) : 0;
+        readChannels = readChannelCount > 0
+            ? new ReadChannels(this, connectString, sessionTimeout, this.clientConfig, readChannelCount)
+            : null;
     }
 
     /**
@@ -1240,6 +1266,19 @@ public Testable getTestable() {
         return new ZooKeeperTestable(cnxn);
     }
 
+    /**
+     * The metrics of the delivery of the watch events and async callbacks:
+     * the number of them queued and not processed yet, and when
+     * {@link ZKClientConfig#ZOOKEEPER_EVENT_THREADS} runs them in parallel,
+     * the time in milliseconds they wait before being run.
+     *
+     * @return the metrics, by name
+     * @since 3.10.0
+     */
+    public Map<String, Object> getEventMetrics() {
+        return cnxn.getEventMetrics();
+    }
+
     /**
      * The session id for this ZooKeeper client instance. The value returned is
      * not valid until the client connects to a server and may change after a
@@ -1289,6 +1328,9 @@ public int getSessionTimeout() {
      */
     public void addAuthInfo(String scheme, byte[] auth) {
         cnxn.addAuthInfo(scheme, auth);
+        if (readChannels != null) {
+            readChannels.addAuthInfo(scheme, auth);
+        }
     }
 
     /**
@@ -1316,6 +1358,9 @@ public synchronized void register(Watcher watcher) {
      * @throws InterruptedException
      */
     public synchronized void close() throws InterruptedException {
+        if (readChannels != null) {
+            readChannels.close();
+        }
         if (!cnxn.getState().isAlive()) {
             LOG.debug("Close called on already closed client");
             return;
@@ -1882,6 +1927,33 @@ public Transaction transaction() {
         return new Transaction(this);
     }
 
+    /**
+     * Return a view of this client whose operations return a
+     * {@link java.util.concurrent.CompletableFuture}, completed on the event
+     * thread.
+     *
+     * @since 3.10.0
+     *
+     * @return an AsyncZooKeeper view of this client
+     */
+    public AsyncZooKeeper async() {
+        return new AsyncZooKeeper(this, null);
+    }
+
+    /**
+     * Return a view of this client whose operations return a
+     * {@link java.util.concurrent.CompletableFuture}, completed on the given
+     * executor.
+     *
+     * @since 3.10.0
+     *
+     * @param executor the executor to complete the futures on
+     * @return an AsyncZooKeeper view of this client
+     */
+    public AsyncZooKeeper async(Executor executor) {
+        return new AsyncZooKeeper(this, Objects.requireNonNull(executor, "executor"));
+    }
+
     /**
      * The asynchronous version of delete.
      *
@@ -1933,6 +2005,13 @@ public Stat exists(final String path, Watcher watcher) throws KeeperException, I
         final String clientPath = path;
         PathUtils.validatePath(clientPath);
 
+        if (watcher == null && readChannels != null) {
+            ReadChannels.Served<Stat> served = readChannels.read(channel -> channel.exists(path, null));
+            if (served != null) {
+                return served.result;
+            }
+        }
+
         WatchRegistration wcb = null;
         if (watcher != null) {
             wcb = new ExistsWatchRegistration(watcher, clientPath);
@@ -2037,6 +2116,13 @@ public byte[] getData(final String path, Watcher watcher, Stat stat) throws Keep
         final String clientPath = path;
         PathUtils.validatePath(clientPath);
 
+        if (watcher == null && readChannels != null) {
+            ReadChannels.Served<byte[]> served = readChannels.read(channel -> channel.getData(path, null, stat));
+            if (served != null) {
+                return served.result;
+            }
+        }
+
         WatchRegistration wcb = null;
         if (watcher != null) {
             wcb = new DataWatchRegistration(watcher, clientPath);
@@ -2429,6 +2515,13 @@ public List<String> getChildren(final String path, Watcher watcher) throws Keepe
         final String clientPath = path;
         PathUtils.validatePath(clientPath);
 
+        if (watcher == null && readChannels != null) {
+            ReadChannels.Served<List<String>> served = readChannels.read(channel -> channel.getChildren(path, null));
+            if (served != null) {
+                return served.result;
+            }
+        }
+
         // the watch contains the un-chroot path
         WatchRegistration wcb = null;
         if (watcher != null) {
@@ -2543,6 +2636,13 @@ public List<String> getChildren(
         final String clientPath = path;
         PathUtils.validatePath(clientPath);
 
+        if (watcher == null && readChannels != null) {
+            ReadChannels.Served<List<String>> served = readChannels.read(channel -> channel.getChildren(path, null, stat));
+            if (served != null) {
+                return served.result;
+            }
+        }
+
         // the watch contains the un-chroot path
         WatchRegistration wcb = null;
         if (watcher != null) {
@@ -2640,6 +2740,100 @@ public void getChildren(String path, boolean watch, Children2Callback cb, Object
         getChildren(path, getDefaultWatcher(watch), cb, ctx);
     }
 
+    /**
+     * For the given znode path return a page of its children, in sorted order:
+     * the children which sort after the given cursor, up to the given limit.
+     * <p>
+     * The first page is read with a null cursor, and each next page with the
+     * {@link ChildrenPage#getNextCursor() cursor} of the page before it, until
+     * a page has no more children after it. Only the children of a page are
+     * sent, so that a node with more children than fit in a response can be
+     * listed. The pages are read at different times, so a child created or
+     * deleted while they are read may be missing from them or not. The server
+     * keeps the children of a node with many of them sorted, so a page, and
+     * the least child with a null cursor and a limit of 1, are found without
+     * going through all of them.
+     * <p>
+     * If the watch is non-null and the call is successful (no exception is thrown),
+     * a watch will be left on the node with the given path. The watch will be
+     * triggered by a successful operation that deletes the node of the given
+     * path or creates/delete a child under the node.
+     * <p>
+     * A KeeperException with error code KeeperException.NoNode will be thrown
+     * if no node with the given path exists. The servers must be 3.10.0 or
+     * later.
+     *
+     * @since 3.10.0
+     *
+     * @param path the node path
+     * @param cursor the last child of the previous page, or null for the first page
+     * @param limit the maximum number of children of the page, positive
+     * @param watcher explicit watcher
+     * @return a page of the children of the node with the given path
+     * @throws InterruptedException If the server transaction is interrupted.
+     * @throws KeeperException If the server signals an error with a non-zero error code.
+     * @throws IllegalArgumentException if an invalid path or limit is specified
+     */
+    public ChildrenPage getChildrenPage(
+        final String path,
+        String cursor,
+        int limit,
+        Watcher watcher) throws KeeperException, InterruptedException {
+        final String clientPath = path;
+        PathUtils.validatePath(clientPath);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit " + limit + ", must be positive");
+        }
+
+        // the watch contains the un-chroot path
+        WatchRegistration wcb = null;
+        if (watcher != null) {
+            wcb = new ChildWatchRegistration(watcher, clientPath);
+        }
+
+        final String serverPath = prependChroot(clientPath);
+
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.getChildrenPage);
+        GetChildrenPageRequest request = new GetChildrenPageRequest();
+        request.setPath(serverPath);
+        request.setCursor(cursor);
+        request.setLimit(limit);
+        request.setWatch(watcher != null);
+        GetChildrenPageResponse response = new GetChildrenPageResponse();
+        ReplyHeader r = cnxn.submitRequest(h, request, response, wcb);
+        if (r.getErr() != 0) {
+            throw KeeperException.create(KeeperException.Code.get(r.getErr()), clientPath);
+        }
+        return new ChildrenPage(response.getChildren(), response.getStat(), response.getMore());
+    }
+
+    /**
+     * For the given znode path return a page of its children, in sorted order.
+     * <p>
+     * If the watch is true and the call is successful (no exception is thrown),
+     * a watch will be left on the node with the given path, as with
+     * {@link #getChildrenPage(String, String, int, Watcher)}.
+     *
+     * @since 3.10.0
+     *
+     * @param path the node path
+     * @param cursor the last child of the previous page, or null for the first page
+     * @param limit the maximum number of children of the page, positive
+     * @param watch whether need to watch this node
+     * @return a page of the children of the node with the given path
+     * @throws InterruptedException If the server transaction is interrupted.
+     * @throws KeeperException If the server signals an error with a non-zero error code.
+     * @throws IllegalArgumentException if an invalid path or limit is specified
+     */
+    public ChildrenPage getChildrenPage(
+        String path,
+        String cursor,
+        int limit,
+        boolean watch) throws KeeperException, InterruptedException {
+        return getChildrenPage(path, cursor, limit, getDefaultWatcher(watch));
+    }
+
     /**
      * Synchronously gets all numbers of children nodes under a specific path
      *
@@ -2989,6 +3183,23 @@ public void addWatch(String basePath, AddWatchMode mode, VoidCallback cb, Object
         addWatch(basePath, getWatchManager().getDefaultWatcher(), mode, cb, ctx);
     }
 
+    /**
+     * Return a publisher of the events of persistent watches on the given
+     * path, which each subscriber receives as it requests them, with a bounded
+     * buffer. Each subscription adds a watch as
+     * {@link #addWatch(String, Watcher, AddWatchMode)} does.
+     *
+     * @param basePath the path that the watches apply to
+     * @param mode type of watches to add, PERSISTENT or PERSISTENT_RECURSIVE
+     * @return a WatchPublisher of the events
+     * @throws IllegalArgumentException if an invalid path is specified
+     * @since 3.10.0
+     */
+    public WatchPublisher watchPublisher(String basePath, AddWatchMode mode) {
+        PathUtils.validatePath(basePath);
+        return new WatchPublisher(this, basePath, Objects.requireNonNull(mode, "mode"));
+    }
+
     private void validateWatcher(Watcher watcher) {
         if (watcher == null) {
             throw new IllegalArgumentException("Invalid Watcher, shouldn't be null!");
@@ -3086,6 +3297,10 @@ public String toString() {
      * THESE METHODS ARE EXPECTED TO BE USED FOR TESTING ONLY!!!
      */
 
+    ReadChannels getReadChannels() {
+        return readChannels;
+    }
+
     /**
      * Wait up to wait milliseconds for the underlying threads to shutdown.
      * THIS METHOD IS EXPECTED TO BE USED FOR TESTING ONLY!!!
@@ -0,0 +1,567 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.apache.zookeeper.common.X509Exception.SSLContextException;
+import org.apache.zookeeper.server.ZooKeeperThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A HostProvider which prefers the servers the client connects to quickly
+ * and reliably, and the least loaded ones.
+ *
+ * For each server, it keeps a moving average of the time from next()
+ * returning the server to onConnected(), and the number of consecutive
+ * failed attempts, that is the calls to next() without onConnected() since
+ * the server was returned. A failed server is not tried again before a
+ * backoff growing with its failures, unless all the servers failed.
+ *
+ * Optionally, the servers are also probed from time to time with the mntr
+ * four letter word, or isro if mntr is not allowed, to learn their number
+ * of connections and whether they are read-only. A failed probe only makes
+ * the load of the server unknown, it doesn't delay the next attempts to
+ * connect to it.
+ *
+ * The next server is the best of two servers picked at random among the
+ * healthy ones, rather than the best of all, so that the clients don't all
+ * move to the fastest server at once, and their connections are spread
+ * gradually from the slow or loaded servers to the others, for example
+ * after a rolling restart.
+ *
+ * Use it with {@link ZooKeeperBuilder#withHostProvider}, for example
+ * {@code withHostProvider(LatencyAwareHostProvider::new)}.
+ */
+@InterfaceAudience.Public
+public final class LatencyAwareHostProvider implements HostProvider {
+
+    /**
+     * Sends a four letter word to a server and returns its response.
+     */
+    public interface Prober {
+
+        String probe(InetSocketAddress address, String cmd) throws IOException;
+
+    }
+
+    /**
+     * A monotonic time source in nanoseconds, like {@link System#nanoTime()}.
+     */
+    public interface Ticker {
+
+        long nanoTime();
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyAwareHostProvider.class);
+
+    // the weight of a new connect latency in the moving average
+    private static final double LATENCY_WEIGHT = 0.3;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+    private static final int PROBE_TIMEOUT_MS = 1000;
+    private static final long PROBE_THREAD_KEEP_ALIVE_MS = 60000;
+    // how much more a read-only server costs than a read-write one
+    private static final double READ_ONLY_PENALTY = 4;
+
+    private static class Server {
+
+        final InetSocketAddress address;
+        // the moving average of the connect latency, negative if unknown
+        double latencyMs = -1;
+        int failures;
+        long failedAt;
+        // from mntr, negative if unknown
+        long connections = -1;
+        boolean readOnly;
+        // the number of consecutive failed probes, which don't delay the
+        // next connection attempts
+        int probeFailures;
+
+        Server(InetSocketAddress address) {
+            this.address = address;
+        }
+
+    }
+
+    private final Random sourceOfRandomness;
+    private final StaticHostProvider.Resolver resolver;
+    private final Prober prober;
+    private final long probeIntervalMs;
+    private final Ticker ticker;
+    // runs the rounds of probes, its thread exits when idle
+    private final ThreadPoolExecutor probeExecutor;
+
+    private List<Server> servers;
+    // the server last returned by next(), and whether it connected since
+    private Server current;
+    private boolean currentConnected;
+    private long currentSince;
+    // the server to move away from after updateServerList()
+    private Server leaving;
+    // the number of servers tried since the last connection
+    private int attempts;
+    private long probedAt = -1;
+    private boolean probing;
+
+    /**
+     * Constructs a LatencyAwareHostProvider which doesn't probe the servers.
+     *
+     * @param serverAddresses
+     *            possibly unresolved ZooKeeper server addresses
+     * @throws IllegalArgumentException
+     *             if serverAddresses is empty
+     */
+    public LatencyAwareHostProvider(Collection<InetSocketAddress> serverAddresses) {
+        this(serverAddresses, InetAddress::getAllByName, null, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a LatencyAwareHostProvider which probes the servers with
+     * four letter words.
+     *
+     * @param serverAddresses
+     *            possibly unresolved ZooKeeper server addresses
+     * @param clientConfig
+     *            the configuration used to connect to the servers to probe them
+     * @param probeIntervalMs
+     *            the minimum time between two rounds of probes
+     * @throws IllegalArgumentException
+     *             if serverAddresses is empty
+     */
+    public LatencyAwareHostProvider(
+        Collection<InetSocketAddress> serverAddresses,
+        ZKClientConfig clientConfig,
+        long probeIntervalMs) {
+        this(serverAddresses, InetAddress::getAllByName, (address, cmd) -> {
+            try {
+                return FourLetterWordMain.send4LetterWord(address.getHostString(), address.getPort(), cmd,
+                    clientConfig, PROBE_TIMEOUT_MS);
+            } catch (SSLContextException e) {
+                throw new IOException(e);
+            }
+        }, probeIntervalMs, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a LatencyAwareHostProvider.
+     *
+     * Introduced for testing purposes, to inject the resolver, the prober and
+     * the seed of the random choices.
+     *
+     * @param serverAddresses
+     *            possibly unresolved ZooKeeper server addresses
+     * @param resolver
+     *            custom resolver implementation
+     * @param prober
+     *            probes the servers, or null not to probe them
+     * @param probeIntervalMs
+     *            the minimum time between two rounds of probes
+     * @param randomnessSeed
+     *            a seed used to initialize the source of randomness
+     * @throws IllegalArgumentException
+     *             if serverAddresses is empty
+     */
+    public LatencyAwareHostProvider(
+        Collection<InetSocketAddress> serverAddresses,
+        StaticHostProvider.Resolver resolver,
+        Prober prober,
+        long probeIntervalMs,
+        long randomnessSeed) {
+        this(serverAddresses, resolver, prober, probeIntervalMs, randomnessSeed, System::nanoTime);
+    }
+
+    /**
+     * Constructs a LatencyAwareHostProvider.
+     *
+     * Introduced for testing purposes, to inject the resolver, the prober, the
+     * seed of the random choices and the time source.
+     *
+     * @param serverAddresses
+     *            possibly unresolved ZooKeeper server addresses
+     * @param resolver
+     *            custom resolver implementation
+     * @param prober
+     *            probes the servers, or null not to probe them
+     * @param probeIntervalMs
+     *            the minimum time between two rounds of probes
+     * @param randomnessSeed
+     *            a seed used to initialize the source of randomness
+     * @param ticker
+     *            measures the connect latencies and the backoffs
+     * @throws IllegalArgumentException
+     *             if serverAddresses is empty
+     */
+    public LatencyAwareHostProvider(
+        Collection<InetSocketAddress> serverAddresses,
+        StaticHostProvider.Resolver resolver,
+        Prober prober,
+        long probeIntervalMs,
+        long randomnessSeed,
+        Ticker ticker) {
+        if (serverAddresses.isEmpty()) {
+            throw new IllegalArgumentException("A HostProvider may not be empty!");
+        }
+        this.sourceOfRandomness = new Random(randomnessSeed);
+        this.resolver = resolver;
+        this.prober = prober;
+        this.probeIntervalMs = probeIntervalMs;
+        this.ticker = ticker;
+        this.servers = toServers(serverAddresses, Collections.emptyList());
+        if (prober != null) {
+            probeExecutor = new ThreadPoolExecutor(1, 1, PROBE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new ZooKeeperThread(runnable, "LatencyAwareHostProvider-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            probeExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            probeExecutor = null;
+        }
+    }
+
+    private List<Server> toServers(Collection<InetSocketAddress> addresses, List<Server> previous) {
+        List<Server> result = new ArrayList<>(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            Server server = find(previous, address);
+            result.add(server != null ? server : new Server(address));
+        }
+        Collections.shuffle(result, sourceOfRandomness);
+        return result;
+    }
+
+    private static Server find(List<Server> servers, InetSocketAddress address) {
+        if (address == null) {
+            return null;
+        }
+        for (Server server : servers) {
+            InetSocketAddress addr = server.address;
+            if (addr.getPort() == address.getPort()
+                && ((addr.getAddress() != null
+                     && address.getAddress() != null
+                     && addr.getAddress().equals(address.getAddress()))
+                    || addr.getHostString().equals(address.getHostString()))) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return servers.size();
+    }
+
+    @Override
+    public InetSocketAddress next(long spinDelay) {
+        boolean needToSleep;
+        Server server;
+        List<Server> toProbe;
+        synchronized (this) {
+            long now = currentElapsedTime();
+            if (current != null && !currentConnected) {
+                current.failures++;
+                current.failedAt = now;
+            }
+            // sleep once all the servers have been tried, like StaticHostProvider
+            needToSleep = spinDelay > 0 && attempts >= servers.size();
+            if (needToSleep) {
+                attempts = 0;
+            }
+            attempts++;
+            server = choose(now);
+            current = server;
+            currentConnected = false;
+            toProbe = serversToProbe(now);
+        }
+        if (toProbe != null) {
+            probeExecutor.execute(() -> probe(toProbe));
+        }
+        if (needToSleep) {
+            try {
+                Thread.sleep(spinDelay);
+            } catch (InterruptedException e) {
+                LOG.warn("Unexpected exception", e);
+            }
+        }
+        InetSocketAddress address = resolve(server.address);
+        synchronized (this) {
+            // the connect latency doesn't include the spin delay
+            currentSince = ticker.nanoTime();
+        }
+        return address;
+    }
+
+    @Override
+    public synchronized void onConnected() {
+        if (current == null) {
+            return;
+        }
+        double latencyMs = (ticker.nanoTime() - currentSince) / 1000000.0;
+        current.latencyMs = current.latencyMs < 0
+            ? latencyMs
+            : LATENCY_WEIGHT * latencyMs + (1 - LATENCY_WEIGHT) * current.latencyMs;
+        current.failures = 0;
+        currentConnected = true;
+        attempts = 0;
+        leaving = null;
+    }
+
+    /**
+     * Update the list of servers, keeping what is known of the servers still
+     * in the list. Changing connections is necessary if the current server
+     * is no longer in the list, or with the probability that keeps the
+     * expected number of clients of each server the same if servers are
+     * added, like {@link StaticHostProvider#updateServerList}.
+     */
+    @Override
+    public synchronized boolean updateServerList(
+        Collection<InetSocketAddress> serverAddresses,
+        InetSocketAddress currentHost) {
+        if (serverAddresses.isEmpty()) {
+            throw new IllegalArgumentException("A HostProvider may not be empty!");
+        }
+        List<Server> updated = toServers(serverAddresses, servers);
+        int previousSize = servers.size();
+        servers = updated;
+        if (currentHost == null) {
+            return false;
+        }
+        Server server = find(updated, currentHost);
+        boolean change = server == null
+            || (updated.size() > previousSize
+                && sourceOfRandomness.nextFloat() <= 1 - ((float) previousSize) / updated.size());
+        leaving = change ? server : null;
+        return change;
+    }
+
+    /**
+     * @return the moving average of the connect latency to the server in
+     * milliseconds, negative if unknown or the server is not in the list
+     */
+    public synchronized double getLatencyMs(InetSocketAddress address) {
+        Server server = find(servers, address);
+        return server == null ? -1 : server.latencyMs;
+    }
+
+    /**
+     * @return the number of consecutive failed attempts to connect to the
+     * server
+     */
+    public synchronized int getFailures(InetSocketAddress address) {
+        Server server = find(servers, address);
+        return server == null ? 0 : server.failures;
+    }
+
+    /**
+     * @return the number of consecutive failed probes of the server, which
+     * are not counted as failed attempts to connect
+     */
+    public synchronized int getProbeFailures(InetSocketAddress address) {
+        Server server = find(servers, address);
+        return server == null ? 0 : server.probeFailures;
+    }
+
+    private Server choose(long now) {
+        List<Server> candidates = new ArrayList<>(servers.size());
+        for (Server server : servers) {
+            if (server != leaving && isHealthy(server, now)) {
+                candidates.add(server);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // all failed recently, try the one which can be retried first
+            Server first = null;
+            for (Server server : servers) {
+                if (first == null || retryAt(server) < retryAt(first)) {
+                    first = server;
+                }
+            }
+            return first;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        // the best of two random choices
+        int i = sourceOfRandomness.nextInt(candidates.size());
+        int j = sourceOfRandomness.nextInt(candidates.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        Server a = candidates.get(i);
+        Server b = candidates.get(j);
+        double averageLatency = averageLatency();
+        double averageConnections = averageConnections();
+        return cost(a, averageLatency, averageConnections) <= cost(b, averageLatency, averageConnections) ? a : b;
+    }
+
+    private static boolean isHealthy(Server server, long now) {
+        return server.failures == 0 || now >= retryAt(server);
+    }
+
+    private static long retryAt(Server server) {
+        if (server.failures == 0) {
+            return 0;
+        }
+        long backoff = MIN_BACKOFF_MS << Math.min(server.failures - 1, 16);
+        return server.failedAt + Math.min(backoff, MAX_BACKOFF_MS);
+    }
+
+    /**
+     * The latency of the server, unknown latencies being the average one,
+     * weighted by its connections relative to the average.
+     */
+    private static double cost(Server server, double averageLatency, double averageConnections) {
+        double cost = server.latencyMs < 0 ? averageLatency : server.latencyMs;
+        if (server.connections >= 0 && averageConnections >= 0) {
+            cost *= 1 + server.connections / (averageConnections + 1);
+        }
+        if (server.readOnly) {
+            cost *= READ_ONLY_PENALTY;
+        }
+        return cost;
+    }
+
+    private double averageLatency() {
+        double sum = 0;
+        int count = 0;
+        for (Server server : servers) {
+            if (server.latencyMs >= 0) {
+                sum += server.latencyMs;
+                count++;
+            }
+        }
+        // any positive value if none is known, so that the load still counts
+        return count == 0 ? 1 : Math.max(sum / count, Double.MIN_NORMAL);
+    }
+
+    private double averageConnections() {
+        long sum = 0;
+        int count = 0;
+        for (Server server : servers) {
+            if (server.connections >= 0) {
+                sum += server.connections;
+                count++;
+            }
+        }
+        return count == 0 ? -1 : ((double) sum) / count;
+    }
+
+    /**
+     * @return the servers to probe in the background if the last probes are
+     * too old, so that the next choices can use the results, or null
+     */
+    private List<Server> serversToProbe(long now) {
+        if (prober == null || probing || (probedAt >= 0 && now - probedAt < probeIntervalMs)) {
+            return null;
+        }
+        probing = true;
+        probedAt = now;
+        return new ArrayList<>(servers);
+    }
+
+    private void probe(List<Server> toProbe) {
+        try {
+            for (Server server : toProbe) {
+                probe(server);
+            }
+        } finally {
+            synchronized (this) {
+                probing = false;
+            }
+        }
+    }
+
+    private void probe(Server server) {
+        long connections = -1;
+        Boolean readOnly = null;
+        try {
+            String mntr = prober.probe(server.address, "mntr");
+            for (String line : mntr.split("\n")) {
+                String[] parts = line.trim().split("\\s+", 2);
+                if (parts.length < 2) {
+                    continue;
+                }
+                if (parts[0].equals("zk_num_alive_connections")) {
+                    connections = Long.parseLong(parts[1]);
+                } else if (parts[0].equals("zk_server_state")) {
+                    readOnly = parts[1].equals("read-only");
+                }
+            }
+            if (readOnly == null) {
+                // mntr is not allowed
+                String isro = prober.probe(server.address, "isro").trim();
+                if (isro.equals("ro") || isro.equals("rw")) {
+                    readOnly = isro.equals("ro");
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOG.debug("Failed to probe {}", server.address, e);
+            synchronized (this) {
+                // the load is no longer known, the connect attempts tell
+                // whether the server is down
+                server.probeFailures++;
+                server.connections = -1;
+            }
+            return;
+        }
+        synchronized (this) {
+            server.probeFailures = 0;
+            server.connections = connections;
+            if (readOnly != null) {
+                server.readOnly = readOnly;
+            }
+        }
+    }
+
+    private long currentElapsedTime() {
+        return ticker.nanoTime() / 1000000;
+    }
+
+    private InetSocketAddress resolve(InetSocketAddress address) {
+        try {
+            String curHostString = address.getHostString();
+            List<InetAddress> resolvedAddresses = new ArrayList<>(Arrays.asList(this.resolver.getAllByName(curHostString)));
+            if (resolvedAddresses.isEmpty()) {
+                return address;
+            }
+            Collections.shuffle(resolvedAddresses);
+            return new InetSocketAddress(resolvedAddresses.get(0), address.getPort());
+        } catch (UnknownHostException e) {
+            LOG.error("Unable to resolve address: {}", address.toString(), e);
+            return address;
+        }
+    }
+
+}
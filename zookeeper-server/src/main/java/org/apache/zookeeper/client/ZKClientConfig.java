@@ -60,6 +60,38 @@ public class ZKClientConfig extends ZKConfig {
      * Feature is disabled by default.
      */
     public static final long ZOOKEEPER_REQUEST_TIMEOUT_DEFAULT = 0;
+    /**
+     * The maximum number of async create, setData and delete requests packed
+     * into a single multi request. Batching is disabled when it is at most 1,
+     * which is the default.
+     */
+    public static final String ZOOKEEPER_WRITE_BATCH_SIZE = "zookeeper.client.writeBatchSize";
+    public static final int ZOOKEEPER_WRITE_BATCH_SIZE_DEFAULT = 0;
+    /**
+     * The number of threads running the watch events and the async callbacks,
+     * the events of a path being still run in order. They are all run by the
+     * event thread when it is at most 1, which is the default.
+     */
+    public static final String ZOOKEEPER_EVENT_THREADS = "zookeeper.client.eventThreads";
+    public static final int ZOOKEEPER_EVENT_THREADS_DEFAULT = 0;
+    /**
+     * Setting this to "true" runs the events on virtual threads, when the JDK
+     * supports them and {@link #ZOOKEEPER_EVENT_THREADS} is above 1.
+     */
+    public static final String ZOOKEEPER_EVENT_VIRTUAL_THREADS = "zookeeper.client.eventThreads.virtual";
+    /**
+     * Setting this to "true" sends the watches to set again on reconnection
+     * in a compact encoding, which older servers do not support. Disabled by
+     * default.
+     */
+    public static final String ZOOKEEPER_COMPACT_SET_WATCHES = "zookeeper.client.compactSetWatches";
+    /**
+     * The number of secondary connections which serve the reads without a
+     * watch of a client, as consistently as its own connection would. 0, the
+     * default, disables them.
+     */
+    public static final String ZOOKEEPER_READ_CHANNELS = "zookeeper.client.readChannels";
+    public static final int ZOOKEEPER_READ_CHANNELS_DEFAULT = 0;
 
     public ZKClientConfig() {
         super();
@@ -99,6 +131,11 @@ public ZKClientConfig(Path configPath) throws ConfigException {
     private void initFromJavaSystemProperties() {
         setProperty(ZOOKEEPER_REQUEST_TIMEOUT, System.getProperty(ZOOKEEPER_REQUEST_TIMEOUT));
         setProperty(ZOOKEEPER_SERVER_PRINCIPAL, System.getProperty(ZOOKEEPER_SERVER_PRINCIPAL));
+        setProperty(ZOOKEEPER_WRITE_BATCH_SIZE, System.getProperty(ZOOKEEPER_WRITE_BATCH_SIZE));
+        setProperty(ZOOKEEPER_EVENT_THREADS, System.getProperty(ZOOKEEPER_EVENT_THREADS));
+        setProperty(ZOOKEEPER_EVENT_VIRTUAL_THREADS, System.getProperty(ZOOKEEPER_EVENT_VIRTUAL_THREADS));
+        setProperty(ZOOKEEPER_COMPACT_SET_WATCHES, System.getProperty(ZOOKEEPER_COMPACT_SET_WATCHES));
+        setProperty(ZOOKEEPER_READ_CHANNELS, System.getProperty(ZOOKEEPER_READ_CHANNELS));
     }
 
     @Override
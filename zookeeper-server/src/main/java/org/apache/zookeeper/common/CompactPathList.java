@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact encoding of a list of paths, used to send the watches of a
+ * session to the server when it reconnects.
+ *
+ * Each path is encoded as the length of the prefix it shares with the path
+ * before it, the length of the rest of the path, and the rest of the path,
+ * in UTF-8. The lengths are in bytes and encoded as variable length
+ * integers. The paths of a session mostly share long prefixes when they
+ * are sorted, so they are encoded in a fraction of their length.
+ *
+ * As a path can repeat the whole path before it in two bytes, a small list
+ * can decode to a lot of memory, so the decoded size is bounded. The
+ * decoded size of a path is its length in bytes plus 4, as in a jute list.
+ */
+public final class CompactPathList {
+
+    private CompactPathList() {
+    }
+
+    /**
+     * Encodes paths one at a time, so that the size of the list can be
+     * checked as it grows.
+     */
+    public static class Encoder {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private byte[] previous = new byte[0];
+        private int count;
+        private long decodedSize;
+
+        public void add(String path) {
+            byte[] bytes = path.getBytes(UTF_8);
+            int max = Math.min(previous.length, bytes.length);
+            int prefix = 0;
+            while (prefix < max && previous[prefix] == bytes[prefix]) {
+                prefix++;
+            }
+            writeVarInt(prefix);
+            writeVarInt(bytes.length - prefix);
+            out.write(bytes, prefix, bytes.length - prefix);
+            previous = bytes;
+            count++;
+            decodedSize += sizeOf(bytes.length);
+        }
+
+        /**
+         * @return the number of paths added
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @return the size of the encoded list in bytes
+         */
+        public int size() {
+            return out.size();
+        }
+
+        /**
+         * @return the size of the paths added once decoded
+         */
+        public long decodedSize() {
+            return decodedSize;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+    }
+
+    /**
+     * Encode the paths, preferably sorted.
+     */
+    public static byte[] encode(Iterable<String> paths) {
+        Encoder encoder = new Encoder();
+        for (String path : paths) {
+            encoder.add(path);
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Decodes lists of paths, up to a decoded size shared by all the lists.
+     */
+    public static class Decoder {
+
+        private long remaining;
+
+        /**
+         * @param maxSize the maximum decoded size of the lists
+         */
+        public Decoder(long maxSize) {
+            this.remaining = maxSize;
+        }
+
+        /**
+         * Decode a list of paths encoded by {@link #encode} or an
+         * {@link Encoder}.
+         *
+         * @throws IOException if the list is malformed, or decodes to more
+         *                     than the remaining size
+         */
+        public List<String> decode(byte[] buf) throws IOException {
+            List<String> paths = new ArrayList<>();
+            if (buf == null) {
+                return paths;
+            }
+            byte[] previous = new byte[0];
+            int[] pos = new int[1];
+            while (pos[0] < buf.length) {
+                int prefix = readVarInt(buf, pos);
+                int length = readVarInt(buf, pos);
+                if (prefix > previous.length || length > buf.length - pos[0]) {
+                    throw new IOException("Malformed path list at offset " + pos[0]);
+                }
+                remaining -= sizeOf(prefix + length);
+                if (remaining < 0) {
+                    throw new IOException("Path list too large once decoded, at offset " + pos[0]);
+                }
+                byte[] bytes = Arrays.copyOf(previous, prefix + length);
+                System.arraycopy(buf, pos[0], bytes, prefix, length);
+                pos[0] += length;
+                paths.add(new String(bytes, UTF_8));
+                previous = bytes;
+            }
+            return paths;
+        }
+
+    }
+
+    /**
+     * Decode a list of paths encoded by {@link #encode} or an {@link Encoder}.
+     *
+     * @param maxSize the maximum decoded size of the list
+     * @throws IOException if the list is malformed or too large
+     */
+    public static List<String> decode(byte[] buf, long maxSize) throws IOException {
+        return new Decoder(maxSize).decode(buf);
+    }
+
+    private static long sizeOf(int length) {
+        return length + 4L;
+    }
+
+    private static int readVarInt(byte[] buf, int[] pos) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= buf.length) {
+                throw new IOException("Truncated path list");
+            }
+            byte b = buf[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed length in path list at offset " + pos[0]);
+    }
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.apache.zookeeper.server.quorum.Leader;
+import org.apache.zookeeper.server.quorum.Leader.Proposal;
+import org.apache.zookeeper.server.quorum.QuorumPacket;
+import org.apache.zookeeper.server.util.SerializeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed size ring of the last committed txns, kept serialized in a direct
+ * (off-heap) buffer and indexed by zxid.
+ *
+ * The serialized txns are laid out back to back in the data buffer, wrapping
+ * around to its beginning when the next one does not fit at the end. The oldest
+ * txns are evicted once either the data buffer or the index is full. The index
+ * keeps the zxid, position and length of every txn in zxid order, so looking up
+ * a zxid is a binary search.
+ *
+ * This class is not thread safe, {@link ZKDatabase} guards it with its log lock.
+ */
+public class CommittedLogBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommittedLogBuffer.class);
+
+    private final ByteBuffer data;
+    private final long[] zxids;
+    private final int[] positions;
+    private final int[] lengths;
+
+    // physical index of the oldest txn
+    private int head;
+    private int size;
+    // position in the data buffer where the next txn is written
+    private int writePos;
+    private long usedBytes;
+
+    /**
+     * @param capacityBytes size of the off-heap data buffer
+     * @param maxEntries maximum number of txns kept
+     */
+    public CommittedLogBuffer(int capacityBytes, int maxEntries) {
+        if (capacityBytes <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid committed log buffer size " + capacityBytes + "/" + maxEntries);
+        }
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.zxids = new long[maxEntries];
+        this.positions = new int[maxEntries];
+        this.lengths = new int[maxEntries];
+    }
+
+    /**
+     * Append a serialized txn, evicting the oldest txns as needed. The zxid
+     * must be greater than the zxid of the last txn added.
+     *
+     * @param zxid zxid of the txn
+     * @param entry txn serialized as in the txn log
+     * @return false if the txn is larger than the whole buffer, in which case
+     *         the buffer is emptied since it can no longer hold a contiguous
+     *         range of txns
+     */
+    public boolean add(long zxid, byte[] entry) {
+        int len = entry.length;
+        if (len > data.capacity()) {
+            LOG.warn("Txn 0x{} of {} bytes does not fit in the committed log buffer of {} bytes",
+                Long.toHexString(zxid), len, data.capacity());
+            clear();
+            return false;
+        }
+        while (size > 0 && (size == zxids.length || !fits(len))) {
+            evictOldest();
+        }
+        int pos;
+        if (size == 0) {
+            pos = 0;
+        } else if (positions[head] < writePos && data.capacity() - writePos < len) {
+            pos = 0;
+        } else {
+            pos = writePos;
+        }
+        ByteBuffer dst = data.duplicate();
+        dst.position(pos);
+        dst.put(entry);
+
+        int idx = physical(size);
+        zxids[idx] = zxid;
+        positions[idx] = pos;
+        lengths[idx] = len;
+        size++;
+        writePos = pos + len;
+        usedBytes += len;
+        return true;
+    }
+
+    /**
+     * @return whether a txn of <code>len</code> bytes can be written without
+     *         evicting anything, assuming the buffer is not empty
+     */
+    private boolean fits(int len) {
+        int tail = positions[head];
+        if (tail < writePos) {
+            // used region is [tail, writePos), free space at both ends
+            return data.capacity() - writePos >= len || tail >= len;
+        }
+        // used region wrapped around, free space is [writePos, tail)
+        return tail - writePos >= len;
+    }
+
+    private void evictOldest() {
+        usedBytes -= lengths[head];
+        head = (head + 1) % zxids.length;
+        size--;
+        if (size == 0) {
+            head = 0;
+            writePos = 0;
+        }
+    }
+
+    private int physical(int index) {
+        return (head + index) % zxids.length;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        writePos = 0;
+        usedBytes = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getCapacityBytes() {
+        return data.capacity();
+    }
+
+    public int getMaxEntries() {
+        return zxids.length;
+    }
+
+    /**
+     * @param index logical index, 0 being the oldest txn
+     */
+    public long getZxid(int index) {
+        checkIndex(index);
+        return zxids[physical(index)];
+    }
+
+    /**
+     * @param index logical index, 0 being the oldest txn
+     * @return a copy of the serialized txn
+     */
+    public byte[] getEntry(int index) {
+        checkIndex(index);
+        int idx = physical(index);
+        byte[] entry = new byte[lengths[idx]];
+        ByteBuffer src = data.duplicate();
+        src.position(positions[idx]);
+        src.get(entry);
+        return entry;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+
+    /**
+     * Binary search of the index.
+     *
+     * @return logical index of the first txn whose zxid is greater than or
+     *         equal to <code>zxid</code>, {@link #size()} if there is none
+     */
+    public int ceilingIndex(long zxid) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (zxids[physical(mid)] < zxid) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param fromIndex logical index of the first proposal returned
+     * @return iterator over the txns, deserialized lazily. It is only valid
+     *         as long as no txn is added to the buffer
+     */
+    public Iterator<Proposal> iterator(int fromIndex) {
+        return new Iterator<Proposal>() {
+            private int next = Math.max(0, fromIndex);
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Proposal next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Proposal p = new SerializedProposal(getZxid(next), getEntry(next));
+                next++;
+                return p;
+            }
+        };
+    }
+
+    /**
+     * @return live view of the buffer, only valid as long as no txn is added
+     */
+    public AbstractCollection<Proposal> asCollection() {
+        return new AbstractCollection<Proposal>() {
+            @Override
+            public Iterator<Proposal> iterator() {
+                return CommittedLogBuffer.this.iterator(0);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Proposal backed by a serialized txn, sent to learners as is. The
+     * request is only deserialized if asked for.
+     */
+    public static class SerializedProposal extends Proposal {
+
+        private final long zxid;
+        private final byte[] entry;
+
+        public SerializedProposal(long zxid, byte[] entry) {
+            this.zxid = zxid;
+            this.entry = entry;
+        }
+
+        @Override
+        public QuorumPacket getQuorumPacket() {
+            return new QuorumPacket(Leader.PROPOSAL, zxid, entry, null);
+        }
+
+        @Override
+        public Request getRequest() {
+            if (request == null) {
+                try {
+                    TxnLogEntry logEntry = SerializeUtils.deserializeTxn(entry);
+                    request = new Request(logEntry.getHeader(), logEntry.getTxn(), logEntry.getDigest());
+                } catch (IOException e) {
+                    LOG.error("Unable to deserialize txn 0x{} of the committed log buffer", Long.toHexString(zxid), e);
+                }
+            }
+            return request;
+        }
+
+        @Override
+        public long getZxid() {
+            return zxid;
+        }
+
+        @Override
+        public String toString() {
+            return "SerializedProposal 0x" + Long.toHexString(zxid);
+        }
+    }
+
+}
@@ -20,9 +20,15 @@
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeSet;
 import org.apache.jute.InputArchive;
 import org.apache.jute.OutputArchive;
 import org.apache.jute.Record;
@@ -39,6 +45,26 @@
 @SuppressFBWarnings({"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
 public class DataNode implements Record {
 
+    /**
+     * Number of children above which the children of a node are kept sorted,
+     * so that the children after a given one are found without going through
+     * all of them. They are not kept sorted anymore once the node has less
+     * than half of them. Never kept sorted if negative.
+     */
+    public static final String SORTED_CHILDREN_THRESHOLD = "zookeeper.sortedChildrenThreshold";
+    public static final int DEFAULT_SORTED_CHILDREN_THRESHOLD = 1024;
+
+    private static volatile int sortedChildrenThreshold =
+        Integer.getInteger(SORTED_CHILDREN_THRESHOLD, DEFAULT_SORTED_CHILDREN_THRESHOLD);
+
+    public static int getSortedChildrenThreshold() {
+        return sortedChildrenThreshold;
+    }
+
+    public static void setSortedChildrenThreshold(int threshold) {
+        sortedChildrenThreshold = threshold;
+    }
+
     // the digest value of this node, calculated from path, data and stat
     private volatile long digest;
 
@@ -63,6 +89,8 @@ public class DataNode implements Record {
      * the list of children for this node. note that the list of children string
      * does not contain the parent path -- just the last part of the path. This
      * should be synchronized on except deserializing (for speed up issues).
+     * It is a sorted set when the node has more children than the sorted
+     * children threshold.
      */
     private Set<String> children = null;
 
@@ -103,7 +131,14 @@ public synchronized boolean addChild(String child) {
             // let's be conservative on the typical number of children
             children = new HashSet<>(8);
         }
-        return children.add(child);
+        if (!children.add(child)) {
+            return false;
+        }
+        int threshold = sortedChildrenThreshold;
+        if (threshold >= 0 && children.size() > threshold && !(children instanceof NavigableSet)) {
+            children = new TreeSet<>(children);
+        }
+        return true;
     }
 
     /**
@@ -116,7 +151,14 @@ public synchronized boolean removeChild(String child) {
         if (children == null) {
             return false;
         }
-        return children.remove(child);
+        if (!children.remove(child)) {
+            return false;
+        }
+        int threshold = sortedChildrenThreshold;
+        if (children instanceof NavigableSet && (threshold < 0 || children.size() < threshold / 2)) {
+            children = new HashSet<>(children);
+        }
+        return true;
     }
 
     /**
@@ -142,6 +184,54 @@ public synchronized Set<String> getChildren() {
         return Collections.unmodifiableSet(children);
     }
 
+    /**
+     * Return the children which sort after the given one, in sorted order, up
+     * to the limit. When the children are kept sorted, only the children
+     * returned are gone through, so the least child or the next children of
+     * a node with many children are found in logarithmic time.
+     *
+     * @param after the child to return the children after, or null for the
+     *              least children
+     * @param limit the maximum number of children to return
+     * @return the children after the given one
+     */
+    public synchronized List<String> getChildrenAfter(String after, int limit) {
+        if (children == null || limit <= 0) {
+            return new ArrayList<>(0);
+        }
+        if (children instanceof NavigableSet) {
+            NavigableSet<String> sorted = (NavigableSet<String>) children;
+            List<String> page = new ArrayList<>(Math.min(limit, children.size()));
+            for (String child : after == null ? sorted : sorted.tailSet(after, false)) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(child);
+            }
+            return page;
+        }
+        // the greatest of the children kept is at the head, to be replaced
+        PriorityQueue<String> page = new PriorityQueue<>(Math.min(limit, children.size()) + 1, Comparator.reverseOrder());
+        for (String child : children) {
+            if (after != null && child.compareTo(after) <= 0) {
+                continue;
+            }
+            if (page.size() < limit) {
+                page.add(child);
+            } else if (child.compareTo(page.peek()) < 0) {
+                page.poll();
+                page.add(child);
+            }
+        }
+        List<String> sortedPage = new ArrayList<>(page);
+        Collections.sort(sortedPage);
+        return sortedPage;
+    }
+
+    synchronized boolean isChildrenSorted() {
+        return children instanceof NavigableSet;
+    }
+
     public synchronized void copyStat(Stat to) {
         to.setAversion(stat.getAversion());
         to.setCtime(stat.getCtime());
@@ -24,7 +24,6 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -69,6 +68,8 @@
 import org.apache.zookeeper.server.watch.WatchesSummary;
 import org.apache.zookeeper.txn.CheckVersionTxn;
 import org.apache.zookeeper.txn.CloseSessionTxn;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
+import org.apache.zookeeper.txn.ClosedSession;
 import org.apache.zookeeper.txn.CreateContainerTxn;
 import org.apache.zookeeper.txn.CreateTTLTxn;
 import org.apache.zookeeper.txn.CreateTxn;
@@ -149,9 +150,9 @@ public class DataTree {
     public static final int STAT_OVERHEAD_BYTES = (6 * 8) + (5 * 4);
 
     /**
-     * This hashtable lists the paths of the ephemeral nodes of a session.
+     * This index lists the paths of the ephemeral nodes of a session.
      */
-    private final Map<Long, HashSet<String>> ephemerals = new ConcurrentHashMap<>();
+    private final EphemeralIndex ephemerals = new EphemeralIndex();
 
     /**
      * This set contains the paths of all container nodes
@@ -189,15 +190,18 @@ public class DataTree {
 
     private final DigestCalculator digestCalculator;
 
-    @SuppressWarnings("unchecked")
     public Set<String> getEphemerals(long sessionId) {
-        HashSet<String> ret = ephemerals.get(sessionId);
-        if (ret == null) {
-            return new HashSet<>();
-        }
-        synchronized (ret) {
-            return (HashSet<String>) ret.clone();
-        }
+        return ephemerals.getPaths(sessionId);
+    }
+
+    /**
+     * @param sessionId the owner of the ephemerals
+     * @param prefixPath the prefix of the paths to return
+     * @return the paths of the ephemerals of the session starting with the
+     *         prefix, in ascending order
+     */
+    public List<String> getEphemerals(long sessionId, String prefixPath) {
+        return ephemerals.getPaths(sessionId, prefixPath);
     }
 
     public Set<String> getContainers() {
@@ -209,7 +213,7 @@ public Set<String> getTtls() {
     }
 
     public Collection<Long> getSessions() {
-        return ephemerals.keySet();
+        return ephemerals.getSessions();
     }
 
     public DataNode getNode(String path) {
@@ -225,11 +229,7 @@ public int getWatchCount() {
     }
 
     public int getEphemeralsCount() {
-        int result = 0;
-        for (HashSet<String> set : ephemerals.values()) {
-            result += set.size();
-        }
-        return result;
+        return ephemerals.getPathCount();
     }
 
     /**
@@ -487,10 +487,7 @@ public void createNode(final String path, byte[] data, List<ACL> acl, long ephem
             } else if (ephemeralType == EphemeralType.TTL) {
                 ttls.add(path);
             } else if (ephemeralOwner != 0) {
-                HashSet<String> list = ephemerals.computeIfAbsent(ephemeralOwner, k -> new HashSet<>());
-                synchronized (list) {
-                    list.add(path);
-                }
+                ephemerals.add(ephemeralOwner, path);
             }
             if (outputStat != null) {
                 child.copyStat(outputStat);
@@ -580,12 +577,7 @@ public void deleteNode(String path, long zxid) throws NoNodeException {
                 ttls.remove(path);
                 ServerMetrics.getMetrics().TTL_NODE_DELETED_COUNT.add(1);
             } else if (owner != 0) {
-                Set<String> nodes = ephemerals.get(owner);
-                if (nodes != null) {
-                    synchronized (nodes) {
-                        nodes.remove(path);
-                    }
-                }
+                ephemerals.remove(owner, path);
             }
         }
 
@@ -746,6 +738,46 @@ public List<String> getChildren(String path, Stat stat, Watcher watcher) throws
         return children;
     }
 
+    /**
+     * Return the children of a node which sort after the cursor, in sorted
+     * order, up to the limit. Only the children returned are copied, so
+     * that a node with many children can be listed a page at a time, and
+     * only they are gone through when the node keeps its children sorted.
+     *
+     * @param cursor the last child of the previous page, or null or empty
+     * for the first page
+     */
+    public List<String> getChildrenPage(
+        String path,
+        String cursor,
+        int limit,
+        Stat stat,
+        Watcher watcher) throws NoNodeException {
+        DataNode n = nodes.get(path);
+        if (n == null) {
+            throw new NoNodeException();
+        }
+        List<String> children;
+        synchronized (n) {
+            if (stat != null) {
+                n.copyStat(stat);
+            }
+            children = n.getChildrenAfter(cursor == null || cursor.isEmpty() ? null : cursor, limit);
+
+            if (watcher != null) {
+                childWatches.addWatch(path, watcher);
+            }
+        }
+
+        int bytes = 0;
+        for (String child : children) {
+            bytes += child.length();
+        }
+        updateReadStat(path, bytes);
+
+        return children;
+    }
+
     public int getAllChildrenNumber(String path) {
         // cull out these two keys:"", "/"
         if ("/".equals(path)) {
@@ -948,12 +980,19 @@ public ProcessTxnResult processTxn(TxnHeader header, Record txn, boolean isSubTx
                 long sessionId = header.getClientId();
                 if (txn != null) {
                     killSession(sessionId, header.getZxid(),
-                            ephemerals.remove(sessionId),
+                            ephemerals.removeSession(sessionId),
                             ((CloseSessionTxn) txn).getPaths2Delete());
                 } else {
                     killSession(sessionId, header.getZxid());
                 }
                 break;
+            case OpCode.closeSessions:
+                for (ClosedSession session : ((CloseSessionsTxn) txn).getSessions()) {
+                    killSession(session.getSessionId(), header.getZxid(),
+                            ephemerals.removeSession(session.getSessionId()),
+                            session.getPaths2Delete());
+                }
+                break;
             case OpCode.error:
                 ErrorTxn errTxn = (ErrorTxn) txn;
                 rc.err = errTxn.getErr();
@@ -1123,7 +1162,7 @@ void killSession(long session, long zxid) {
         // so there is no need for synchronization. The list is not
         // changed here. Only create and delete change the list which
         // are again called from FinalRequestProcessor in sequence.
-        killSession(session, zxid, ephemerals.remove(session), null);
+        killSession(session, zxid, ephemerals.removeSession(session), null);
     }
 
     void killSession(long session, long zxid, Set<String> paths2DeleteLocal,
@@ -1371,8 +1410,7 @@ public void deserialize(InputArchive ia, String tag) throws IOException {
                 } else if (ephemeralType == EphemeralType.TTL) {
                     ttls.add(path);
                 } else if (owner != 0) {
-                    HashSet<String> list = ephemerals.computeIfAbsent(owner, k -> new HashSet<>());
-                    list.add(path);
+                    ephemerals.add(owner, path);
                 }
             }
             path = ia.readString("path");
@@ -1443,17 +1481,13 @@ public synchronized WatchesSummary getWatchesSummary() {
      * @param writer the output to write to
      */
     public void dumpEphemerals(PrintWriter writer) {
-        writer.println("Sessions with Ephemerals (" + ephemerals.keySet().size() + "):");
-        for (Entry<Long, HashSet<String>> entry : ephemerals.entrySet()) {
-            writer.print("0x" + Long.toHexString(entry.getKey()));
+        List<Long> sessions = ephemerals.getSessions();
+        writer.println("Sessions with Ephemerals (" + sessions.size() + "):");
+        for (long session : sessions) {
+            writer.print("0x" + Long.toHexString(session));
             writer.println(":");
-            Set<String> tmp = entry.getValue();
-            if (tmp != null) {
-                synchronized (tmp) {
-                    for (String path : tmp) {
-                        writer.println("\t" + path);
-                    }
-                }
+            for (String path : ephemerals.getPaths(session, "")) {
+                writer.println("\t" + path);
             }
         }
     }
@@ -1469,13 +1503,7 @@ public void shutdownWatcher() {
      * @return map of session ID to sets of ephemeral znodes
      */
     public Map<Long, Set<String>> getEphemerals() {
-        Map<Long, Set<String>> ephemeralsCopy = new HashMap<>();
-        for (Entry<Long, HashSet<String>> e : ephemerals.entrySet()) {
-            synchronized (e.getValue()) {
-                ephemeralsCopy.put(e.getKey(), new HashSet<>(e.getValue()));
-            }
-        }
-        return ephemeralsCopy;
+        return ephemerals.toMap();
     }
 
     public void removeCnxn(Watcher watcher) {
@@ -1485,6 +1513,9 @@ public void removeCnxn(Watcher watcher) {
 
     public void setWatches(long relativeZxid, List<String> dataWatches, List<String> existWatches, List<String> childWatches,
                            List<String> persistentWatches, List<String> persistentRecursiveWatches, Watcher watcher) {
+        // the watches still valid are added at once per watch manager, rather
+        // than one by one, as a client may set many watches when it reconnects
+        List<String> dataWatchesToAdd = new ArrayList<>(dataWatches.size() + existWatches.size());
         for (String path : dataWatches) {
             DataNode node = getNode(path);
             if (node == null) {
@@ -1492,7 +1523,7 @@ public void setWatches(long relativeZxid, List<String> dataWatches, List<String>
             } else if (node.stat.getMzxid() > relativeZxid) {
                 watcher.process(new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, path));
             } else {
-                this.dataWatches.addWatch(path, watcher);
+                dataWatchesToAdd.add(path);
             }
         }
         for (String path : existWatches) {
@@ -1500,9 +1531,11 @@ public void setWatches(long relativeZxid, List<String> dataWatches, List<String>
             if (node != null) {
                 watcher.process(new WatchedEvent(EventType.NodeCreated, KeeperState.SyncConnected, path));
             } else {
-                this.dataWatches.addWatch(path, watcher);
+                dataWatchesToAdd.add(path);
             }
         }
+        this.dataWatches.addWatches(dataWatchesToAdd, watcher, WatcherMode.DEFAULT_WATCHER_MODE);
+        List<String> childWatchesToAdd = new ArrayList<>(childWatches.size());
         for (String path : childWatches) {
             DataNode node = getNode(path);
             if (node == null) {
@@ -1510,15 +1543,16 @@ public void setWatches(long relativeZxid, List<String> dataWatches, List<String>
             } else if (node.stat.getPzxid() > relativeZxid) {
                 watcher.process(new WatchedEvent(EventType.NodeChildrenChanged, KeeperState.SyncConnected, path));
             } else {
-                this.childWatches.addWatch(path, watcher);
+                childWatchesToAdd.add(path);
             }
         }
-        for (String path : persistentWatches) {
-            this.childWatches.addWatch(path, watcher, WatcherMode.PERSISTENT);
-            this.dataWatches.addWatch(path, watcher, WatcherMode.PERSISTENT);
+        this.childWatches.addWatches(childWatchesToAdd, watcher, WatcherMode.DEFAULT_WATCHER_MODE);
+        if (!persistentWatches.isEmpty()) {
+            this.childWatches.addWatches(persistentWatches, watcher, WatcherMode.PERSISTENT);
+            this.dataWatches.addWatches(persistentWatches, watcher, WatcherMode.PERSISTENT);
         }
-        for (String path : persistentRecursiveWatches) {
-            this.dataWatches.addWatch(path, watcher, WatcherMode.PERSISTENT_RECURSIVE);
+        if (!persistentRecursiveWatches.isEmpty()) {
+            this.dataWatches.addWatches(persistentRecursiveWatches, watcher, WatcherMode.PERSISTENT_RECURSIVE);
         }
     }
 
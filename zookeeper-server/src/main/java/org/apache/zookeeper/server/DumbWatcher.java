@@ -59,6 +59,11 @@ public void process(WatchedEvent event, List<ACL> znodeAcl) {
         mostRecentPath = event.getPath();
     }
 
+    @Override
+    void sendWatchEvent(SerializedWatchEvent event, List<ACL> znodeAcl) {
+        process(event.getEvent(), znodeAcl);
+    }
+
     public String getMostRecentPath() {
         return mostRecentPath;
     }
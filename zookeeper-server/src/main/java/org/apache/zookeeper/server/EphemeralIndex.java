@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The paths of the ephemeral nodes owned by each session.
+ *
+ * The sessions are the keys of an open addressing hash table of primitive
+ * longs, so there is no boxed key nor map entry per session. The paths are
+ * the same String instances as the keys of the nodes in the DataTree. They
+ * are kept sorted in an array while a session owns at most
+ * {@link #ARRAY_MAX} of them, which is the common case, and in a TreeSet
+ * above that. Since they are sorted, the paths starting with a prefix are
+ * a contiguous range found by a binary search.
+ *
+ * The index is updated by the thread applying the txns, and read by the
+ * request processors and the admin commands: the updates hold a write lock
+ * and the reads a read lock, so the readers don't block each other.
+ */
+public class EphemeralIndex {
+
+    static final int ARRAY_MAX = 64;
+
+    // must be a power of 2
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private final Lock readLock = rwLock.readLock();
+    private final Lock writeLock = rwLock.writeLock();
+
+    // 0 is never the owner of an ephemeral, it marks the free slots
+    private long[] sessions = new long[INITIAL_CAPACITY];
+    // sorted String[] or TreeSet<String> of the paths of each session
+    private Object[] paths = new Object[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int sessionCount = 0;
+    private int pathCount = 0;
+
+    /**
+     * @return false if the path was already in the index for this session
+     */
+    public boolean add(long sessionId, String path) {
+        if (sessionId == 0) {
+            throw new IllegalArgumentException("Invalid session 0");
+        }
+        writeLock.lock();
+        try {
+            int i = find(sessionId);
+            if (i < 0) {
+                if ((sessionCount + 1) * 4 > sessions.length * 3) {
+                    resize(sessions.length * 2);
+                    i = find(sessionId);
+                }
+                i = -i - 1;
+                sessions[i] = sessionId;
+                paths[i] = new String[]{path};
+                counts[i] = 1;
+                sessionCount++;
+                pathCount++;
+                return true;
+            }
+            int count = counts[i];
+            if (paths[i] instanceof String[]) {
+                String[] array = (String[]) paths[i];
+                int j = Arrays.binarySearch(array, 0, count, path);
+                if (j >= 0) {
+                    return false;
+                }
+                if (count == ARRAY_MAX) {
+                    TreeSet<String> set = new TreeSet<>(Arrays.asList(array));
+                    set.add(path);
+                    paths[i] = set;
+                } else {
+                    if (count == array.length) {
+                        array = Arrays.copyOf(array, Math.min(ARRAY_MAX, count * 2));
+                        paths[i] = array;
+                    }
+                    j = -j - 1;
+                    System.arraycopy(array, j, array, j + 1, count - j);
+                    array[j] = path;
+                }
+            } else if (!getSet(i).add(path)) {
+                return false;
+            }
+            counts[i] = count + 1;
+            pathCount++;
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the path was not in the index for this session
+     */
+    public boolean remove(long sessionId, String path) {
+        writeLock.lock();
+        try {
+            int i = find(sessionId);
+            if (i < 0) {
+                return false;
+            }
+            int count = counts[i];
+            if (paths[i] instanceof String[]) {
+                String[] array = (String[]) paths[i];
+                int j = Arrays.binarySearch(array, 0, count, path);
+                if (j < 0) {
+                    return false;
+                }
+                System.arraycopy(array, j + 1, array, j, count - j - 1);
+                array[count - 1] = null;
+            } else {
+                TreeSet<String> set = getSet(i);
+                if (!set.remove(path)) {
+                    return false;
+                }
+                // only back to an array once half full, so that adding and
+                // removing around the limit doesn't convert it every time
+                if (set.size() <= ARRAY_MAX / 2) {
+                    paths[i] = set.toArray(new String[ARRAY_MAX]);
+                }
+            }
+            pathCount--;
+            if (count == 1) {
+                delete(i);
+            } else {
+                counts[i] = count - 1;
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove all the paths of the session.
+     *
+     * @return the paths removed, or null if the session had none
+     */
+    public Set<String> removeSession(long sessionId) {
+        writeLock.lock();
+        try {
+            int i = find(sessionId);
+            if (i < 0) {
+                return null;
+            }
+            Set<String> removed = new HashSet<>();
+            addPaths(i, "", removed);
+            pathCount -= counts[i];
+            delete(i);
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the paths of the session, which may be modified
+     */
+    public Set<String> getPaths(long sessionId) {
+        Set<String> result = new HashSet<>();
+        readLock.lock();
+        try {
+            int i = find(sessionId);
+            if (i >= 0) {
+                addPaths(i, "", result);
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @return the paths of the session starting with the prefix, in
+     *         ascending order
+     */
+    public List<String> getPaths(long sessionId, String prefix) {
+        List<String> result = new ArrayList<>();
+        readLock.lock();
+        try {
+            int i = find(sessionId);
+            if (i >= 0) {
+                addPaths(i, prefix, result);
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @return the sessions owning at least one ephemeral
+     */
+    public List<Long> getSessions() {
+        readLock.lock();
+        try {
+            List<Long> result = new ArrayList<>(sessionCount);
+            for (long sessionId : sessions) {
+                if (sessionId != 0) {
+                    result.add(sessionId);
+                }
+            }
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int getSessionCount() {
+        readLock.lock();
+        try {
+            return sessionCount;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int getPathCount() {
+        readLock.lock();
+        try {
+            return pathCount;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the index, mapping each session to its paths
+     */
+    public Map<Long, Set<String>> toMap() {
+        readLock.lock();
+        try {
+            Map<Long, Set<String>> result = new HashMap<>();
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] != 0) {
+                    Set<String> sessionPaths = new HashSet<>();
+                    addPaths(i, "", sessionPaths);
+                    result.put(sessions[i], sessionPaths);
+                }
+            }
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void addPaths(int i, String prefix, Collection<String> result) {
+        if (paths[i] instanceof String[]) {
+            String[] array = (String[]) paths[i];
+            int count = counts[i];
+            int j = Arrays.binarySearch(array, 0, count, prefix);
+            for (j = j < 0 ? -j - 1 : j; j < count && array[j].startsWith(prefix); j++) {
+                result.add(array[j]);
+            }
+        } else {
+            for (String path : getSet(i).tailSet(prefix)) {
+                if (!path.startsWith(prefix)) {
+                    break;
+                }
+                result.add(path);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private TreeSet<String> getSet(int i) {
+        return (TreeSet<String>) paths[i];
+    }
+
+    private static int slot(long sessionId, int mask) {
+        // the session ids only differ by their lower bits, spread them
+        long h = sessionId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the slot of the session, or -(the free slot to insert it) - 1
+     */
+    private int find(long sessionId) {
+        int mask = sessions.length - 1;
+        for (int i = slot(sessionId, mask);; i = (i + 1) & mask) {
+            if (sessions[i] == sessionId) {
+                return i;
+            }
+            if (sessions[i] == 0) {
+                return -i - 1;
+            }
+        }
+    }
+
+    /**
+     * Free the slot, moving back the following sessions of the probe
+     * sequence so that they can still be found.
+     */
+    private void delete(int i) {
+        int mask = sessions.length - 1;
+        for (int j = (i + 1) & mask; sessions[j] != 0; j = (j + 1) & mask) {
+            int home = slot(sessions[j], mask);
+            boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!reachable) {
+                sessions[i] = sessions[j];
+                paths[i] = paths[j];
+                counts[i] = counts[j];
+                i = j;
+            }
+        }
+        sessions[i] = 0;
+        paths[i] = null;
+        counts[i] = 0;
+        sessionCount--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldSessions = sessions;
+        Object[] oldPaths = paths;
+        int[] oldCounts = counts;
+        sessions = new long[capacity];
+        paths = new Object[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldSessions.length; i++) {
+            if (oldSessions[i] != 0) {
+                int j = -find(oldSessions[i]) - 1;
+                sessions[j] = oldSessions[i];
+                paths[j] = oldPaths[i];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+}
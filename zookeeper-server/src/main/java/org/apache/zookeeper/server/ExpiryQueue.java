@@ -19,35 +19,72 @@
 package org.apache.zookeeper.server;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import org.apache.zookeeper.common.Time;
 
 /**
  * ExpiryQueue tracks elements in time sorted fixed duration buckets.
  * It's used by SessionTrackerImpl to expire sessions and NIOServerCnxnFactory
  * to expire connections.
+ *
+ * The buckets are the slots of a timing wheel, each element has a node
+ * linked in the slot of the bucket it expires at or, if that bucket is
+ * beyond the wheel, in the last slot of the wheel. Pushing back the
+ * expiration time of an element, which is what happens on every ping, only
+ * updates its node: the node stays in the earlier bucket and is moved to
+ * the right one when that bucket is polled, like the timers of a
+ * hierarchical wheel cascade to a finer wheel. So an element is moved at
+ * most once per timeout instead of on every update, and updating it neither
+ * allocates nor takes a lock.
  */
 public class ExpiryQueue<E> {
 
-    private final ConcurrentHashMap<E, Long> elemMap = new ConcurrentHashMap<>();
+    private static final int WHEEL_SIZE = 64;
+
+    private static final class Node<E> {
+
+        final E elem;
+        volatile long expiryTime;
+        // whether the node is linked in a bucket of the wheel
+        volatile boolean linked;
+        volatile boolean removed;
+        // guarded by the queue
+        long bucketTime;
+        Node<E> next;
+
+        Node(E elem) {
+            this.elem = elem;
+        }
+
+    }
+
+    private final ConcurrentHashMap<E, Node<E>> elemMap = new ConcurrentHashMap<>();
     /**
-     * The maximum number of buckets is equal to max timeout/expirationInterval,
-     * so the expirationInterval should not be too small compared to the
-     * max timeout that this expiry queue needs to maintain.
+     * The slots of the wheel, each is the list of the nodes linked in the
+     * bucket expiring at the time mapped to the slot. Guarded by this.
      */
-    private final ConcurrentHashMap<Long, Set<E>> expiryMap = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Node<E>[] wheel = (Node<E>[]) new Node[WHEEL_SIZE];
 
-    private final AtomicLong nextExpirationTime = new AtomicLong();
+    private volatile long nextExpirationTime;
     private final int expirationInterval;
 
     public ExpiryQueue(int expirationInterval) {
         this.expirationInterval = expirationInterval;
-        nextExpirationTime.set(roundToNextInterval(Time.currentElapsedTime()));
+        nextExpirationTime = roundToNextInterval(currentElapsedTime());
+    }
+
+    /**
+     * Overridable helper method to return the Time.currentElapsedTime(),
+     * which the tests use to drive the expiration.
+     */
+    protected long currentElapsedTime() {
+        return Time.currentElapsedTime();
     }
 
     private long roundToNextInterval(long time) {
@@ -61,16 +98,13 @@ private long roundToNextInterval(long time) {
      *              it wasn't present
      */
     public Long remove(E elem) {
-        Long expiryTime = elemMap.remove(elem);
-        if (expiryTime != null) {
-            Set<E> set = expiryMap.get(expiryTime);
-            if (set != null) {
-                set.remove(elem);
-                // We don't need to worry about removing empty sets,
-                // they'll eventually be removed when they expire.
-            }
+        Node<E> node = elemMap.remove(elem);
+        if (node == null) {
+            return null;
         }
-        return expiryTime;
+        // The node is dropped from its bucket when the bucket is polled.
+        node.removed = true;
+        return node.expiryTime;
     }
 
     /**
@@ -82,36 +116,39 @@ public Long remove(E elem) {
      *                 changed, or null if unchanged
      */
     public Long update(E elem, int timeout) {
-        Long prevExpiryTime = elemMap.get(elem);
-        long now = Time.currentElapsedTime();
-        Long newExpiryTime = roundToNextInterval(now + timeout);
+        long newExpiryTime = roundToNextInterval(currentElapsedTime() + timeout);
 
-        if (newExpiryTime.equals(prevExpiryTime)) {
-            // No change, so nothing to update
-            return null;
+        Node<E> node = elemMap.get(elem);
+        if (node != null && !node.removed) {
+            long prevExpiryTime = node.expiryTime;
+            if (newExpiryTime == prevExpiryTime) {
+                // No change, so nothing to update
+                return null;
+            }
+            if (newExpiryTime > prevExpiryTime) {
+                node.expiryTime = newExpiryTime;
+                // Read after writing the expiration time, see poll()
+                if (node.linked) {
+                    return newExpiryTime;
+                }
+            }
         }
 
-        // First add the elem to the new expiry time bucket in expiryMap.
-        Set<E> set = expiryMap.get(newExpiryTime);
-        if (set == null) {
-            // Construct a ConcurrentHashSet using a ConcurrentHashMap
-            set = Collections.newSetFromMap(new ConcurrentHashMap<>());
-            // Put the new set in the map, but only if another thread
-            // hasn't beaten us to it
-            Set<E> existingSet = expiryMap.putIfAbsent(newExpiryTime, set);
-            if (existingSet != null) {
-                set = existingSet;
+        synchronized (this) {
+            node = elemMap.get(elem);
+            if (node == null || node.removed) {
+                node = new Node<>(elem);
+                elemMap.put(elem, node);
+            } else if (node.linked && newExpiryTime < node.bucketTime) {
+                // Expiring earlier than its bucket, a node can't be unlinked
+                // from the middle of a bucket so replace it.
+                node.removed = true;
+                node = new Node<>(elem);
+                elemMap.put(elem, node);
             }
-        }
-        set.add(elem);
-
-        // Map the elem to the new expiry time. If a different previous
-        // mapping was present, clean up the previous expiry bucket.
-        prevExpiryTime = elemMap.put(elem, newExpiryTime);
-        if (prevExpiryTime != null && !newExpiryTime.equals(prevExpiryTime)) {
-            Set<E> prevSet = expiryMap.get(prevExpiryTime);
-            if (prevSet != null) {
-                prevSet.remove(elem);
+            node.expiryTime = newExpiryTime;
+            if (!node.linked) {
+                link(node);
             }
         }
         return newExpiryTime;
@@ -121,64 +158,109 @@ public Long update(E elem, int timeout) {
      * @return milliseconds until next expiration time, or 0 if has already past
      */
     public long getWaitTime() {
-        long now = Time.currentElapsedTime();
-        long expirationTime = nextExpirationTime.get();
+        long now = currentElapsedTime();
+        long expirationTime = nextExpirationTime;
         return now < expirationTime ? (expirationTime - now) : 0L;
     }
 
     /**
-     * Remove the next expired set of elements from expireMap. This method needs
-     * to be called frequently enough by checking getWaitTime(), otherwise there
-     * will be a backlog of empty sets queued up in expiryMap.
+     * Remove the next expired set of elements from the queue. This method
+     * needs to be called frequently enough by checking getWaitTime(),
+     * otherwise there will be a backlog of buckets to expire.
      *
      * @return next set of expired elements, or an empty set if none are
      *         ready
      */
     public Set<E> poll() {
-        long now = Time.currentElapsedTime();
-        long expirationTime = nextExpirationTime.get();
-        if (now < expirationTime) {
+        if (currentElapsedTime() < nextExpirationTime) {
             return Collections.emptySet();
         }
 
-        Set<E> set = null;
-        long newExpirationTime = expirationTime + expirationInterval;
-        if (nextExpirationTime.compareAndSet(expirationTime, newExpirationTime)) {
-            set = expiryMap.remove(expirationTime);
-        }
-        if (set == null) {
-            return Collections.emptySet();
+        Set<E> expired = null;
+        synchronized (this) {
+            long expirationTime = nextExpirationTime;
+            int slot = slotOf(expirationTime);
+            Node<E> node = wheel[slot];
+            wheel[slot] = null;
+            nextExpirationTime = expirationTime + expirationInterval;
+
+            while (node != null) {
+                Node<E> next = node.next;
+                node.next = null;
+                if (node.removed) {
+                    node.linked = false;
+                } else if (node.expiryTime <= expirationTime) {
+                    node.linked = false;
+                    // Check again after unlinking, an update either sees the
+                    // node unlinked and links it again or has already pushed
+                    // back the expiration time seen here.
+                    if (node.expiryTime <= expirationTime) {
+                        if (expired == null) {
+                            expired = new HashSet<>();
+                        }
+                        expired.add(node.elem);
+                    } else {
+                        link(node);
+                    }
+                } else {
+                    link(node);
+                }
+                node = next;
+            }
         }
-        return set;
+        return expired == null ? Collections.emptySet() : expired;
+    }
+
+    /**
+     * Link the node in the bucket of its expiration time, or in the last
+     * bucket of the wheel if it's too far ahead. Must hold the lock.
+     */
+    private void link(Node<E> node) {
+        long bucketTime = Math.min(node.expiryTime, nextExpirationTime + (long) (WHEEL_SIZE - 1) * expirationInterval);
+        // never link in a bucket which was already polled
+        bucketTime = Math.max(bucketTime, nextExpirationTime);
+        int slot = slotOf(bucketTime);
+        node.bucketTime = bucketTime;
+        node.next = wheel[slot];
+        wheel[slot] = node;
+        node.linked = true;
+    }
+
+    private int slotOf(long bucketTime) {
+        return (int) ((bucketTime / expirationInterval) & (WHEEL_SIZE - 1));
     }
 
     public void dump(PrintWriter pwriter) {
+        Map<Long, Set<E>> expiryMap = getExpiryMap();
         pwriter.print("Sets (");
         pwriter.print(expiryMap.size());
         pwriter.print(")/(");
         pwriter.print(elemMap.size());
         pwriter.println("):");
-        ArrayList<Long> keys = new ArrayList<>(expiryMap.keySet());
-        Collections.sort(keys);
-        for (long time : keys) {
-            Set<E> set = expiryMap.get(time);
-            if (set != null) {
-                pwriter.print(set.size());
-                pwriter.print(" expire at ");
-                pwriter.print(Time.elapsedTimeToDate(time));
-                pwriter.println(":");
-                for (E elem : set) {
-                    pwriter.print("\t");
-                    pwriter.println(elem.toString());
-                }
+        for (Map.Entry<Long, Set<E>> e : expiryMap.entrySet()) {
+            Set<E> set = e.getValue();
+            pwriter.print(set.size());
+            pwriter.print(" expire at ");
+            pwriter.print(Time.elapsedTimeToDate(e.getKey()));
+            pwriter.println(":");
+            for (E elem : set) {
+                pwriter.print("\t");
+                pwriter.println(elem.toString());
             }
         }
     }
 
     /**
-     * Returns an unmodifiable view of the expiration time -&gt; elements mapping.
+     * Returns an unmodifiable snapshot of the expiration time -&gt; elements
+     * mapping, sorted by expiration time.
      */
     public Map<Long, Set<E>> getExpiryMap() {
+        Map<Long, Set<E>> expiryMap = new TreeMap<>();
+        for (Node<E> node : elemMap.values()) {
+            if (node.linked && !node.removed) {
+                expiryMap.computeIfAbsent(node.expiryTime, k -> new HashSet<>()).add(node.elem);
+            }
+        }
         return Collections.unmodifiableMap(expiryMap);
     }
 
@@ -24,7 +24,7 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.Record;
 import org.apache.zookeeper.ClientCnxn;
 import org.apache.zookeeper.KeeperException;
@@ -45,6 +45,7 @@
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.audit.AuditHelper;
+import org.apache.zookeeper.common.CompactPathList;
 import org.apache.zookeeper.common.Time;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Id;
@@ -62,6 +63,8 @@
 import org.apache.zookeeper.proto.GetAllChildrenNumberResponse;
 import org.apache.zookeeper.proto.GetChildren2Request;
 import org.apache.zookeeper.proto.GetChildren2Response;
+import org.apache.zookeeper.proto.GetChildrenPageRequest;
+import org.apache.zookeeper.proto.GetChildrenPageResponse;
 import org.apache.zookeeper.proto.GetChildrenRequest;
 import org.apache.zookeeper.proto.GetChildrenResponse;
 import org.apache.zookeeper.proto.GetDataRequest;
@@ -74,6 +77,7 @@
 import org.apache.zookeeper.proto.SetDataResponse;
 import org.apache.zookeeper.proto.SetWatches;
 import org.apache.zookeeper.proto.SetWatches2;
+import org.apache.zookeeper.proto.SetWatches3;
 import org.apache.zookeeper.proto.SyncRequest;
 import org.apache.zookeeper.proto.SyncResponse;
 import org.apache.zookeeper.proto.WhoAmIResponse;
@@ -81,6 +85,8 @@
 import org.apache.zookeeper.server.quorum.QuorumZooKeeperServer;
 import org.apache.zookeeper.server.util.AuthUtil;
 import org.apache.zookeeper.server.util.RequestPathMetricsCollector;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
+import org.apache.zookeeper.txn.ClosedSession;
 import org.apache.zookeeper.txn.ErrorTxn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -98,6 +104,11 @@ public class FinalRequestProcessor implements RequestProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(FinalRequestProcessor.class);
 
+    /**
+     * The maximum decoded size of the watch paths of a SetWatches3 request.
+     */
+    static final long SET_WATCHES3_MAX_DECODED_SIZE = 4L * BinaryInputArchive.maxBuffer;
+
     private final RequestPathMetricsCollector requestPathMetricsCollector;
 
     ZooKeeperServer zks;
@@ -124,6 +135,13 @@ private ProcessTxnResult applyRequest(Request request) {
                 return rc;
             }
         }
+        if (request.type == OpCode.closeSessions && request.getTxn() instanceof CloseSessionsTxn) {
+            for (ClosedSession session : ((CloseSessionsTxn) request.getTxn()).getSessions()) {
+                if (!closeSession(zks.serverCnxnFactory, session.getSessionId())) {
+                    closeSession(zks.secureServerCnxnFactory, session.getSessionId());
+                }
+            }
+        }
 
         if (request.getHdr() != null) {
             /*
@@ -416,6 +434,20 @@ public void processRequest(Request request) {
                         cnxn);
                 break;
             }
+            case OpCode.setWatches3: {
+                lastOp = "STW3";
+                SetWatches3 setWatches = request.readRequestRecord(SetWatches3::new);
+                long relativeZxid = setWatches.getRelativeZxid();
+                CompactPathList.Decoder decoder = new CompactPathList.Decoder(SET_WATCHES3_MAX_DECODED_SIZE);
+                zks.getZKDatabase().setWatches(relativeZxid,
+                        decoder.decode(setWatches.getDataWatches()),
+                        decoder.decode(setWatches.getExistWatches()),
+                        decoder.decode(setWatches.getChildWatches()),
+                        decoder.decode(setWatches.getPersistentWatches()),
+                        decoder.decode(setWatches.getPersistentRecursiveWatches()),
+                        cnxn);
+                break;
+            }
             case OpCode.addWatch: {
                 lastOp = "ADDW";
                 AddWatchRequest addWatcherRequest = request.readRequestRecord(AddWatchRequest::new);
@@ -513,6 +545,40 @@ public void processRequest(Request request) {
                 requestPathMetricsCollector.registerRequest(request.type, path);
                 break;
             }
+            case OpCode.getChildrenPage: {
+                lastOp = "GETP";
+                GetChildrenPageRequest getChildrenPageRequest = request.readRequestRecord(GetChildrenPageRequest::new);
+                Stat stat = new Stat();
+                path = getChildrenPageRequest.getPath();
+                int limit = getChildrenPageRequest.getLimit();
+                if (limit <= 0) {
+                    throw new KeeperException.BadArgumentsException(path);
+                }
+                DataNode n = zks.getZKDatabase().getNode(path);
+                if (n == null) {
+                    throw new KeeperException.NoNodeException();
+                }
+                zks.checkACL(
+                    request.cnxn,
+                    zks.getZKDatabase().aclForNode(n),
+                    ZooDefs.Perms.READ,
+                    request.authInfo, path,
+                    null);
+                // one more child tells whether there is a next page
+                List<String> children = zks.getZKDatabase().getChildrenPage(
+                    path,
+                    getChildrenPageRequest.getCursor(),
+                    limit == Integer.MAX_VALUE ? limit : limit + 1,
+                    stat,
+                    getChildrenPageRequest.getWatch() ? cnxn : null);
+                boolean more = children.size() > limit;
+                if (more) {
+                    children = children.subList(0, limit);
+                }
+                rsp = new GetChildrenPageResponse(children, stat, more);
+                requestPathMetricsCollector.registerRequest(request.type, path);
+                break;
+            }
             case OpCode.checkWatches: {
                 lastOp = "CHKW";
                 CheckWatchesRequest checkWatches = request.readRequestRecord(CheckWatchesRequest::new);
@@ -548,17 +614,10 @@ public void processRequest(Request request) {
                 lastOp = "GETE";
                 GetEphemeralsRequest getEphemerals = request.readRequestRecord(GetEphemeralsRequest::new);
                 String prefixPath = getEphemerals.getPrefixPath();
-                Set<String> allEphems = zks.getZKDatabase().getDataTree().getEphemerals(request.sessionId);
-                List<String> ephemerals = new ArrayList<>();
                 if (prefixPath == null || prefixPath.trim().isEmpty() || "/".equals(prefixPath.trim())) {
-                    ephemerals.addAll(allEphems);
-                } else {
-                    for (String p : allEphems) {
-                        if (p.startsWith(prefixPath)) {
-                            ephemerals.add(p);
-                        }
-                    }
+                    prefixPath = "/";
                 }
+                List<String> ephemerals = zks.getZKDatabase().getDataTree().getEphemerals(request.sessionId, prefixPath);
                 rsp = new GetEphemeralsResponse(ephemerals);
                 break;
             }
@@ -46,7 +46,6 @@
 import org.apache.zookeeper.proto.ConnectRequest;
 import org.apache.zookeeper.proto.ReplyHeader;
 import org.apache.zookeeper.proto.RequestHeader;
-import org.apache.zookeeper.proto.WatcherEvent;
 import org.apache.zookeeper.server.NIOServerCnxnFactory.SelectorThread;
 import org.apache.zookeeper.server.command.CommandExecutor;
 import org.apache.zookeeper.server.command.FourLetterCommands;
@@ -689,6 +688,9 @@ public static void closeSock(SocketChannel sock) {
     @Override
     public int sendResponse(ReplyHeader h, Record r, String tag, String cacheKey, Stat stat, int opCode) {
         int responseSize = 0;
+        if (h.getXid() != ClientCnxn.NOTIFICATION_XID) {
+            flushWatchEvents();
+        }
         try {
             ByteBuffer[] bb = serialize(h, r, cacheKey, stat, opCode);
             responseSize = bb[0].getInt();
@@ -708,6 +710,12 @@ public int sendResponse(ReplyHeader h, Record r, String tag, String cacheKey, St
      */
     @Override
     public void process(WatchedEvent event, List<ACL> znodeAcl) {
+        process(new SerializedWatchEvent(event), znodeAcl);
+    }
+
+    @Override
+    void sendWatchEvent(SerializedWatchEvent serializedEvent, List<ACL> znodeAcl) {
+        WatchedEvent event = serializedEvent.getEvent();
         try {
             zkServer.checkACL(this, znodeAcl, ZooDefs.Perms.READ, getAuthInfo(), event.getPath(), null);
         } catch (KeeperException.NoAuthException e) {
@@ -719,7 +727,6 @@ public void process(WatchedEvent event, List<ACL> znodeAcl) {
             }
             return;
         }
-        ReplyHeader h = new ReplyHeader(ClientCnxn.NOTIFICATION_XID, event.getZxid(), 0);
         if (LOG.isTraceEnabled()) {
             ZooTrace.logTraceMessage(
                 LOG,
@@ -727,14 +734,16 @@ public void process(WatchedEvent event, List<ACL> znodeAcl) {
                 "Deliver event " + event + " to 0x" + Long.toHexString(this.sessionId) + " through " + this);
         }
 
-        // Convert WatchedEvent to a type that can be sent over the wire
-        WatcherEvent e = event.getWrapper();
-
-        // The last parameter OpCode here is used to select the response cache.
-        // Passing OpCode.error (with a value of -1) means we don't care, as we don't need
-        // response cache on delivering watcher events.
-        int responseSize = sendResponse(h, e, "notification", null, null, ZooDefs.OpCode.error);
-        ServerMetrics.getMetrics().WATCH_BYTES.add(responseSize);
+        // The packet is the same for all the connections the event is sent to,
+        // it is only serialized once
+        ByteBuffer packet = serializedEvent.getPacket();
+        int packetLength = packet.remaining() - 4;
+        ServerStats serverStats = serverStats();
+        if (serverStats != null) {
+            serverStats.updateClientResponseSize(packetLength);
+        }
+        sendBuffer(packet);
+        ServerMetrics.getMetrics().WATCH_BYTES.add(packetLength);
     }
 
     /*
@@ -52,7 +52,6 @@
 import org.apache.zookeeper.proto.ConnectRequest;
 import org.apache.zookeeper.proto.ReplyHeader;
 import org.apache.zookeeper.proto.RequestHeader;
-import org.apache.zookeeper.proto.WatcherEvent;
 import org.apache.zookeeper.server.command.CommandExecutor;
 import org.apache.zookeeper.server.command.FourLetterCommands;
 import org.apache.zookeeper.server.command.NopCommand;
@@ -166,6 +165,12 @@ public int getSessionTimeout() {
 
     @Override
     public void process(WatchedEvent event, List<ACL> znodeAcl) {
+        process(new SerializedWatchEvent(event), znodeAcl);
+    }
+
+    @Override
+    void sendWatchEvent(SerializedWatchEvent serializedEvent, List<ACL> znodeAcl) {
+        WatchedEvent event = serializedEvent.getEvent();
         try {
             zkServer.checkACL(this, znodeAcl, ZooDefs.Perms.READ, getAuthInfo(), event.getPath(), null);
         } catch (KeeperException.NoAuthException e) {
@@ -177,7 +182,6 @@ public void process(WatchedEvent event, List<ACL> znodeAcl) {
             }
             return;
         }
-        ReplyHeader h = new ReplyHeader(ClientCnxn.NOTIFICATION_XID, event.getZxid(), 0);
         if (LOG.isTraceEnabled()) {
             ZooTrace.logTraceMessage(
                 LOG,
@@ -185,16 +189,18 @@ public void process(WatchedEvent event, List<ACL> znodeAcl) {
                 "Deliver event " + event + " to 0x" + Long.toHexString(this.sessionId) + " through " + this);
         }
 
-        // Convert WatchedEvent to a type that can be sent over the wire
-        WatcherEvent e = event.getWrapper();
-
-        try {
-            int responseSize = sendResponse(h, e, "notification");
-            ServerMetrics.getMetrics().WATCH_BYTES.add(responseSize);
-        } catch (IOException e1) {
-            LOG.debug("Problem sending to {}", getRemoteSocketAddress(), e1);
-            close();
+        if (closingChannel || !channel.isOpen()) {
+            return;
         }
+        // The packet is the same for all the connections the event is sent to,
+        // it is only serialized once and each channel writes a duplicate of it
+        int packetLength = serializedEvent.getPacketLength();
+        ServerStats serverStats = serverStats();
+        if (serverStats != null) {
+            serverStats.updateClientResponseSize(packetLength);
+        }
+        channel.writeAndFlush(serializedEvent.getByteBuf()).addListener(onSendBufferDoneListener);
+        ServerMetrics.getMetrics().WATCH_BYTES.add(packetLength);
     }
 
     @Override
@@ -205,6 +211,9 @@ public int sendResponse(ReplyHeader h, Record r, String tag,
         if (closingChannel || !channel.isOpen()) {
             return 0;
         }
+        if (h.getXid() != ClientCnxn.NOTIFICATION_XID) {
+            flushWatchEvents();
+        }
         ByteBuffer[] bb = serialize(h, r, cacheKey, stat, opCode);
         int responseSize = bb[0].getInt();
         bb[0].rewind();
@@ -66,6 +66,8 @@
 import org.apache.zookeeper.server.quorum.flexible.QuorumVerifier;
 import org.apache.zookeeper.txn.CheckVersionTxn;
 import org.apache.zookeeper.txn.CloseSessionTxn;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
+import org.apache.zookeeper.txn.ClosedSession;
 import org.apache.zookeeper.txn.CreateContainerTxn;
 import org.apache.zookeeper.txn.CreateSessionTxn;
 import org.apache.zookeeper.txn.CreateTTLTxn;
@@ -305,6 +307,67 @@ private String validatePathForCreate(String path, long sessionId) throws BadArgu
         return path.substring(0, lastSlash);
     }
 
+    /**
+     * Add the change records deleting the ephemerals of closed sessions.
+     */
+    private void addEphemeralDeletions(Request request, Iterable<String> paths) throws KeeperException {
+        for (String path2Delete : paths) {
+            if (digestEnabled) {
+                String parentPath = getParentPathAndValidate(path2Delete);
+                ChangeRecord parentRecord = getRecordForPath(parentPath);
+                parentRecord = parentRecord.duplicate(request.getHdr().getZxid());
+                parentRecord.stat.setPzxid(request.getHdr().getZxid());
+                parentRecord.precalculatedDigest = precalculateDigest(
+                        DigestOpCode.UPDATE, parentPath, parentRecord.data, parentRecord.stat);
+                addChangeRecord(parentRecord);
+            }
+            ChangeRecord nodeRecord = new ChangeRecord(
+                    request.getHdr().getZxid(), path2Delete, null, 0, null);
+            nodeRecord.precalculatedDigest = precalculateDigest(
+                    DigestOpCode.REMOVE, path2Delete);
+            addChangeRecord(nodeRecord);
+        }
+    }
+
+    /**
+     * Close the sessions of a closeSessions request like a closeSession
+     * request closes a single session, scanning the outstanding changes
+     * once for all the sessions.
+     */
+    private void prepCloseSessions(Request request) throws KeeperException, IOException {
+        CloseSessionsTxn closeSessionsTxn = request.readRequestRecord(CloseSessionsTxn::new);
+        long startTime = Time.currentElapsedTime();
+        synchronized (zks.outstandingChanges) {
+            Map<Long, ClosedSession> sessions = new HashMap<>();
+            // owner of each ephemeral to delete
+            Map<String, Long> ephemerals = new HashMap<>();
+            for (ClosedSession session : closeSessionsTxn.getSessions()) {
+                long sessionId = session.getSessionId();
+                sessions.put(sessionId, session);
+                for (String path : zks.getZKDatabase().getEphemerals(sessionId)) {
+                    ephemerals.put(path, sessionId);
+                }
+            }
+            for (ChangeRecord c : zks.outstandingChanges) {
+                if (c.stat == null) {
+                    // Doing a delete
+                    ephemerals.remove(c.path);
+                } else if (sessions.containsKey(c.stat.getEphemeralOwner())) {
+                    ephemerals.put(c.path, c.stat.getEphemeralOwner());
+                }
+            }
+            for (Map.Entry<String, Long> e : ephemerals.entrySet()) {
+                sessions.get(e.getValue()).getPaths2Delete().add(e.getKey());
+            }
+            addEphemeralDeletions(request, ephemerals.keySet());
+            request.setTxn(closeSessionsTxn);
+            for (long sessionId : sessions.keySet()) {
+                zks.sessionTracker.setSessionClosing(sessionId);
+            }
+        }
+        ServerMetrics.getMetrics().CLOSE_SESSION_PREP_TIME.add(Time.currentElapsedTime() - startTime);
+    }
+
     /**
      * This method will be called inside the ProcessRequestThread, which is a
      * singleton, so there will be a single thread calling this code.
@@ -587,22 +650,7 @@ protected void pRequest2Txn(int type, long zxid, Request request, Record record)
                         es.add(c.path);
                     }
                 }
-                for (String path2Delete : es) {
-                    if (digestEnabled) {
-                        parentPath = getParentPathAndValidate(path2Delete);
-                        parentRecord = getRecordForPath(parentPath);
-                        parentRecord = parentRecord.duplicate(request.getHdr().getZxid());
-                        parentRecord.stat.setPzxid(request.getHdr().getZxid());
-                        parentRecord.precalculatedDigest = precalculateDigest(
-                                DigestOpCode.UPDATE, parentPath, parentRecord.data, parentRecord.stat);
-                        addChangeRecord(parentRecord);
-                    }
-                    nodeRecord = new ChangeRecord(
-                            request.getHdr().getZxid(), path2Delete, null, 0, null);
-                    nodeRecord.precalculatedDigest = precalculateDigest(
-                            DigestOpCode.REMOVE, path2Delete);
-                    addChangeRecord(nodeRecord);
-                }
+                addEphemeralDeletions(request, es);
                 if (ZooKeeperServer.isCloseSessionTxnEnabled()) {
                     request.setTxn(new CloseSessionTxn(new ArrayList<String>(es)));
                 }
@@ -610,6 +658,9 @@ protected void pRequest2Txn(int type, long zxid, Request request, Record record)
             }
             ServerMetrics.getMetrics().CLOSE_SESSION_PREP_TIME.add(Time.currentElapsedTime() - startTime);
             break;
+        case OpCode.closeSessions:
+            prepCloseSessions(request);
+            break;
         case OpCode.check:
             zks.sessionTracker.checkSession(request.sessionId, request.getOwner());
             CheckVersionRequest checkVersionRequest = (CheckVersionRequest) record;
@@ -883,6 +934,7 @@ private void pRequestHelper(Request request) {
             //create/close session don't require request record
             case OpCode.createSession:
             case OpCode.closeSession:
+            case OpCode.closeSessions:
                 if (!request.isLocalSession()) {
                     pRequest2Txn(request.type, zks.getNextZxid(), request, null);
                 }
@@ -896,9 +948,11 @@ private void pRequestHelper(Request request) {
             case OpCode.getChildren:
             case OpCode.getAllChildrenNumber:
             case OpCode.getChildren2:
+            case OpCode.getChildrenPage:
             case OpCode.ping:
             case OpCode.setWatches:
             case OpCode.setWatches2:
+            case OpCode.setWatches3:
             case OpCode.checkWatches:
             case OpCode.removeWatches:
             case OpCode.getEphemerals:
@@ -178,6 +178,7 @@ public void setIsThrottled(boolean val) {
     public boolean isThrottlable() {
         return this.type != OpCode.ping
                 && this.type != OpCode.closeSession
+                && this.type != OpCode.closeSessions
                 && this.type != OpCode.createSession;
     }
 
@@ -323,6 +324,7 @@ static boolean isValid(int type) {
         case OpCode.getChildren:
         case OpCode.getAllChildrenNumber:
         case OpCode.getChildren2:
+        case OpCode.getChildrenPage:
         case OpCode.getData:
         case OpCode.getEphemerals:
         case OpCode.multi:
@@ -333,6 +335,7 @@ static boolean isValid(int type) {
         case OpCode.setData:
         case OpCode.setWatches:
         case OpCode.setWatches2:
+        case OpCode.setWatches3:
         case OpCode.sync:
         case OpCode.checkWatches:
         case OpCode.removeWatches:
@@ -351,6 +354,7 @@ public boolean isQuorum() {
         case OpCode.getChildren:
         case OpCode.getAllChildrenNumber:
         case OpCode.getChildren2:
+        case OpCode.getChildrenPage:
         case OpCode.getData:
         case OpCode.getEphemerals:
         case OpCode.multiRead:
@@ -368,6 +372,7 @@ public boolean isQuorum() {
         case OpCode.check:
         case OpCode.multi:
         case OpCode.reconfig:
+        case OpCode.closeSessions:
             return true;
         case OpCode.closeSession:
         case OpCode.createSession:
@@ -403,6 +408,8 @@ public static String op2String(int op) {
                 return "ping";
             case OpCode.getChildren2:
                 return "getChildren2";
+            case OpCode.getChildrenPage:
+                return "getChildrenPage";
             case OpCode.check:
                 return "check";
             case OpCode.multi:
@@ -429,6 +436,8 @@ public static String op2String(int op) {
                 return "setWatches";
             case OpCode.setWatches2:
                 return "setWatches2";
+            case OpCode.setWatches3:
+                return "setWatches3";
             case OpCode.addWatch:
                 return "addWatch";
             case OpCode.sasl:
@@ -441,6 +450,8 @@ public static String op2String(int op) {
                 return "createSession";
             case OpCode.closeSession:
                 return "closeSession";
+            case OpCode.closeSessions:
+                return "closeSessions";
             case OpCode.error:
                 return "error";
             case OpCode.whoAmI:
@@ -464,7 +475,9 @@ public String toString() {
         if (type != OpCode.createSession
             && type != OpCode.setWatches
             && type != OpCode.setWatches2
+            && type != OpCode.setWatches3
             && type != OpCode.closeSession
+            && type != OpCode.closeSessions
             && request != null) {
             try {
                 // make sure we don't mess with request itself
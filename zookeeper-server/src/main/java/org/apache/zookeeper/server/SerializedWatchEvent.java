@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.proto.ReplyHeader;
+
+/**
+ * A watch event shared by all the watchers triggered by the same change.
+ *
+ * The notification sent to the clients does not depend on the connection:
+ * it is the length of the packet, a {@link ReplyHeader} with the
+ * notification xid and the zxid of the change, and the
+ * {@link org.apache.zookeeper.proto.WatcherEvent}. So it is serialized once,
+ * the first time it is sent, and every connection then sends a duplicate of
+ * the same read-only buffer.
+ */
+public class SerializedWatchEvent {
+
+    private final WatchedEvent event;
+
+    private volatile ByteBuffer packet;
+    private volatile ByteBuf byteBuf;
+
+    public SerializedWatchEvent(WatchedEvent event) {
+        this.event = event;
+    }
+
+    public WatchedEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the whole packet, length included, positioned at its start.
+     *         Each call returns a new view of the shared content
+     */
+    public ByteBuffer getPacket() {
+        ByteBuffer p = packet;
+        if (p == null) {
+            synchronized (this) {
+                p = packet;
+                if (p == null) {
+                    p = ByteBuffer.wrap(serialize()).asReadOnlyBuffer();
+                    packet = p;
+                }
+            }
+        }
+        return p.duplicate();
+    }
+
+    /**
+     * @return the packet as a Netty buffer sharing the content of the other
+     *         buffers returned. It is not reference counted, the content is
+     *         on the heap and freed once no connection holds it anymore
+     */
+    public ByteBuf getByteBuf() {
+        ByteBuf b = byteBuf;
+        if (b == null) {
+            synchronized (this) {
+                b = byteBuf;
+                if (b == null) {
+                    b = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(getPacket()));
+                    byteBuf = b;
+                }
+            }
+        }
+        return b.duplicate();
+    }
+
+    /**
+     * @return the length of the packet, not including the 4 bytes of the length
+     */
+    public int getPacketLength() {
+        return getPacket().remaining() - 4;
+    }
+
+    private byte[] serialize() {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + (event.getPath() == null ? 0 : event.getPath().length()));
+            BinaryOutputArchive boa = BinaryOutputArchive.getArchive(baos);
+            // placeholder for the length
+            boa.writeInt(0, "len");
+            new ReplyHeader(ClientCnxn.NOTIFICATION_XID, event.getZxid(), 0).serialize(boa, "header");
+            event.getWrapper().serialize(boa, "event");
+            byte[] bytes = baos.toByteArray();
+            ByteBuffer.wrap(bytes).putInt(bytes.length - 4);
+            return bytes;
+        } catch (IOException e) {
+            // the archive writes to memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -31,8 +31,12 @@
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.jute.Record;
 import org.apache.zookeeper.Quotas;
@@ -63,6 +67,26 @@ public abstract class ServerCnxn implements Stats, ServerWatcher {
     private final Set<Id> authInfo = Collections.newSetFromMap(new ConcurrentHashMap<>());
     private final AtomicLong outstandingCount = new AtomicLong();
 
+    /*
+     * Watch events waiting to be sent by the WatchEventDispatcher. The count
+     * is only decremented once an event is sent, so that a response is never
+     * sent while an earlier event is being sent.
+     */
+    private final Queue<QueuedWatchEvent> queuedWatchEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedWatchEventCount = new AtomicInteger();
+    private final AtomicBoolean watchEventDeliveryScheduled = new AtomicBoolean();
+
+    private static class QueuedWatchEvent {
+
+        final SerializedWatchEvent event;
+        final List<ACL> znodeAcl;
+
+        QueuedWatchEvent(SerializedWatchEvent event, List<ACL> znodeAcl) {
+            this.event = event;
+            this.znodeAcl = znodeAcl;
+        }
+    }
+
     /** The ZooKeeperServer for this connection. May be null if the server
      * is not currently serving requests (for example if the server is not
      * an active quorum participant.
@@ -92,6 +116,7 @@ public enum DisconnectReason {
         CLEAN_UP("clean_up"),
         CONNECTION_MODE_CHANGED("connection_mode_changed"),
         RENEW_GLOBAL_SESSION_IN_RO_MODE("renew a global session in readonly mode"),
+        WATCH_EVENT_FAILURE("watch_event_failure"),
         // Below reasons are NettyServerCnxnFactory only
         CHANNEL_DISCONNECTED("channel disconnected"),
         CHANNEL_CLOSED_EXCEPTION("channel_closed_exception"),
@@ -260,6 +285,86 @@ public void process(WatchedEvent event) {
 
     public abstract void process(WatchedEvent event, List<ACL> znodeAcl);
 
+    @Override
+    public void process(SerializedWatchEvent event, List<ACL> znodeAcl) {
+        if (!queueWatchEvent(event, znodeAcl)) {
+            sendWatchEvent(event, znodeAcl);
+        }
+    }
+
+    /**
+     * Send the watch event to the client, unless the znode ACL does not allow
+     * the client to read it.
+     */
+    abstract void sendWatchEvent(SerializedWatchEvent event, List<ACL> znodeAcl);
+
+    /**
+     * Queue the watch event for the {@link WatchEventDispatcher}, if it is enabled.
+     *
+     * @return false if the event was not queued and must be sent by the caller
+     */
+    boolean queueWatchEvent(SerializedWatchEvent event, List<ACL> znodeAcl) {
+        WatchEventDispatcher dispatcher = zkServer == null ? null : zkServer.getWatchEventDispatcher();
+        if (dispatcher == null) {
+            return false;
+        }
+        queuedWatchEventCount.incrementAndGet();
+        queuedWatchEvents.add(new QueuedWatchEvent(event, znodeAcl));
+        if (watchEventDeliveryScheduled.compareAndSet(false, true)) {
+            dispatcher.schedule(this);
+        }
+        return true;
+    }
+
+    /**
+     * Called by the {@link WatchEventDispatcher} once the connection is scheduled.
+     */
+    void deliverQueuedWatchEvents() {
+        // events queued from now on need another run
+        watchEventDeliveryScheduled.set(false);
+        int delivered = flushWatchEvents();
+        if (delivered > 0) {
+            ServerMetrics.getMetrics().WATCH_NOTIFICATION_BATCH_SIZE.add(delivered);
+        }
+    }
+
+    /**
+     * Send the queued watch events, in order. Must be called before sending
+     * any response, so that the events triggered by a txn always reach the
+     * client before the responses to its requests processed after that txn.
+     *
+     * If an event can't be sent, the next ones are still sent, and then the
+     * connection is closed, so that the client knows it may have missed
+     * events and sets its watches again.
+     *
+     * @return the number of events sent by this call
+     */
+    int flushWatchEvents() {
+        if (queuedWatchEventCount.get() == 0) {
+            return 0;
+        }
+        int delivered = 0;
+        boolean failed = false;
+        synchronized (queuedWatchEvents) {
+            QueuedWatchEvent queued;
+            while ((queued = queuedWatchEvents.poll()) != null) {
+                try {
+                    sendWatchEvent(queued.event, queued.znodeAcl);
+                    delivered++;
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to send a watch event to session 0x{}", Long.toHexString(getSessionId()), e);
+                    failed = true;
+                } finally {
+                    queuedWatchEventCount.decrementAndGet();
+                }
+            }
+        }
+        if (failed) {
+            close(DisconnectReason.WATCH_EVENT_FAILURE);
+        }
+        return delivered;
+    }
+
     public abstract long getSessionId();
 
     abstract void setSessionId(long sessionId);
@@ -84,9 +84,16 @@ private ServerMetrics(MetricsProvider metricsProvider) {
         FOLLOWER_SYNC_TIME = metricsContext.getSummary("follower_sync_time", DetailLevel.BASIC);
         OBSERVER_SYNC_TIME = metricsContext.getSummary("observer_sync_time", DetailLevel.BASIC);
         ELECTION_TIME = metricsContext.getSummary("election_time", DetailLevel.BASIC);
+        ELECTION_FIRST_NOTIFICATION_TIME = metricsContext.getSummary("election_first_notification_time", DetailLevel.BASIC);
+        ELECTION_QUORUM_TIME = metricsContext.getSummary("election_quorum_time", DetailLevel.BASIC);
+        ELECTION_FINALIZE_WAIT_TIME = metricsContext.getSummary("election_finalize_wait_time", DetailLevel.BASIC);
+        ELECTION_NOTIFICATION_TIMEOUT_COUNT = metricsContext.getCounter("election_notification_timeout_count");
         LOOKING_COUNT = metricsContext.getCounter("looking_count");
         DIFF_COUNT = metricsContext.getCounter("diff_count");
         SNAP_COUNT = metricsContext.getCounter("snap_count");
+        SNAP_FILE_COUNT = metricsContext.getCounter("snap_file_count");
+        SNAP_FILE_RESUMED_COUNT = metricsContext.getCounter("snap_file_resumed_count");
+        SNAP_SYNC_THROTTLE_TIME = metricsContext.getSummary("snap_sync_throttle_time_ms", DetailLevel.BASIC);
         COMMIT_COUNT = metricsContext.getCounter("commit_count");
         CONNECTION_REQUEST_COUNT = metricsContext.getCounter("connection_request_count");
         CONNECTION_TOKEN_DEFICIT = metricsContext.getSummary("connection_token_deficit", DetailLevel.BASIC);
@@ -265,6 +272,7 @@ private ServerMetrics(MetricsProvider metricsProvider) {
 
         RESPONSE_BYTES = metricsContext.getCounter("response_bytes");
         WATCH_BYTES = metricsContext.getCounter("watch_bytes");
+        WATCH_NOTIFICATION_BATCH_SIZE = metricsContext.getSummary("watch_notification_batch_size", DetailLevel.BASIC);
 
         JVM_PAUSE_TIME = metricsContext.getSummary("jvm_pause_time_ms", DetailLevel.ADVANCED);
 
@@ -336,10 +344,19 @@ private ServerMetrics(MetricsProvider metricsProvider) {
     public final Summary OBSERVER_SYNC_TIME;
 
     public final Summary ELECTION_TIME;
+    // Phases of a leader election, measured from the moment the peer starts looking
+    public final Summary ELECTION_FIRST_NOTIFICATION_TIME;
+    public final Summary ELECTION_QUORUM_TIME;
+    public final Summary ELECTION_FINALIZE_WAIT_TIME;
+    public final Counter ELECTION_NOTIFICATION_TIMEOUT_COUNT;
 
     public final Counter LOOKING_COUNT;
     public final Counter DIFF_COUNT;
     public final Counter SNAP_COUNT;
+    // Snapshot syncs that streamed the on-disk snapshot file, and how many of them resumed a previous transfer
+    public final Counter SNAP_FILE_COUNT;
+    public final Counter SNAP_FILE_RESUMED_COUNT;
+    public final Summary SNAP_SYNC_THROTTLE_TIME;
     public final Counter COMMIT_COUNT;
     public final Counter CONNECTION_REQUEST_COUNT;
 
@@ -545,6 +562,11 @@ private ServerMetrics(MetricsProvider metricsProvider) {
     public final Counter RESPONSE_BYTES;
     public final Counter WATCH_BYTES;
 
+    /**
+     * Number of watch events sent at once by the WatchEventDispatcher to a connection.
+     */
+    public final Summary WATCH_NOTIFICATION_BATCH_SIZE;
+
     public final Summary JVM_PAUSE_TIME;
 
     public final CounterSet QUOTA_EXCEEDED_ERROR_PER_NAMESPACE;
@@ -26,4 +26,12 @@ public interface ServerWatcher extends Watcher {
 
   void process(WatchedEvent event, List<ACL> znodeAcl);
 
+  /**
+   * Process an event which is shared by all the watchers triggered by the
+   * same change.
+   */
+  default void process(SerializedWatchEvent event, List<ACL> znodeAcl) {
+      process(event.getEvent(), znodeAcl);
+  }
+
 }
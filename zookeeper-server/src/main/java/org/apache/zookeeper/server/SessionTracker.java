@@ -19,6 +19,7 @@
 package org.apache.zookeeper.server;
 
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import org.apache.zookeeper.KeeperException;
@@ -44,6 +45,15 @@ interface SessionExpirer {
 
         void expire(Session session);
 
+        /**
+         * Expire the sessions which timed out at the same time.
+         */
+        default void expire(Collection<? extends Session> sessions) {
+            for (Session session : sessions) {
+                expire(session);
+            }
+        }
+
         long getServerId();
 
     }
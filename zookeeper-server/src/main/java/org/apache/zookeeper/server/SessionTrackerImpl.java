@@ -164,11 +164,15 @@ public void run() {
                     continue;
                 }
 
-                for (SessionImpl s : sessionExpiryQueue.poll()) {
+                Set<SessionImpl> expired = sessionExpiryQueue.poll();
+                if (expired.isEmpty()) {
+                    continue;
+                }
+                for (SessionImpl s : expired) {
                     ServerMetrics.getMetrics().STALE_SESSIONS_EXPIRED.add(1);
                     setSessionClosing(s.sessionId);
-                    expirer.expire(s);
                 }
+                expirer.expire(expired);
             }
         } catch (InterruptedException e) {
             handleException(this.getName(), e);
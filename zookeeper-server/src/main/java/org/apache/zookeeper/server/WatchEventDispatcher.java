@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of threads delivering watch events to the client connections, so
+ * that the thread applying a txn does not have to send the events of all the
+ * watches it triggers.
+ *
+ * Triggering a watch only queues the event on the connection, see
+ * {@link ServerCnxn#process(org.apache.zookeeper.WatchedEvent, java.util.List)},
+ * and schedules the connection on the pool unless it is already scheduled. A
+ * pool thread then sends all the events queued on that connection in order.
+ * A connection sends the events still queued before sending any response, so
+ * a client sees the events triggered by a txn before the responses to the
+ * requests processed after that txn, as when the events are sent inline.
+ *
+ * Each server creates its own pool when it starts and shuts it down with
+ * its other components. Disabled unless zookeeper.watchNotificationThreads
+ * is greater than 0.
+ */
+public final class WatchEventDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WatchEventDispatcher.class);
+
+    public static final String WATCH_NOTIFICATION_THREADS = "zookeeper.watchNotificationThreads";
+
+    private final ExecutorService pool;
+
+    WatchEventDispatcher(int threads) {
+        AtomicInteger threadIndex = new AtomicInteger(1);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new ZooKeeperThread(runnable, "WatchNotificationThread-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        pool = Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    /**
+     * @return a dispatcher with the configured number of threads, or null if
+     * the asynchronous delivery is disabled
+     */
+    static WatchEventDispatcher create() {
+        int threads = Integer.getInteger(WATCH_NOTIFICATION_THREADS, 0);
+        LOG.info("{} = {}", WATCH_NOTIFICATION_THREADS, threads);
+        return threads > 0 ? new WatchEventDispatcher(threads) : null;
+    }
+
+    /**
+     * Have a pool thread send the events queued on the connection. If the
+     * pool is shut down the events are sent by the calling thread.
+     */
+    void schedule(ServerCnxn cnxn) {
+        try {
+            pool.execute(cnxn::deliverQueuedWatchEvents);
+            return;
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Watch notification pool is shut down, delivering inline");
+        }
+        cnxn.deliverQueuedWatchEvents();
+    }
+
+    /**
+     * Stop accepting new connections. The events already scheduled are still
+     * delivered.
+     */
+    void shutdown() {
+        pool.shutdown();
+    }
+
+}
@@ -96,6 +96,14 @@ public class ZKDatabase {
     public static final int DEFAULT_COMMIT_LOG_COUNT = 500;
     public int commitLogCount;
     protected Queue<Proposal> committedLog = new ArrayDeque<>();
+
+    /**
+     * Size in bytes of the off-heap buffer keeping the serialized committed
+     * log, the committed log is kept on heap if 0 (the default)
+     */
+    public static final String COMMIT_LOG_BUFFER_SIZE = "zookeeper.commitLogBufferSize";
+    public static final int DEFAULT_COMMIT_LOG_BUFFER_SIZE = 0;
+    protected CommittedLogBuffer committedLogBuffer;
     protected ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
     private volatile boolean initialized = false;
 
@@ -155,6 +163,12 @@ public ZKDatabase(FileTxnSnapLog snapLog) {
             commitLogCount = DEFAULT_COMMIT_LOG_COUNT;
         }
         LOG.info("{}={}", COMMIT_LOG_COUNT, commitLogCount);
+
+        int commitLogBufferSize = Integer.getInteger(COMMIT_LOG_BUFFER_SIZE, DEFAULT_COMMIT_LOG_BUFFER_SIZE);
+        if (commitLogBufferSize > 0) {
+            committedLogBuffer = new CommittedLogBuffer(commitLogBufferSize, commitLogCount);
+        }
+        LOG.info("{}={}", COMMIT_LOG_BUFFER_SIZE, commitLogBufferSize);
     }
 
     /**
@@ -183,6 +197,9 @@ public void clear() {
         try {
             lock.lock();
             committedLog.clear();
+            if (committedLogBuffer != null) {
+                committedLogBuffer.clear();
+            }
             minCommittedLog = 0;
             maxCommittedLog = 0;
         } finally {
@@ -230,11 +247,11 @@ public synchronized Collection<Proposal> getCommittedLog() {
         ReadLock rl = logLock.readLock();
         // make a copy if this thread is not already holding a lock
         if (logLock.getReadHoldCount() > 0) {
-            result = this.committedLog;
+            result = committedLogBuffer != null ? committedLogBuffer.asCollection() : this.committedLog;
         } else {
             rl.lock();
             try {
-                result = new ArrayList<>(this.committedLog);
+                result = new ArrayList<>(committedLogBuffer != null ? committedLogBuffer.asCollection() : this.committedLog);
             } finally {
                 rl.unlock();
             }
@@ -242,6 +259,23 @@ public synchronized Collection<Proposal> getCommittedLog() {
         return Collections.unmodifiableCollection(result);
     }
 
+    /**
+     * Iterate over the committed log starting right before the given zxid,
+     * i.e. at the last proposal with a lower zxid if any, so that the caller
+     * can tell whether the zxid is part of the history. The caller must hold
+     * the read lock returned by {@link #getLogLock()}.
+     *
+     * @param zxid zxid to start from
+     * @return iterator over the committed proposals
+     */
+    public Iterator<Proposal> getCommittedLogIterator(long zxid) {
+        if (committedLogBuffer == null) {
+            return getCommittedLog().iterator();
+        }
+        // binary search, instead of skipping the proposals one by one
+        return committedLogBuffer.iterator(committedLogBuffer.ceilingIndex(zxid) - 1);
+    }
+
     /**
      * get the last processed zxid from a datatree
      * @return the last processed zxid of a datatree
@@ -323,6 +357,10 @@ public void addCommittedProposal(Request request) {
         WriteLock wl = logLock.writeLock();
         try {
             wl.lock();
+            if (committedLogBuffer != null) {
+                addCommittedProposalToBuffer(request);
+                return;
+            }
             if (committedLog.isEmpty()) {
                 minCommittedLog = request.zxid;
                 maxCommittedLog = request.zxid;
@@ -352,6 +390,34 @@ public void addCommittedProposal(Request request) {
         }
     }
 
+    private void addCommittedProposalToBuffer(Request request) {
+        if (!committedLogBuffer.isEmpty()) {
+            if (request.zxid <= maxCommittedLog) {
+                return;
+            } else if (!allowDiscontinuousProposals
+                    && request.zxid != maxCommittedLog + 1
+                    && ZxidUtils.getEpochFromZxid(request.zxid) <= ZxidUtils.getEpochFromZxid(maxCommittedLog)) {
+                String msg = String.format(
+                    "Committed proposal cached out of order: 0x%s is not the next proposal of 0x%s",
+                    ZxidUtils.zxidToString(request.zxid),
+                    ZxidUtils.zxidToString(maxCommittedLog));
+                LOG.error(msg);
+                throw new IllegalStateException(msg);
+            }
+        }
+        byte[] entry = request.getSerializeData();
+        if (entry == null) {
+            return;
+        }
+        if (committedLogBuffer.add(request.zxid, entry)) {
+            minCommittedLog = committedLogBuffer.getZxid(0);
+            maxCommittedLog = request.zxid;
+        } else {
+            minCommittedLog = 0;
+            maxCommittedLog = 0;
+        }
+    }
+
     public boolean isTxnLogSyncEnabled() {
         boolean enabled = snapshotSizeFactor >= 0;
         if (enabled) {
@@ -375,6 +441,16 @@ public long calculateTxnLogSizeLimit() {
         return (long) (snapSize * snapshotSizeFactor);
     }
 
+    /**
+     * the most recent valid snapshot on disk, which can be streamed to
+     * learners as part of a snapshot file sync
+     * @return the snapshot file, or null if there is none
+     * @throws IOException
+     */
+    public File findMostRecentSnapshot() throws IOException {
+        return snapLog.findMostRecentSnapshot();
+    }
+
     /**
      * Get proposals from txnlog. Only packet part of proposal is populated.
      *
@@ -578,6 +654,25 @@ public List<String> getChildren(String path, Stat stat, Watcher watcher) throws
         return dataTree.getChildren(path, stat, watcher);
     }
 
+    /**
+     * get a page of the children of this path in sorted order
+     * @param path the path of the node
+     * @param cursor the last child of the previous page
+     * @param limit the maximum number of children
+     * @param stat the stat of the node
+     * @param watcher the watcher function
+     * @return the children after the cursor
+     * @throws KeeperException.NoNodeException
+     */
+    public List<String> getChildrenPage(
+        String path,
+        String cursor,
+        int limit,
+        Stat stat,
+        Watcher watcher) throws KeeperException.NoNodeException {
+        return dataTree.getChildrenPage(path, cursor, limit, stat, watcher);
+    }
+
     /*
      * get all sub-children number of this node
      * */
@@ -29,6 +29,7 @@
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
@@ -90,6 +91,8 @@
 import org.apache.zookeeper.server.util.OSMXBean;
 import org.apache.zookeeper.server.util.QuotaMetricsUtils;
 import org.apache.zookeeper.server.util.RequestPathMetricsCollector;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
+import org.apache.zookeeper.txn.ClosedSession;
 import org.apache.zookeeper.txn.CreateSessionTxn;
 import org.apache.zookeeper.txn.TxnDigest;
 import org.apache.zookeeper.txn.TxnHeader;
@@ -134,6 +137,11 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
     // this feature is confirmed to be stable
     public static final String CLOSE_SESSION_TXN_ENABLED = "zookeeper.closeSessionTxn.enabled";
     private static boolean closeSessionTxnEnabled = true;
+
+    // Servers before 3.10.0 cannot apply the closeSessions txn, so only
+    // enable it once all the servers of the ensemble are upgraded.
+    public static final String CLOSE_SESSIONS_BATCH_SIZE = "zookeeper.closeSessionsBatchSize";
+    private static int closeSessionsBatchSize;
     private volatile CountDownLatch restoreLatch;
     // exclusive lock for taking snapshot and restore
     private final Object snapshotAndRestoreLock = new Object();
@@ -167,6 +175,9 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
                 System.getProperty(CLOSE_SESSION_TXN_ENABLED, "true"));
         LOG.info("{} = {}", CLOSE_SESSION_TXN_ENABLED, closeSessionTxnEnabled);
 
+        closeSessionsBatchSize = Integer.getInteger(CLOSE_SESSIONS_BATCH_SIZE, 0);
+        LOG.info("{} = {}", CLOSE_SESSIONS_BATCH_SIZE, closeSessionsBatchSize);
+
         setSerializeLastProcessedZxidEnabled(Boolean.parseBoolean(
                 System.getProperty(ZOOKEEPER_SERIALIZE_LAST_PROCESSED_ZXID_ENABLED, "true")));
     }
@@ -192,6 +203,15 @@ public static void setCloseSessionTxnEnabled(boolean enabled) {
                 ZooKeeperServer.closeSessionTxnEnabled);
     }
 
+    public static int getCloseSessionsBatchSize() {
+        return closeSessionsBatchSize;
+    }
+
+    public static void setCloseSessionsBatchSize(int batchSize) {
+        ZooKeeperServer.closeSessionsBatchSize = batchSize;
+        LOG.info("Update {} to {}", CLOSE_SESSIONS_BATCH_SIZE, batchSize);
+    }
+
     protected ZooKeeperServerBean jmxServerBean;
     protected DataTreeBean jmxDataTreeBean;
 
@@ -296,6 +316,8 @@ protected enum State {
         "Internally the throttler has a BlockingQueue so "
         + "once the throttler is created and started, it is thread-safe")
     private RequestThrottler requestThrottler;
+
+    private volatile WatchEventDispatcher watchEventDispatcher;
     public static final String SNAP_COUNT = "zookeeper.snapCount";
 
     /**
@@ -740,6 +762,60 @@ public void expire(long sessionId) {
         close(sessionId);
     }
 
+    /**
+     * Expire the sessions which timed out together. If enabled, the global
+     * sessions are closed by closeSessions txns of up to
+     * zookeeper.closeSessionsBatchSize sessions, instead of one closeSession
+     * txn per session.
+     */
+    @Override
+    public void expire(Collection<? extends Session> sessions) {
+        int batchSize = closeSessionsBatchSize;
+        List<Long> batch = new ArrayList<>();
+        for (Session session : sessions) {
+            long sessionId = session.getSessionId();
+            if (batchSize <= 1 || isLocalSession(sessionId)) {
+                expire(session);
+                continue;
+            }
+            LOG.info(
+                "Expiring session 0x{}, timeout of {}ms exceeded",
+                Long.toHexString(sessionId),
+                session.getTimeout());
+            batch.add(sessionId);
+            if (batch.size() == batchSize) {
+                closeSessions(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            closeSessions(batch);
+        }
+    }
+
+    private void closeSessions(List<Long> sessionIds) {
+        if (sessionIds.size() == 1) {
+            close(sessionIds.get(0));
+            return;
+        }
+        List<ClosedSession> sessions = new ArrayList<>(sessionIds.size());
+        for (long sessionId : sessionIds) {
+            // the ephemerals are added by the PrepRequestProcessor
+            sessions.add(new ClosedSession(sessionId, new ArrayList<>()));
+        }
+        Request si = new Request(null, sessionIds.get(0), 0, OpCode.closeSessions,
+            RequestRecord.fromRecord(new CloseSessionsTxn(sessions)), null);
+        submitRequest(si);
+    }
+
+    /**
+     * @return true if the session is local to this server, closing it
+     *         doesn't need a txn
+     */
+    protected boolean isLocalSession(long sessionId) {
+        return false;
+    }
+
     public static class MissingSessionException extends IOException {
 
         private static final long serialVersionUID = 7467414635467261007L;
@@ -799,6 +875,8 @@ public synchronized void startup() {
         startSessionTracker();
         setupRequestProcessors();
 
+        startWatchEventDispatcher();
+
         startRequestThrottler();
 
         registerJMX();
@@ -831,6 +909,18 @@ protected RequestThrottler createRequestThrottler() {
         return new RequestThrottler(this);
     }
 
+    protected void startWatchEventDispatcher() {
+        watchEventDispatcher = WatchEventDispatcher.create();
+    }
+
+    /**
+     * @return the pool delivering the watch events of this server, or null
+     * if they are sent by the thread triggering the watches
+     */
+    WatchEventDispatcher getWatchEventDispatcher() {
+        return watchEventDispatcher;
+    }
+
     protected void setupRequestProcessors() {
         RequestProcessor finalProcessor = new FinalRequestProcessor(this);
         RequestProcessor syncProcessor = new SyncRequestProcessor(this, finalProcessor);
@@ -970,6 +1060,9 @@ protected void shutdownComponents() {
         if (firstProcessor != null) {
             firstProcessor.shutdown();
         }
+        if (watchEventDispatcher != null) {
+            watchEventDispatcher.shutdown();
+        }
         if (jvmPauseMonitor != null) {
             jvmPauseMonitor.serviceStop();
         }
@@ -1260,7 +1353,9 @@ public void submitRequestNow(Request si) {
         }
         try {
             touch(si.cnxn);
-            boolean validpacket = Request.isValid(si.type);
+            // closeSessions is only submitted by the server itself
+            boolean validpacket = Request.isValid(si.type)
+                || (si.type == OpCode.closeSessions && si.cnxn == null);
             if (validpacket) {
                 setLocalSessionFlag(si);
                 firstProcessor.processRequest(si);
@@ -1903,6 +1998,10 @@ private void processTxnForSessionEvents(Request request, TxnHeader hdr, Record t
             }
         } else if (opCode == OpCode.closeSession) {
             sessionTracker.removeSession(sessionId);
+        } else if (opCode == OpCode.closeSessions && txn instanceof CloseSessionsTxn) {
+            for (ClosedSession session : ((CloseSessionsTxn) txn).getSessions()) {
+                sessionTracker.removeSession(session.getSessionId());
+            }
         }
     }
 
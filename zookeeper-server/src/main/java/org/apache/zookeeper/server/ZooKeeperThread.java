@@ -36,6 +36,11 @@ public ZooKeeperThread(String threadName) {
         setUncaughtExceptionHandler(uncaughtExceptionalHandler);
     }
 
+    public ZooKeeperThread(Runnable target, String threadName) {
+        super(target, threadName);
+        setUncaughtExceptionHandler(uncaughtExceptionalHandler);
+    }
+
     /**
      * This will be used by the uncaught exception handler and just log a
      * warning message and return.
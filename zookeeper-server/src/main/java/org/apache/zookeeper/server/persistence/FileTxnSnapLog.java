@@ -37,6 +37,8 @@
 import org.apache.zookeeper.server.ServerStats;
 import org.apache.zookeeper.server.ZooTrace;
 import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
+import org.apache.zookeeper.txn.ClosedSession;
 import org.apache.zookeeper.txn.CreateSessionTxn;
 import org.apache.zookeeper.txn.TxnDigest;
 import org.apache.zookeeper.txn.TxnHeader;
@@ -438,6 +440,18 @@ public void processTransaction(
             }
             rc = dt.processTxn(hdr, txn);
             break;
+        case OpCode.closeSessions:
+            for (ClosedSession session : ((CloseSessionsTxn) txn).getSessions()) {
+                sessions.remove(session.getSessionId());
+                if (LOG.isTraceEnabled()) {
+                    ZooTrace.logTraceMessage(
+                        LOG,
+                        ZooTrace.SESSION_TRACE_MASK,
+                        "playLog --- close session in log: 0x" + Long.toHexString(session.getSessionId()));
+                }
+            }
+            rc = dt.processTxn(hdr, txn);
+            break;
         default:
             rc = dt.processTxn(hdr, txn);
         }
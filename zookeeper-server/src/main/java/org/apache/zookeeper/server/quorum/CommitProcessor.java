@@ -182,6 +182,7 @@ protected boolean needCommit(Request request) {
         case OpCode.multi:
         case OpCode.setACL:
         case OpCode.check:
+        case OpCode.closeSessions:
             return true;
         case OpCode.sync:
             return matchSyncs;
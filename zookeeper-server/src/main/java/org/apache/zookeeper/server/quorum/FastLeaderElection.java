@@ -29,6 +29,7 @@
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.zookeeper.common.Time;
 import org.apache.zookeeper.jmx.MBeanRegistry;
+import org.apache.zookeeper.server.ServerMetrics;
 import org.apache.zookeeper.server.ZooKeeperThread;
 import org.apache.zookeeper.server.quorum.QuorumCnxManager.Message;
 import org.apache.zookeeper.server.quorum.QuorumPeer.LearnerType;
@@ -945,6 +946,8 @@ public Vote lookForLeader() throws InterruptedException {
             sendNotifications();
 
             SyncedLearnerTracker voteSet = null;
+            boolean notified = false;
+            boolean quorumReached = false;
 
             /*
              * Loop in which we exchange notifications until we find a leader
@@ -962,6 +965,7 @@ public Vote lookForLeader() throws InterruptedException {
                  * Otherwise processes new notification.
                  */
                 if (n == null) {
+                    ServerMetrics.getMetrics().ELECTION_NOTIFICATION_TIMEOUT_COUNT.add(1);
                     if (manager.haveDelivered()) {
                         sendNotifications();
                     } else {
@@ -995,6 +999,11 @@ public Vote lookForLeader() throws InterruptedException {
                      * Only proceed if the vote comes from a replica in the current or next
                      * voting view for a replica in the current or next voting view.
                      */
+                    long now = Time.currentElapsedTime();
+                    if (!notified) {
+                        notified = true;
+                        ServerMetrics.getMetrics().ELECTION_FIRST_NOTIFICATION_TIME.add(now - self.start_fle);
+                    }
                     switch (n.state) {
                     case LOOKING:
                         if (getInitLastLoggedZxid() == -1) {
@@ -1039,6 +1048,11 @@ public Vote lookForLeader() throws InterruptedException {
                         voteSet = getVoteTracker(recvset, new Vote(proposedLeader, proposedZxid, logicalclock.get(), proposedEpoch));
 
                         if (voteSet.hasAllQuorums()) {
+                            long finalizeStart = Time.currentElapsedTime();
+                            if (!quorumReached) {
+                                quorumReached = true;
+                                ServerMetrics.getMetrics().ELECTION_QUORUM_TIME.add(finalizeStart - self.start_fle);
+                            }
 
                             // Verify if there is any change in the proposed leader
                             while ((n = recvqueue.poll(finalizeWait, TimeUnit.MILLISECONDS)) != null) {
@@ -1047,6 +1061,7 @@ public Vote lookForLeader() throws InterruptedException {
                                     break;
                                 }
                             }
+                            ServerMetrics.getMetrics().ELECTION_FINALIZE_WAIT_TIME.add(Time.currentElapsedTime() - finalizeStart);
 
                             /*
                              * This predicate is true once we don't read any new
@@ -92,4 +92,18 @@ public void setMaxConcurrentDiffSyncs(int maxConcurrentDiffSyncs) {
         }
     }
 
+    @Override
+    public long getMaxSnapSyncBytesPerSec() {
+        final ObserverMaster om = follower.om;
+        return om == null ? -1 : om.getMaxSnapSyncBytesPerSec();
+    }
+
+    @Override
+    public void setMaxSnapSyncBytesPerSec(long maxSnapSyncBytesPerSec) {
+        final ObserverMaster om = follower.om;
+        if (om != null) {
+            om.setMaxSnapSyncBytesPerSec(maxSnapSyncBytesPerSec);
+        }
+    }
+
 }
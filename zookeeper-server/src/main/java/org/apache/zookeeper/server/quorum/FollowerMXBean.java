@@ -75,4 +75,14 @@ public interface FollowerMXBean extends ZooKeeperServerMXBean {
      */
     void setMaxConcurrentDiffSyncs(int maxConcurrentDiffSyncs);
 
+    /**
+     * @return Maximum bytes per second used for sending snapshots to observers, 0 if unlimited
+     */
+    long getMaxSnapSyncBytesPerSec();
+
+    /**
+     * @param maxSnapSyncBytesPerSec Maximum bytes per second used for sending snapshots to observers, 0 for no limit
+     */
+    void setMaxSnapSyncBytesPerSec(long maxSnapSyncBytesPerSec);
+
 }
@@ -21,8 +21,6 @@
 import java.io.IOException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import javax.management.JMException;
-import org.apache.zookeeper.jmx.MBeanRegistry;
 import org.apache.zookeeper.metrics.MetricsContext;
 import org.apache.zookeeper.server.ExitCode;
 import org.apache.zookeeper.server.FinalRequestProcessor;
@@ -150,20 +148,11 @@ public Learner getLearner() {
      *
      * @param request received from external Learner
      */
-    void processObserverRequest(Request request) {
+    @Override
+    protected void processObserverRequest(Request request) {
         ((FollowerRequestProcessor) firstProcessor).processRequest(request, false);
     }
 
-    boolean registerJMX(LearnerHandlerBean handlerBean) {
-        try {
-            MBeanRegistry.getInstance().register(handlerBean, jmxServerBean);
-            return true;
-        } catch (JMException e) {
-            LOG.warn("Could not register connection", e);
-        }
-        return false;
-    }
-
     @Override
     protected void registerMetrics() {
         super.registerMetrics();
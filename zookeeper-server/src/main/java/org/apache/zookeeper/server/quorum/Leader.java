@@ -391,6 +391,17 @@ Optional<ServerSocket> createServerSocket(InetSocketAddress address, boolean por
      */
     static final int SNAP = 15;
 
+    /**
+     * This is for follower to download the most recent on-disk snapshot file
+     * in chunks, followed by a DIFF of the txns logged after that snapshot
+     */
+    static final int SNAPFILE = 20;
+
+    /**
+     * This carries a checksummed chunk of the snapshot file announced by SNAPFILE
+     */
+    static final int SNAPCHUNK = 21;
+
     /**
      * This tells the leader that the connecting peer is actually an observer
      */
@@ -1672,6 +1683,10 @@ public static String getPacketType(int packetType) {
             return "TRUNC";
         case SNAP:
             return "SNAP";
+        case SNAPFILE:
+            return "SNAPFILE";
+        case SNAPCHUNK:
+            return "SNAPCHUNK";
         case OBSERVERINFO:
             return "OBSERVERINFO";
         case NEWLEADER:
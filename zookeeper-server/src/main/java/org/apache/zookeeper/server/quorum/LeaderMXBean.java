@@ -85,4 +85,14 @@ public interface LeaderMXBean extends ZooKeeperServerMXBean {
      */
     void setMaxConcurrentDiffSyncs(int maxConcurrentDiffSyncs);
 
+    /**
+     * @return Maximum bytes per second used for sending snapshots to learners, 0 if unlimited
+     */
+    long getMaxSnapSyncBytesPerSec();
+
+    /**
+     * @param maxSnapSyncBytesPerSec Maximum bytes per second used for sending snapshots to learners, 0 for no limit
+     */
+    void setMaxSnapSyncBytesPerSec(long maxSnapSyncBytesPerSec);
+
 }
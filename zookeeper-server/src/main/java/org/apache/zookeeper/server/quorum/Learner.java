@@ -25,7 +25,9 @@
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -41,6 +43,7 @@
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CheckedInputStream;
 import javax.net.ssl.SSLSocket;
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
@@ -56,6 +59,8 @@
 import org.apache.zookeeper.server.ServerMetrics;
 import org.apache.zookeeper.server.TxnLogEntry;
 import org.apache.zookeeper.server.ZooTrace;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.SnapStream;
 import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
 import org.apache.zookeeper.server.quorum.flexible.QuorumVerifier;
 import org.apache.zookeeper.server.util.ConfigUtils;
@@ -129,14 +134,24 @@ public Socket getSocket() {
     public static final String LEARNER_CLOSE_SOCKET_ASYNC = "zookeeper.learner.closeSocketAsync";
     public static final boolean closeSocketAsync = Boolean
         .parseBoolean(ConfigUtils.getPropertyBackwardCompatibleWay(LEARNER_CLOSE_SOCKET_ASYNC));
+    public static final String LEARNER_PIPELINED_SYNC = "zookeeper.learner.pipelinedSync";
+    private static boolean pipelinedSync =
+        Boolean.parseBoolean(ConfigUtils.getPropertyBackwardCompatibleWay(LEARNER_PIPELINED_SYNC));
 
     static {
         LOG.info("leaderConnectDelayDuringRetryMs: {}", leaderConnectDelayDuringRetryMs);
         LOG.info("TCP NoDelay set to: {}", nodelay);
         LOG.info("{} = {}", LEARNER_ASYNC_SENDING, asyncSending);
         LOG.info("{} = {}", LEARNER_CLOSE_SOCKET_ASYNC, closeSocketAsync);
+        LOG.info("{} = {}", LEARNER_PIPELINED_SYNC, pipelinedSync);
     }
 
+    /**
+     * Applies and persists txns on separate threads during synchronization,
+     * null unless {@link #LEARNER_PIPELINED_SYNC} is enabled
+     */
+    private LearnerSyncPipeline syncPipeline;
+
     final ConcurrentHashMap<Long, ServerCnxn> pendingRevalidations = new ConcurrentHashMap<>();
 
     public int getPendingRevalidationsCount() {
@@ -152,6 +167,15 @@ protected static void setAsyncSending(boolean newMode) {
     protected static boolean getAsyncSending() {
         return asyncSending;
     }
+
+    // for testing
+    protected static void setPipelinedSync(boolean newMode) {
+        pipelinedSync = newMode;
+        LOG.info("{} = {}", LEARNER_PIPELINED_SYNC, pipelinedSync);
+    }
+    protected static boolean getPipelinedSync() {
+        return pipelinedSync;
+    }
     /**
      * validate a session for a client
      *
@@ -499,6 +523,18 @@ protected long registerWithLeader(int pktType) throws IOException {
         ByteArrayOutputStream bsid = new ByteArrayOutputStream();
         BinaryOutputArchive boa = BinaryOutputArchive.getArchive(bsid);
         boa.writeRecord(li, "LearnerInfo");
+        // Advertise SNAPFILE support along with any partially received
+        // snapshot file, so that the learner master can resume its transfer
+        File stagingFile = findSnapshotStagingFile();
+        if (stagingFile != null) {
+            boa.writeLong(SnapshotFileTransfer.getStagedZxid(stagingFile.getName()), "stagedSnapZxid");
+            boa.writeLong(stagingFile.length(), "stagedSnapLength");
+            boa.writeLong(SnapshotFileTransfer.checksum(stagingFile, stagingFile.length()), "stagedSnapChecksum");
+        } else {
+            boa.writeLong(-1, "stagedSnapZxid");
+            boa.writeLong(0, "stagedSnapLength");
+            boa.writeLong(0, "stagedSnapChecksum");
+        }
         qp.setData(bsid.toByteArray());
 
         writePacket(qp, true);
@@ -568,6 +604,16 @@ long enforceContinuousProposal(long lastQueued, PacketInFlight pif) throws Excep
      * @throws InterruptedException
      */
     protected void syncWithLeader(long newLeaderZxid) throws Exception {
+        try {
+            doSyncWithLeader(newLeaderZxid);
+        } catch (Exception e) {
+            // don't apply or persist anything more once the sync is aborted
+            shutdownSyncPipeline();
+            throw e;
+        }
+    }
+
+    private void doSyncWithLeader(long newLeaderZxid) throws Exception {
         QuorumPacket ack = new QuorumPacket(Leader.ACK, 0, null, null);
         QuorumPacket qp = new QuorumPacket();
         long newEpoch = ZxidUtils.getEpochFromZxid(newLeaderZxid);
@@ -581,6 +627,9 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
         readPacket(qp);
         Deque<Long> packetsCommitted = new ArrayDeque<>();
         Deque<PacketInFlight> packetsNotLogged = new ArrayDeque<>();
+        if (pipelinedSync) {
+            syncPipeline = new LearnerSyncPipeline(zk);
+        }
 
         synchronized (zk) {
             if (qp.getType() == Leader.DIFF) {
@@ -613,6 +662,38 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                 }
                 zk.getZKDatabase().setlastProcessedZxid(qp.getZxid());
 
+                // immediately persist the latest snapshot when there is txn log gap
+                syncSnapshot = true;
+            } else if (qp.getType() == Leader.SNAPFILE) {
+                self.setSyncMode(QuorumPeer.SyncMode.SNAP);
+                LOG.info("Getting a snapshot file from leader 0x{}", Long.toHexString(qp.getZxid()));
+                long snapFileZxid = qp.getZxid();
+                File snapFile = receiveSnapshotFile(qp);
+                try (CheckedInputStream snapIs = SnapStream.getInputStream(snapFile)) {
+                    // db is clear as part of deserializeSnapshot()
+                    zk.getZKDatabase().deserializeSnapshot(BinaryInputArchive.getArchive(snapIs), snapIs);
+                } finally {
+                    // a corrupt file cannot be resumed, and a loaded one is
+                    // superseded by the snapshot taken on NEWLEADER
+                    if (!snapFile.delete()) {
+                        LOG.warn("Unable to delete snapshot staging file {}", snapFile);
+                    }
+                }
+                // ZOOKEEPER-2819: see the SNAP case above
+                if (!self.isReconfigEnabled()) {
+                    LOG.debug("Reset config node content from local config after deserialization of snapshot.");
+                    zk.getZKDatabase().initConfigInZKDatabase(self.getQuorumVerifier());
+                }
+                // older snapshots do not carry their lastProcessedZxid
+                zk.getZKDatabase().setlastProcessedZxid(snapFileZxid);
+                // the txns logged after the snapshot follow as a DIFF, they are
+                // applied in memory like the ones queued after a SNAP
+                readPacket(qp);
+                if (qp.getType() != Leader.DIFF) {
+                    throw new IOException("Expected DIFF after snapshot file, got " + LearnerHandler.packetToString(qp));
+                }
+                LOG.info("Getting a diff from the leader 0x{} on top of snapshot file", Long.toHexString(qp.getZxid()));
+
                 // immediately persist the latest snapshot when there is txn log gap
                 syncSnapshot = true;
             } else if (qp.getType() == Leader.TRUNC) {
@@ -671,6 +752,7 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                 case Leader.COMMITANDACTIVATE:
                     pif = packetsNotLogged.peekFirst();
                     if (pif.hdr.getZxid() == qp.getZxid() && qp.getType() == Leader.COMMITANDACTIVATE) {
+                        drainSyncPipeline();
                         QuorumVerifier qv = self.configFromString(new String(((SetDataTxn) pif.rec).getData(), UTF_8));
                         boolean majorChange = self.processReconfig(
                             qv,
@@ -687,9 +769,19 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                                 Long.toHexString(qp.getZxid()),
                                 Long.toHexString(pif.hdr.getZxid()));
                         } else {
-                            zk.processTxn(pif.toRequest());
+                            if (syncPipeline != null) {
+                                syncPipeline.apply(pif.toRequest());
+                            } else {
+                                zk.processTxn(pif.toRequest());
+                            }
                             packetsNotLogged.remove();
                         }
+                    } else if (syncPipeline != null && isPreZAB1_0 && zk instanceof FollowerZooKeeperServer
+                               && packetsCommitted.isEmpty() && pif.hdr.getZxid() == qp.getZxid()) {
+                        // Persist and apply the committed txn while we keep receiving, the
+                        // pipeline is drained and the txn log committed on NEWLEADER
+                        packetsNotLogged.remove();
+                        syncPipeline.applyAndPersist(pif.toRequest());
                     } else {
                         packetsCommitted.add(qp.getZxid());
                     }
@@ -708,6 +800,7 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                         packet.rec = logEntry.getTxn();
                         packet.digest = logEntry.getDigest();
                         QuorumVerifier qv = self.configFromString(new String(((SetDataTxn) packet.rec).getData(), UTF_8));
+                        drainSyncPipeline();
                         boolean majorChange = self.processReconfig(qv, suggestedLeaderId, qp.getZxid(), true);
                         if (majorChange) {
                             throw new Exception("changes proposed in reconfig");
@@ -721,7 +814,11 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                     }
                     if (!writeToTxnLog) {
                         // Apply to db directly if we haven't taken the snapshot
-                        zk.processTxn(packet.toRequest());
+                        if (syncPipeline != null) {
+                            syncPipeline.apply(packet.toRequest());
+                        } else {
+                            zk.processTxn(packet.toRequest());
+                        }
                     } else {
                         packetsNotLogged.add(packet);
                         packetsCommitted.add(qp.getZxid());
@@ -730,6 +827,9 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                     break;
                 case Leader.UPTODATE:
                     LOG.info("Learner received UPTODATE message");
+                    if (finishSyncPipeline()) {
+                        zk.getZKDatabase().commit();
+                    }
                     if (newLeaderQV != null) {
                         boolean majorChange = self.processReconfig(newLeaderQV, null, null, true);
                         if (majorChange) {
@@ -756,6 +856,8 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                         }
                     }
 
+                    boolean syncPipelinePersisted = finishSyncPipeline();
+
                     if (snapshotNeeded) {
                         zk.takeSnapshot(syncSnapshot);
                     }
@@ -766,7 +868,7 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
                     isPreZAB1_0 = false;
 
                     // ZOOKEEPER-3911: make sure sync the uncommitted logs before commit them (ACK NEWLEADER).
-                    if (zk instanceof FollowerZooKeeperServer && !packetsCommitted.isEmpty()) {
+                    if (zk instanceof FollowerZooKeeperServer && (!packetsCommitted.isEmpty() || syncPipelinePersisted)) {
                         long startTime = Time.currentElapsedTime();
                         FollowerZooKeeperServer fzk = (FollowerZooKeeperServer) zk;
 
@@ -871,6 +973,47 @@ protected void syncWithLeader(long newLeaderZxid) throws Exception {
         }
     }
 
+    private File findSnapshotStagingFile() {
+        FileTxnSnapLog txnFactory = self.getTxnFactory();
+        if (txnFactory == null) {
+            return null;
+        }
+        return SnapshotFileTransfer.findStagingFile(txnFactory.getSnapDir());
+    }
+
+    /**
+     * Receive the chunks of the snapshot file announced by a SNAPFILE packet
+     * into a staging file in the snapshot directory. Chunks are verified
+     * before being written, so that an interrupted transfer can be resumed
+     * from the staged length.
+     *
+     * @param header the SNAPFILE packet
+     * @return the complete staging file
+     * @throws IOException
+     */
+    protected File receiveSnapshotFile(QuorumPacket header) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(header.getData());
+        long fileLength = bb.getLong();
+        long offset = bb.getLong();
+        String fileName = new String(bb.array(), bb.position(), bb.remaining(), UTF_8);
+        LOG.info("Receiving snapshot file {} from offset {} of {}", fileName, offset, fileLength);
+
+        File snapFile = SnapshotFileTransfer.prepareStagingFile(self.getTxnFactory().getSnapDir(), fileName, offset);
+        try (RandomAccessFile raf = new RandomAccessFile(snapFile, "rw")) {
+            raf.seek(offset);
+            QuorumPacket chunk = new QuorumPacket();
+            while (offset < fileLength) {
+                readPacket(chunk);
+                if (chunk.getType() != Leader.SNAPCHUNK) {
+                    throw new IOException("Expected snapshot chunk, got " + LearnerHandler.packetToString(chunk));
+                }
+                offset += SnapshotFileTransfer.writeChunk(raf, chunk.getData(), offset);
+            }
+            raf.getFD().sync();
+        }
+        return snapFile;
+    }
+
     protected void revalidate(QuorumPacket qp) throws IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(qp.getData());
         DataInputStream dis = new DataInputStream(bis);
@@ -917,6 +1060,7 @@ public void shutdown() {
         }
 
         closeSocket();
+        shutdownSyncPipeline();
         // shutdown previous zookeeper
         if (zk != null) {
             // If we haven't finished SNAP sync, force fully shutdown
@@ -929,6 +1073,43 @@ boolean isRunning() {
         return self.isRunning() && zk.isRunning();
     }
 
+    /**
+     * Wait for the txns handed to the sync pipeline to be applied and persisted.
+     */
+    private void drainSyncPipeline() throws IOException, InterruptedException {
+        if (syncPipeline != null) {
+            syncPipeline.drain();
+        }
+    }
+
+    /**
+     * Drain and stop the sync pipeline once NEWLEADER or UPTODATE is received,
+     * the txns that follow are handled by the request processors.
+     *
+     * @return true if the pipeline appended txns to the txn log, which then
+     *         needs to be committed
+     */
+    private boolean finishSyncPipeline() throws IOException, InterruptedException {
+        if (syncPipeline == null) {
+            return false;
+        }
+        try {
+            syncPipeline.drain();
+            LOG.info("Sync pipeline applied {} and persisted {} txns",
+                syncPipeline.getAppliedCount(), syncPipeline.getPersistedCount());
+            return syncPipeline.getPersistedCount() > 0;
+        } finally {
+            shutdownSyncPipeline();
+        }
+    }
+
+    private void shutdownSyncPipeline() {
+        if (syncPipeline != null) {
+            syncPipeline.shutdown();
+            syncPipeline = null;
+        }
+    }
+
     void closeSocket() {
         if (sockBeingClosed.compareAndSet(false, true)) {
             if (sock == null) { // Closing before establishing the connection is a noop
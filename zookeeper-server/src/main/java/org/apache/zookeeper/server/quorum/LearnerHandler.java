@@ -22,7 +22,10 @@
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.Date;
@@ -49,6 +52,8 @@
 import org.apache.zookeeper.server.ZKDatabase;
 import org.apache.zookeeper.server.ZooKeeperThread;
 import org.apache.zookeeper.server.ZooTrace;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.Util;
 import org.apache.zookeeper.server.quorum.Leader.Proposal;
 import org.apache.zookeeper.server.quorum.QuorumPeer.LearnerType;
 import org.apache.zookeeper.server.quorum.auth.QuorumAuthServer;
@@ -246,6 +251,10 @@ protected void setOutputArchive(BinaryOutputArchive oa) {
     protected void setBufferedOutput(BufferedOutputStream bufferedOutput) {
         this.bufferedOutput = bufferedOutput;
     }
+    protected void setSnapFileSync(boolean snapFileSync, boolean peerSupportsSnapFile) {
+        this.snapFileSync = snapFileSync;
+        this.peerSupportsSnapFile = peerSupportsSnapFile;
+    }
 
     /**
      * Keep track of whether we have started send packets thread
@@ -258,6 +267,34 @@ protected void setBufferedOutput(BufferedOutputStream bufferedOutput) {
     public static final String FORCE_SNAP_SYNC = "zookeeper.forceSnapshotSync";
     private boolean forceSnapSync = false;
 
+    /**
+     * Stream the most recent on-disk snapshot file in checksummed chunks,
+     * followed by a DIFF from that snapshot, instead of serializing the
+     * in-memory DataTree. Learners can resume an interrupted transfer.
+     */
+    public static final String SNAP_FILE_SYNC = "zookeeper.leader.snapFileSync";
+    private boolean snapFileSync = false;
+
+    public static final String SNAP_FILE_SYNC_CHUNK_SIZE = "zookeeper.leader.snapFileSyncChunkSize";
+    private static final int DEFAULT_SNAP_FILE_SYNC_CHUNK_SIZE = 512 * 1024;
+    private int snapFileSyncChunkSize = DEFAULT_SNAP_FILE_SYNC_CHUNK_SIZE;
+
+    /**
+     * Whether the learner understands SNAPFILE, and which snapshot it has
+     * already partially received
+     */
+    private boolean peerSupportsSnapFile = false;
+    private long peerStagedSnapZxid = -1;
+    private long peerStagedSnapLength = 0;
+    private long peerStagedSnapChecksum = 0;
+
+    /**
+     * The snapshot file chosen by syncFollower() to be streamed to the learner
+     */
+    private File snapFile;
+    private RandomAccessFile snapFileReader;
+    private long snapFileZxid;
+
     /**
      * Keep track of whether we need to queue TRUNC or DIFF into packet queue
      * that we are going to blast it to the learner
@@ -285,6 +322,16 @@ protected void setBufferedOutput(BufferedOutputStream bufferedOutput) {
             LOG.info("Forcing snapshot sync is enabled");
         }
 
+        if (Boolean.getBoolean(SNAP_FILE_SYNC)) {
+            snapFileSync = true;
+            snapFileSyncChunkSize = Integer.getInteger(SNAP_FILE_SYNC_CHUNK_SIZE, DEFAULT_SNAP_FILE_SYNC_CHUNK_SIZE);
+            if (snapFileSyncChunkSize <= 0) {
+                LOG.warn("Invalid {} {}, using {}", SNAP_FILE_SYNC_CHUNK_SIZE, snapFileSyncChunkSize, DEFAULT_SNAP_FILE_SYNC_CHUNK_SIZE);
+                snapFileSyncChunkSize = DEFAULT_SNAP_FILE_SYNC_CHUNK_SIZE;
+            }
+            LOG.info("Snapshot file sync is enabled, chunk size {}", snapFileSyncChunkSize);
+        }
+
         try {
             QuorumAuthServer authServer = learnerMaster.getQuorumAuthServer();
             if (authServer != null) {
@@ -366,7 +413,11 @@ private void sendPackets() throws InterruptedException {
                 if (p.getZxid() > 0) {
                     lastZxid = p.getZxid();
                 }
-                oa.writeRecord(p, "packet");
+                if (p instanceof SerializedQuorumPacket) {
+                    ((SerializedQuorumPacket) p).writeTo(bufferedOutput);
+                } else {
+                    oa.writeRecord(p, "packet");
+                }
                 packetsSent.incrementAndGet();
                 messageTracker.trackSent(p.getType());
             } catch (IOException e) {
@@ -430,6 +481,12 @@ public static String packetToString(QuorumPacket p) {
         case Leader.SNAP:
             type = "SNAP";
             break;
+        case Leader.SNAPFILE:
+            type = "SNAPFILE";
+            break;
+        case Leader.SNAPCHUNK:
+            type = "SNAPCHUNK";
+            break;
         case Leader.ACKEPOCH:
             type = "ACKEPOCH";
             break;
@@ -497,6 +554,13 @@ public void run() {
                         throw new IOException("Follower is ahead of the leader (has a later activated configuration)");
                     }
                 }
+                if (learnerInfoData.length >= 44) {
+                    // the learner understands SNAPFILE and reports any partially received snapshot
+                    peerSupportsSnapFile = true;
+                    peerStagedSnapZxid = bbsid.getLong();
+                    peerStagedSnapLength = bbsid.getLong();
+                    peerStagedSnapChecksum = bbsid.getLong();
+                }
             } else {
                 this.sid = learnerMaster.getAndDecrementFollowerCounter();
             }
@@ -565,25 +629,50 @@ public void run() {
                 syncThrottler.beginSync(exemptFromThrottle);
                 ServerMetrics.getMetrics().INFLIGHT_SNAP_COUNT.add(syncThrottler.getSyncInProgress());
                 try {
-                    long zxidToSend = learnerMaster.getZKDatabase().getDataTreeLastProcessedZxid();
-                    oa.writeRecord(new QuorumPacket(Leader.SNAP, zxidToSend, null, null), "packet");
-                    messageTracker.trackSent(Leader.SNAP);
-                    bufferedOutput.flush();
+                    if (snapFileReader != null) {
+                        LOG.info(
+                            "Sending snapshot file {} last zxid of peer is 0x{}, zxid of leader is 0x{}, "
+                                + "{} concurrent snapshot sync, snapshot sync was {} from throttle",
+                            snapFile,
+                            Long.toHexString(peerLastZxid),
+                            Long.toHexString(leaderLastZxid),
+                            syncThrottler.getSyncInProgress(),
+                            exemptFromThrottle ? "exempt" : "not exempt");
+                        sendSnapshotFile();
+                    } else {
+                        long zxidToSend = learnerMaster.getZKDatabase().getDataTreeLastProcessedZxid();
+                        oa.writeRecord(new QuorumPacket(Leader.SNAP, zxidToSend, null, null), "packet");
+                        messageTracker.trackSent(Leader.SNAP);
+                        bufferedOutput.flush();
 
-                    LOG.info(
-                        "Sending snapshot last zxid of peer is 0x{}, zxid of leader is 0x{}, "
-                            + "send zxid of db as 0x{}, {} concurrent snapshot sync, "
-                            + "snapshot sync was {} from throttle",
-                        Long.toHexString(peerLastZxid),
-                        Long.toHexString(leaderLastZxid),
-                        Long.toHexString(zxidToSend),
-                        syncThrottler.getSyncInProgress(),
-                        exemptFromThrottle ? "exempt" : "not exempt");
-                    // Dump data to peer
-                    learnerMaster.getZKDatabase().serializeSnapshot(oa);
-                    oa.writeString("BenWasHere", "signature");
-                    bufferedOutput.flush();
+                        LOG.info(
+                            "Sending snapshot last zxid of peer is 0x{}, zxid of leader is 0x{}, "
+                                + "send zxid of db as 0x{}, {} concurrent snapshot sync, "
+                                + "snapshot sync was {} from throttle",
+                            Long.toHexString(peerLastZxid),
+                            Long.toHexString(leaderLastZxid),
+                            Long.toHexString(zxidToSend),
+                            syncThrottler.getSyncInProgress(),
+                            exemptFromThrottle ? "exempt" : "not exempt");
+                        // Dump data to peer
+                        LearnerSyncBandwidthThrottler bandwidthThrottler = learnerMaster.getLearnerSnapSyncBandwidthThrottler();
+                        if (bandwidthThrottler.getMaxBytesPerSec() > 0) {
+                            LearnerSyncBandwidthThrottler.ThrottledOutputStream throttledOutput =
+                                bandwidthThrottler.throttle(bufferedOutput);
+                            OutputStream snapOutput = new BufferedOutputStream(throttledOutput);
+                            BinaryOutputArchive snapOa = BinaryOutputArchive.getArchive(snapOutput);
+                            learnerMaster.getZKDatabase().serializeSnapshot(snapOa);
+                            snapOa.writeString("BenWasHere", "signature");
+                            snapOutput.flush();
+                            ServerMetrics.getMetrics().SNAP_SYNC_THROTTLE_TIME.add(throttledOutput.getThrottleTime());
+                        } else {
+                            learnerMaster.getZKDatabase().serializeSnapshot(oa);
+                            oa.writeString("BenWasHere", "signature");
+                        }
+                        bufferedOutput.flush();
+                    }
                 } finally {
+                    closeSnapshotFile();
                     ServerMetrics.getMetrics().SNAP_COUNT.add(1);
                 }
             } else {
@@ -732,6 +821,7 @@ public void run() {
                 syncThrottler.endSync();
                 syncThrottler = null;
             }
+            closeSnapshotFile();
             String remoteAddr = getRemoteAddress();
             LOG.warn("******* GOODBYE sid:{} {} ********", getSid(), remoteAddr);
             messageTracker.dumpToLog(remoteAddr);
@@ -868,7 +958,7 @@ boolean syncFollower(long peerLastZxid, LearnerMaster learnerMaster) {
             } else if ((maxCommittedLog >= peerLastZxid) && (minCommittedLog <= peerLastZxid)) {
                 // Follower is within commitLog range
                 LOG.info("Using committedLog for peer sid: {}", getSid());
-                Iterator<Proposal> itr = db.getCommittedLog().iterator();
+                Iterator<Proposal> itr = db.getCommittedLogIterator(peerLastZxid);
                 currentZxid = queueCommittedProposals(itr, peerLastZxid, null, maxCommittedLog);
                 needSnap = false;
             } else if (peerLastZxid < minCommittedLog && txnLogSyncEnabled) {
@@ -895,7 +985,7 @@ boolean syncFollower(long peerLastZxid, LearnerMaster learnerMaster) {
                         needOpPacket = true;
                     } else {
                         LOG.debug("Queueing committedLog 0x{}", Long.toHexString(currentZxid));
-                        Iterator<Proposal> committedLogItr = db.getCommittedLog().iterator();
+                        Iterator<Proposal> committedLogItr = db.getCommittedLogIterator(currentZxid);
                         currentZxid = queueCommittedProposals(committedLogItr, currentZxid, null, maxCommittedLog);
                         needSnap = false;
                     }
@@ -918,7 +1008,11 @@ boolean syncFollower(long peerLastZxid, LearnerMaster learnerMaster) {
                     txnLogSyncEnabled);
             }
             if (needSnap) {
-                currentZxid = db.getDataTreeLastProcessedZxid();
+                Long snapFileTailZxid = null;
+                if (snapFileSync && peerSupportsSnapFile) {
+                    snapFileTailZxid = prepareSnapshotFileSync(db, lastProcessedZxid, minCommittedLog, maxCommittedLog, txnLogSyncEnabled);
+                }
+                currentZxid = snapFileTailZxid != null ? snapFileTailZxid : db.getDataTreeLastProcessedZxid();
             }
 
             LOG.debug("Start forwarding 0x{} for peer sid: {}", Long.toHexString(currentZxid), getSid());
@@ -937,6 +1031,139 @@ boolean syncFollower(long peerLastZxid, LearnerMaster learnerMaster) {
         return needSnap;
     }
 
+    /**
+     * Prepare a snapshot file sync: pick the most recent on-disk snapshot and
+     * queue a DIFF with the proposals committed after it. This reuses the
+     * committedLog and txnlog logic of a regular DIFF, with the snapshot zxid
+     * standing in for the peer's last zxid.
+     *
+     * @return last zxid of the queued proposals, or null if the snapshot
+     *         tail is not available and a regular SNAP must be sent
+     */
+    private Long prepareSnapshotFileSync(ZKDatabase db, long lastProcessedZxid, long minCommittedLog,
+                                         long maxCommittedLog, boolean txnLogSyncEnabled) {
+        closeSnapshotFile();
+        File file;
+        try {
+            file = db.findMostRecentSnapshot();
+        } catch (IOException e) {
+            LOG.warn("Unable to find snapshot file for peer sid: {}", getSid(), e);
+            return null;
+        }
+        if (file == null) {
+            return null;
+        }
+        long zxid = Util.getZxidFromName(file.getName(), FileSnap.SNAPSHOT_FILE_PREFIX);
+
+        Long queuedZxid = null;
+        if (zxid == lastProcessedZxid) {
+            queueOpPacket(Leader.DIFF, zxid);
+            needOpPacket = false;
+            queuedZxid = zxid;
+        } else if ((maxCommittedLog >= zxid) && (minCommittedLog <= zxid)) {
+            Iterator<Proposal> itr = db.getCommittedLogIterator(zxid);
+            queuedZxid = queueCommittedProposals(itr, zxid, null, maxCommittedLog);
+        } else if (zxid < minCommittedLog && txnLogSyncEnabled) {
+            Iterator<Proposal> txnLogItr = db.getProposalsFromTxnLog(zxid, db.calculateTxnLogSizeLimit());
+            try {
+                if (txnLogItr.hasNext()) {
+                    long txnLogZxid = queueCommittedProposals(txnLogItr, zxid, minCommittedLog, maxCommittedLog);
+                    if (txnLogZxid >= minCommittedLog) {
+                        Iterator<Proposal> committedLogItr = db.getCommittedLogIterator(txnLogZxid);
+                        queuedZxid = queueCommittedProposals(committedLogItr, txnLogZxid, null, maxCommittedLog);
+                    }
+                }
+            } finally {
+                if (txnLogItr instanceof TxnLogProposalIterator) {
+                    ((TxnLogProposalIterator) txnLogItr).close();
+                }
+            }
+        }
+
+        // Anything but a DIFF (e.g. a TRUNC for a snapshot zxid missing from
+        // our history) cannot be applied on top of the snapshot file
+        QuorumPacket opPacket = queuedPackets.peek();
+        if (queuedZxid != null && !needOpPacket && opPacket != null && opPacket.getType() == Leader.DIFF) {
+            try {
+                snapFileReader = new RandomAccessFile(file, "r");
+                snapFile = file;
+                snapFileZxid = zxid;
+                LOG.info("Using snapshot file {} and its tail up to 0x{} for peer sid: {}",
+                    file, Long.toHexString(queuedZxid), getSid());
+                return queuedZxid;
+            } catch (IOException e) {
+                LOG.warn("Unable to open snapshot file {} for peer sid: {}", file, getSid(), e);
+            }
+        } else {
+            LOG.info("Unable to send the tail of snapshot file {} for peer sid: {}, fall back to SNAP", file, getSid());
+        }
+        queuedPackets.clear();
+        needOpPacket = true;
+        return null;
+    }
+
+    /**
+     * Stream the snapshot file chosen by syncFollower() in checksummed
+     * chunks, resuming after the bytes the learner has already staged.
+     */
+    private void sendSnapshotFile() throws IOException, InterruptedException {
+        long fileLength = snapFileReader.length();
+        long offset = 0;
+        if (canResumeSnapshotFile(fileLength)) {
+            offset = peerStagedSnapLength;
+            ServerMetrics.getMetrics().SNAP_FILE_RESUMED_COUNT.add(1);
+        }
+        LOG.info("Sending snapshot file {} to peer sid: {} from offset {} of {}", snapFile, getSid(), offset, fileLength);
+
+        byte[] header = SnapshotFileTransfer.encodeHeader(fileLength, offset, snapFile.getName());
+        oa.writeRecord(new QuorumPacket(Leader.SNAPFILE, snapFileZxid, header, null), "packet");
+        messageTracker.trackSent(Leader.SNAPFILE);
+
+        LearnerSyncBandwidthThrottler bandwidthThrottler = learnerMaster.getLearnerSnapSyncBandwidthThrottler();
+        long throttleTime = 0;
+        byte[] buf = new byte[(int) Math.min(snapFileSyncChunkSize, Math.max(fileLength - offset, 1))];
+        snapFileReader.seek(offset);
+        while (offset < fileLength) {
+            int len = (int) Math.min(buf.length, fileLength - offset);
+            snapFileReader.readFully(buf, 0, len);
+            throttleTime += bandwidthThrottler.acquire(len);
+            byte[] chunk = SnapshotFileTransfer.encodeChunk(offset, buf, len);
+            oa.writeRecord(new QuorumPacket(Leader.SNAPCHUNK, snapFileZxid, chunk, null), "packet");
+            messageTracker.trackSent(Leader.SNAPCHUNK);
+            offset += len;
+        }
+        bufferedOutput.flush();
+        ServerMetrics.getMetrics().SNAP_FILE_COUNT.add(1);
+        ServerMetrics.getMetrics().SNAP_SYNC_THROTTLE_TIME.add(throttleTime);
+    }
+
+    /**
+     * The staged bytes of the learner can only be resumed from if they are a
+     * prefix of the very file we send, not of another snapshot file with the
+     * same zxid, e.g. one taken by a previous leader.
+     */
+    private boolean canResumeSnapshotFile(long fileLength) throws IOException {
+        if (peerStagedSnapZxid != snapFileZxid || peerStagedSnapLength <= 0 || peerStagedSnapLength > fileLength) {
+            return false;
+        }
+        if (SnapshotFileTransfer.checksum(snapFileReader, peerStagedSnapLength) != peerStagedSnapChecksum) {
+            LOG.info("Staged snapshot of peer sid: {} is not a prefix of {}, sending it from the start", getSid(), snapFile);
+            return false;
+        }
+        return true;
+    }
+
+    private void closeSnapshotFile() {
+        if (snapFileReader != null) {
+            try {
+                snapFileReader.close();
+            } catch (IOException e) {
+                LOG.warn("Ignoring error closing snapshot file {}", snapFile, e);
+            }
+            snapFileReader = null;
+        }
+    }
+
     /**
      * Queue committed proposals into packet queue. The range of packets which
      * is going to be queued are (peerLaxtZxid, maxZxid]
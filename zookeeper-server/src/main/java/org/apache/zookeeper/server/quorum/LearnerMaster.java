@@ -42,12 +42,19 @@ public abstract class LearnerMaster {
     private static final String MAX_CONCURRENT_DIFF_SYNCS = "zookeeper.leader.maxConcurrentDiffSyncs";
     private static final int DEFAULT_CONCURRENT_DIFF_SYNCS;
 
+    // Cap the aggregate bandwidth used for sending snapshots to learners, 0 means no limit
+    private static final String MAX_SNAP_SYNC_BYTES_PER_SEC = "zookeeper.leader.maxSnapSyncBytesPerSec";
+    private static final long DEFAULT_SNAP_SYNC_BYTES_PER_SEC;
+
     static {
         DEFAULT_CONCURRENT_SNAPSYNCS = Integer.getInteger(MAX_CONCURRENT_SNAPSYNCS, 10);
         LOG.info("{} = {}", MAX_CONCURRENT_SNAPSYNCS, DEFAULT_CONCURRENT_SNAPSYNCS);
 
         DEFAULT_CONCURRENT_DIFF_SYNCS = Integer.getInteger(MAX_CONCURRENT_DIFF_SYNCS, 100);
         LOG.info("{} = {}", MAX_CONCURRENT_DIFF_SYNCS, DEFAULT_CONCURRENT_DIFF_SYNCS);
+
+        DEFAULT_SNAP_SYNC_BYTES_PER_SEC = Long.getLong(MAX_SNAP_SYNC_BYTES_PER_SEC, 0L);
+        LOG.info("{} = {}", MAX_SNAP_SYNC_BYTES_PER_SEC, DEFAULT_SNAP_SYNC_BYTES_PER_SEC);
     }
 
     private volatile int maxConcurrentSnapSyncs = DEFAULT_CONCURRENT_SNAPSYNCS;
@@ -57,6 +64,8 @@ public abstract class LearnerMaster {
 
     private final LearnerSyncThrottler learnerDiffSyncThrottler = new LearnerSyncThrottler(maxConcurrentDiffSyncs, LearnerSyncThrottler.SyncType.DIFF);
 
+    private final LearnerSyncBandwidthThrottler learnerSnapSyncBandwidthThrottler = new LearnerSyncBandwidthThrottler(DEFAULT_SNAP_SYNC_BYTES_PER_SEC);
+
     public int getMaxConcurrentSnapSyncs() {
         return maxConcurrentSnapSyncs;
     }
@@ -77,6 +86,15 @@ public void setMaxConcurrentDiffSyncs(int maxConcurrentDiffSyncs) {
         learnerDiffSyncThrottler.setMaxConcurrentSyncs(maxConcurrentDiffSyncs);
     }
 
+    public long getMaxSnapSyncBytesPerSec() {
+        return learnerSnapSyncBandwidthThrottler.getMaxBytesPerSec();
+    }
+
+    public void setMaxSnapSyncBytesPerSec(long maxSnapSyncBytesPerSec) {
+        LOG.info("Set maxSnapSyncBytesPerSec to {}", maxSnapSyncBytesPerSec);
+        learnerSnapSyncBandwidthThrottler.setMaxBytesPerSec(maxSnapSyncBytesPerSec);
+    }
+
     /**
      * snap sync throttler
      * @return snapshot throttler
@@ -93,6 +111,14 @@ public LearnerSyncThrottler getLearnerDiffSyncThrottler() {
         return learnerDiffSyncThrottler;
     }
 
+    /**
+     * snap sync bandwidth throttler, shared by all snapshot transfers
+     * @return snapshot bandwidth throttler
+     */
+    public LearnerSyncBandwidthThrottler getLearnerSnapSyncBandwidthThrottler() {
+        return learnerSnapSyncBandwidthThrottler;
+    }
+
     /**
      * start tracking a learner handler
      * @param learnerHandler to track
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.common.Time;
+
+/**
+ * Utility class to cap the aggregate bandwidth used for sending snapshots
+ * from a leader to learners or from a follower to observers. It complements
+ * {@link LearnerSyncThrottler}, which limits the number of concurrent syncs:
+ * all {@link LearnerHandler} objects of a {@link LearnerMaster} share the
+ * same token bucket, so the cap holds no matter how many snapshots are in
+ * flight.
+ *
+ * A limit of zero or less disables throttling.
+ */
+public class LearnerSyncBandwidthThrottler {
+
+    private final Object lock = new Object();
+
+    private volatile long maxBytesPerSec;
+
+    // bytes that can be sent without waiting, refilled at maxBytesPerSec
+    private long available;
+    private long lastRefillTime;
+
+    /**
+     * Constructs a new instance limiting the snapshot bandwidth to
+     * <code>maxBytesPerSec</code>.
+     * @param maxBytesPerSec maximum number of snapshot bytes sent per second,
+     *                       zero or less for no limit
+     */
+    public LearnerSyncBandwidthThrottler(long maxBytesPerSec) {
+        this.maxBytesPerSec = maxBytesPerSec;
+        this.lastRefillTime = Time.currentElapsedTime();
+    }
+
+    /**
+     * Blocks until <code>bytes</code> bytes may be sent without exceeding
+     * the configured bandwidth.
+     *
+     * @param bytes number of bytes about to be sent
+     * @return time spent waiting, in milliseconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long acquire(int bytes) throws InterruptedException {
+        if (maxBytesPerSec <= 0 || bytes <= 0) {
+            return 0;
+        }
+        long startTime = Time.currentElapsedTime();
+        synchronized (lock) {
+            while (true) {
+                long limit = maxBytesPerSec;
+                if (limit <= 0) {
+                    break;
+                }
+                refill(limit);
+                // allow a single request larger than the bucket to go through
+                // once the bucket is full, otherwise it would wait forever
+                if (available >= bytes || available >= limit) {
+                    available -= bytes;
+                    break;
+                }
+                long deficit = Math.min(bytes, limit) - available;
+                long waitMs = Math.max(1, TimeUnit.SECONDS.toMillis(deficit) / limit);
+                lock.wait(waitMs);
+            }
+        }
+        return Time.currentElapsedTime() - startTime;
+    }
+
+    private void refill(long limit) {
+        long now = Time.currentElapsedTime();
+        long elapsed = now - lastRefillTime;
+        if (elapsed > 0) {
+            long refill = elapsed >= TimeUnit.SECONDS.toMillis(1)
+                ? limit
+                : limit * elapsed / TimeUnit.SECONDS.toMillis(1);
+            if (refill > 0) {
+                available = Math.min(limit, available + refill);
+                lastRefillTime = now;
+            }
+        }
+    }
+
+    public void setMaxBytesPerSec(long maxBytesPerSec) {
+        synchronized (lock) {
+            this.maxBytesPerSec = maxBytesPerSec;
+            available = Math.min(available, Math.max(0, maxBytesPerSec));
+            lock.notifyAll();
+        }
+    }
+
+    public long getMaxBytesPerSec() {
+        return maxBytesPerSec;
+    }
+
+    /**
+     * Wraps an output stream so that every write is charged to this throttler.
+     * Callers writing small records should buffer on top of the returned
+     * stream, since each write acquires the throttler's lock.
+     * @param out the stream to throttle
+     * @return the throttled stream
+     */
+    public ThrottledOutputStream throttle(OutputStream out) {
+        return new ThrottledOutputStream(out);
+    }
+
+    /**
+     * Output stream charging every write to the enclosing throttler.
+     */
+    public class ThrottledOutputStream extends FilterOutputStream {
+
+        private long throttleTime;
+
+        private ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            charge(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            charge(len);
+            out.write(b, off, len);
+        }
+
+        private void charge(int len) throws InterruptedIOException {
+            try {
+                throttleTime += acquire(len);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling snapshot transfer");
+            }
+        }
+
+        /**
+         * @return time spent waiting for the throttler so far, in milliseconds
+         */
+        public long getThrottleTime() {
+            return throttleTime;
+        }
+
+    }
+
+}
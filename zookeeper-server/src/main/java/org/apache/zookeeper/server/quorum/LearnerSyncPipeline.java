@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.server.Request;
+import org.apache.zookeeper.server.ZooKeeperThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipelines the catch-up work of a learner during synchronization with the
+ * leader. The thread running {@link Learner#syncWithLeader(long)} receives
+ * and decodes packets, while the committed txns are applied to the DataTree
+ * by an apply stage and appended to the txn log by a persist stage. Each
+ * stage runs on its own single thread, so txns are applied and persisted in
+ * the order they were committed, and the time to catch up is bounded by the
+ * slowest stage instead of the sum of all of them.
+ *
+ * The persist stage only appends to the txn log, callers must {@link #drain()}
+ * the pipeline and then commit the log before acknowledging NEWLEADER.
+ */
+class LearnerSyncPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LearnerSyncPipeline.class);
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    private final LearnerZooKeeperServer zk;
+    private final ExecutorService applyStage;
+    private final ExecutorService persistStage;
+
+    private volatile Throwable failure;
+
+    private long applied;
+    private long persisted;
+
+    LearnerSyncPipeline(LearnerZooKeeperServer zk) {
+        this.zk = zk;
+        this.applyStage = Executors.newSingleThreadExecutor(r -> newStageThread(r, "LearnerSyncApply"));
+        this.persistStage = Executors.newSingleThreadExecutor(r -> newStageThread(r, "LearnerSyncPersist"));
+    }
+
+    private Thread newStageThread(Runnable r, String name) {
+        Thread t = new ZooKeeperThread(r, name + ":" + zk.getServerId());
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Apply a committed txn to the DataTree without logging it, e.g. before
+     * the snapshot taken on NEWLEADER.
+     */
+    void apply(Request request) throws IOException {
+        checkFailure();
+        applied++;
+        applyStage.execute(() -> {
+            if (failure == null) {
+                try {
+                    zk.processTxn(request);
+                } catch (Throwable t) {
+                    fail("apply", request, t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply a committed txn to the DataTree and append it to the txn log.
+     * Only followers log txns before NEWLEADER.
+     */
+    void applyAndPersist(Request request) throws IOException {
+        final FollowerZooKeeperServer fzk = (FollowerZooKeeperServer) zk;
+        apply(request);
+        persisted++;
+        persistStage.execute(() -> {
+            if (failure == null) {
+                try {
+                    fzk.appendRequest(request);
+                } catch (Throwable t) {
+                    fail("persist", request, t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until all the txns handed to the pipeline so far have been
+     * applied and persisted.
+     *
+     * @throws IOException if a txn could not be applied or persisted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void drain() throws IOException, InterruptedException {
+        Future<?> applyDone = applyStage.submit(() -> { });
+        Future<?> persistDone = persistStage.submit(() -> { });
+        try {
+            applyDone.get();
+            persistDone.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Learner sync pipeline failed", e.getCause());
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return number of txns persisted by the pipeline, which need a commit
+     *         of the txn log
+     */
+    long getPersistedCount() {
+        return persisted;
+    }
+
+    long getAppliedCount() {
+        return applied;
+    }
+
+    /**
+     * Stop both stages, waiting for the txn being processed, if any, so that
+     * nothing touches the database once the learner shuts down.
+     */
+    void shutdown() {
+        applyStage.shutdownNow();
+        persistStage.shutdownNow();
+        try {
+            if (!applyStage.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                || !persistStage.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Learner sync pipeline did not terminate in {} ms", SHUTDOWN_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fail(String stage, Request request, Throwable t) {
+        LOG.error("Failed to {} txn 0x{} during sync with leader", stage, Long.toHexString(request.zxid), t);
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            throw new IOException("Learner sync pipeline failed", t);
+        }
+    }
+
+}
@@ -21,8 +21,10 @@
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Map;
+import javax.management.JMException;
 import org.apache.zookeeper.jmx.MBeanRegistry;
 import org.apache.zookeeper.server.DataTreeBean;
+import org.apache.zookeeper.server.Request;
 import org.apache.zookeeper.server.ServerCnxn;
 import org.apache.zookeeper.server.SyncRequestProcessor;
 import org.apache.zookeeper.server.ZKDatabase;
@@ -139,6 +141,24 @@ protected void unregisterJMX() {
         jmxDataTreeBean = null;
     }
 
+    boolean registerJMX(LearnerHandlerBean handlerBean) {
+        try {
+            MBeanRegistry.getInstance().register(handlerBean, jmxServerBean);
+            return true;
+        } catch (JMException e) {
+            LOG.warn("Could not register connection", e);
+        }
+        return false;
+    }
+
+    /**
+     * Process a request received from an observer connected to the
+     * ObserverMaster hosted by this server.
+     *
+     * @param request received from external Learner
+     */
+    protected abstract void processObserverRequest(Request request);
+
     protected void unregisterJMX(Learner peer) {
         // unregister from JMX
         try {
@@ -188,11 +188,28 @@ public InetSocketAddress getReachableOrOne() {
      * If the DNS lookup fails, then address remain unmodified.
      */
     public void recreateSocketAddresses() {
-        addresses = addresses.parallelStream()
+        addresses = lookupSocketAddresses();
+    }
+
+    /**
+     * Performs a parallel DNS lookup for all addresses, and returns the
+     * result without modifying this set.
+     *
+     * If the DNS lookup fails, then address is returned unmodified.
+     */
+    Set<InetSocketAddress> lookupSocketAddresses() {
+        return addresses.parallelStream()
           .map(this::recreateSocketAddress)
           .collect(Collectors.toCollection(MultipleAddresses::newConcurrentHashSet));
     }
 
+    /**
+     * Replaces the addresses with the result of {@link #lookupSocketAddresses()}.
+     */
+    void setSocketAddresses(Set<InetSocketAddress> addresses) {
+        this.addresses = addresses;
+    }
+
     /**
      * Returns an address from the set.
      *
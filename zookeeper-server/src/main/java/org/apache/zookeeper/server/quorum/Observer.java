@@ -20,6 +20,9 @@
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.jute.Record;
@@ -65,8 +68,26 @@ public class Observer extends Learner {
      */
     public static final String OBSERVER_ELECTION_DELAY_MS = "zookeeper.observer.election.DelayMs";
 
+    /**
+     * Whether the observer hosts an ObserverMaster on the observerMasterPort
+     * once it is in sync, so that other observers can observe it instead of
+     * a voting member. Default is false.
+     */
+    public static final String OBSERVER_SERVE_OBSERVERS = "zookeeper.observer.serveObservers";
+
+    /**
+     * Comma separated ids of the servers, voting members or observers, this
+     * observer tries first as learner master, in order. The voting members
+     * are tried next.
+     */
+    public static final String OBSERVER_LEARNER_MASTERS = "zookeeper.observer.learnerMasters";
+
     private static final long reconnectDelayMs;
 
+    private static volatile boolean serveObservers;
+
+    private static volatile List<Long> preferredLearnerMasters;
+
     private static volatile long observerElectionDelayMs;
 
     static {
@@ -74,8 +95,37 @@ public class Observer extends Learner {
         LOG.info("{} = {}", OBSERVER_RECONNECT_DELAY_MS, reconnectDelayMs);
         observerElectionDelayMs = Long.getLong(OBSERVER_ELECTION_DELAY_MS, 200);
         LOG.info("{} = {}", OBSERVER_ELECTION_DELAY_MS , observerElectionDelayMs);
+        serveObservers = Boolean.getBoolean(OBSERVER_SERVE_OBSERVERS);
+        LOG.info("{} = {}", OBSERVER_SERVE_OBSERVERS, serveObservers);
+        preferredLearnerMasters = parseLearnerMasters(System.getProperty(OBSERVER_LEARNER_MASTERS));
+        LOG.info("{} = {}", OBSERVER_LEARNER_MASTERS, preferredLearnerMasters);
+    }
+
+    static List<Long> parseLearnerMasters(String value) {
+        List<Long> sids = new ArrayList<>();
+        if (value == null) {
+            return sids;
+        }
+        for (String sid : value.split(",")) {
+            sid = sid.trim();
+            if (sid.isEmpty()) {
+                continue;
+            }
+            try {
+                sids.add(Long.parseLong(sid));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid server id {} in {}", sid, OBSERVER_LEARNER_MASTERS);
+            }
+        }
+        return Collections.unmodifiableList(sids);
     }
 
+    /**
+     * ObserverMaster hosted by this observer, null unless
+     * {@link #OBSERVER_SERVE_OBSERVERS} is set
+     */
+    ObserverMaster om;
+
     /**
      * next learner master to try, when specified
      */
@@ -123,6 +173,11 @@ void observeLeader() throws Exception {
                 completedSync = true;
                 final long syncTime = Time.currentElapsedTime() - startTime;
                 ServerMetrics.getMetrics().OBSERVER_SYNC_TIME.add(syncTime);
+                if (serveObservers && self.getObserverMasterPort() > 0) {
+                    LOG.info("Starting ObserverMaster");
+                    om = new ObserverMaster(self, (ObserverZooKeeperServer) zk, self.getObserverMasterPort());
+                    om.start();
+                }
                 QuorumPacket qp = new QuorumPacket();
                 while (this.isRunning() && nextLearnerMaster.get() == null) {
                     readPacket(qp);
@@ -136,6 +191,10 @@ void observeLeader() throws Exception {
                 pendingRevalidations.clear();
             }
         } finally {
+            if (om != null) {
+                om.stop();
+                om = null;
+            }
             currentLearnerMaster = null;
             zk.unregisterJMX(this);
             if (connectTime != 0) {
@@ -194,7 +253,9 @@ protected void processPacket(QuorumPacket qp) throws Exception {
             LOG.error("Received an UPTODATE message after Observer started");
             break;
         case Leader.REVALIDATE:
-            revalidate(qp);
+            if (om == null || !om.revalidateLearnerSession(qp)) {
+                revalidate(qp);
+            }
             break;
         case Leader.SYNC:
             ((ObserverZooKeeperServer) zk).sync();
@@ -204,6 +265,11 @@ protected void processPacket(QuorumPacket qp) throws Exception {
             logEntry = SerializeUtils.deserializeTxn(qp.getData());
             Request request = logEntry.toRequest();
             request.logLatency(ServerMetrics.getMetrics().COMMIT_PROPAGATION_LATENCY);
+            if (om != null) {
+                // forward before committing, so that observers syncing with
+                // our database never miss the txn
+                om.informReceived(qp);
+            }
             ObserverZooKeeperServer obs = (ObserverZooKeeperServer) zk;
             obs.commitRequest(request);
             break;
@@ -223,6 +289,9 @@ protected void processPacket(QuorumPacket qp) throws Exception {
 
             boolean majorChange = self.processReconfig(qv, suggestedLeaderId, qp.getZxid(), true);
 
+            if (om != null) {
+                om.informReceived(qp);
+            }
             obs.commitRequest(request);
 
             if (majorChange) {
@@ -291,6 +360,27 @@ public QuorumPeer.QuorumServer getCurrentLearnerMaster() {
         return currentLearnerMaster;
     }
 
+    static List<Long> getPreferredLearnerMasters() {
+        return preferredLearnerMasters;
+    }
+
+    public Integer getSyncedObserverSize() {
+        ObserverMaster master = om;
+        return master == null ? null : master.getNumActiveObservers();
+    }
+
+    // for testing
+    static void setServeObservers(boolean newValue) {
+        serveObservers = newValue;
+        LOG.info("{} = {}", OBSERVER_SERVE_OBSERVERS, serveObservers);
+    }
+
+    // for testing
+    static void setPreferredLearnerMasters(String value) {
+        preferredLearnerMasters = parseLearnerMasters(value);
+        LOG.info("{} = {}", OBSERVER_LEARNER_MASTERS, preferredLearnerMasters);
+    }
+
     public static long getObserverElectionDelayMs() {
         return observerElectionDelayMs;
     }
@@ -62,6 +62,10 @@
  * to be brought up to date.
  *
  * The logic is quite a bit simpler than the corresponding logic in Leader because it only hosts observers.
+ *
+ * Observers may host an ObserverMaster too (see {@link Observer#OBSERVER_SERVE_OBSERVERS}), so that
+ * observers form a multi-level distribution tree: each INFORM received from upstream is forwarded as is
+ * to the observers connected downstream, and their requests are forwarded upstream.
  */
 public class ObserverMaster extends LearnerMaster implements Runnable {
 
@@ -71,7 +75,7 @@ public class ObserverMaster extends LearnerMaster implements Runnable {
     private final AtomicLong followerCounter = new AtomicLong(-1);
 
     private QuorumPeer self;
-    private FollowerZooKeeperServer zks;
+    private LearnerZooKeeperServer zks;
     private int port;
 
     private Set<LearnerHandler> activeObservers = Collections.newSetFromMap(new ConcurrentHashMap<>());
@@ -145,7 +149,7 @@ public void run() {
         }
     };
 
-    ObserverMaster(QuorumPeer self, FollowerZooKeeperServer zks, int port) {
+    ObserverMaster(QuorumPeer self, LearnerZooKeeperServer zks, int port) {
         this.self = self;
         this.zks = zks;
         this.port = port;
@@ -353,7 +357,17 @@ public QuorumAuthServer getQuorumAuthServer() {
     }
 
     void proposalReceived(QuorumPacket qp) {
-        proposedPkts.add(new QuorumPacket(Leader.INFORM, qp.getZxid(), qp.getData(), null));
+        proposedPkts.add(new SerializedQuorumPacket(Leader.INFORM, qp.getZxid(), qp.getData()));
+    }
+
+    /**
+     * Forward an INFORM or INFORMANDACTIVATE received by an observer hosting
+     * this ObserverMaster. The packet data is shared, not copied.
+     */
+    synchronized void informReceived(QuorumPacket qp) {
+        QuorumPacket pkt = new SerializedQuorumPacket(qp.getType(), qp.getZxid(), qp.getData());
+        cacheCommittedPacket(pkt);
+        sendPacket(pkt);
     }
 
     private synchronized QuorumPacket removeProposedPacket(long zxid) {
@@ -421,6 +435,8 @@ synchronized void informAndActivate(long zxid, long suggestedLeaderId) {
 
         // Build the INFORMANDACTIVATE packet
         QuorumPacket informAndActivateQP = Leader.buildInformAndActivePacket(zxid, suggestedLeaderId, pkt.getData());
+        informAndActivateQP = new SerializedQuorumPacket(
+            informAndActivateQP.getType(), informAndActivateQP.getZxid(), informAndActivateQP.getData());
         cacheCommittedPacket(informAndActivateQP);
         sendPacket(informAndActivateQP);
     }
@@ -21,9 +21,11 @@
 import java.io.IOException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BiConsumer;
+import org.apache.zookeeper.metrics.MetricsContext;
 import org.apache.zookeeper.server.FinalRequestProcessor;
 import org.apache.zookeeper.server.Request;
 import org.apache.zookeeper.server.RequestProcessor;
+import org.apache.zookeeper.server.ServerMetrics;
 import org.apache.zookeeper.server.SyncRequestProcessor;
 import org.apache.zookeeper.server.ZKDatabase;
 import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
@@ -119,14 +121,49 @@ public synchronized void sync() {
         }
 
         Request r = pendingSyncs.remove();
+        if (r instanceof LearnerSyncRequest) {
+            LearnerSyncRequest lsr = (LearnerSyncRequest) r;
+            lsr.fh.queuePacket(new QuorumPacket(Leader.SYNC, 0, null, null));
+        }
         commitProcessor.commit(r);
     }
 
+    /**
+     * Process a request received from an observer connected to the
+     * ObserverMaster of this observer. These requests have already passed
+     * through validation and checks for session upgrade.
+     *
+     * @param request received from external Learner
+     */
+    @Override
+    protected void processObserverRequest(Request request) {
+        ((ObserverRequestProcessor) firstProcessor).processRequest(request, false);
+    }
+
     @Override
     public String getState() {
         return "observer";
     }
 
+    @Override
+    protected void registerMetrics() {
+        super.registerMetrics();
+
+        MetricsContext rootContext = ServerMetrics.getMetrics().getMetricsProvider().getRootContext();
+
+        rootContext.registerGauge("synced_observers", self::getSynced_observers_metric);
+
+    }
+
+    @Override
+    protected void unregisterMetrics() {
+        super.unregisterMetrics();
+
+        MetricsContext rootContext = ServerMetrics.getMetrics().getMetricsProvider().getRootContext();
+        rootContext.unregisterGauge("synced_observers");
+
+    }
+
     @Override
     public void dumpMonitorValues(BiConsumer<String, Object> response) {
         super.dumpMonitorValues(response);
@@ -187,6 +187,24 @@ public class QuorumCnxManager {
      */
     private final boolean tcpKeepAlive = Boolean.getBoolean("zookeeper.tcpKeepAlive");
 
+    /*
+     * Resolve the address of a peer in the connection thread rather than while
+     * holding the manager lock, so that connectAll() does not wait for the DNS
+     * lookups one by one before starting the connections. Disabled by default.
+     */
+    public static final String ELECTION_ASYNC_ADDRESS_RESOLUTION = "zookeeper.electionAsyncAddressResolution";
+    private static boolean asyncAddressResolution;
+
+    static {
+        asyncAddressResolution = Boolean.parseBoolean(System.getProperty(ELECTION_ASYNC_ADDRESS_RESOLUTION, "false"));
+        LOG.info("{} = {}", ELECTION_ASYNC_ADDRESS_RESOLUTION, asyncAddressResolution);
+    }
+
+    // for testing
+    static void setAsyncAddressResolution(boolean enabled) {
+        asyncAddressResolution = enabled;
+    }
+
 
     /*
      * Socket factory, allowing the injection of custom socket implementations for testing
@@ -455,6 +473,12 @@ private class QuorumConnectionReqThread extends ZooKeeperThread {
         @Override
         public void run() {
             try {
+                if (asyncAddressResolution) {
+                    // Resolve hostname for the remote server before attempting to
+                    // connect in case the underlying ip address has changed. The
+                    // lookups of the connection threads run in parallel.
+                    self.lookupSocketAddresses(sid);
+                }
                 initiateConnection(electionAddr, sid);
             } finally {
                 inprogressConnections.remove(sid);
@@ -752,9 +776,11 @@ synchronized void connectOne(long sid) {
         }
         synchronized (self.QV_LOCK) {
             boolean knownId = false;
-            // Resolve hostname for the remote server before attempting to
-            // connect in case the underlying ip address has changed.
-            self.recreateSocketAddresses(sid);
+            if (!asyncAddressResolution) {
+                // Resolve hostname for the remote server before attempting to
+                // connect in case the underlying ip address has changed.
+                self.recreateSocketAddresses(sid);
+            }
             Map<Long, QuorumPeer.QuorumServer> lastCommittedView = self.getView();
             QuorumVerifier lastSeenQV = self.getLastSeenQuorumVerifier();
             Map<Long, QuorumPeer.QuorumServer> lastProposedView = lastSeenQV.getAllMembers();
@@ -784,7 +810,8 @@ synchronized void connectOne(long sid) {
 
     /**
      * Try to establish a connection with each server if one
-     * doesn't exist.
+     * doesn't exist. The connections are established in parallel
+     * by the connection executor.
      */
 
     public void connectAll() {
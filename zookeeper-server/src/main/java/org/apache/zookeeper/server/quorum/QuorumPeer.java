@@ -1060,6 +1060,60 @@ public void recreateSocketAddresses(long id) {
         }
     }
 
+    /**
+     * Resolves hostname for a given server ID, like
+     * {@link #recreateSocketAddresses(long)}, but without holding QV_LOCK
+     * during the DNS lookups, so that the lookups for several servers can
+     * run in parallel. QV_LOCK is only held to find the server and to update
+     * its addresses.
+     */
+    public void lookupSocketAddresses(long id) {
+        List<QuorumServer> servers = new ArrayList<>(2);
+        synchronized (QV_LOCK) {
+            addServer(servers, getQuorumVerifier(), id);
+            addServer(servers, getLastSeenQuorumVerifier(), id);
+        }
+        List<Set<InetSocketAddress>> addrs = new ArrayList<>(servers.size());
+        List<Set<InetSocketAddress>> electionAddrs = new ArrayList<>(servers.size());
+        for (QuorumServer qs : servers) {
+            addrs.add(qs.addr.lookupSocketAddresses());
+            electionAddrs.add(qs.electionAddr.lookupSocketAddresses());
+        }
+        synchronized (QV_LOCK) {
+            for (int i = 0; i < servers.size(); i++) {
+                servers.get(i).addr.setSocketAddresses(addrs.get(i));
+                servers.get(i).electionAddr.setSocketAddresses(electionAddrs.get(i));
+            }
+            QuorumVerifier qv = getQuorumVerifier();
+            QuorumServer qs = qv == null ? null : qv.getAllMembers().get(id);
+            if (id == getMyId() && qs != null && containsServer(servers, qs)) {
+                setAddrs(qs.addr, qs.electionAddr, qs.clientAddr, qs.secureClientAddr);
+            }
+        }
+    }
+
+    private static void addServer(List<QuorumServer> servers, QuorumVerifier qv, long id) {
+        QuorumServer qs = qv == null ? null : qv.getAllMembers().get(id);
+        if (qs == null || containsServer(servers, qs)) {
+            return;
+        }
+        if (qs.addr.isEmpty() || qs.electionAddr.isEmpty()) {
+            LOG.warn("Addresses of server {} have not been initialized", id);
+            return;
+        }
+        servers.add(qs);
+    }
+
+    // QuorumServer.equals compares the addresses, the servers are compared by identity
+    private static boolean containsServer(List<QuorumServer> servers, QuorumServer qs) {
+        for (QuorumServer server : servers) {
+            if (server == qs) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private AddressTuple getAddrs() {
         AddressTuple addrs = myAddrs.get();
         if (addrs != null) {
@@ -2509,11 +2563,36 @@ private void updateObserverMasterList() {
         }
         LOG.info("Updated learner master list to be {}", sb.toString());
         Collections.shuffle(observerMasters);
+        addPreferredObserverMasters();
         // Reset the internal index of the observerMaster when
         // the observerMaster List is refreshed
         nextObserverMaster = 0;
     }
 
+    /**
+     * Put the learner masters configured with {@link Observer#OBSERVER_LEARNER_MASTERS}
+     * first, in order, so that observers can observe other observers. The voting
+     * members remain in the list as fallback.
+     */
+    private void addPreferredObserverMasters() {
+        List<QuorumServer> preferred = new ArrayList<>();
+        Map<Long, QuorumServer> members = quorumVerifier.getAllMembers();
+        for (long sid : Observer.getPreferredLearnerMasters()) {
+            QuorumServer server = members.get(sid);
+            if (server == null || sid == getMyId()) {
+                LOG.warn("Ignoring preferred learner master sid={}, not a member of the ensemble other than us", sid);
+                continue;
+            }
+            InetAddress address = server.addr.getReachableOrOne().getAddress();
+            preferred.add(new QuorumServer(sid, new InetSocketAddress(address, observerMasterPort)));
+        }
+        if (!preferred.isEmpty()) {
+            observerMasters.removeIf(master -> preferred.stream().anyMatch(p -> p.id == master.id));
+            observerMasters.addAll(0, preferred);
+            LOG.info("Preferred learner masters are {}", preferred);
+        }
+    }
+
     private boolean useObserverMasters() {
         return getLearnerType() == LearnerType.OBSERVER && observerMasters.size() > 0;
     }
@@ -2780,6 +2859,8 @@ public boolean isReconfigEnabled() {
             return leader.getObservingLearners().size();
         } else if (follower != null) {
             return follower.getSyncedObserverSize();
+        } else if (observer != null) {
+            return observer.getSyncedObserverSize();
         } else {
             return null;
         }
@@ -136,6 +136,11 @@ public void upgrade(long sessionId) {
         }
     }
 
+    @Override
+    protected boolean isLocalSession(long sessionId) {
+        return upgradeableSessionTracker.isLocalSession(sessionId);
+    }
+
     @Override
     protected void setLocalSessionFlag(Request si) {
         // We need to set isLocalSession to tree for these type of request
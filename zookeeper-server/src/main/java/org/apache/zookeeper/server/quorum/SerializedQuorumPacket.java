@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.jute.BinaryOutputArchive;
+
+/**
+ * A packet fanned out by an {@link ObserverMaster} to all of its observers.
+ * It is serialized once, the first time one of the {@link LearnerHandler}
+ * objects sends it, and every other handler writes the same bytes to its
+ * socket instead of serializing the packet again. The txn data is shared
+ * with the packet received from upstream, it is never copied.
+ *
+ * Instances must not be modified once queued.
+ */
+class SerializedQuorumPacket extends QuorumPacket {
+
+    private volatile byte[] serialized;
+
+    SerializedQuorumPacket(int type, long zxid, byte[] data) {
+        super(type, zxid, data, null);
+    }
+
+    /**
+     * Write the packet as {@link BinaryOutputArchive#writeRecord} would.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        byte[] bytes = serialized;
+        if (bytes == null) {
+            synchronized (this) {
+                bytes = serialized;
+                if (bytes == null) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                        (int) LearnerHandler.packetSize(this));
+                    serialize(BinaryOutputArchive.getArchive(baos), "packet");
+                    bytes = baos.toByteArray();
+                    serialized = bytes;
+                }
+            }
+        }
+        out.write(bytes);
+    }
+
+}
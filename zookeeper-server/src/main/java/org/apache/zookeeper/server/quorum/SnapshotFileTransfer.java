@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wire format and staging file helpers of the chunked snapshot file sync.
+ *
+ * Instead of serializing its in-memory DataTree, the learner master streams
+ * its most recent on-disk snapshot file as a SNAPFILE packet followed by
+ * SNAPCHUNK packets, and then queues a DIFF with the txns logged after that
+ * snapshot. The learner stages the chunks in its snapshot directory under
+ * {@link #STAGING_FILE_PREFIX}; if the connection drops, the next
+ * FOLLOWERINFO/OBSERVERINFO reports the staged zxid, length and checksum so
+ * that the transfer resumes after the last chunk the learner has verified,
+ * provided the staged bytes are a prefix of the file the master sends.
+ *
+ * SNAPFILE data: file length (long), resume offset (long), file name (utf8).
+ * SNAPCHUNK data: offset (long), Adler32 checksum of the payload (long), payload.
+ */
+final class SnapshotFileTransfer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotFileTransfer.class);
+
+    static final String STAGING_FILE_PREFIX = "transfer.";
+
+    private static final int HEADER_SIZE = 16;
+
+    private SnapshotFileTransfer() {
+    }
+
+    static byte[] encodeHeader(long fileLength, long offset, String fileName) {
+        byte[] name = fileName.getBytes(UTF_8);
+        return ByteBuffer.allocate(HEADER_SIZE + name.length)
+            .putLong(fileLength)
+            .putLong(offset)
+            .put(name)
+            .array();
+    }
+
+    static byte[] encodeChunk(long offset, byte[] buf, int len) {
+        Adler32 checksum = new Adler32();
+        checksum.update(buf, 0, len);
+        return ByteBuffer.allocate(HEADER_SIZE + len)
+            .putLong(offset)
+            .putLong(checksum.getValue())
+            .put(buf, 0, len)
+            .array();
+    }
+
+    /**
+     * Verify a SNAPCHUNK payload and write it to the staging file.
+     *
+     * @param raf staging file, positioned at <code>expectedOffset</code>
+     * @param data SNAPCHUNK packet data
+     * @param expectedOffset offset the learner expects the chunk to start at
+     * @return number of bytes written
+     * @throws IOException if the chunk is out of order or its checksum does not match
+     */
+    static int writeChunk(RandomAccessFile raf, byte[] data, long expectedOffset) throws IOException {
+        if (data == null || data.length < HEADER_SIZE) {
+            throw new IOException("Malformed snapshot chunk");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        long offset = bb.getLong();
+        long expectedChecksum = bb.getLong();
+        if (offset != expectedOffset) {
+            throw new IOException("Snapshot chunk at offset " + offset + ", expected " + expectedOffset);
+        }
+        int len = data.length - HEADER_SIZE;
+        Adler32 checksum = new Adler32();
+        checksum.update(data, HEADER_SIZE, len);
+        if (checksum.getValue() != expectedChecksum) {
+            throw new IOException("Checksum mismatch in snapshot chunk at offset " + offset);
+        }
+        raf.write(data, HEADER_SIZE, len);
+        return len;
+    }
+
+    /**
+     * @return Adler32 checksum of the first <code>length</code> bytes of the
+     *         file, which identifies the staged prefix the transfer resumes
+     *         after
+     */
+    static long checksum(RandomAccessFile raf, long length) throws IOException {
+        Adler32 checksum = new Adler32();
+        byte[] buf = new byte[(int) Math.min(64 * 1024, Math.max(length, 1))];
+        raf.seek(0);
+        long remaining = length;
+        while (remaining > 0) {
+            int len = (int) Math.min(buf.length, remaining);
+            raf.readFully(buf, 0, len);
+            checksum.update(buf, 0, len);
+            remaining -= len;
+        }
+        return checksum.getValue();
+    }
+
+    static long checksum(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return checksum(raf, length);
+        }
+    }
+
+    /**
+     * @return the staging file of a previously interrupted transfer, or null
+     */
+    static File findStagingFile(File snapDir) {
+        File[] files = snapDir.listFiles((dir, name) -> getStagedZxid(name) != -1);
+        if (files == null || files.length == 0) {
+            return null;
+        }
+        File latest = files[0];
+        for (File f : files) {
+            if (getStagedZxid(f.getName()) > getStagedZxid(latest.getName())) {
+                latest = f;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @return zxid of the snapshot being staged in the given file, -1 if
+     *         the name does not denote a staging file
+     */
+    static long getStagedZxid(String name) {
+        if (!name.startsWith(STAGING_FILE_PREFIX)) {
+            return -1;
+        }
+        return Util.getZxidFromName(name.substring(STAGING_FILE_PREFIX.length()), FileSnap.SNAPSHOT_FILE_PREFIX);
+    }
+
+    /**
+     * Prepare the staging file for the snapshot announced by a SNAPFILE
+     * packet. Staging files of other snapshots are removed, and the staging
+     * file is truncated to the offset the master resumes from.
+     */
+    static File prepareStagingFile(File snapDir, String fileName, long offset) throws IOException {
+        if (fileName.contains(File.separator) || Util.getZxidFromName(fileName, FileSnap.SNAPSHOT_FILE_PREFIX) == -1) {
+            throw new IOException("Invalid snapshot file name " + fileName);
+        }
+        File staging = new File(snapDir, STAGING_FILE_PREFIX + fileName);
+        File[] stale = snapDir.listFiles((dir, name) -> getStagedZxid(name) != -1);
+        if (stale != null) {
+            for (File f : stale) {
+                if (!f.equals(staging) && !f.delete()) {
+                    LOG.warn("Unable to delete stale snapshot staging file {}", f);
+                }
+            }
+        }
+        long staged = staging.exists() ? staging.length() : 0;
+        if (offset > staged) {
+            throw new IOException("Cannot resume snapshot transfer at offset " + offset + ", only " + staged + " bytes staged");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(staging, "rw")) {
+            raf.setLength(offset);
+        }
+        return staging;
+    }
+
+}
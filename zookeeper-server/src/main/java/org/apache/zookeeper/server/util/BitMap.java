@@ -19,6 +19,7 @@
 package org.apache.zookeeper.server.util;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,11 +28,15 @@
 /**
  * This is a helper class to maintain the bit to specific value and the
  * reversed value to bit mapping.
+ *
+ * The bits are allocated from 0 and reused once freed, so they are dense and
+ * the values are stored in an array indexed by their bit rather than in a
+ * map boxing every bit.
  */
 public class BitMap<T> {
 
     private final Map<T, Integer> value2Bit = new HashMap<>();
-    private final Map<Integer, T> bit2Value = new HashMap<>();
+    private Object[] bit2Value = new Object[16];
 
     private final BitSet freedBitSet = new BitSet();
     private Integer nextBit = Integer.valueOf(0);
@@ -66,7 +71,10 @@ public Integer add(T value) {
             }
 
             value2Bit.put(value, bit);
-            bit2Value.put(bit, value);
+            if (bit >= bit2Value.length) {
+                bit2Value = Arrays.copyOf(bit2Value, Math.max(bit + 1, bit2Value.length * 2));
+            }
+            bit2Value[bit] = value;
             return bit;
         } finally {
             rwLock.writeLock().unlock();
@@ -76,7 +84,7 @@ public Integer add(T value) {
     public T get(int bit) {
         rwLock.readLock().lock();
         try {
-            return bit2Value.get(bit);
+            return valueOf(bit);
         } finally {
             rwLock.readLock().unlock();
         }
@@ -103,7 +111,7 @@ public int remove(T value) {
                 return -1;
             }
             value2Bit.remove(value);
-            bit2Value.remove(bit);
+            bit2Value[bit] = null;
             freedBitSet.set(bit);
             return bit;
         } finally {
@@ -114,12 +122,12 @@ public int remove(T value) {
     public T remove(int bit) {
         rwLock.writeLock().lock();
         try {
-            T value = bit2Value.get(bit);
+            T value = valueOf(bit);
             if (value == null) {
                 return null;
             }
             value2Bit.remove(value);
-            bit2Value.remove(bit);
+            bit2Value[bit] = null;
             freedBitSet.set(bit);
             return value;
         } finally {
@@ -136,4 +144,12 @@ public int size() {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private T valueOf(int bit) {
+        if (bit < 0 || bit >= bit2Value.length) {
+            return null;
+        }
+        return (T) bit2Value[bit];
+    }
+
 }
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed set of non-negative ints, laid out like a roaring bitmap.
+ *
+ * The ints are grouped by their upper 16 bits, and the lower 16 bits of each
+ * group are stored in a container which is either a sorted char array, as
+ * long as it holds at most {@link #ARRAY_CONTAINER_MAX} values, or a 8KB
+ * bitmap. So a set of a few large ints takes a few bytes instead of a BitSet
+ * as large as the largest int, and it can be iterated without scanning empty
+ * words.
+ *
+ * This class is not thread-safe.
+ */
+public class CompressedBitSet implements Iterable<Integer> {
+
+    static final int ARRAY_CONTAINER_MAX = 4096;
+
+    private static final int BITMAP_CONTAINER_WORDS = 1 << 10;
+
+    private static final char[] EMPTY_KEYS = new char[0];
+    private static final Object[] EMPTY_CONTAINERS = new Object[0];
+    private static final int[] EMPTY_CARDINALITIES = new int[0];
+
+    // upper 16 bits of the values in each container, sorted
+    private char[] keys = EMPTY_KEYS;
+    // char[] or long[] container of the lower 16 bits
+    private Object[] containers = EMPTY_CONTAINERS;
+    private int[] cardinalities = EMPTY_CARDINALITIES;
+    private int containerCount = 0;
+
+    private int size = 0;
+
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        char low = (char) value;
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0) {
+            insertContainer(-i - 1, (char) (value >>> 16), new char[]{low});
+            size++;
+            return true;
+        }
+        Object container = containers[i];
+        int cardinality = cardinalities[i];
+        if (container instanceof char[]) {
+            char[] array = (char[]) container;
+            int j = Arrays.binarySearch(array, 0, cardinality, low);
+            if (j >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_CONTAINER_MAX) {
+                long[] bitmap = toBitmap(array, cardinality);
+                bitmap[low >>> 6] |= 1L << low;
+                containers[i] = bitmap;
+            } else {
+                if (cardinality == array.length) {
+                    array = Arrays.copyOf(array, Math.min(ARRAY_CONTAINER_MAX, array.length * 2));
+                    containers[i] = array;
+                }
+                j = -j - 1;
+                System.arraycopy(array, j, array, j + 1, cardinality - j);
+                array[j] = low;
+            }
+        } else {
+            long[] bitmap = (long[]) container;
+            long mask = 1L << low;
+            if ((bitmap[low >>> 6] & mask) != 0) {
+                return false;
+            }
+            bitmap[low >>> 6] |= mask;
+        }
+        cardinalities[i] = cardinality + 1;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        char low = (char) value;
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Object container = containers[i];
+        int cardinality = cardinalities[i];
+        if (container instanceof char[]) {
+            char[] array = (char[]) container;
+            int j = Arrays.binarySearch(array, 0, cardinality, low);
+            if (j < 0) {
+                return false;
+            }
+            System.arraycopy(array, j + 1, array, j, cardinality - j - 1);
+        } else {
+            long[] bitmap = (long[]) container;
+            long mask = 1L << low;
+            if ((bitmap[low >>> 6] & mask) == 0) {
+                return false;
+            }
+            bitmap[low >>> 6] &= ~mask;
+        }
+        updateContainer(i, cardinality - 1);
+        size--;
+        return true;
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containerContains(containers[i], cardinalities[i], (char) value);
+    }
+
+    /**
+     * Remove all the values of the other set from this one.
+     *
+     * Only the containers with the same upper bits in both sets are visited,
+     * and two bitmap containers are subtracted word by word.
+     *
+     * @return the number of values removed
+     */
+    public int removeAll(CompressedBitSet other) {
+        int sizeBefore = size;
+        int i = 0;
+        while (i < containerCount && other.size > 0) {
+            int j = other.indexOf(keys[i]);
+            if (j < 0) {
+                i++;
+                continue;
+            }
+            Object container = containers[i];
+            Object otherContainer = other.containers[j];
+            int otherCardinality = other.cardinalities[j];
+            int cardinality;
+            if (container instanceof char[]) {
+                char[] array = (char[]) container;
+                cardinality = 0;
+                for (int k = 0; k < cardinalities[i]; k++) {
+                    if (!containerContains(otherContainer, otherCardinality, array[k])) {
+                        array[cardinality++] = array[k];
+                    }
+                }
+            } else {
+                long[] bitmap = (long[]) container;
+                if (otherContainer instanceof long[]) {
+                    long[] otherBitmap = (long[]) otherContainer;
+                    cardinality = 0;
+                    for (int w = 0; w < BITMAP_CONTAINER_WORDS; w++) {
+                        bitmap[w] &= ~otherBitmap[w];
+                        cardinality += Long.bitCount(bitmap[w]);
+                    }
+                } else {
+                    char[] otherArray = (char[]) otherContainer;
+                    cardinality = cardinalities[i];
+                    for (int k = 0; k < otherCardinality; k++) {
+                        char low = otherArray[k];
+                        long mask = 1L << low;
+                        if ((bitmap[low >>> 6] & mask) != 0) {
+                            bitmap[low >>> 6] &= ~mask;
+                            cardinality--;
+                        }
+                    }
+                }
+            }
+            size -= cardinalities[i] - cardinality;
+            if (updateContainer(i, cardinality)) {
+                i++;
+            }
+        }
+        return sizeBefore - size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate through the values in ascending order. The set must not be
+     * modified while iterating.
+     */
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            int containerIndex = 0;
+            // position in the array container, or word in the bitmap one
+            int position = 0;
+            long word = 0;
+            int remaining = size;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (remaining <= 0) {
+                    throw new NoSuchElementException();
+                }
+                while (true) {
+                    int high = keys[containerIndex] << 16;
+                    Object container = containers[containerIndex];
+                    if (container instanceof char[]) {
+                        if (position < cardinalities[containerIndex]) {
+                            remaining--;
+                            return high | ((char[]) container)[position++];
+                        }
+                    } else {
+                        long[] bitmap = (long[]) container;
+                        while (word == 0 && position < BITMAP_CONTAINER_WORDS) {
+                            word = bitmap[position++];
+                        }
+                        if (word != 0) {
+                            int low = ((position - 1) << 6) + Long.numberOfTrailingZeros(word);
+                            word &= word - 1;
+                            remaining--;
+                            return high | low;
+                        }
+                    }
+                    containerIndex++;
+                    position = 0;
+                    word = 0;
+                }
+            }
+        };
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, containerCount, key);
+    }
+
+    private static boolean containerContains(Object container, int cardinality, char low) {
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, 0, cardinality, low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    private void insertContainer(int i, char key, Object container) {
+        if (containerCount == keys.length) {
+            // most sets only have one or two containers, grow slowly
+            int capacity = containerCount < 4 ? containerCount + 1 : containerCount + (containerCount >> 1);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            cardinalities = Arrays.copyOf(cardinalities, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, containerCount - i);
+        System.arraycopy(containers, i, containers, i + 1, containerCount - i);
+        System.arraycopy(cardinalities, i, cardinalities, i + 1, containerCount - i);
+        keys[i] = key;
+        containers[i] = container;
+        cardinalities[i] = 1;
+        containerCount++;
+    }
+
+    /**
+     * Record the new cardinality of a container after removing values from
+     * it, dropping or shrinking it if needed.
+     *
+     * @return false if the container was dropped
+     */
+    private boolean updateContainer(int i, int cardinality) {
+        if (cardinality == 0) {
+            containerCount--;
+            System.arraycopy(keys, i + 1, keys, i, containerCount - i);
+            System.arraycopy(containers, i + 1, containers, i, containerCount - i);
+            System.arraycopy(cardinalities, i + 1, cardinalities, i, containerCount - i);
+            containers[containerCount] = null;
+            if (containerCount == 0) {
+                keys = EMPTY_KEYS;
+                containers = EMPTY_CONTAINERS;
+                cardinalities = EMPTY_CARDINALITIES;
+            }
+            return false;
+        }
+        Object container = containers[i];
+        if (container instanceof long[]) {
+            if (cardinality <= ARRAY_CONTAINER_MAX) {
+                containers[i] = toArray((long[]) container, cardinality);
+            }
+        } else if (cardinality <= ((char[]) container).length / 4) {
+            containers[i] = Arrays.copyOf((char[]) container, cardinality * 2);
+        }
+        cardinalities[i] = cardinality;
+        return true;
+    }
+
+    private static long[] toBitmap(char[] array, int cardinality) {
+        long[] bitmap = new long[BITMAP_CONTAINER_WORDS];
+        for (int k = 0; k < cardinality; k++) {
+            bitmap[array[k] >>> 6] |= 1L << array[k];
+        }
+        return bitmap;
+    }
+
+    private static char[] toArray(long[] bitmap, int cardinality) {
+        char[] array = new char[cardinality];
+        int k = 0;
+        for (int w = 0; w < BITMAP_CONTAINER_WORDS; w++) {
+            long word = bitmap[w];
+            while (word != 0) {
+                array[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+
+}
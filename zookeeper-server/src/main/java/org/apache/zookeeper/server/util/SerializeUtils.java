@@ -34,6 +34,7 @@
 import org.apache.zookeeper.server.ZooKeeperServer;
 import org.apache.zookeeper.server.ZooTrace;
 import org.apache.zookeeper.txn.CloseSessionTxn;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
 import org.apache.zookeeper.txn.CreateContainerTxn;
 import org.apache.zookeeper.txn.CreateSessionTxn;
 import org.apache.zookeeper.txn.CreateTTLTxn;
@@ -71,6 +72,9 @@ public static TxnLogEntry deserializeTxn(byte[] txnBytes) throws IOException {
             txn = ZooKeeperServer.isCloseSessionTxnEnabled()
                     ?  new CloseSessionTxn() : null;
             break;
+        case OpCode.closeSessions:
+            txn = new CloseSessionsTxn();
+            break;
         case OpCode.create:
         case OpCode.create2:
             txn = new CreateTxn();
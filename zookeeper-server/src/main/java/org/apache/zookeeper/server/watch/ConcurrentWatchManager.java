@@ -0,0 +1,411 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.watch;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.SerializedWatchEvent;
+import org.apache.zookeeper.server.ServerCnxn;
+import org.apache.zookeeper.server.ServerMetrics;
+import org.apache.zookeeper.server.ServerWatcher;
+import org.apache.zookeeper.server.ZooTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A watch manager which does not serialize all the operations on a single
+ * monitor like {@link WatchManager} does.
+ *
+ * The watchers of a path, with the modes they are watching it in, are only
+ * accessed while holding the lock of the stripe the path hashes to, so adding
+ * a watch and triggering the watches of another path do not contend. The
+ * paths watched by each watcher are kept in a {@link ConcurrentHashMap} which
+ * is updated without holding any stripe lock.
+ *
+ * The watches are delivered outside of the stripe locks.
+ */
+public class ConcurrentWatchManager implements IWatchManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentWatchManager.class);
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // the inner maps are only accessed while holding the lock of the path
+    private final ConcurrentHashMap<String, Map<Watcher, WatchStats>> watchTable = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Watcher, Set<String>> watch2Paths = new ConcurrentHashMap<>();
+
+    private final AtomicInteger watchCount = new AtomicInteger();
+
+    private final AtomicInteger recursiveWatchQty = new AtomicInteger();
+
+    private final RecursiveWatchIndex recursiveWatchIndex = new RecursiveWatchIndex();
+
+    public ConcurrentWatchManager() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(String path) {
+        int h = path.hashCode();
+        return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private boolean isDeadWatcher(Watcher watcher) {
+        return watcher instanceof ServerCnxn && ((ServerCnxn) watcher).isStale();
+    }
+
+    private void indexPath(Watcher watcher, String path) {
+        watch2Paths.compute(watcher, (w, paths) -> {
+            if (paths == null) {
+                paths = ConcurrentHashMap.newKeySet();
+            }
+            paths.add(path);
+            return paths;
+        });
+    }
+
+    private void unindexPath(Watcher watcher, String path) {
+        watch2Paths.computeIfPresent(watcher, (w, paths) -> {
+            paths.remove(path);
+            return paths.isEmpty() ? null : paths;
+        });
+    }
+
+    @Override
+    public int size() {
+        return watchCount.get();
+    }
+
+    @Override
+    public boolean addWatch(String path, Watcher watcher) {
+        return addWatch(path, watcher, WatcherMode.DEFAULT_WATCHER_MODE);
+    }
+
+    @Override
+    public boolean addWatch(String path, Watcher watcher, WatcherMode watcherMode) {
+        if (isDeadWatcher(watcher)) {
+            LOG.debug("Ignoring addWatch with closed cnxn");
+            return false;
+        }
+
+        synchronized (lockFor(path)) {
+            // don't waste memory if there are few watches on a node
+            Map<Watcher, WatchStats> watchers = watchTable.computeIfAbsent(path, p -> new HashMap<>(4));
+            WatchStats stats = watchers.getOrDefault(watcher, WatchStats.NONE);
+            WatchStats newStats = stats.addMode(watcherMode);
+            if (newStats == stats) {
+                return false;
+            }
+            watchers.put(watcher, newStats);
+            if (stats == WatchStats.NONE) {
+                watchCount.incrementAndGet();
+                indexPath(watcher, path);
+            }
+            if (watcherMode.isRecursive()) {
+                recursiveWatchQty.incrementAndGet();
+                recursiveWatchIndex.add(path);
+            }
+        }
+
+        // the cnxn may have been closed and its watches removed while we were
+        // adding this one, make sure it does not leak
+        if (isDeadWatcher(watcher)) {
+            removeWatcher(path, watcher, null);
+        }
+        return true;
+    }
+
+    @Override
+    public void removeWatcher(Watcher watcher) {
+        Set<String> paths = watch2Paths.remove(watcher);
+        if (paths == null) {
+            return;
+        }
+        for (String path : paths) {
+            synchronized (lockFor(path)) {
+                Map<Watcher, WatchStats> watchers = watchTable.get(path);
+                if (watchers == null) {
+                    continue;
+                }
+                WatchStats stats = watchers.remove(watcher);
+                if (stats == null) {
+                    continue;
+                }
+                watchCount.decrementAndGet();
+                if (stats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
+                    recursiveWatchQty.decrementAndGet();
+                    recursiveWatchIndex.remove(path);
+                }
+                if (watchers.isEmpty()) {
+                    watchTable.remove(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List<ACL> acl) {
+        return triggerWatch(path, type, zxid, acl, null);
+    }
+
+    @Override
+    public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List<ACL> acl, WatcherOrBitSet suppress) {
+        WatchedEvent e = new WatchedEvent(type, KeeperState.SyncConnected, path, zxid);
+        SerializedWatchEvent se = new SerializedWatchEvent(e);
+        Set<Watcher> watchers = new HashSet<>();
+        collectWatchers(path, false, watchers);
+        // only the parents having recursive watches are looked up
+        for (String parent : recursiveWatchIndex.getWatchedParents(path)) {
+            collectWatchers(parent, true, watchers);
+        }
+        if (watchers.isEmpty()) {
+            if (LOG.isTraceEnabled()) {
+                ZooTrace.logTraceMessage(LOG, ZooTrace.EVENT_DELIVERY_TRACE_MASK, "No watchers for " + path);
+            }
+            return null;
+        }
+
+        for (Watcher w : watchers) {
+            if (suppress != null && suppress.contains(w)) {
+                continue;
+            }
+            if (w instanceof ServerWatcher) {
+                ((ServerWatcher) w).process(se, acl);
+            } else {
+                w.process(e);
+            }
+        }
+
+        switch (type) {
+            case NodeCreated:
+                ServerMetrics.getMetrics().NODE_CREATED_WATCHER.add(watchers.size());
+                break;
+
+            case NodeDeleted:
+                ServerMetrics.getMetrics().NODE_DELETED_WATCHER.add(watchers.size());
+                break;
+
+            case NodeDataChanged:
+                ServerMetrics.getMetrics().NODE_CHANGED_WATCHER.add(watchers.size());
+                break;
+
+            case NodeChildrenChanged:
+                ServerMetrics.getMetrics().NODE_CHILDREN_WATCHER.add(watchers.size());
+                break;
+            default:
+                // Other types not logged.
+                break;
+        }
+
+        return new WatcherOrBitSet(watchers);
+    }
+
+    /**
+     * Collect the watchers of localPath to notify of a change of the path
+     * being triggered, removing the standard watches if localPath is the path
+     * itself rather than one of its parents.
+     */
+    private void collectWatchers(String localPath, boolean atParentPath, Set<Watcher> watchers) {
+        if (!watchTable.containsKey(localPath)) {
+            return;
+        }
+        synchronized (lockFor(localPath)) {
+            Map<Watcher, WatchStats> thisWatchers = watchTable.get(localPath);
+            if (thisWatchers == null) {
+                return;
+            }
+            Iterator<Entry<Watcher, WatchStats>> iterator = thisWatchers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<Watcher, WatchStats> entry = iterator.next();
+                Watcher watcher = entry.getKey();
+                WatchStats stats = entry.getValue();
+                if (!atParentPath) {
+                    watchers.add(watcher);
+                    WatchStats newStats = stats.removeMode(WatcherMode.STANDARD);
+                    if (newStats == WatchStats.NONE) {
+                        iterator.remove();
+                        watchCount.decrementAndGet();
+                        unindexPath(watcher, localPath);
+                    } else if (newStats != stats) {
+                        entry.setValue(newStats);
+                    }
+                } else if (stats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
+                    watchers.add(watcher);
+                }
+            }
+            if (thisWatchers.isEmpty()) {
+                watchTable.remove(localPath);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(watch2Paths.size()).append(" connections watching ").append(watchTable.size()).append(" paths\n");
+        sb.append("Total watches:").append(size());
+
+        return sb.toString();
+    }
+
+    @Override
+    public void dumpWatches(PrintWriter pwriter, boolean byPath) {
+        if (byPath) {
+            for (String path : watchTable.keySet()) {
+                Set<Watcher> watchers = getWatchers(path);
+                if (watchers.isEmpty()) {
+                    continue;
+                }
+                pwriter.println(path);
+                for (Watcher w : watchers) {
+                    pwriter.print("\t0x");
+                    pwriter.print(Long.toHexString(((ServerCnxn) w).getSessionId()));
+                    pwriter.print("\n");
+                }
+            }
+        } else {
+            for (Entry<Watcher, Set<String>> e : watch2Paths.entrySet()) {
+                pwriter.print("0x");
+                pwriter.println(Long.toHexString(((ServerCnxn) e.getKey()).getSessionId()));
+                for (String path : e.getValue()) {
+                    pwriter.print("\t");
+                    pwriter.println(path);
+                }
+            }
+        }
+    }
+
+    private Set<Watcher> getWatchers(String path) {
+        synchronized (lockFor(path)) {
+            Map<Watcher, WatchStats> watchers = watchTable.get(path);
+            return watchers == null ? new HashSet<>() : new HashSet<>(watchers.keySet());
+        }
+    }
+
+    @Override
+    public boolean containsWatcher(String path, Watcher watcher) {
+        return containsWatcher(path, watcher, null);
+    }
+
+    @Override
+    public boolean containsWatcher(String path, Watcher watcher, WatcherMode watcherMode) {
+        synchronized (lockFor(path)) {
+            Map<Watcher, WatchStats> watchers = watchTable.get(path);
+            if (watchers == null) {
+                return false;
+            }
+            WatchStats stats = watchers.get(watcher);
+            return stats != null && (watcherMode == null || stats.hasMode(watcherMode));
+        }
+    }
+
+    @Override
+    public boolean removeWatcher(String path, Watcher watcher, WatcherMode watcherMode) {
+        synchronized (lockFor(path)) {
+            Map<Watcher, WatchStats> watchers = watchTable.get(path);
+            if (watchers == null) {
+                return false;
+            }
+            WatchStats oldStats = watchers.getOrDefault(watcher, WatchStats.NONE);
+            WatchStats newStats = watcherMode == null ? WatchStats.NONE : oldStats.removeMode(watcherMode);
+            if (newStats == oldStats) {
+                return false;
+            }
+            if (newStats == WatchStats.NONE) {
+                watchers.remove(watcher);
+                watchCount.decrementAndGet();
+                unindexPath(watcher, path);
+                if (watchers.isEmpty()) {
+                    watchTable.remove(path);
+                }
+            } else {
+                watchers.put(watcher, newStats);
+            }
+            if (oldStats.hasMode(WatcherMode.PERSISTENT_RECURSIVE) && !newStats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
+                recursiveWatchQty.decrementAndGet();
+                recursiveWatchIndex.remove(path);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeWatcher(String path, Watcher watcher) {
+        return removeWatcher(path, watcher, null);
+    }
+
+    @Override
+    public WatchesReport getWatches() {
+        Map<Long, Set<String>> id2paths = new HashMap<>();
+        for (Entry<Watcher, Set<String>> e : watch2Paths.entrySet()) {
+            Long id = ((ServerCnxn) e.getKey()).getSessionId();
+            Set<String> paths = new HashSet<>(e.getValue());
+            id2paths.put(id, paths);
+        }
+        return new WatchesReport(id2paths);
+    }
+
+    @Override
+    public WatchesPathReport getWatchesByPath() {
+        Map<String, Set<Long>> path2ids = new HashMap<>();
+        for (String path : watchTable.keySet()) {
+            Set<Watcher> watchers = getWatchers(path);
+            if (watchers.isEmpty()) {
+                continue;
+            }
+            Set<Long> ids = new HashSet<>(watchers.size());
+            path2ids.put(path, ids);
+            for (Watcher watcher : watchers) {
+                ids.add(((ServerCnxn) watcher).getSessionId());
+            }
+        }
+        return new WatchesPathReport(path2ids);
+    }
+
+    @Override
+    public WatchesSummary getWatchesSummary() {
+        return new WatchesSummary(watch2Paths.size(), watchTable.size(), size());
+    }
+
+    @Override
+    public void shutdown() { /* do nothing */ }
+
+    // VisibleForTesting
+    int getRecursiveWatchQty() {
+        return recursiveWatchQty.get();
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.zookeeper.server.watch;
 
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.List;
 import javax.annotation.Nullable;
 import org.apache.zookeeper.Watcher;
@@ -53,6 +54,21 @@ default boolean addWatch(String path, Watcher watcher, WatcherMode watcherMode)
         throw new UnsupportedOperationException();  // custom implementations must defeat this
     }
 
+    /**
+     * Add the watcher to each of the paths, like {@link #addWatch(String, Watcher, WatcherMode)},
+     * typically when a client sets its watches again after reconnecting.
+     * Implementations may add them at once rather than one by one.
+     *
+     * @param paths znode paths
+     * @param watcher watcher object reference
+     * @param watcherMode the watcher mode to use
+     */
+    default void addWatches(Collection<String> paths, Watcher watcher, WatcherMode watcherMode) {
+        for (String path : paths) {
+            addWatch(path, watcher, watcherMode);
+        }
+    }
+
     /**
      * Checks the specified watcher exists for the given path.
      *
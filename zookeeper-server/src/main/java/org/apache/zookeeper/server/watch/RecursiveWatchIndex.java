@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.watch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trie of the paths having {@link WatcherMode#PERSISTENT_RECURSIVE} watches,
+ * keyed by path segment. Each node counts the recursive watches set on its
+ * path, and only the paths with watches and their parents are in the trie.
+ *
+ * Finding the parents of a changed path that have recursive watches walks
+ * the trie from the root and stops at the first segment which is not in it,
+ * so a write on a branch without any recursive watch costs a few lookups
+ * instead of one lookup per level of the path.
+ *
+ * Lookups do not lock, updates are serialized on the index.
+ */
+public class RecursiveWatchIndex {
+
+    private static final class Node {
+
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        volatile int watches;
+
+        boolean isUnused() {
+            return watches == 0 && children.isEmpty();
+        }
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * Count one more recursive watch on the path.
+     */
+    public synchronized void add(String path) {
+        Node node = root;
+        if (!path.equals("/")) {
+            int start = 1;
+            while (start <= path.length()) {
+                int end = segmentEnd(path, start);
+                node = node.children.computeIfAbsent(path.substring(start, end), s -> new Node());
+                start = end + 1;
+            }
+        }
+        node.watches++;
+    }
+
+    /**
+     * Count one less recursive watch on the path, removing the nodes which
+     * are no longer needed.
+     */
+    public synchronized void remove(String path) {
+        List<Node> nodes = new ArrayList<>();
+        List<String> segments = new ArrayList<>();
+        Node node = root;
+        nodes.add(node);
+        if (!path.equals("/")) {
+            int start = 1;
+            while (start <= path.length()) {
+                int end = segmentEnd(path, start);
+                String segment = path.substring(start, end);
+                node = node.children.get(segment);
+                if (node == null) {
+                    return;
+                }
+                nodes.add(node);
+                segments.add(segment);
+                start = end + 1;
+            }
+        }
+        if (node.watches == 0) {
+            return;
+        }
+        node.watches--;
+        for (int i = nodes.size() - 1; i > 0 && nodes.get(i).isUnused(); i--) {
+            nodes.get(i - 1).children.remove(segments.get(i - 1));
+        }
+    }
+
+    /**
+     * @return the parents of the path which have recursive watches, from the
+     *         root down. The path itself is not included
+     */
+    public List<String> getWatchedParents(String path) {
+        Node node = root;
+        if (node.isUnused() || path.equals("/")) {
+            return Collections.emptyList();
+        }
+        List<String> parents = null;
+        if (node.watches > 0) {
+            parents = new ArrayList<>(2);
+            parents.add("/");
+        }
+        int start = 1;
+        int end;
+        while ((end = path.indexOf('/', start)) != -1) {
+            node = node.children.get(path.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            if (node.watches > 0) {
+                if (parents == null) {
+                    parents = new ArrayList<>(2);
+                }
+                parents.add(path.substring(0, end));
+            }
+            start = end + 1;
+        }
+        return parents == null ? Collections.emptyList() : parents;
+    }
+
+    /**
+     * @return whether the path itself has recursive watches
+     */
+    public boolean contains(String path) {
+        Node node = root;
+        if (!path.equals("/")) {
+            int start = 1;
+            while (start <= path.length()) {
+                int end = segmentEnd(path, start);
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    return false;
+                }
+                start = end + 1;
+            }
+        }
+        return node.watches > 0;
+    }
+
+    /**
+     * @return whether no recursive watch is indexed
+     */
+    public boolean isEmpty() {
+        return root.isUnused();
+    }
+
+    private static int segmentEnd(String path, int start) {
+        int end = path.indexOf('/', start);
+        return end == -1 ? path.length() : end;
+    }
+}
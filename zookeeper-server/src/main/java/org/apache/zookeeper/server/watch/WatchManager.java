@@ -19,6 +19,7 @@
 package org.apache.zookeeper.server.watch;
 
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +33,7 @@
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.SerializedWatchEvent;
 import org.apache.zookeeper.server.ServerCnxn;
 import org.apache.zookeeper.server.ServerMetrics;
 import org.apache.zookeeper.server.ServerWatcher;
@@ -53,6 +55,8 @@ public class WatchManager implements IWatchManager {
 
     private int recursiveWatchQty = 0;
 
+    private final RecursiveWatchIndex recursiveWatchIndex = new RecursiveWatchIndex();
+
     @Override
     public synchronized int size() {
         int result = 0;
@@ -71,6 +75,14 @@ public boolean addWatch(String path, Watcher watcher) {
         return addWatch(path, watcher, WatcherMode.DEFAULT_WATCHER_MODE);
     }
 
+    @Override
+    public synchronized void addWatches(Collection<String> paths, Watcher watcher, WatcherMode watcherMode) {
+        // take the lock once for all the paths
+        for (String path : paths) {
+            addWatch(path, watcher, watcherMode);
+        }
+    }
+
     @Override
     public synchronized boolean addWatch(String path, Watcher watcher, WatcherMode watcherMode) {
         if (isDeadWatcher(watcher)) {
@@ -102,6 +114,7 @@ public synchronized boolean addWatch(String path, Watcher watcher, WatcherMode w
             paths.put(path, newStats);
             if (watcherMode.isRecursive()) {
                 ++recursiveWatchQty;
+                recursiveWatchIndex.add(path);
             }
             return true;
         }
@@ -124,9 +137,10 @@ public synchronized void removeWatcher(Watcher watcher) {
                 }
             }
         }
-        for (WatchStats stats : paths.values()) {
-            if (stats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
+        for (Entry<String, WatchStats> e : paths.entrySet()) {
+            if (e.getValue().hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
                 --recursiveWatchQty;
+                recursiveWatchIndex.remove(e.getKey());
             }
         }
     }
@@ -139,39 +153,13 @@ public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List
     @Override
     public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List<ACL> acl, WatcherOrBitSet suppress) {
         WatchedEvent e = new WatchedEvent(type, KeeperState.SyncConnected, path, zxid);
+        SerializedWatchEvent se = new SerializedWatchEvent(e);
         Set<Watcher> watchers = new HashSet<>();
         synchronized (this) {
-            PathParentIterator pathParentIterator = getPathParentIterator(path);
-            for (String localPath : pathParentIterator.asIterable()) {
-                Set<Watcher> thisWatchers = watchTable.get(localPath);
-                if (thisWatchers == null || thisWatchers.isEmpty()) {
-                    continue;
-                }
-                Iterator<Watcher> iterator = thisWatchers.iterator();
-                while (iterator.hasNext()) {
-                    Watcher watcher = iterator.next();
-                    Map<String, WatchStats> paths = watch2Paths.getOrDefault(watcher, Collections.emptyMap());
-                    WatchStats stats = paths.get(localPath);
-                    if (stats == null) {
-                        LOG.warn("inconsistent watch table for watcher {}, {} not in path list", watcher, localPath);
-                        continue;
-                    }
-                    if (!pathParentIterator.atParentPath()) {
-                        watchers.add(watcher);
-                        WatchStats newStats = stats.removeMode(WatcherMode.STANDARD);
-                        if (newStats == WatchStats.NONE) {
-                            iterator.remove();
-                            paths.remove(localPath);
-                        } else if (newStats != stats) {
-                            paths.put(localPath, newStats);
-                        }
-                    } else if (stats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
-                        watchers.add(watcher);
-                    }
-                }
-                if (thisWatchers.isEmpty()) {
-                    watchTable.remove(localPath);
-                }
+            collectWatchers(path, false, watchers);
+            // only the parents having recursive watches are looked up
+            for (String parent : recursiveWatchIndex.getWatchedParents(path)) {
+                collectWatchers(parent, true, watchers);
             }
         }
         if (watchers.isEmpty()) {
@@ -186,7 +174,7 @@ public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List
                 continue;
             }
             if (w instanceof ServerWatcher) {
-                ((ServerWatcher) w).process(e, acl);
+                ((ServerWatcher) w).process(se, acl);
             } else {
                 w.process(e);
             }
@@ -216,6 +204,43 @@ public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List
         return new WatcherOrBitSet(watchers);
     }
 
+    /**
+     * Collect the watchers of localPath to notify of a change of the path
+     * being triggered, removing the standard watches if localPath is the path
+     * itself rather than one of its parents.
+     */
+    private void collectWatchers(String localPath, boolean atParentPath, Set<Watcher> watchers) {
+        Set<Watcher> thisWatchers = watchTable.get(localPath);
+        if (thisWatchers == null || thisWatchers.isEmpty()) {
+            return;
+        }
+        Iterator<Watcher> iterator = thisWatchers.iterator();
+        while (iterator.hasNext()) {
+            Watcher watcher = iterator.next();
+            Map<String, WatchStats> paths = watch2Paths.getOrDefault(watcher, Collections.emptyMap());
+            WatchStats stats = paths.get(localPath);
+            if (stats == null) {
+                LOG.warn("inconsistent watch table for watcher {}, {} not in path list", watcher, localPath);
+                continue;
+            }
+            if (!atParentPath) {
+                watchers.add(watcher);
+                WatchStats newStats = stats.removeMode(WatcherMode.STANDARD);
+                if (newStats == WatchStats.NONE) {
+                    iterator.remove();
+                    paths.remove(localPath);
+                } else if (newStats != stats) {
+                    paths.put(localPath, newStats);
+                }
+            } else if (stats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
+                watchers.add(watcher);
+            }
+        }
+        if (thisWatchers.isEmpty()) {
+            watchTable.remove(localPath);
+        }
+    }
+
     @Override
     public synchronized String toString() {
         StringBuilder sb = new StringBuilder();
@@ -311,6 +336,7 @@ public synchronized boolean removeWatcher(String path, Watcher watcher, WatcherM
 
         if (oldStats.hasMode(WatcherMode.PERSISTENT_RECURSIVE) && !newStats.hasMode(WatcherMode.PERSISTENT_RECURSIVE)) {
             --recursiveWatchQty;
+            recursiveWatchIndex.remove(path);
         }
 
         return oldStats != newStats;
@@ -366,11 +392,4 @@ public void shutdown() { /* do nothing */ }
     synchronized int getRecursiveWatchQty() {
         return recursiveWatchQty;
     }
-
-    private PathParentIterator getPathParentIterator(String path) {
-        if (getRecursiveWatchQty() == 0) {
-            return PathParentIterator.forPathOnly(path);
-        }
-        return PathParentIterator.forAll(path);
-    }
 }
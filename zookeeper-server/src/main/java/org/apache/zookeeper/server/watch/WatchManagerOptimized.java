@@ -19,7 +19,7 @@
 package org.apache.zookeeper.server.watch;
 
 import java.io.PrintWriter;
-import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -33,11 +33,13 @@
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.SerializedWatchEvent;
 import org.apache.zookeeper.server.ServerCnxn;
 import org.apache.zookeeper.server.ServerMetrics;
 import org.apache.zookeeper.server.ServerWatcher;
 import org.apache.zookeeper.server.util.BitHashSet;
 import org.apache.zookeeper.server.util.BitMap;
+import org.apache.zookeeper.server.util.CompressedBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,8 +51,8 @@
  *
  * Changed made compared to WatchManager:
  *
- * - Use HashSet and BitSet to store the watchers to find a balance between
- *   memory usage and time complexity
+ * - Use a compressed bitmap of watcher ids to store the watchers of a path,
+ *   which takes a few bytes per watch
  * - Use ReadWriteLock instead of synchronized to reduce lock retention
  * - Lazily clean up the closed watchers
  */
@@ -107,6 +109,29 @@ public boolean addWatch(String path, Watcher watcher) {
         return result;
     }
 
+    @Override
+    public void addWatches(Collection<String> paths, Watcher watcher, WatcherMode watcherMode) {
+        if (watcherMode != WatcherMode.DEFAULT_WATCHER_MODE) {
+            IWatchManager.super.addWatches(paths, watcher, watcherMode);
+            return;
+        }
+        // like addWatch, but looks up the bit of the watcher and takes the
+        // lock once for all the paths
+        addRemovePathRWLock.readLock().lock();
+        try {
+            if (isDeadWatcher(watcher)) {
+                LOG.debug("Ignoring addWatches with closed cnxn");
+                return;
+            }
+            Integer bit = watcherBitIdMap.add(watcher);
+            for (String path : paths) {
+                pathWatches.computeIfAbsent(path, p -> new BitHashSet()).add(bit);
+            }
+        } finally {
+            addRemovePathRWLock.readLock().unlock();
+        }
+    }
+
     /**
      * Used in the OpCode.checkWatches, which is a read operation, since read
      * and write requests are exclusively processed, we don't need to hold
@@ -187,14 +212,14 @@ public void processDeadWatchers(Set<Integer> deadWatchers) {
         // All the watchers being processed here are guaranteed to be dead,
         // no watches will be added for those dead watchers, that's why I
         // don't need to have addRemovePathRWLock here.
-        BitSet bits = new BitSet();
+        CompressedBitSet bits = new CompressedBitSet();
         for (int dw : deadWatchers) {
-            bits.set(dw);
+            bits.add(dw);
         }
         // The value iterator will reflect the state when it was
         // created, don't need to synchronize.
         for (BitHashSet watchers : pathWatches.values()) {
-            watchers.remove(deadWatchers, bits);
+            watchers.remove(bits);
         }
         // Better to remove the empty path from pathWatches, but it will add
         // lot of lock contention and affect the throughput of addWatch,
@@ -212,6 +237,7 @@ public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List
     @Override
     public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List<ACL> acl, WatcherOrBitSet suppress) {
         WatchedEvent e = new WatchedEvent(type, KeeperState.SyncConnected, path, zxid);
+        SerializedWatchEvent se = new SerializedWatchEvent(e);
 
         BitHashSet watchers = remove(path);
         if (watchers == null) {
@@ -236,7 +262,7 @@ public WatcherOrBitSet triggerWatch(String path, EventType type, long zxid, List
                 }
 
                 if (w instanceof ServerWatcher) {
-                    ((ServerWatcher) w).process(e, acl);
+                    ((ServerWatcher) w).process(se, acl);
                 } else {
                     w.process(e);
                 }
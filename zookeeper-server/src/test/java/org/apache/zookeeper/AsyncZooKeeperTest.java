@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncZooKeeperTest extends ClientBase {
+
+    private ZooKeeper zk;
+    private AsyncZooKeeper async;
+
+    @BeforeEach
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        async = zk.async();
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() throws Exception {
+        zk.close();
+        super.tearDown();
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private static KeeperException failure(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> get(future));
+        assertTrue(e.getCause() instanceof KeeperException, e.getCause().toString());
+        return (KeeperException) e.getCause();
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        OpResult.CreateResult created = get(async.create("/a", "data".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        assertEquals("/a", created.getPath());
+        assertEquals(0, created.getStat().getVersion());
+        created = get(async.create("/a/s-", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL));
+        assertEquals("/a/s-0000000000", created.getPath());
+
+        OpResult.GetDataResult data = get(async.getData("/a", null));
+        assertArrayEquals("data".getBytes(UTF_8), data.getData());
+        assertEquals(1, data.getStat().getNumChildren());
+        Stat stat = get(async.setData("/a", new byte[1], data.getStat().getVersion()));
+        assertEquals(1, stat.getVersion());
+        assertEquals(stat, get(async.exists("/a", null)));
+        assertEquals(Collections.singletonList("s-0000000000"), get(async.getChildren("/a", null)));
+
+        get(async.delete("/a/s-0000000000", -1));
+        assertNull(get(async.exists("/a/s-0000000000", null)));
+        get(async.sync("/a"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        KeeperException e = failure(async.getData("/missing", null));
+        assertEquals(KeeperException.Code.NONODE, e.code());
+        assertEquals("/missing", e.getPath());
+        get(async.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        assertEquals(KeeperException.Code.NODEEXISTS,
+            failure(async.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)).code());
+        assertEquals(KeeperException.Code.BADVERSION, failure(async.setData("/a", new byte[0], 5)).code());
+        assertThrows(IllegalArgumentException.class, () -> async.getChildren("a", null));
+    }
+
+    @Test
+    public void testMulti() throws Exception {
+        List<OpResult> results = get(async.multi(Arrays.asList(
+            Op.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT),
+            Op.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT))));
+        assertEquals(2, results.size());
+        assertEquals("/a/b", ((OpResult.CreateResult) results.get(1)).getPath());
+        assertTrue(get(async.multi(Collections.emptyList())).isEmpty());
+
+        KeeperException e = failure(async.multi(Arrays.asList(
+            Op.create("/c", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT),
+            Op.delete("/missing", -1))));
+        assertEquals(KeeperException.Code.NONODE, e.code());
+        assertEquals(2, e.getResults().size());
+        assertNull(get(async.exists("/c", null)));
+    }
+
+    @Test
+    public void testWatches() throws Exception {
+        CountDownLatch added = new CountDownLatch(2);
+        get(async.addWatch("/a", event -> added.countDown(), AddWatchMode.PERSISTENT_RECURSIVE));
+        CountDownLatch changed = new CountDownLatch(1);
+        assertNull(get(async.exists("/a", event -> changed.countDown())));
+        get(async.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        get(async.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        assertTrue(changed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(added.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        get(async.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        List<CompletableFuture<Stat>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String path = "/a/" + i;
+            futures.add(async.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)
+                .thenCompose(created -> async.setData(path, path.getBytes(UTF_8), 0)));
+        }
+        get(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+        for (CompletableFuture<Stat> future : futures) {
+            assertEquals(1, future.join().getVersion());
+        }
+        assertEquals(1000, get(async.getChildren("/a", null)).size());
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        AtomicInteger completions = new AtomicInteger();
+        AsyncZooKeeper onExecutor = zk.async(completion -> {
+            completions.incrementAndGet();
+            new Thread(completion).start();
+        });
+        get(onExecutor.sync("/"));
+        failure(onExecutor.getData("/missing", null));
+        assertEquals(2, completions.get());
+
+        AsyncZooKeeper rejecting = zk.async(completion -> {
+            throw new RejectedExecutionException();
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> get(rejecting.sync("/")));
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class EventDispatcherTest extends ZKTestCase {
+
+    @Test
+    public void testPerPathOrder() throws Exception {
+        Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        EventDispatcher dispatcher = new EventDispatcher(4, false, "test", event -> {
+            String[] parts = ((String) event).split(":");
+            // only the thread running the lane of the path adds to its list
+            received.computeIfAbsent(parts[0], k -> new ArrayList<>()).add(Integer.parseInt(parts[1]));
+        });
+        int paths = 50;
+        int events = 200;
+        for (int i = 0; i < events; i++) {
+            for (int p = 0; p < paths; p++) {
+                dispatcher.dispatch("/p" + p + ":" + i, "/p" + p);
+            }
+        }
+        dispatcher.awaitIdle();
+        assertEquals(0, dispatcher.getPendingCount());
+        assertEquals(paths, received.size());
+        for (List<Integer> list : received.values()) {
+            assertEquals(events, list.size());
+            for (int i = 0; i < events; i++) {
+                assertEquals(i, list.get(i));
+            }
+        }
+        assertEquals(paths * events, dispatcher.getDispatchLatency().getCount());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testSlowEventAndBarrier() throws Exception {
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(100);
+        AtomicInteger processed = new AtomicInteger();
+        EventDispatcher dispatcher = new EventDispatcher(2, false, "test", event -> {
+            if ("slow".equals(event)) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else if ("fast".equals(event)) {
+                fastDone.countDown();
+            }
+            processed.incrementAndGet();
+        });
+        dispatcher.dispatch("slow", "/slow");
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch("fast", "/fast" + i);
+        }
+        // the events of the other paths are not delayed by the slow one,
+        // unless they are in the same lane, one of 8
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (fastDone.getCount() > 50 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(fastDone.getCount() <= 50);
+
+        Thread barrier = new Thread(() -> {
+            try {
+                dispatcher.dispatch("barrier", null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        barrier.start();
+        barrier.join(100);
+        // the barrier waits for the slow event
+        assertTrue(barrier.isAlive());
+        unblock.countDown();
+        barrier.join();
+        assertEquals(102, processed.get());
+        dispatcher.shutdown();
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.ClientCnxn.Packet;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.proto.RequestHeader;
+import org.junit.jupiter.api.Test;
+
+public class OutgoingPacketQueueTest extends ZKTestCase {
+
+    @Test
+    public void testOrder() {
+        OutgoingPacketQueue queue = new OutgoingPacketQueue();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+
+        Packet a = packet(1);
+        Packet b = packet(2);
+        Packet c = packet(3);
+        Packet priming = new Packet(null, null, null, null, null);
+        assertTrue(queue.offer(a));
+        assertTrue(queue.offer(b));
+        queue.addFirst(c);
+        assertTrue(queue.offer(priming));
+        assertEquals(4, queue.size());
+        assertSame(c, queue.peek());
+
+        assertSame(priming, queue.moveToFront(p -> p.requestHeader == null));
+        assertNull(queue.moveToFront(p -> false));
+        assertTrue(queue.remove(priming));
+        assertTrue(queue.remove(b));
+        assertFalse(queue.remove(b));
+        assertSame(c, queue.remove());
+        assertSame(a, queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testSeal() {
+        OutgoingPacketQueue queue = new OutgoingPacketQueue();
+        Packet a = packet(1);
+        Packet close = packet(2);
+        assertTrue(queue.offer(a));
+        assertTrue(queue.offerLast(close));
+        assertFalse(queue.offer(packet(3)));
+        assertFalse(queue.offerLast(packet(4)));
+        queue.seal();
+        assertEquals(Arrays.asList(a, close), queue.drain());
+        assertTrue(queue.isEmpty());
+
+        queue = new OutgoingPacketQueue();
+        assertTrue(queue.offer(a));
+        queue.seal();
+        assertFalse(queue.offer(close));
+        assertSame(a, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testWakeup() throws Exception {
+        OutgoingPacketQueue queue = new OutgoingPacketQueue();
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        Thread waker = new Thread(queue::wakeup);
+        long start = System.nanoTime();
+        waker.start();
+        assertNull(queue.poll(1, TimeUnit.MINUTES));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        waker.join();
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        OutgoingPacketQueue queue = new OutgoingPacketQueue();
+        int producers = 4;
+        int packets = 20000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < producers; t++) {
+            int producer = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < packets; i++) {
+                    queue.offer(packet(producer * packets + i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        int[] next = new int[producers];
+        for (int received = 0; received < producers * packets; received++) {
+            Packet p = queue.poll(1, TimeUnit.MINUTES);
+            int xid = p.requestHeader.getXid();
+            int producer = xid / packets;
+            // the packets of each producer are polled in order
+            assertEquals(next[producer]++, xid % packets);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    private static Packet packet(int xid) {
+        return new Packet(new RequestHeader(xid, OpCode.getData), null, null, null, null);
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.client.ZKClientConfig;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ReadChannelsTest extends ClientBase {
+
+    private ZooKeeper zk;
+
+    @BeforeEach
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        ZKClientConfig config = new ZKClientConfig();
+        config.setProperty(ZKClientConfig.ZOOKEEPER_READ_CHANNELS, "2");
+        CountdownWatcher watcher = new CountdownWatcher();
+        zk = new ZooKeeper(hostPort, CONNECTION_TIMEOUT, watcher, config);
+        watcher.waitForConnected(CONNECTION_TIMEOUT);
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() throws Exception {
+        zk.close();
+        super.tearDown();
+    }
+
+    private void waitForChannels() throws Exception {
+        long served = zk.getReadChannels().getServedCount();
+        waitFor("the reads were never served by the channels", () -> {
+            try {
+                zk.exists("/", null);
+            } catch (Exception e) {
+                return false;
+            }
+            return zk.getReadChannels().getServedCount() > served;
+        }, 30);
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        ZooKeeper other = createClient();
+        try {
+            assertNull(other.getReadChannels());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testReads() throws Exception {
+        zk.create("/a", "data".getBytes(UTF_8), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        waitForChannels();
+
+        long served = zk.getReadChannels().getServedCount();
+        Stat stat = new Stat();
+        assertArrayEquals("data".getBytes(UTF_8), zk.getData("/a", false, stat));
+        assertEquals(1, stat.getNumChildren());
+        assertNotNull(zk.exists("/a/b", false));
+        assertNull(zk.exists("/c", false));
+        assertEquals(Collections.singletonList("b"), zk.getChildren("/a", false));
+        assertEquals(Collections.singletonList("b"), zk.getChildren("/a", false, stat));
+        assertThrows(KeeperException.NoNodeException.class, () -> zk.getData("/c", false, null));
+        assertEquals(served + 6, zk.getReadChannels().getServedCount());
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        zk.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        waitForChannels();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = Integer.toString(i).getBytes(UTF_8);
+            zk.setData("/a", data, -1);
+            assertArrayEquals(data, zk.getData("/a", false, null));
+            zk.create("/a/" + i, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            assertEquals(i + 1, zk.getChildren("/a", false).size());
+        }
+    }
+
+    @Test
+    public void testChannelsLaggingDifferently() throws Exception {
+        zk.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        ReadChannels readChannels = zk.getReadChannels();
+        // wait until both channels have caught up with the client
+        List<ZooKeeper> channels = new ArrayList<>();
+        waitFor("the channels never caught up", () -> {
+            ZooKeeper channel = readChannels.select();
+            if (channel != null && !channels.contains(channel)) {
+                channels.add(channel);
+            }
+            return channels.size() == 2;
+        }, 30);
+
+        // a change the client doesn't see, read by one channel only
+        ZooKeeper other = createClient();
+        try {
+            other.setData("/a", new byte[1], -1);
+        } finally {
+            other.close();
+        }
+        ZooKeeper ahead = channels.get(0);
+        ZooKeeper behind = channels.get(1);
+        assertEquals(1, ahead.getData("/a", false, null).length);
+        readChannels.readServed(ahead);
+        long seen = ahead.cnxn.getLastZxid();
+        assertTrue(seen > zk.cnxn.getLastZxid());
+        assertTrue(behind.cnxn.getLastZxid() < seen);
+
+        // the channel behind is not selected until it catches up
+        for (int i = 0; i < 2; i++) {
+            ZooKeeper channel = readChannels.select();
+            if (channel != null) {
+                assertTrue(channel.cnxn.getLastZxid() >= seen);
+            }
+        }
+
+        // a read sent by the client, while the channels reconnect, doesn't go back either
+        long served = readChannels.getServedCount();
+        ahead.close();
+        behind.close();
+        assertEquals(1, zk.getData("/a", false, null).length);
+        assertEquals(served, readChannels.getServedCount());
+        assertTrue(zk.cnxn.getLastZxid() >= seen);
+    }
+
+    @Test
+    public void testReadAfterAsyncWrite() throws Exception {
+        zk.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        waitForChannels();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = Integer.toString(i).getBytes(UTF_8);
+            zk.setData("/a", data, -1, (rc, path, ctx, stat) -> { }, null);
+            // not sent to a channel while the write is in progress
+            assertArrayEquals(data, zk.getData("/a", false, null));
+        }
+    }
+
+    @Test
+    public void testWatchesOnPrimary() throws Exception {
+        zk.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        waitForChannels();
+
+        long served = zk.getReadChannels().getServedCount();
+        CountDownLatch changed = new CountDownLatch(1);
+        zk.getData("/a", event -> changed.countDown(), null);
+        assertEquals(served, zk.getReadChannels().getServedCount());
+        zk.setData("/a", new byte[1], -1);
+        assertTrue(changed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        waitForChannels();
+        zk.close();
+        assertNull(zk.getReadChannels().select());
+    }
+
+}
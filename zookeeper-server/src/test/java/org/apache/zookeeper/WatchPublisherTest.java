@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WatchPublisherTest extends ClientBase {
+
+    private ZooKeeper zk;
+
+    private static class TestSubscriber implements WatchPublisher.Subscriber {
+
+        final BlockingQueue<WatchedEvent> events = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Throwable error;
+        volatile WatchPublisher.Subscription subscription;
+
+        @Override
+        public void onSubscribe(WatchPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(WatchedEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        WatchedEvent next() throws InterruptedException {
+            WatchedEvent event = events.poll(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(event, "no event");
+            return event;
+        }
+
+    }
+
+    @BeforeEach
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        zk.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() throws Exception {
+        zk.close();
+        super.tearDown();
+    }
+
+    /**
+     * Wait for the events of the changes made so far to be processed.
+     */
+    private void flush() throws Exception {
+        zk.async().sync("/").get(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private TestSubscriber subscribe(WatchPublisher publisher) throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        flush();
+        return subscriber;
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        TestSubscriber subscriber = subscribe(zk.watchPublisher("/a", AddWatchMode.PERSISTENT_RECURSIVE));
+        for (int i = 0; i < 3; i++) {
+            zk.create("/a/" + i, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+        flush();
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(2);
+        assertEquals("/a/0", subscriber.next().getPath());
+        assertEquals("/a/1", subscriber.next().getPath());
+        flush();
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals("/a/2", subscriber.next().getPath());
+        zk.setData("/a/2", new byte[1], -1);
+        WatchedEvent event = subscriber.next();
+        assertEquals(EventType.NodeDataChanged, event.getType());
+        assertEquals("/a/2", event.getPath());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        WatchPublisher publisher = zk.watchPublisher("/a", AddWatchMode.PERSISTENT).withBufferSize(2);
+        TestSubscriber subscriber = subscribe(publisher);
+        for (int i = 0; i < 5; i++) {
+            zk.setData("/a", new byte[i], -1);
+        }
+        zk.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.delete("/a/b", -1);
+        flush();
+        assertEquals(5, publisher.getDroppedCount());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(EventType.NodeDataChanged, subscriber.next().getType());
+        assertEquals(EventType.NodeChildrenChanged, subscriber.next().getType());
+        zk.setData("/a", new byte[0], -1);
+        assertEquals(EventType.NodeDataChanged, subscriber.next().getType());
+    }
+
+    @Test
+    public void testCoalesceOverflow() throws Exception {
+        WatchPublisher publisher = zk.watchPublisher("/a", AddWatchMode.PERSISTENT_RECURSIVE).withBufferSize(2);
+        TestSubscriber subscriber = subscribe(publisher);
+        for (int i = 0; i < 5; i++) {
+            zk.create("/a/" + i, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+        flush();
+        assertEquals(3, publisher.getDroppedCount());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals("/a/0", subscriber.next().getPath());
+        assertEquals("/a/1", subscriber.next().getPath());
+        WatchedEvent event = subscriber.next();
+        assertTrue(event instanceof WatchPublisher.EventsLost);
+        assertEquals(EventType.None, event.getType());
+        assertEquals("/a", event.getPath());
+        assertEquals(3, ((WatchPublisher.EventsLost) event).getLostCount());
+
+        zk.setData("/a/4", new byte[1], -1);
+        event = subscriber.next();
+        assertEquals(EventType.NodeDataChanged, event.getType());
+        assertEquals("/a/4", event.getPath());
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        WatchPublisher publisher = zk.watchPublisher("/a", AddWatchMode.PERSISTENT_RECURSIVE)
+            .withBufferSize(2)
+            .withOverflow(WatchPublisher.Overflow.DROP);
+        TestSubscriber subscriber = subscribe(publisher);
+        for (int i = 0; i < 5; i++) {
+            zk.setData("/a", new byte[i], -1);
+        }
+        flush();
+        assertEquals(3, publisher.getDroppedCount());
+
+        subscriber.subscription.request(10);
+        subscriber.next();
+        subscriber.next();
+        flush();
+        assertTrue(subscriber.events.isEmpty());
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        WatchPublisher publisher = zk.watchPublisher("/a", AddWatchMode.PERSISTENT_RECURSIVE)
+            .withBufferSize(2)
+            .withOverflow(WatchPublisher.Overflow.DISCONNECT);
+        TestSubscriber subscriber = subscribe(publisher);
+        assertEquals(1, zk.getPersistentRecursiveWatches().size());
+        for (int i = 0; i < 3; i++) {
+            zk.setData("/a", new byte[i], -1);
+        }
+        assertTrue(subscriber.completed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(subscriber.error instanceof WatchPublisher.OverflowException);
+        assertTrue(subscriber.events.isEmpty());
+        flush();
+        assertTrue(zk.getPersistentRecursiveWatches().isEmpty());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        WatchPublisher publisher = zk.watchPublisher("/a", AddWatchMode.PERSISTENT);
+        TestSubscriber cancelled = subscribe(publisher);
+        TestSubscriber other = subscribe(publisher);
+        cancelled.subscription.request(Long.MAX_VALUE);
+        other.subscription.request(Long.MAX_VALUE);
+        cancelled.subscription.cancel();
+        flush();
+        zk.setData("/a", new byte[1], -1);
+        assertEquals(EventType.NodeDataChanged, other.next().getType());
+        assertTrue(cancelled.events.isEmpty());
+        assertEquals(1, zk.getWatchManager().getPersistentWatches().get("/a").size());
+
+        other.subscription.request(0);
+        assertTrue(other.completed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(other.error instanceof IllegalArgumentException);
+        flush();
+        assertNull(zk.getWatchManager().getPersistentWatches().get("/a"));
+    }
+
+    @Test
+    public void testCompleteOnClose() throws Exception {
+        TestSubscriber subscriber = subscribe(zk.watchPublisher("/a", AddWatchMode.PERSISTENT));
+        zk.setData("/a", new byte[1], -1);
+        flush();
+        zk.close();
+        assertEquals(1, subscriber.completed.getCount());
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(EventType.NodeDataChanged, subscriber.next().getType());
+        assertEquals(KeeperState.Closed, subscriber.next().getState());
+        assertTrue(subscriber.completed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testFailedWatch() throws Exception {
+        ZooKeeper closed = createClient();
+        closed.close();
+        TestSubscriber subscriber = new TestSubscriber();
+        closed.watchPublisher("/a", AddWatchMode.PERSISTENT).subscribe(subscriber);
+        assertTrue(subscriber.completed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(subscriber.error instanceof KeeperException, String.valueOf(subscriber.error));
+    }
+
+}
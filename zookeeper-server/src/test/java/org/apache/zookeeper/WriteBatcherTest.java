@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import java.util.Arrays;
+import org.apache.zookeeper.ClientCnxn.Packet;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.proto.ReplyHeader;
+import org.apache.zookeeper.proto.RequestHeader;
+import org.apache.zookeeper.proto.SetDataRequest;
+import org.apache.zookeeper.proto.SetDataResponse;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+public class WriteBatcherTest extends ZKTestCase {
+
+    private static Packet setData(String path) {
+        Packet p = new Packet(
+            new RequestHeader(0, OpCode.setData),
+            new ReplyHeader(),
+            new SetDataRequest(path, new byte[0], -1),
+            new SetDataResponse(),
+            null);
+        p.cb = (AsyncCallback.StatCallback) (rc, path1, ctx, stat) -> { };
+        return p;
+    }
+
+    @Test
+    public void testHeldRequestsFailOnConnectionLoss() {
+        ClientCnxn cnxn = mock(ClientCnxn.class);
+        WriteBatcher batcher = new WriteBatcher(cnxn, 10, 1024 * 1024);
+        Packet inFlight = setData("/a");
+        Packet held1 = setData("/b");
+        Packet held2 = setData("/c");
+        batcher.submit(inFlight);
+        batcher.submit(held1);
+        batcher.submit(held2);
+        verify(cnxn).enqueue(inFlight);
+        assertEquals(2, batcher.getHeldCount());
+
+        // the request in flight fails when the connection is lost
+        inFlight.replyHeader.setErr(Code.CONNECTIONLOSS.intValue());
+        assertTrue(batcher.complete(inFlight));
+
+        // the held requests fail after it rather than being sent on the
+        // next connection
+        InOrder order = inOrder(cnxn);
+        order.verify(cnxn).finishPacket(inFlight);
+        order.verify(cnxn).finishPacket(held1);
+        order.verify(cnxn).finishPacket(held2);
+        verify(cnxn, times(1)).enqueue(any());
+        assertEquals(Code.CONNECTIONLOSS.intValue(), held1.replyHeader.getErr());
+        assertEquals(Code.CONNECTIONLOSS.intValue(), held2.replyHeader.getErr());
+        assertEquals(0, batcher.getHeldCount());
+    }
+
+    @Test
+    public void testHeldRequestsSentAfterResponse() {
+        ClientCnxn cnxn = mock(ClientCnxn.class);
+        WriteBatcher batcher = new WriteBatcher(cnxn, 10, 1024 * 1024);
+        Packet inFlight = setData("/a");
+        batcher.submit(inFlight);
+        batcher.submit(setData("/b"));
+        batcher.submit(setData("/c"));
+
+        assertFalse(batcher.complete(inFlight));
+        verify(cnxn, never()).finishPacket(any());
+        // the held requests are sent as one batch
+        ArgumentCaptor<Packet> sent = ArgumentCaptor.forClass(Packet.class);
+        verify(cnxn, times(2)).enqueue(sent.capture());
+        assertEquals(0, batcher.getHeldCount());
+        Packet batch = sent.getAllValues().get(1);
+        assertEquals(OpCode.multi, batch.requestHeader.getType());
+        assertEquals(
+            new MultiOperationRecord(Arrays.asList(
+                Op.setData("/b", new byte[0], -1),
+                Op.setData("/c", new byte[0], -1))),
+            batch.request);
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.junit.jupiter.api.Test;
+
+public class ZKWatchManagerTest extends ZKTestCase {
+
+    private static Watcher newWatcher() {
+        // not a lambda, which may be the same instance for every call
+        return new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+            }
+        };
+    }
+
+    @Test
+    public void testPersistentRecursiveMatching() throws Exception {
+        ZKWatchManager manager = new ZKWatchManager(false, null);
+        Watcher root = newWatcher();
+        Watcher a = newWatcher();
+        Watcher ab = newWatcher();
+        addRecursive(manager, "/", root);
+        addRecursive(manager, "/a", a);
+        addRecursive(manager, "/a/b", ab);
+
+        assertEquals(new HashSet<>(Arrays.asList(root, a, ab)),
+            manager.materialize(KeeperState.SyncConnected, EventType.NodeDataChanged, "/a/b/c"));
+        assertEquals(new HashSet<>(Arrays.asList(root, a)),
+            manager.materialize(KeeperState.SyncConnected, EventType.NodeCreated, "/a/bc"));
+        assertEquals(new HashSet<>(Arrays.asList(root)),
+            manager.materialize(KeeperState.SyncConnected, EventType.NodeDeleted, "/ab"));
+        // no child events for the recursive watches
+        assertTrue(manager.materialize(KeeperState.SyncConnected, EventType.NodeChildrenChanged, "/a/b").isEmpty());
+
+        manager.removeWatcher("/a", a, WatcherType.PersistentRecursive, true, KeeperException.Code.OK.intValue());
+        manager.removeWatcher("/", null, WatcherType.Any, true, KeeperException.Code.OK.intValue());
+        assertEquals(new HashSet<>(Arrays.asList(ab)),
+            manager.materialize(KeeperState.SyncConnected, EventType.NodeDataChanged, "/a/b/c"));
+        assertTrue(manager.materialize(KeeperState.SyncConnected, EventType.NodeDataChanged, "/a/c").isEmpty());
+        manager.removeWatcher("/a/b", ab, WatcherType.Any, true, KeeperException.Code.OK.intValue());
+        assertTrue(manager.materialize(KeeperState.SyncConnected, EventType.NodeDataChanged, "/a/b").isEmpty());
+        assertTrue(manager.getPersistentRecursiveWatchList().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        ZKWatchManager manager = new ZKWatchManager(false, null);
+        int threads = 8;
+        int paths = 1000;
+        AtomicInteger triggered = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < paths; i++) {
+                    ZKWatchManager.addWatcher(manager.getDataWatches(), "/n" + i, newWatcher());
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        Thread trigger = new Thread(() -> {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < paths; i++) {
+                    triggered.addAndGet(manager.materialize(KeeperState.SyncConnected, EventType.NodeDataChanged, "/n" + i).size());
+                }
+            }
+        });
+        trigger.start();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        trigger.join();
+
+        // every watcher is either triggered once or still registered
+        int registered = 0;
+        for (String path : manager.getDataWatchList()) {
+            registered += manager.getDataWatches().get(path).size();
+        }
+        assertEquals(threads * paths, triggered.get() + registered);
+    }
+
+    @Test
+    public void testClearOnDisconnect() {
+        ZKWatchManager manager = new ZKWatchManager(true, null);
+        Watcher data = newWatcher();
+        Watcher persistent = newWatcher();
+        ZKWatchManager.addWatcher(manager.getDataWatches(), "/a", data);
+        ZKWatchManager.addWatcher(manager.getDataWatches(), "/a", data);
+        ZKWatchManager.addWatcher(manager.getPersistentWatches(), "/b", persistent);
+
+        Set<Watcher> watchers = manager.materialize(KeeperState.Disconnected, EventType.None, null);
+        assertEquals(new HashSet<>(Arrays.asList(data, persistent)), watchers);
+        assertTrue(manager.getDataWatchList().isEmpty());
+        assertEquals(Arrays.asList("/b"), manager.getPersistentWatchList());
+    }
+
+    private static void addRecursive(ZKWatchManager manager, String path, Watcher watcher) {
+        ZKWatchManager.addWatcher(manager.getPersistentRecursiveWatches(), path, watcher);
+        manager.updatePersistentRecursiveIndex(path);
+    }
+
+}
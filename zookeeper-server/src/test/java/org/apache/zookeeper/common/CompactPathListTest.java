@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.jupiter.api.Test;
+
+public class CompactPathListTest extends ZKTestCase {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<String> paths = Arrays.asList("/", "/a", "/a/b", "/a/b", "/a/bc/d", "/b", "/été/é", "/été/x", "/z");
+        assertEquals(paths, CompactPathList.decode(CompactPathList.encode(paths), MAX_SIZE));
+        // not sorted
+        List<String> reversed = new ArrayList<>(paths);
+        Collections.reverse(reversed);
+        assertEquals(reversed, CompactPathList.decode(CompactPathList.encode(reversed), MAX_SIZE));
+
+        assertEquals(Collections.emptyList(), CompactPathList.decode(CompactPathList.encode(Collections.emptyList()), MAX_SIZE));
+        assertEquals(Collections.emptyList(), CompactPathList.decode(null, MAX_SIZE));
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        String base = "/long-path-000000000-111111111-222222222-333333333-444444444/ch-";
+        List<String> paths = new ArrayList<>();
+        int length = 0;
+        for (int i = 0; i < 10000; i++) {
+            String path = base + String.format("%010d", i);
+            paths.add(path);
+            length += path.length();
+        }
+        CompactPathList.Encoder encoder = new CompactPathList.Encoder();
+        for (String path : paths) {
+            encoder.add(path);
+        }
+        assertEquals(paths.size(), encoder.count());
+        assertEquals(length + 4L * paths.size(), encoder.decodedSize());
+        assertTrue(encoder.size() < length / 5, "encoded in " + encoder.size() + " bytes");
+        assertEquals(paths, CompactPathList.decode(encoder.toByteArray(), MAX_SIZE));
+    }
+
+    @Test
+    public void testMalformed() {
+        byte[] buf = CompactPathList.encode(Arrays.asList("/abc", "/abd"));
+        // truncated
+        assertThrows(IOException.class, () -> CompactPathList.decode(Arrays.copyOf(buf, buf.length - 1), MAX_SIZE));
+        // shares a prefix longer than the path before it
+        assertThrows(IOException.class, () -> CompactPathList.decode(new byte[] {5, 1, 'a'}, MAX_SIZE));
+        // length overflow
+        assertThrows(IOException.class, () -> CompactPathList.decode(new byte[] {0, -1, -1, -1, -1, 15}, MAX_SIZE));
+    }
+
+    @Test
+    public void testDecodedSizeBound() throws IOException {
+        char[] name = new char[1000];
+        Arrays.fill(name, 'a');
+        String path = "/" + new String(name);
+        List<String> paths = Collections.nCopies(1000, path);
+        byte[] buf = CompactPathList.encode(paths);
+        // each copy of the path is encoded in 3 bytes
+        assertTrue(buf.length < 4 * 1024, "encoded in " + buf.length + " bytes");
+        long decodedSize = 1005L * paths.size();
+        assertEquals(paths, CompactPathList.decode(buf, decodedSize));
+        assertThrows(IOException.class, () -> CompactPathList.decode(buf, decodedSize - 1));
+
+        // the bound is shared by the lists of a decoder
+        CompactPathList.Decoder decoder = new CompactPathList.Decoder(decodedSize + 1005);
+        assertEquals(paths, decoder.decode(buf));
+        assertEquals(Collections.singletonList(path), decoder.decode(CompactPathList.encode(Collections.singletonList(path))));
+        assertThrows(IOException.class, () -> decoder.decode(CompactPathList.encode(Collections.singletonList("/a"))));
+    }
+
+}
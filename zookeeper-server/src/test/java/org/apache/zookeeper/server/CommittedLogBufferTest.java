@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.File;
+import java.util.Iterator;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.quorum.Leader;
+import org.apache.zookeeper.server.quorum.Leader.Proposal;
+import org.apache.zookeeper.server.quorum.QuorumPacket;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CommittedLogBufferTest extends ZKTestCase {
+
+    private static byte[] entry(int len, int fill) {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            b[i] = (byte) (fill + i);
+        }
+        return b;
+    }
+
+    @Test
+    public void testEvictByCount() {
+        CommittedLogBuffer buffer = new CommittedLogBuffer(1024, 3);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(buffer.add(i, entry(10, i)));
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(3, buffer.getZxid(0));
+        assertEquals(5, buffer.getZxid(2));
+        assertEquals(30, buffer.getUsedBytes());
+        assertArrayEquals(entry(10, 4), buffer.getEntry(1));
+    }
+
+    @Test
+    public void testEvictByBytesWithWrapAround() {
+        CommittedLogBuffer buffer = new CommittedLogBuffer(100, 1000);
+        for (int i = 1; i <= 50; i++) {
+            assertTrue(buffer.add(i, entry(7 + i % 5, i)));
+            assertTrue(buffer.getUsedBytes() <= 100);
+            assertEquals(i, buffer.getZxid(buffer.size() - 1));
+        }
+        // every remaining entry is intact and in zxid order
+        long first = buffer.getZxid(0);
+        for (int i = 0; i < buffer.size(); i++) {
+            long zxid = first + i;
+            assertEquals(zxid, buffer.getZxid(i));
+            assertArrayEquals(entry(7 + (int) zxid % 5, (int) zxid), buffer.getEntry(i));
+        }
+        assertTrue(buffer.size() >= 8);
+    }
+
+    @Test
+    public void testEntryLargerThanBuffer() {
+        CommittedLogBuffer buffer = new CommittedLogBuffer(64, 10);
+        assertTrue(buffer.add(1, entry(10, 1)));
+        assertFalse(buffer.add(2, entry(65, 2)));
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.add(3, entry(64, 3)));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void testCeilingIndex() {
+        CommittedLogBuffer buffer = new CommittedLogBuffer(1024, 4);
+        for (int i = 1; i <= 6; i++) {
+            buffer.add(i * 10, entry(5, i));
+        }
+        // holds 30, 40, 50, 60
+        assertEquals(0, buffer.ceilingIndex(5));
+        assertEquals(0, buffer.ceilingIndex(30));
+        assertEquals(1, buffer.ceilingIndex(31));
+        assertEquals(3, buffer.ceilingIndex(60));
+        assertEquals(4, buffer.ceilingIndex(61));
+    }
+
+    @Test
+    public void testZKDatabaseWithBuffer(@TempDir File tmpDir) throws Exception {
+        System.setProperty(ZKDatabase.COMMIT_LOG_BUFFER_SIZE, "4096");
+        try {
+            ZKDatabase db = new ZKDatabase(new FileTxnSnapLog(tmpDir, tmpDir));
+            for (int i = 1; i <= 600; i++) {
+                TxnHeader hdr = new TxnHeader(0x1234, i, i, 0, ZooDefs.OpCode.setData);
+                SetDataTxn txn = new SetDataTxn("/foo", new byte[]{(byte) i}, i);
+                db.addCommittedProposal(new Request(hdr, txn, null));
+            }
+            assertEquals(600, db.getmaxCommittedLog());
+            long min = db.getminCommittedLog();
+            assertTrue(min > 1);
+            assertEquals(600 - min + 1, db.getCommittedLog().size());
+
+            db.getLogLock().readLock().lock();
+            try {
+                // starts at the proposal right before the requested zxid
+                Iterator<Proposal> itr = db.getCommittedLogIterator(550);
+                Proposal p = itr.next();
+                assertEquals(549, p.getZxid());
+                QuorumPacket qp = p.getQuorumPacket();
+                assertEquals(Leader.PROPOSAL, qp.getType());
+                assertEquals(549, qp.getZxid());
+                assertEquals(549, p.getRequest().getHdr().getZxid());
+                assertEquals(0x1234, p.getRequest().sessionId);
+                assertEquals(550, itr.next().getZxid());
+                assertEquals(min, db.getCommittedLogIterator(min).next().getZxid());
+            } finally {
+                db.getLogLock().readLock().unlock();
+            }
+
+            db.clear();
+            assertEquals(0, db.getCommittedLog().size());
+            assertEquals(0, db.getmaxCommittedLog());
+        } finally {
+            System.clearProperty(ZKDatabase.COMMIT_LOG_BUFFER_SIZE);
+        }
+    }
+
+}
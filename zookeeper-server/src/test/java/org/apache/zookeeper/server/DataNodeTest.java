@@ -19,8 +19,13 @@
 package org.apache.zookeeper.server;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import org.junit.jupiter.api.Test;
 
@@ -64,4 +69,39 @@ public void testGetChildrenReturnsImmutableEmptySet() {
         }
     }
 
+    @Test
+    public void testSortedChildren() {
+        int threshold = DataNode.getSortedChildrenThreshold();
+        try {
+            List<String> names = Arrays.asList("e", "b", "d", "a", "c", "f");
+            DataNode.setSortedChildrenThreshold(-1);
+            DataNode unsorted = new DataNode();
+            names.forEach(unsorted::addChild);
+            DataNode.setSortedChildrenThreshold(4);
+            DataNode sorted = new DataNode();
+            names.forEach(sorted::addChild);
+            assertTrue(sorted.isChildrenSorted());
+            assertFalse(unsorted.isChildrenSorted());
+
+            for (DataNode dataNode : Arrays.asList(sorted, unsorted)) {
+                assertEquals(Collections.singletonList("a"), dataNode.getChildrenAfter(null, 1));
+                assertEquals(Arrays.asList("c", "d"), dataNode.getChildrenAfter("b", 2));
+                assertEquals(Arrays.asList("d", "e", "f"), dataNode.getChildrenAfter("cc", 10));
+                assertEquals(Collections.emptyList(), dataNode.getChildrenAfter("f", 10));
+                assertEquals(Collections.emptyList(), dataNode.getChildrenAfter(null, 0));
+            }
+
+            // sorted until less than half the threshold is left
+            for (String child : Arrays.asList("a", "b", "c", "d")) {
+                sorted.removeChild(child);
+            }
+            assertTrue(sorted.isChildrenSorted());
+            sorted.removeChild("e");
+            assertFalse(sorted.isChildrenSorted());
+            assertEquals(Collections.singletonList("f"), sorted.getChildrenAfter(null, 10));
+        } finally {
+            DataNode.setSortedChildrenThreshold(threshold);
+        }
+    }
+
 }
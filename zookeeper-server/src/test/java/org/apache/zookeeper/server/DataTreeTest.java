@@ -33,6 +33,10 @@
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
@@ -129,6 +133,36 @@ public void testRootWatchTriggered() throws Exception {
         assertTrue(fire.isDone(), "Root node watch not triggered");
     }
 
+    @Test
+    public void testGetChildrenPage() throws Exception {
+        DataTree dt = new DataTree();
+        dt.createNode("/parent", new byte[0], null, 0, 1, 1, 1);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String child = String.format("c%03d", (i * 37) % 100);
+            dt.createNode("/parent/" + child, new byte[0], null, 0, i + 2, i + 2, 1);
+            expected.add(child);
+        }
+        Collections.sort(expected);
+
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        List<String> page;
+        do {
+            page = dt.getChildrenPage("/parent", cursor, 30, null, null);
+            assertTrue(page.size() <= 30);
+            listed.addAll(page);
+            cursor = page.isEmpty() ? cursor : page.get(page.size() - 1);
+        } while (page.size() == 30);
+        assertEquals(expected, listed);
+
+        Stat stat = new Stat();
+        assertEquals(Arrays.asList("c050", "c051"), dt.getChildrenPage("/parent", "c049x", 2, stat, null));
+        assertEquals(100, stat.getNumChildren());
+        assertTrue(dt.getChildrenPage("/parent", "c099", 10, null, null).isEmpty());
+        assertThrows(NoNodeException.class, () -> dt.getChildrenPage("/missing", null, 10, null, null));
+    }
+
     /**
      * For ZOOKEEPER-1046 test if cversion is getting incremented correctly.
      */
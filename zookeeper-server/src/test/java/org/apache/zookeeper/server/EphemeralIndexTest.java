@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.jupiter.api.Test;
+
+public class EphemeralIndexTest extends ZKTestCase {
+
+    @Test
+    public void testAddRemove() {
+        EphemeralIndex index = new EphemeralIndex();
+        assertTrue(index.add(1, "/b"));
+        assertTrue(index.add(1, "/a/c"));
+        assertTrue(index.add(1, "/a/b"));
+        assertFalse(index.add(1, "/a/b"));
+        assertTrue(index.add(2, "/a/d"));
+        assertEquals(2, index.getSessionCount());
+        assertEquals(4, index.getPathCount());
+
+        assertEquals(new HashSet<>(Arrays.asList("/a/b", "/a/c", "/b")), index.getPaths(1));
+        assertEquals(Arrays.asList("/a/b", "/a/c"), index.getPaths(1, "/a/"));
+        assertEquals(Arrays.asList("/a/b", "/a/c", "/b"), index.getPaths(1, "/"));
+        assertEquals(Arrays.asList("/b"), index.getPaths(1, "/b"));
+        assertTrue(index.getPaths(1, "/c").isEmpty());
+        assertTrue(index.getPaths(3).isEmpty());
+
+        assertTrue(index.remove(1, "/a/c"));
+        assertFalse(index.remove(1, "/a/c"));
+        assertFalse(index.remove(3, "/a/c"));
+        assertEquals(new HashSet<>(Arrays.asList("/a/b", "/b")), index.removeSession(1));
+        assertNull(index.removeSession(1));
+        assertTrue(index.remove(2, "/a/d"));
+        assertEquals(0, index.getSessionCount());
+        assertEquals(0, index.getPathCount());
+        assertTrue(index.getSessions().isEmpty());
+    }
+
+    @Test
+    public void testManyPathsPerSession() {
+        EphemeralIndex index = new EphemeralIndex();
+        int count = EphemeralIndex.ARRAY_MAX * 3;
+        for (int i = 0; i < count; i++) {
+            assertTrue(index.add(1, String.format("/%s/%04d", i % 2 == 0 ? "even" : "odd", i)));
+        }
+        assertEquals(count, index.getPathCount());
+        assertEquals(count / 2, index.getPaths(1, "/even/").size());
+        assertEquals("/odd/0001", index.getPaths(1, "/odd/").get(0));
+
+        // back to an array once small enough
+        for (int i = 0; i < count - 2; i++) {
+            assertTrue(index.remove(1, String.format("/%s/%04d", i % 2 == 0 ? "even" : "odd", i)));
+            assertEquals(count - i - 1, index.getPaths(1).size());
+        }
+        assertEquals(Arrays.asList("/even/0190", "/odd/0191"), index.getPaths(1, "/"));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        EphemeralIndex index = new EphemeralIndex();
+        Map<Long, Set<String>> expected = new HashMap<>();
+        int pathCount = 0;
+        for (int i = 0; i < 100000; i++) {
+            // session ids of two servers, with consecutive lower bits
+            long sessionId = ((long) random.nextInt(2) + 1) << 56 | random.nextInt(300) + 1;
+            String path = "/p" + random.nextInt(100);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                boolean added = expected.computeIfAbsent(sessionId, k -> new HashSet<>()).add(path);
+                assertEquals(added, index.add(sessionId, path));
+                pathCount += added ? 1 : 0;
+            } else if (op < 9) {
+                Set<String> paths = expected.get(sessionId);
+                boolean removed = paths != null && paths.remove(path);
+                if (paths != null && paths.isEmpty()) {
+                    expected.remove(sessionId);
+                }
+                assertEquals(removed, index.remove(sessionId, path));
+                pathCount -= removed ? 1 : 0;
+            } else {
+                Set<String> paths = expected.remove(sessionId);
+                assertEquals(paths, index.removeSession(sessionId));
+                pathCount -= paths == null ? 0 : paths.size();
+            }
+            assertEquals(pathCount, index.getPathCount());
+        }
+        assertEquals(expected, index.toMap());
+        assertEquals(new TreeSet<>(expected.keySet()), new TreeSet<>(index.getSessions()));
+        for (Map.Entry<Long, Set<String>> e : expected.entrySet()) {
+            assertEquals(new ArrayList<>(new TreeSet<>(e.getValue())), index.getPaths(e.getKey(), "/"));
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.jupiter.api.Test;
+
+public class ExpiryQueueTest extends ZKTestCase {
+
+    private static final int INTERVAL = 10;
+
+    private static ExpiryQueue<String> queue(AtomicLong now) {
+        return new ExpiryQueue<String>(INTERVAL) {
+            @Override
+            protected long currentElapsedTime() {
+                return now.get();
+            }
+        };
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        AtomicLong now = new AtomicLong(1000);
+        ExpiryQueue<String> queue = queue(now);
+        Long expiryTime = queue.update("a", 10000);
+        assertEquals(Long.valueOf(11010), expiryTime);
+        assertNull(queue.update("a", 10005));
+        queue.update("b", 20000);
+
+        Map<Long, Set<String>> expiryMap = queue.getExpiryMap();
+        assertEquals(Collections.singleton("a"), expiryMap.get(expiryTime));
+        assertEquals(2, expiryMap.size());
+
+        // moving the expiration earlier
+        Long earlierTime = queue.update("b", 5000);
+        assertEquals(Long.valueOf(6010), earlierTime);
+        assertEquals(Collections.singleton("b"), queue.getExpiryMap().get(earlierTime));
+
+        assertEquals(expiryTime, queue.remove("a"));
+        assertNull(queue.remove("a"));
+        assertEquals(Collections.singleton(earlierTime), queue.getExpiryMap().keySet());
+    }
+
+    @Test
+    public void testExpiration() {
+        AtomicLong now = new AtomicLong(1000);
+        ExpiryQueue<String> queue = queue(now);
+        queue.update("short", 50);
+        queue.update("touched", 50);
+        queue.update("removed", 50);
+        // beyond the wheel, cascaded to its bucket
+        Long longExpiryTime = queue.update("long", 64 * INTERVAL * 3);
+        assertNotNull(longExpiryTime);
+        queue.remove("removed");
+
+        // a ping every millisecond until 1300
+        Map<String, Long> expired = new HashMap<>();
+        for (; now.get() < 4000; now.incrementAndGet()) {
+            if (now.get() < 1300) {
+                queue.update("touched", 50);
+            }
+            if (queue.getWaitTime() > 0) {
+                assertTrue(queue.poll().isEmpty());
+                continue;
+            }
+            for (String elem : queue.poll()) {
+                assertNull(expired.put(elem, now.get()), elem + " expired twice");
+            }
+        }
+
+        assertEquals(3, expired.size(), expired.toString());
+        assertEquals(Long.valueOf(1060), expired.get("short"));
+        assertEquals(Long.valueOf(1350), expired.get("touched"));
+        assertEquals(longExpiryTime, expired.get("long"));
+        assertTrue(queue.getExpiryMap().isEmpty());
+    }
+
+}
@@ -38,6 +38,10 @@ public MockServerCnxn() {
         super(null);
     }
 
+    public MockServerCnxn(ZooKeeperServer zks) {
+        super(zks);
+    }
+
     @Override
     int getSessionTimeout() {
         return 0;
@@ -61,6 +65,10 @@ public void sendCloseSession() {
     public void process(WatchedEvent event, List<ACL> acl) {
     }
 
+    @Override
+    void sendWatchEvent(SerializedWatchEvent event, List<ACL> acl) {
+    }
+
     @Override
     public long getSessionId() {
         return 0;
@@ -26,6 +26,7 @@
 import static org.mockito.Mockito.when;
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -59,6 +60,8 @@
 import org.apache.zookeeper.server.quorum.QuorumPeerConfig;
 import org.apache.zookeeper.server.quorum.flexible.QuorumVerifier;
 import org.apache.zookeeper.test.ClientBase;
+import org.apache.zookeeper.txn.CloseSessionsTxn;
+import org.apache.zookeeper.txn.ClosedSession;
 import org.apache.zookeeper.txn.ErrorTxn;
 import org.apache.zookeeper.txn.SetDataTxn;
 import org.junit.jupiter.api.AfterEach;
@@ -275,6 +278,48 @@ public void shutdown() {
         }
     }
 
+    /**
+     * Test the ephemerals of all the sessions closed by a closeSessions txn
+     * are deleted, and only those.
+     */
+    @Test
+    public void testCloseSessionsTxn() throws Exception {
+        DataTree dt = zks.getZKDatabase().dataTree;
+        dt.createNode("/foo", new byte[0], Ids.OPEN_ACL_UNSAFE, 1, 0, 0, 0);
+        dt.createNode("/bar", new byte[0], Ids.OPEN_ACL_UNSAFE, 2, 0, 0, 0);
+        dt.createNode("/baz", new byte[0], Ids.OPEN_ACL_UNSAFE, 3, 0, 0, 0);
+
+        CloseSessionsTxn closeSessionsTxn = new CloseSessionsTxn(Arrays.asList(
+            new ClosedSession(1, new ArrayList<>()),
+            new ClosedSession(2, new ArrayList<>())));
+
+        final FinalRequestProcessor frq = new FinalRequestProcessor(zks);
+        final CountDownLatch latch = new CountDownLatch(1);
+        processor = new PrepRequestProcessor(zks, new RequestProcessor() {
+            @Override
+            public void processRequest(Request request) {
+                outcome = request;
+                frq.processRequest(request);
+                latch.countDown();
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        });
+        processor.pRequest(createRequest(closeSessionsTxn, OpCode.closeSessions, 1));
+
+        assertTrue(latch.await(3, TimeUnit.SECONDS));
+        assertEquals(OpCode.closeSessions, outcome.getHdr().getType());
+        List<ClosedSession> sessions = ((CloseSessionsTxn) outcome.getTxn()).getSessions();
+        assertEquals(Collections.singletonList("/foo"), sessions.get(0).getPaths2Delete());
+        assertEquals(Collections.singletonList("/bar"), sessions.get(1).getPaths2Delete());
+
+        assertNull(dt.getNode("/foo"));
+        assertNull(dt.getNode("/bar"));
+        assertNotNull(dt.getNode("/baz"));
+    }
+
     /**
      * It tests that PrepRequestProcessor will return BadArgument KeeperException
      * if the request path (if it exists) is not valid, e.g. empty string.
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import io.netty.buffer.ByteBuf;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.apache.jute.BinaryInputArchive;
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.proto.ReplyHeader;
+import org.apache.zookeeper.proto.WatcherEvent;
+import org.junit.jupiter.api.Test;
+
+public class SerializedWatchEventTest extends ZKTestCase {
+
+    @Test
+    public void testPacket() throws Exception {
+        WatchedEvent event = new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, "/a/b", 42);
+        SerializedWatchEvent serialized = new SerializedWatchEvent(event);
+
+        ByteBuffer packet = serialized.getPacket();
+        assertEquals(packet.remaining() - 4, serialized.getPacketLength());
+        assertEquals(serialized.getPacketLength(), packet.getInt());
+
+        byte[] content = new byte[packet.remaining()];
+        packet.get(content);
+        BinaryInputArchive bia = BinaryInputArchive.getArchive(new ByteArrayInputStream(content));
+        ReplyHeader header = new ReplyHeader();
+        header.deserialize(bia, "header");
+        assertEquals(ClientCnxn.NOTIFICATION_XID, header.getXid());
+        assertEquals(42, header.getZxid());
+        assertEquals(0, header.getErr());
+        WatcherEvent watcherEvent = new WatcherEvent();
+        watcherEvent.deserialize(bia, "event");
+        assertEquals(event.getWrapper(), watcherEvent);
+    }
+
+    @Test
+    public void testIndependentViews() {
+        SerializedWatchEvent serialized = new SerializedWatchEvent(
+            new WatchedEvent(EventType.NodeCreated, KeeperState.SyncConnected, "/a", 1));
+        int length = serialized.getPacketLength() + 4;
+
+        ByteBuffer first = serialized.getPacket();
+        first.position(first.limit());
+        assertEquals(length, serialized.getPacket().remaining());
+
+        ByteBuf byteBuf = serialized.getByteBuf();
+        byteBuf.skipBytes(byteBuf.readableBytes());
+        assertEquals(length, serialized.getByteBuf().readableBytes());
+        assertEquals(serialized.getPacket(), serialized.getByteBuf().nioBuffer());
+    }
+
+}
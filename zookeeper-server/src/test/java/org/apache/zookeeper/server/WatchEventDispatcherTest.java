@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.ServerCnxn.DisconnectReason;
+import org.junit.jupiter.api.Test;
+
+public class WatchEventDispatcherTest extends ZKTestCase {
+
+    /**
+     * A watch event that can't be sent must not keep the events queued
+     * after it, and the connection must be closed so that the client sets
+     * its watches again.
+     */
+    @Test
+    public void testFailedEventDoesNotStopDelivery() throws Exception {
+        WatchEventDispatcher dispatcher = new WatchEventDispatcher(1);
+        ZooKeeperServer zks = mock(ZooKeeperServer.class);
+        when(zks.getWatchEventDispatcher()).thenReturn(dispatcher);
+
+        // keep the only pool thread busy, so the events are sent by the test
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.schedule(new MockServerCnxn(zks) {
+            @Override
+            void deliverQueuedWatchEvents() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        SerializedWatchEvent failing = event("/a");
+        SerializedWatchEvent second = event("/b");
+        SerializedWatchEvent third = event("/c");
+        List<String> sent = new ArrayList<>();
+        List<DisconnectReason> closed = new ArrayList<>();
+        MockServerCnxn cnxn = new MockServerCnxn(zks) {
+            @Override
+            void sendWatchEvent(SerializedWatchEvent event, List<ACL> acl) {
+                if (event == failing) {
+                    throw new IllegalStateException("test");
+                }
+                sent.add(event.getEvent().getPath());
+            }
+
+            @Override
+            public void close(DisconnectReason reason) {
+                closed.add(reason);
+            }
+        };
+
+        try {
+            assertTrue(cnxn.queueWatchEvent(failing, null));
+            assertTrue(cnxn.queueWatchEvent(second, null));
+            assertTrue(cnxn.queueWatchEvent(third, null));
+            assertEquals(2, cnxn.flushWatchEvents());
+            assertEquals(Arrays.asList("/b", "/c"), sent);
+            assertEquals(Arrays.asList(DisconnectReason.WATCH_EVENT_FAILURE), closed);
+            assertEquals(0, cnxn.flushWatchEvents());
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    private static SerializedWatchEvent event(String path) {
+        return new SerializedWatchEvent(new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, path));
+    }
+
+}
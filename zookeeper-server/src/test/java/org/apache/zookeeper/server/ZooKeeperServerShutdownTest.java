@@ -69,6 +69,10 @@ SyncRequestProcessor getSyncRequestProcessor() {
         public Learner getLearner() {
             return null;
         }
+
+        @Override
+        protected void processObserverRequest(Request request) {
+        }
     }
 
     @Test
@@ -18,13 +18,18 @@
 
 package org.apache.zookeeper.server.quorum;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.server.SessionTracker.Session;
 import org.apache.zookeeper.server.ZooKeeperServer;
 import org.junit.jupiter.api.Test;
 
@@ -94,4 +99,80 @@ private void testCloseSessionWithDifferentConfig(
             assertNull(servers.zk[i].exists(path, false));
         }
     }
- }
+
+    @Test
+    public void testCloseSessionsBatch() throws Exception {
+        ZooKeeperServer.setCloseSessionsBatchSize(10);
+        try {
+            final int numServers = 3;
+            servers = LaunchServers(numServers);
+            int leaderId = servers.findLeader();
+
+            // 1. create an ephemeral node from a session on each server
+            List<Session> sessions = new ArrayList<>();
+            for (int i = 0; i < numServers; i++) {
+                servers.zk[i].create("/testCloseSessionsBatch-" + i, new byte[0],
+                        Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                sessions.add(new ExpiredSession(servers.zk[i].getSessionId()));
+            }
+
+            // 2. expire all the sessions together on the leader
+            ZooKeeperServer leader = servers.mt[leaderId].getQuorumPeer().getActiveServer();
+            leader.expire(sessions);
+            for (int i = 0; i < numServers; i++) {
+                waitForOne(servers.zk[i], States.CLOSED);
+            }
+
+            // 3. verify they were closed by a single txn
+            int closeSessions = 0;
+            for (Leader.Proposal p : leader.getZKDatabase().getCommittedLog()) {
+                int type = p.getRequest().getHdr().getType();
+                assertTrue(type != OpCode.closeSession);
+                if (type == OpCode.closeSessions) {
+                    closeSessions++;
+                }
+            }
+            assertEquals(1, closeSessions);
+
+            // 4. verify the ephemeral nodes are gone on all the servers
+            for (int i = 0; i < numServers; i++) {
+                servers.restartClient(i, this);
+                waitForOne(servers.zk[i], States.CONNECTED);
+                final CountDownLatch syncedLatch = new CountDownLatch(1);
+                servers.zk[i].sync("/", (rc, path, ctx) -> syncedLatch.countDown(), null);
+                assertTrue(syncedLatch.await(3, TimeUnit.SECONDS));
+                for (int j = 0; j < numServers; j++) {
+                    assertNull(servers.zk[i].exists("/testCloseSessionsBatch-" + j, false));
+                }
+            }
+        } finally {
+            ZooKeeperServer.setCloseSessionsBatchSize(0);
+        }
+    }
+
+    private static class ExpiredSession implements Session {
+
+        private final long sessionId;
+
+        ExpiredSession(long sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public long getSessionId() {
+            return sessionId;
+        }
+
+        @Override
+        public int getTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean isClosing() {
+            return true;
+        }
+
+    }
+
+}
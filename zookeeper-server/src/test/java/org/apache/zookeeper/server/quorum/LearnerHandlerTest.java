@@ -24,6 +24,7 @@
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Collections;
@@ -40,6 +41,7 @@
 import org.apache.zookeeper.server.util.ZxidUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentMatchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -75,6 +77,7 @@ class MockZKDatabase extends ZKDatabase {
         ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
         LinkedList<Proposal> committedLog = new LinkedList<>();
         LinkedList<Proposal> txnLog = new LinkedList<>();
+        File snapshot;
 
         public MockZKDatabase(FileTxnSnapLog snapLog) {
             super(snapLog);
@@ -119,6 +122,10 @@ public long calculateTxnLogSizeLimit() {
             return 1;
         }
 
+        public File findMostRecentSnapshot() {
+            return snapshot;
+        }
+
     }
 
     private MockLearnerHandler learnerHandler;
@@ -556,4 +563,65 @@ public void testTxnLogGap() throws Exception {
         reset();
     }
 
+    /**
+     * Test cases when the most recent snapshot file is streamed to the
+     * learner, followed by a DIFF of the txns logged after it
+     */
+    @Test
+    public void testSnapshotFileSync(@TempDir File snapDir) throws Exception {
+        long peerZxid;
+        db.txnLog.add(createProposal(2));
+        db.txnLog.add(createProposal(3));
+        db.txnLog.add(createProposal(5));
+        db.txnLog.add(createProposal(6));
+        db.txnLog.add(createProposal(7));
+        db.txnLog.add(createProposal(8));
+        db.txnLog.add(createProposal(9));
+
+        db.lastProcessedZxid = 9;
+        db.committedLog.add(createProposal(6));
+        db.committedLog.add(createProposal(7));
+        db.committedLog.add(createProposal(8));
+
+        learnerHandler.setSnapFileSync(true, true);
+        // Peer zxid is older than the txnlog
+        peerZxid = 1;
+
+        // No snapshot on disk, fall back to SNAP
+        assertTrue(learnerHandler.syncFollower(peerZxid, leader));
+        assertEquals(0, learnerHandler.getQueuedPackets().size());
+        assertZxidEquals(db.lastProcessedZxid, currentZxid);
+        reset();
+
+        // Snapshot zxid is in txnlog range
+        db.snapshot = new File(snapDir, "snapshot.3");
+        assertTrue(db.snapshot.createNewFile());
+        assertTrue(learnerHandler.syncFollower(peerZxid, leader));
+        // We send DIFF on top of the snapshot and forward any packet starting at maxCommittedLog
+        assertOpType(Leader.DIFF, db.getmaxCommittedLog(), db.getmaxCommittedLog());
+        // DIFF + 4 proposals + 4 commit
+        assertEquals(9, learnerHandler.getQueuedPackets().size());
+        queuedPacketMatches(new long[]{5, 6, 7, 8});
+        reset();
+
+        // Snapshot zxid is in committedLog range
+        db.snapshot = new File(snapDir, "snapshot.7");
+        assertTrue(db.snapshot.createNewFile());
+        assertTrue(learnerHandler.syncFollower(peerZxid, leader));
+        assertOpType(Leader.DIFF, db.getmaxCommittedLog(), db.getmaxCommittedLog());
+        // DIFF + 1 proposals + 1 commit
+        assertEquals(3, learnerHandler.getQueuedPackets().size());
+        queuedPacketMatches(new long[]{8});
+        reset();
+
+        // Snapshot zxid we have never seen, it would need a TRUNC so
+        // we fall back to SNAP
+        db.snapshot = new File(snapDir, "snapshot.4");
+        assertTrue(db.snapshot.createNewFile());
+        assertTrue(learnerHandler.syncFollower(peerZxid, leader));
+        assertEquals(0, learnerHandler.getQueuedPackets().size());
+        assertZxidEquals(db.lastProcessedZxid, currentZxid);
+        reset();
+    }
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.common.Time;
+import org.junit.jupiter.api.Test;
+
+public class LearnerSyncBandwidthThrottlerTest extends ZKTestCase {
+
+    @Test
+    public void testNoLimit() throws Exception {
+        LearnerSyncBandwidthThrottler throttler = new LearnerSyncBandwidthThrottler(0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, throttler.acquire(1024 * 1024));
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        LearnerSyncBandwidthThrottler throttler = new LearnerSyncBandwidthThrottler(10000);
+        long start = Time.currentElapsedTime();
+        for (int i = 0; i < 3; i++) {
+            throttler.acquire(5000);
+        }
+        long elapsed = Time.currentElapsedTime() - start;
+        // the bucket starts empty, 15000 bytes need at least 1.5s at 10000 bytes/s
+        assertTrue(elapsed >= 1000, "Throttling took only " + elapsed + "ms");
+    }
+
+    @Test
+    public void testRequestLargerThanLimit() throws Exception {
+        LearnerSyncBandwidthThrottler throttler = new LearnerSyncBandwidthThrottler(100000);
+        // must not wait forever for a bucket that can never hold the request
+        throttler.acquire(1000000);
+    }
+
+    @Test
+    public void testDisableWhileWaiting() throws Exception {
+        LearnerSyncBandwidthThrottler throttler = new LearnerSyncBandwidthThrottler(1);
+        Thread t = new Thread(() -> {
+            try {
+                throttler.acquire(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        t.start();
+        throttler.setMaxBytesPerSec(0);
+        t.join(10000);
+        assertTrue(!t.isAlive(), "acquire() did not return after throttling was disabled");
+    }
+
+    @Test
+    public void testThrottledOutputStream() throws Exception {
+        LearnerSyncBandwidthThrottler throttler = new LearnerSyncBandwidthThrottler(1000000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] data = new byte[4096];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (OutputStream os = throttler.throttle(bos)) {
+            os.write(data, 0, 4000);
+            os.write(data[4000]);
+            os.write(data, 4001, data.length - 4001);
+        }
+        assertArrayEquals(data, bos.toByteArray());
+    }
+
+}
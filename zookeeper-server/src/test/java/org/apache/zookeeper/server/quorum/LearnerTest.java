@@ -24,6 +24,8 @@
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -37,7 +39,9 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -47,9 +51,15 @@
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.common.X509Exception;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.DataTree;
 import org.apache.zookeeper.server.ExitCode;
+import org.apache.zookeeper.server.Request;
 import org.apache.zookeeper.server.ZKDatabase;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.persistence.FileSnap;
 import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.server.util.ZxidUtils;
 import org.apache.zookeeper.txn.CreateTxn;
 import org.apache.zookeeper.txn.TxnHeader;
 import org.apache.zookeeper.util.ServiceUtils;
@@ -74,6 +84,10 @@ public Learner getLearner() {
             return learner;
         }
 
+        @Override
+        protected void processObserverRequest(Request request) {
+        }
+
     }
 
     static class SimpleLearner extends Learner {
@@ -356,4 +370,60 @@ public void accept(Integer exitCode) {
 
         assertThat("System.exit() should have been called", exitProcCalled[0], is(true));
     }
+
+    @Test
+    public void snapFileSyncTest(@TempDir File tmpDir) throws Exception {
+        File leaderDir = new File(tmpDir, "leader");
+        File learnerDir = new File(tmpDir, "learner");
+        assertTrue(leaderDir.mkdir());
+        FileTxnSnapLog ftsl = new FileTxnSnapLog(learnerDir, learnerDir);
+        SimpleLearner sl = new SimpleLearner(ftsl);
+        sl.self.setTxnFactory(ftsl);
+
+        // a snapshot of the leader which does not carry its lastProcessedZxid
+        long snapZxid = ZxidUtils.makeZxid(1, 5);
+        DataTree dt = new DataTree();
+        dt.createNode("/foo", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, 0, dt.getNode("/").stat.getCversion(), snapZxid, 0);
+        dt.lastProcessedZxid = snapZxid;
+        File snapFile = new File(leaderDir, FileSnap.SNAPSHOT_FILE_PREFIX + "." + Long.toHexString(snapZxid));
+        boolean serializeLastProcessedZxid = ZooKeeperServer.isSerializeLastProcessedZxidEnabled();
+        ZooKeeperServer.setSerializeLastProcessedZxidEnabled(false);
+        try {
+            new FileSnap(leaderDir).serialize(dt, new HashMap<>(), snapFile, false);
+        } finally {
+            ZooKeeperServer.setSerializeLastProcessedZxidEnabled(serializeLastProcessedZxid);
+        }
+        byte[] snapBytes = Files.readAllBytes(snapFile.toPath());
+
+        // Set up bogus streams
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryOutputArchive oa = BinaryOutputArchive.getArchive(baos);
+        sl.leaderOs = BinaryOutputArchive.getArchive(new ByteArrayOutputStream());
+        sl.bufferedOutput = new BufferedOutputStream(new ByteArrayOutputStream());
+        sl.sock = new Socket();
+
+        // the snapshot file in one chunk, followed by an empty DIFF and NEWLEADER
+        byte[] header = SnapshotFileTransfer.encodeHeader(snapBytes.length, 0, snapFile.getName());
+        oa.writeRecord(new QuorumPacket(Leader.SNAPFILE, snapZxid, header, null), null);
+        byte[] chunk = SnapshotFileTransfer.encodeChunk(0, snapBytes, snapBytes.length);
+        oa.writeRecord(new QuorumPacket(Leader.SNAPCHUNK, snapZxid, chunk, null), null);
+        oa.writeRecord(new QuorumPacket(Leader.DIFF, snapZxid, null, null), null);
+        oa.writeRecord(new QuorumPacket(Leader.NEWLEADER, ZxidUtils.makeZxid(2, 0), null, null), null);
+        sl.leaderIs = BinaryInputArchive.getArchive(new ByteArrayInputStream(baos.toByteArray()));
+
+        try {
+            sl.syncWithLeader(ZxidUtils.makeZxid(2, 0));
+            fail("Expected the stream to end after NEWLEADER");
+        } catch (EOFException e) {
+        }
+
+        assertEquals(snapZxid, sl.zk.getLastProcessedZxid());
+        assertNotNull(sl.zk.getZKDatabase().getNode("/foo"));
+        // the snapshot taken on NEWLEADER is named after the snapshot zxid
+        File snapshot = ftsl.findMostRecentSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(snapZxid, Util.getZxidFromName(snapshot.getName(), FileSnap.SNAPSHOT_FILE_PREFIX));
+        assertNull(SnapshotFileTransfer.findStagingFile(ftsl.getSnapDir()));
+        sl.zk.shutdown();
+    }
 }
@@ -153,6 +153,21 @@ public void testRecreateSocketAddresses() throws UnknownHostException {
         assertEquals(searchedAddresses.get(0), addresses.get(0));
     }
 
+    @Test
+    public void testLookupSocketAddresses() {
+        InetSocketAddress address = InetSocketAddress.createUnresolved("localhost", 222);
+        MultipleAddresses multipleAddresses = new MultipleAddresses(address);
+
+        Set<InetSocketAddress> resolved = multipleAddresses.lookupSocketAddresses();
+        assertEquals(1, resolved.size());
+        assertFalse(resolved.iterator().next().isUnresolved());
+        // the lookup alone doesn't change the addresses
+        assertEquals(address, multipleAddresses.getOne());
+
+        multipleAddresses.setSocketAddresses(resolved);
+        assertEquals(resolved, multipleAddresses.getAllAddresses());
+    }
+
     @Test
     public void testRecreateSocketAddressesWithWrongAddresses() {
         InetSocketAddress address = new InetSocketAddress("locahost", 222);
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static org.apache.zookeeper.test.ClientBase.CONNECTION_TIMEOUT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.PortAssignment;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Observer 4 observes observer 3, which observes a follower. Each observer
+ * has its own loopback address so that all ObserverMasters can listen on the
+ * same observerMasterPort.
+ */
+public class ObserverMasterChainingTest extends QuorumPeerTestBase {
+
+    private MainThread[] servers;
+    private int[] clientPorts;
+
+    @BeforeEach
+    public void setUp() {
+        Observer.setServeObservers(true);
+        Observer.setPreferredLearnerMasters("3");
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        Observer.setServeObservers(false);
+        Observer.setPreferredLearnerMasters(null);
+        if (servers != null) {
+            for (MainThread server : servers) {
+                server.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testObserverObservesObserver() throws Exception {
+        ClientBase.setupTestEnv();
+        String[] hosts = {"127.0.0.1", "127.0.0.1", "127.0.0.2", "127.0.0.3"};
+        clientPorts = new int[hosts.length];
+        StringBuilder quorumCfg = new StringBuilder();
+        for (int i = 0; i < hosts.length; i++) {
+            clientPorts[i] = PortAssignment.unique();
+            quorumCfg.append(String.format("server.%d=%s:%d:%d%s;%d%n",
+                i + 1, hosts[i], PortAssignment.unique(), PortAssignment.unique(),
+                i >= 2 ? ":observer" : "", clientPorts[i]));
+        }
+        String extraCfgs = String.format("observerMasterPort=%d%n", PortAssignment.unique());
+
+        servers = new MainThread[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            servers[i] = new MainThread(i + 1, clientPorts[i], quorumCfg.toString(), extraCfgs);
+        }
+        // start the observers one at a time, so that observer 3 is in sync
+        // and serving by the time observer 4 looks for a learner master
+        for (int i = 0; i < hosts.length; i++) {
+            servers[i].start();
+            if (i >= 1) {
+                for (int j = 0; j <= i; j++) {
+                    assertTrue(ClientBase.waitForServerUp("127.0.0.1:" + clientPorts[j], CONNECTION_TIMEOUT),
+                        "waiting for server " + (j + 1) + " being up");
+                }
+            }
+        }
+
+        Observer observer4 = servers[3].getQuorumPeer().observer;
+        assertEquals(3, observer4.getLearnerMasterId());
+        waitFor("observer 3 should serve observer 4",
+            () -> Integer.valueOf(1).equals(servers[2].getQuorumPeer().observer.getSyncedObserverSize()), 30);
+
+        ZooKeeper zk4 = ClientBase.createZKClient("127.0.0.1:" + clientPorts[3]);
+        ZooKeeper zk1 = ClientBase.createZKClient("127.0.0.1:" + clientPorts[0]);
+        try {
+            // writes through the chain of observers
+            zk4.create("/chained", "a".getBytes(), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            assertEquals("a", new String(zk1.getData("/chained", false, null)));
+
+            // updates flow down the chain
+            zk1.setData("/chained", "b".getBytes(), -1);
+            waitFor("observer 4 should see the update", () -> {
+                try {
+                    return "b".equals(new String(zk4.getData("/chained", false, null)));
+                } catch (Exception e) {
+                    return false;
+                }
+            }, 30);
+        } finally {
+            zk4.close();
+            zk1.close();
+        }
+    }
+
+}
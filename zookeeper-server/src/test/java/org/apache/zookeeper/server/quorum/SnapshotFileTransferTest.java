@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SnapshotFileTransferTest extends ZKTestCase {
+
+    @TempDir
+    File snapDir;
+
+    private byte[] data(int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    @Test
+    public void testChunkRoundTrip() throws Exception {
+        byte[] data = data(1000);
+        File staging = SnapshotFileTransfer.prepareStagingFile(snapDir, "snapshot.1f", 0);
+        try (RandomAccessFile raf = new RandomAccessFile(staging, "rw")) {
+            assertEquals(600, SnapshotFileTransfer.writeChunk(raf, SnapshotFileTransfer.encodeChunk(0, data, 600), 0));
+            byte[] rest = new byte[400];
+            System.arraycopy(data, 600, rest, 0, 400);
+            assertEquals(400, SnapshotFileTransfer.writeChunk(raf, SnapshotFileTransfer.encodeChunk(600, rest, 400), 600));
+        }
+        assertArrayEquals(data, Files.readAllBytes(staging.toPath()));
+        assertEquals(0x1f, SnapshotFileTransfer.getStagedZxid(staging.getName()));
+    }
+
+    @Test
+    public void testCorruptChunk() throws Exception {
+        File staging = SnapshotFileTransfer.prepareStagingFile(snapDir, "snapshot.1f", 0);
+        byte[] chunk = SnapshotFileTransfer.encodeChunk(0, data(100), 100);
+        chunk[chunk.length - 1]++;
+        try (RandomAccessFile raf = new RandomAccessFile(staging, "rw")) {
+            assertThrows(IOException.class, () -> SnapshotFileTransfer.writeChunk(raf, chunk, 0));
+            // out of order chunk
+            assertThrows(IOException.class,
+                () -> SnapshotFileTransfer.writeChunk(raf, SnapshotFileTransfer.encodeChunk(100, data(10), 10), 0));
+        }
+        assertEquals(0, staging.length());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        assertNull(SnapshotFileTransfer.findStagingFile(snapDir));
+        File staging = SnapshotFileTransfer.prepareStagingFile(snapDir, "snapshot.1f.snappy", 0);
+        Files.write(staging.toPath(), data(1000));
+        assertEquals(staging, SnapshotFileTransfer.findStagingFile(snapDir));
+
+        // resume from a chunk boundary, anything after it is discarded
+        assertEquals(staging, SnapshotFileTransfer.prepareStagingFile(snapDir, "snapshot.1f.snappy", 512));
+        assertEquals(512, staging.length());
+
+        // cannot resume beyond the staged length
+        assertThrows(IOException.class, () -> SnapshotFileTransfer.prepareStagingFile(snapDir, "snapshot.1f.snappy", 1024));
+
+        // a newer snapshot replaces the staging file of the old one
+        File newer = SnapshotFileTransfer.prepareStagingFile(snapDir, "snapshot.2a", 0);
+        assertFalse(staging.exists());
+        assertTrue(newer.exists());
+        assertEquals(newer, SnapshotFileTransfer.findStagingFile(snapDir));
+    }
+
+    @Test
+    public void testChecksum() throws Exception {
+        File file = new File(snapDir, "snapshot.1f");
+        byte[] data = data(200 * 1024);
+        Files.write(file.toPath(), data);
+        File other = new File(snapDir, "other");
+        data[1000]++;
+        Files.write(other.toPath(), data);
+
+        // same prefix, same checksum
+        assertEquals(SnapshotFileTransfer.checksum(file, 1000), SnapshotFileTransfer.checksum(other, 1000));
+        // a staged prefix of another file with the same zxid is not resumed from
+        assertNotEquals(SnapshotFileTransfer.checksum(file, 150 * 1024), SnapshotFileTransfer.checksum(other, 150 * 1024));
+        assertEquals(SnapshotFileTransfer.checksum(file, 0), SnapshotFileTransfer.checksum(other, 0));
+    }
+
+    @Test
+    public void testInvalidFileName() {
+        assertThrows(IOException.class, () -> SnapshotFileTransfer.prepareStagingFile(snapDir, "log.1f", 0));
+        assertThrows(IOException.class,
+            () -> SnapshotFileTransfer.prepareStagingFile(snapDir, ".." + File.separator + "snapshot.1f", 0));
+    }
+
+}
@@ -23,9 +23,13 @@
 import static org.apache.zookeeper.server.quorum.ZabUtils.createMockLeader;
 import static org.apache.zookeeper.server.quorum.ZabUtils.createQuorumPeer;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -806,6 +810,77 @@ private void proposeNewSession(QuorumPacket qp, long zxid, long sessionId) throw
         }, testData);
     }
 
+    @Test
+    public void testNormalFollowerRunWithDiffPipelined(@TempDir File testData) throws Exception {
+        boolean pipelinedSync = Learner.getPipelinedSync();
+        Learner.setPipelinedSync(true);
+        try {
+            testNormalFollowerRunWithDiff(testData);
+        } finally {
+            Learner.setPipelinedSync(pipelinedSync);
+        }
+    }
+
+    @Test
+    public void testPipelinedSyncAbortsOnApplyFailure(@TempDir File testData) throws Exception {
+        boolean pipelinedSync = Learner.getPipelinedSync();
+        Learner.setPipelinedSync(true);
+        try {
+            testFollowerConversation(new FollowerConversation() {
+                @Override
+                public void converseWithFollower(InputArchive ia, OutputArchive oa, Follower f) throws Exception {
+                    // the apply stage fails on the first txn
+                    f.zk = spy(f.zk);
+                    doThrow(new RuntimeException("test")).when(f.zk).processTxn(any(Request.class));
+
+                    QuorumPacket qp = new QuorumPacket();
+                    readPacketSkippingPing(ia, qp);
+                    assertEquals(Leader.FOLLOWERINFO, qp.getType());
+                    qp.setType(Leader.LEADERINFO);
+                    qp.setZxid(ZxidUtils.makeZxid(1, 0));
+                    byte[] protoBytes = new byte[4];
+                    ByteBuffer.wrap(protoBytes).putInt(0x10000);
+                    qp.setData(protoBytes);
+                    oa.writeRecord(qp, null);
+
+                    readPacketSkippingPing(ia, qp);
+                    assertEquals(Leader.ACKEPOCH, qp.getType());
+
+                    qp.setType(Leader.DIFF);
+                    qp.setData(new byte[0]);
+                    qp.setZxid(0);
+                    oa.writeRecord(qp, null);
+                    final long createSessionZxid = ZxidUtils.makeZxid(1, 1);
+                    qp.setType(Leader.PROPOSAL);
+                    qp.setZxid(createSessionZxid);
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    OutputArchive boa = BinaryOutputArchive.getArchive(baos);
+                    boa.writeRecord(new TxnHeader(4, 1414, createSessionZxid, 55, ZooDefs.OpCode.createSession), null);
+                    boa.writeRecord(new CreateSessionTxn(30000), null);
+                    qp.setData(baos.toByteArray());
+                    oa.writeRecord(qp, null);
+                    qp.setType(Leader.COMMIT);
+                    qp.setData(null);
+                    oa.writeRecord(qp, null);
+                    qp.setType(Leader.NEWLEADER);
+                    qp.setZxid(ZxidUtils.makeZxid(1, 0));
+                    oa.writeRecord(qp, null);
+
+                    // the follower drops the connection instead of acking NEWLEADER
+                    assertThrows(IOException.class, () -> readPacketSkippingPing(ia, qp));
+                    assertEquals(0, f.self.getCurrentEpoch());
+                    assertEquals(0, f.fzk.getLastProcessedZxid());
+                    // and the stages are stopped
+                    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                        assertFalse(thread.getName().startsWith("LearnerSync"), thread.getName());
+                    }
+                }
+            }, testData);
+        } finally {
+            Learner.setPipelinedSync(pipelinedSync);
+        }
+    }
+
     @Test
     public void testNormalFollowerRun_ProcessCommitInSyncAfterAckNewLeader(@TempDir File testData) throws Exception {
         testFollowerConversation(new FollowerConversation() {
@@ -30,11 +30,9 @@ public class BitHashSetTest extends ZKTestCase {
 
     @Test
     public void testAddWatchBit() {
-        int watcherCacheSize = 1;
-        BitHashSet ws = new BitHashSet(watcherCacheSize);
+        BitHashSet ws = new BitHashSet();
         assertTrue(ws.add(1));
         assertEquals(1, ws.size());
-        assertEquals(1, ws.cachedSize());
 
         List<Integer> actualBits = new ArrayList<>();
 
@@ -46,12 +44,10 @@ public void testAddWatchBit() {
         // add the same bit again
         assertFalse(ws.add(1));
         assertEquals(1, ws.size());
-        assertEquals(1, ws.cachedSize());
 
-        // add another bit, make sure there there is only 1 bit cached
+        // add another bit
         assertTrue(ws.add(2));
         assertEquals(2, ws.size());
-        assertEquals(1, ws.cachedSize());
 
         assertTrue(ws.contains(1));
 
@@ -64,8 +60,7 @@ public void testAddWatchBit() {
 
     @Test
     public void testRemoveWatchBit() {
-        int watcherCacheSize = 1;
-        BitHashSet ws = new BitHashSet(watcherCacheSize);
+        BitHashSet ws = new BitHashSet();
         ws.add(1);
         ws.add(2);
 
@@ -75,7 +70,6 @@ public void testRemoveWatchBit() {
         ws.remove(1);
         assertFalse(ws.contains(1));
         assertEquals(1, ws.size());
-        assertEquals(0, ws.cachedSize());
 
         List<Integer> actualBits = new ArrayList<>();
 
@@ -86,7 +80,6 @@ public void testRemoveWatchBit() {
 
         ws.add(3);
         assertEquals(2, ws.size());
-        assertEquals(1, ws.cachedSize());
 
         actualBits.clear();
         for (int bit : ws) {
@@ -98,7 +91,6 @@ public void testRemoveWatchBit() {
         ws.remove(3);
 
         assertEquals(0, ws.size());
-        assertEquals(0, ws.cachedSize());
     }
 
 }
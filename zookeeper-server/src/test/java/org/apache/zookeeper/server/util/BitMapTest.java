@@ -73,4 +73,19 @@ public void testBitReuse() {
         assertEquals(v4Bit, v2Bit);
     }
 
+    @Test
+    public void testManyValues() {
+        BitMap<String> bitMap = new BitMap<>();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, bitMap.add("v" + i).intValue());
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v" + i, bitMap.get(i));
+        }
+        assertNull(bitMap.get(1000));
+        assertNull(bitMap.get(-1));
+        assertEquals("v999", bitMap.remove(999));
+        assertNull(bitMap.get(999));
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.jupiter.api.Test;
+
+public class CompressedBitSetTest extends ZKTestCase {
+
+    @Test
+    public void testAddRemove() {
+        CompressedBitSet set = new CompressedBitSet();
+        assertTrue(set.isEmpty());
+        assertFalse(set.iterator().hasNext());
+
+        assertTrue(set.add(70000));
+        assertTrue(set.add(3));
+        assertTrue(set.add(1 << 30));
+        assertFalse(set.add(3));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(70000));
+        assertFalse(set.contains(70001));
+        assertFalse(set.contains(-1));
+        assertEquals(Arrays.asList(3, 70000, 1 << 30), toList(set));
+
+        assertTrue(set.remove(70000));
+        assertFalse(set.remove(70000));
+        assertFalse(set.remove(-1));
+        assertEquals(Arrays.asList(3, 1 << 30), toList(set));
+        assertTrue(set.remove(3));
+        assertTrue(set.remove(1 << 30));
+        assertTrue(set.isEmpty());
+        assertEquals(0, toList(set).size());
+
+        assertThrows(IllegalArgumentException.class, () -> set.add(-1));
+    }
+
+    @Test
+    public void testArrayAndBitmapContainers() {
+        CompressedBitSet set = new CompressedBitSet();
+        int count = CompressedBitSet.ARRAY_CONTAINER_MAX * 2;
+        // spans the bitmap and array containers of two keys
+        for (int i = 0; i < count; i++) {
+            assertTrue(set.add(i * 3));
+        }
+        assertEquals(count, set.size());
+        List<Integer> values = toList(set);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i * 3, values.get(i).intValue());
+        }
+
+        // back to array containers
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(set.remove(i * 3));
+        }
+        assertEquals(count / 2, set.size());
+        values = toList(set);
+        for (int i = 0; i < count / 2; i++) {
+            assertEquals((2 * i + 1) * 3, values.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testRemoveAll() {
+        CompressedBitSet set = new CompressedBitSet();
+        CompressedBitSet dead = new CompressedBitSet();
+        for (int i = 0; i < 10000; i++) {
+            set.add(i);
+            if (i % 3 == 0) {
+                dead.add(i);
+            }
+        }
+        dead.add(200000);
+        assertEquals(3334, set.removeAll(dead));
+        assertEquals(6666, set.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 3 != 0, set.contains(i));
+        }
+
+        CompressedBitSet other = new CompressedBitSet();
+        other.add(1);
+        other.add(2);
+        assertEquals(2, set.removeAll(other));
+        assertEquals(0, set.removeAll(other));
+        assertEquals(6664, set.size());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        CompressedBitSet set = new CompressedBitSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int round = 0; round < 20; round++) {
+            // a narrow range fills bitmap containers, a wide one spreads
+            // the values across many array containers
+            int range = round % 2 == 0 ? 1 << 14 : 1 << 24;
+            for (int i = 0; i < 5000; i++) {
+                int value = random.nextInt(range);
+                assertEquals(expected.add(value), set.add(value));
+            }
+            for (int i = 0; i < 2000; i++) {
+                int value = random.nextInt(range);
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+            CompressedBitSet removed = new CompressedBitSet();
+            for (int i = 0; i < 3000; i++) {
+                removed.add(random.nextInt(range));
+            }
+            int removedCount = 0;
+            for (int value : removed) {
+                if (expected.remove(value)) {
+                    removedCount++;
+                }
+            }
+            assertEquals(removedCount, set.removeAll(removed));
+            assertEquals(expected.size(), set.size());
+            assertEquals(new ArrayList<>(expected), toList(set));
+        }
+    }
+
+    private static List<Integer> toList(CompressedBitSet set) {
+        List<Integer> values = new ArrayList<>();
+        for (int value : set) {
+            values.add(value);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.watch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+public class RecursiveWatchIndexTest {
+
+    @Test
+    public void testWatchedParents() {
+        RecursiveWatchIndex index = new RecursiveWatchIndex();
+        assertTrue(index.isEmpty());
+        assertEquals(Collections.emptyList(), index.getWatchedParents("/a/b/c"));
+
+        index.add("/");
+        index.add("/a/b");
+        index.add("/a/b/c/d");
+        assertFalse(index.isEmpty());
+
+        assertEquals(Arrays.asList("/", "/a/b"), index.getWatchedParents("/a/b/c"));
+        assertEquals(Arrays.asList("/", "/a/b"), index.getWatchedParents("/a/b/c/d"));
+        assertEquals(Arrays.asList("/", "/a/b", "/a/b/c/d"), index.getWatchedParents("/a/b/c/d/e"));
+        assertEquals(Collections.singletonList("/"), index.getWatchedParents("/a/b"));
+        assertEquals(Collections.singletonList("/"), index.getWatchedParents("/x/y"));
+        // the path itself is not a parent
+        assertEquals(Collections.emptyList(), index.getWatchedParents("/"));
+        // segments are matched as a whole
+        assertEquals(Collections.singletonList("/"), index.getWatchedParents("/a/bb/c"));
+    }
+
+    @Test
+    public void testRemove() {
+        RecursiveWatchIndex index = new RecursiveWatchIndex();
+        index.add("/a/b");
+        index.add("/a/b");
+        index.add("/a/b/c");
+
+        index.remove("/a/b");
+        assertEquals(Collections.singletonList("/a/b"), index.getWatchedParents("/a/b/x"));
+        assertTrue(index.contains("/a/b"));
+        index.remove("/a/b");
+        assertEquals(Collections.emptyList(), index.getWatchedParents("/a/b/x"));
+        assertFalse(index.contains("/a/b"));
+        // the parents of a watched path are not watched themselves
+        assertFalse(index.contains("/a"));
+        assertFalse(index.contains("/"));
+        assertTrue(index.contains("/a/b/c"));
+        assertEquals(Collections.singletonList("/a/b/c"), index.getWatchedParents("/a/b/c/x"));
+
+        // removing a path which is not watched is a no-op
+        index.remove("/a");
+        index.remove("/a/b/c/d");
+        assertEquals(Collections.singletonList("/a/b/c"), index.getWatchedParents("/a/b/c/x"));
+
+        index.remove("/a/b/c");
+        assertTrue(index.isEmpty());
+    }
+
+}
@@ -39,7 +39,6 @@
 import org.apache.zookeeper.server.ServerCnxn;
 import org.apache.zookeeper.server.ServerMetrics;
 import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -59,7 +58,17 @@ public class WatchManagerTest extends ZKTestCase {
     public static Stream<Arguments> data() {
         return Stream.of(
             Arguments.of(WatchManager.class.getName()),
-            Arguments.of(WatchManagerOptimized.class.getName()));
+            Arguments.of(WatchManagerOptimized.class.getName()),
+            Arguments.of(ConcurrentWatchManager.class.getName()));
+    }
+
+    /**
+     * Watch managers which support persistent watches.
+     */
+    public static Stream<Arguments> persistentData() {
+        return Stream.of(
+            Arguments.of(WatchManager.class.getName()),
+            Arguments.of(ConcurrentWatchManager.class.getName()));
     }
 
     @BeforeEach
@@ -375,9 +384,10 @@ public void testAddRemoveWatcher(String className) throws IOException {
     /**
      * Test containsWatcher on all pairs, and removeWatcher on mismatch pairs.
      */
-    @Test
-    public void testContainsMode() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testContainsMode(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
         Watcher watcher2 = new DumbWatcher();
 
@@ -435,9 +445,10 @@ public void testContainsMode() {
     /**
      * Test repeatedly {@link WatchManager#addWatch(String, Watcher, WatcherMode)}.
      */
-    @Test
-    public void testAddModeRepeatedly() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testAddModeRepeatedly(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
 
         // given: add watcher1 to "/node1" in all modes
@@ -481,9 +492,10 @@ public void testAddModeRepeatedly() {
     /**
      * Test {@link WatchManager#removeWatcher(String, Watcher, WatcherMode)} on one pair should not break others.
      */
-    @Test
-    public void testRemoveModeOne() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testRemoveModeOne(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
         Watcher watcher2 = new DumbWatcher();
 
@@ -514,9 +526,10 @@ public void testRemoveModeOne() {
     /**
      * Test {@link WatchManager#removeWatcher(String, Watcher, WatcherMode)} with {@code null} watcher mode.
      */
-    @Test
-    public void testRemoveModeAll() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testRemoveModeAll(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
 
         // given: add watcher1 to "/node1" in all modes
@@ -562,9 +575,10 @@ public void testRemoveModeAll() {
     /**
      * Test {@link WatchManager#removeWatcher(String, Watcher)}.
      */
-    @Test
-    public void testRemoveModeAllDefault() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testRemoveModeAllDefault(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
 
         // given: add watcher1 to "/node1" in all modes
@@ -590,9 +604,10 @@ public void testRemoveModeAllDefault() {
     /**
      * Test {@link WatchManager#removeWatcher(String, Watcher, WatcherMode)} all modes individually.
      */
-    @Test
-    public void testRemoveModeAllIndividually() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testRemoveModeAllIndividually(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
 
         // given: add watcher1 to "/node1" in all modes
@@ -621,9 +636,10 @@ public void testRemoveModeAllIndividually() {
     /**
      * Test {@link WatchManager#removeWatcher(String, Watcher, WatcherMode)} on mismatch pair should break nothing.
      */
-    @Test
-    public void testRemoveModeMismatch() {
-        IWatchManager manager = new WatchManager();
+    @ParameterizedTest
+    @MethodSource("persistentData")
+    public void testRemoveModeMismatch(String className) throws IOException {
+        IWatchManager manager = getWatchManager(className);
         Watcher watcher1 = new DumbWatcher();
         Watcher watcher2 = new DumbWatcher();
 
@@ -46,7 +46,7 @@ public void testWatcherSet() {
 
     @Test
     public void testBitSet() {
-        BitHashSet bset = new BitHashSet(0);
+        BitHashSet bset = new BitHashSet();
         WatcherOrBitSet bitSet = new WatcherOrBitSet(bset);
         assertEquals(0, bitSet.size());
 
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.WatchEventDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncWatchDeliveryTest extends ClientBase {
+
+    @BeforeEach
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(WatchEventDispatcher.WATCH_NOTIFICATION_THREADS, "2");
+        super.setUp();
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(WatchEventDispatcher.WATCH_NOTIFICATION_THREADS);
+    }
+
+    /**
+     * A client must see the event of a watch triggered by a txn before the
+     * response to any request it sends after that txn.
+     */
+    @Test
+    public void testEventsDeliveredBeforeLaterResponses() throws Exception {
+        int clients = 10;
+        int updates = 20;
+        ZooKeeper writer = createClient();
+        writer.create("/node", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        List<ZooKeeper> readers = new ArrayList<>();
+        List<AtomicInteger> eventCounts = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            ZooKeeper zk = createClient();
+            AtomicInteger events = new AtomicInteger();
+            zk.addWatch("/node", event -> {
+                if (event.getType() == EventType.NodeDataChanged) {
+                    events.incrementAndGet();
+                }
+            }, AddWatchMode.PERSISTENT);
+            readers.add(zk);
+            eventCounts.add(events);
+        }
+
+        AtomicInteger outOfOrder = new AtomicInteger();
+        for (int u = 1; u <= updates; u++) {
+            writer.setData("/node", new byte[]{(byte) u}, -1);
+            CountDownLatch responses = new CountDownLatch(clients);
+            for (int i = 0; i < clients; i++) {
+                AtomicInteger events = eventCounts.get(i);
+                int expected = u;
+                // callbacks and watch events are run by the same event thread
+                // in the order the client received them
+                readers.get(i).exists("/node", false, (rc, path, ctx, stat) -> {
+                    if (events.get() != expected) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    responses.countDown();
+                }, null);
+            }
+            assertTrue(responses.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(0, outOfOrder.get());
+        for (AtomicInteger events : eventCounts) {
+            assertEquals(updates, events.get());
+        }
+    }
+
+    @Test
+    public void testStandardWatches() throws Exception {
+        ZooKeeper zk = createClient();
+        BlockingQueue<WatchedEvent> events = new LinkedBlockingQueue<>();
+        zk.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.getData("/a", events::add, null);
+        zk.getChildren("/a", events::add);
+        zk.exists("/a/b", events::add);
+
+        zk.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.setData("/a", new byte[1], -1);
+
+        WatchedEvent event = events.poll(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(EventType.NodeCreated, event.getType());
+        assertEquals("/a/b", event.getPath());
+        event = events.poll(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(EventType.NodeChildrenChanged, event.getType());
+        assertEquals("/a", event.getPath());
+        event = events.poll(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(EventType.NodeDataChanged, event.getType());
+        assertEquals("/a", event.getPath());
+    }
+
+}
@@ -24,11 +24,13 @@
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.AddWatchMode;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZKClientConfig;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -259,4 +261,72 @@ public void testManyChildWatchersAutoReset() throws Exception {
         }
     }
 
+    @Test
+    public void testCompactSetWatchesAutoReset() throws Exception {
+        ZKClientConfig config = new ZKClientConfig();
+        config.setProperty(ZKClientConfig.ZOOKEEPER_COMPACT_SET_WATCHES, "true");
+        zk2 = createZKClient(hostPort, CONNECTION_TIMEOUT, CONNECTION_TIMEOUT, config);
+        zk2.register(watcher2);
+
+        zk1.create("/compact", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk1.create("/recursive", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            paths.add(zk1.create("/compact/ch-", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL));
+        }
+
+        MyWatcher childWatcher = new MyWatcher();
+        MyWatcher persistentWatcher = new MyWatcher();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            if (i % 3 == 0) {
+                zk2.getChildren(path, childWatcher);
+            } else if (i % 3 == 1) {
+                zk2.exists(path + "/foo", childWatcher);
+            } else {
+                zk2.getData(path, childWatcher, null);
+            }
+        }
+        zk2.addWatch("/compact", persistentWatcher, AddWatchMode.PERSISTENT);
+        zk2.addWatch("/recursive", persistentWatcher, AddWatchMode.PERSISTENT_RECURSIVE);
+
+        stopServer();
+        watcher2.waitForDisconnected(30000);
+        startServer();
+        watcher2.waitForConnected(30000);
+        watcher1.waitForConnected(30000);
+
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            String expectedPath = path;
+            EventType expectedType;
+            if (i % 3 == 0) {
+                zk1.create(path + "/ch", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                expectedType = EventType.NodeChildrenChanged;
+            } else if (i % 3 == 1) {
+                zk1.create(path + "/foo", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                expectedType = EventType.NodeCreated;
+                expectedPath = path + "/foo";
+            } else {
+                zk1.setData(path, new byte[] {1}, -1);
+                expectedType = EventType.NodeDataChanged;
+            }
+            WatchedEvent e = childWatcher.events.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(e);
+            assertEquals(expectedType, e.getType());
+            assertEquals(expectedPath, e.getPath());
+        }
+
+        zk1.setData("/compact", new byte[] {1}, -1);
+        WatchedEvent e = persistentWatcher.events.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull(e);
+        assertEquals(EventType.NodeDataChanged, e.getType());
+        assertEquals("/compact", e.getPath());
+        zk1.create("/recursive/a", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        e = persistentWatcher.events.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull(e);
+        assertEquals(EventType.NodeCreated, e.getType());
+        assertEquals("/recursive/a", e.getPath());
+    }
+
 }
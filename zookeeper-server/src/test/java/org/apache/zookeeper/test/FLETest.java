@@ -33,6 +33,8 @@
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.zookeeper.PortAssignment;
 import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.metrics.MetricsUtils;
+import org.apache.zookeeper.server.ServerMetrics;
 import org.apache.zookeeper.server.quorum.FastLeaderElection;
 import org.apache.zookeeper.server.quorum.QuorumPeer;
 import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
@@ -288,6 +290,16 @@ public void testTripleElection() throws Exception {
         }
     }
 
+    @Test
+    public void testElectionMetrics() throws Exception {
+        ServerMetrics.getMetrics().resetAll();
+        runElection(1);
+        Map<String, Object> metrics = MetricsUtils.currentServerMetrics();
+        assertTrue((long) metrics.get("cnt_election_first_notification_time") > 0);
+        assertTrue((long) metrics.get("cnt_election_quorum_time") > 0);
+        assertTrue((long) metrics.get("cnt_election_finalize_wait_time") > 0);
+    }
+
     /**
      * Test leader election for a number of rounds. In all rounds but the last one
      * we kill the leader.
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.ChildrenPage;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GetChildrenPageTest extends ClientBase {
+
+    private ZooKeeper zk;
+
+    @BeforeEach
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        zk = createClient();
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+
+        zk.close();
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        zk.create("/queue", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        for (int i = 0; i < 250; i++) {
+            zk.create("/queue/item-", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+        }
+        List<String> expected = zk.getChildren("/queue", false);
+        Collections.sort(expected);
+
+        List<String> listed = new ArrayList<>();
+        int pages = 0;
+        String cursor = null;
+        ChildrenPage page;
+        do {
+            page = zk.getChildrenPage("/queue", cursor, 100, false);
+            assertEquals(250, page.getStat().getNumChildren());
+            listed.addAll(page.getChildren());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (page.hasMore());
+        assertEquals(3, pages);
+        assertNull(cursor);
+        assertEquals(expected, listed);
+
+        // exactly one page
+        page = zk.getChildrenPage("/queue", null, 250, false);
+        assertEquals(expected, page.getChildren());
+        assertFalse(page.hasMore());
+        page = zk.getChildrenPage("/queue", expected.get(249), 10, false);
+        assertTrue(page.getChildren().isEmpty());
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertThrows(KeeperException.NoNodeException.class, () -> zk.getChildrenPage("/missing", null, 10, false));
+        assertThrows(IllegalArgumentException.class, () -> zk.getChildrenPage("/", null, 0, false));
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        zk.create("/parent", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        CountDownLatch changed = new CountDownLatch(1);
+        zk.getChildrenPage("/parent", null, 10, event -> {
+            if (event.getType() == EventType.NodeChildrenChanged) {
+                changed.countDown();
+            }
+        });
+        zk.create("/parent/child", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        assertTrue(changed.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+}
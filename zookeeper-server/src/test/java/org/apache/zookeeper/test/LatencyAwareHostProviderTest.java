@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.client.LatencyAwareHostProvider;
+import org.apache.zookeeper.client.StaticHostProvider;
+import org.junit.jupiter.api.Test;
+
+public class LatencyAwareHostProviderTest extends ZKTestCase {
+
+    // resolves the addresses to themselves
+    private static final StaticHostProvider.Resolver RESOLVER = name -> new InetAddress[] {
+        InetAddress.getByAddress(name, new byte[] {10, 10, 10, 1})
+    };
+
+    private static List<InetSocketAddress> servers(int count) {
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            servers.add(InetSocketAddress.createUnresolved("server" + i, 2181 + i));
+        }
+        return servers;
+    }
+
+    private static LatencyAwareHostProvider provider(List<InetSocketAddress> servers) {
+        return new LatencyAwareHostProvider(servers, RESOLVER, null, 0, 1);
+    }
+
+    private static LatencyAwareHostProvider provider(List<InetSocketAddress> servers, AtomicLong nanoTime) {
+        return new LatencyAwareHostProvider(servers, RESOLVER, null, 0, 1, nanoTime::get);
+    }
+
+    @Test
+    public void testEmptyServerList() {
+        assertThrows(IllegalArgumentException.class, () -> provider(Collections.emptyList()));
+    }
+
+    @Test
+    public void testPrefersFastServers() {
+        AtomicLong nanoTime = new AtomicLong();
+        LatencyAwareHostProvider provider = provider(servers(3), nanoTime);
+        // server0 connects at once, server1 in 5ms and server2 in 20ms
+        Map<Integer, Integer> chosen = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            InetSocketAddress address = provider.next(0);
+            int port = address.getPort();
+            nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos((port - 2181) * (port - 2181) * 5));
+            provider.onConnected();
+            if (i >= 20) {
+                chosen.merge(port, 1, Integer::sum);
+            }
+        }
+        // the best of two random servers is the fastest one 2 times out of 3
+        assertTrue(chosen.getOrDefault(2181, 0) > 100, chosen.toString());
+        assertTrue(chosen.getOrDefault(2183, 0) < 10, chosen.toString());
+        assertTrue(provider.getLatencyMs(InetSocketAddress.createUnresolved("server2", 2183)) >= 10);
+        assertEquals(0, provider.getLatencyMs(InetSocketAddress.createUnresolved("server0", 2181)));
+    }
+
+    @Test
+    public void testSkipsFailedServers() {
+        LatencyAwareHostProvider provider = provider(servers(3));
+        InetSocketAddress failed = provider.next(0);
+        // next() without onConnected() means the attempt failed
+        assertNotEquals(failed.getPort(), provider.next(0).getPort());
+        provider.onConnected();
+        assertEquals(1, provider.getFailures(InetSocketAddress.createUnresolved(failed.getHostString(), failed.getPort())));
+        for (int i = 0; i < 50; i++) {
+            assertNotEquals(failed.getPort(), provider.next(0).getPort());
+            provider.onConnected();
+        }
+    }
+
+    @Test
+    public void testAllServersFailed() {
+        LatencyAwareHostProvider provider = provider(servers(3));
+        for (int i = 0; i < 3; i++) {
+            provider.next(0);
+        }
+        // still returns a server, and sleeps once all were tried
+        long start = System.nanoTime();
+        InetSocketAddress address = provider.next(100);
+        assertNotNull(address);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        // the sleep is not part of the connect latency
+        provider.onConnected();
+        assertTrue(provider.getLatencyMs(InetSocketAddress.createUnresolved(address.getHostString(), address.getPort())) < 100);
+        start = System.nanoTime();
+        assertNotNull(provider.next(100));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+    }
+
+    @Test
+    public void testAvoidsLoadedServers() throws Exception {
+        CountDownLatch probed = new CountDownLatch(3);
+        LatencyAwareHostProvider provider = new LatencyAwareHostProvider(servers(3), RESOLVER, (address, cmd) -> {
+            if (cmd.equals("mntr")) {
+                probed.countDown();
+                int connections = address.getPort() == 2181 ? 1000 : 10;
+                return "zk_version\t3.10.0\nzk_server_state\tfollower\nzk_num_alive_connections\t" + connections + "\n";
+            }
+            return "rw";
+        }, 60000, 1);
+        provider.next(0);
+        provider.onConnected();
+        assertTrue(probed.await(10, TimeUnit.SECONDS));
+        // the results are applied after the last probe
+        Thread.sleep(100);
+
+        int loaded = 0;
+        for (int i = 0; i < 200; i++) {
+            InetSocketAddress address = provider.next(0);
+            Thread.sleep(2);
+            provider.onConnected();
+            if (address.getPort() == 2181) {
+                loaded++;
+            }
+        }
+        assertTrue(loaded < 40, "the loaded server was chosen " + loaded + " times");
+    }
+
+    @Test
+    public void testReadOnlyFromIsro() throws Exception {
+        CountDownLatch probed = new CountDownLatch(2);
+        LatencyAwareHostProvider provider = new LatencyAwareHostProvider(servers(2), RESOLVER, (address, cmd) -> {
+            if (cmd.equals("mntr")) {
+                return "mntr is not executed because it is not in the whitelist.\n";
+            }
+            probed.countDown();
+            return address.getPort() == 2181 ? "ro" : "rw";
+        }, 60000, 1);
+        provider.next(0);
+        provider.onConnected();
+        assertTrue(probed.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        int readOnly = 0;
+        for (int i = 0; i < 100; i++) {
+            InetSocketAddress address = provider.next(0);
+            Thread.sleep(2);
+            provider.onConnected();
+            if (address.getPort() == 2181) {
+                readOnly++;
+            }
+        }
+        assertTrue(readOnly < 20, "the read-only server was chosen " + readOnly + " times");
+    }
+
+    @Test
+    public void testProbeFailureIsNotConnectFailure() throws Exception {
+        CountDownLatch probed = new CountDownLatch(2);
+        LatencyAwareHostProvider provider = new LatencyAwareHostProvider(servers(2), RESOLVER, (address, cmd) -> {
+            probed.countDown();
+            if (address.getPort() == 2181) {
+                throw new IOException("unreachable");
+            }
+            return "zk_server_state\tfollower\nzk_num_alive_connections\t10\n";
+        }, 60000, 1);
+        provider.next(0);
+        provider.onConnected();
+        assertTrue(probed.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        InetSocketAddress failed = InetSocketAddress.createUnresolved("server0", 2181);
+        assertEquals(1, provider.getProbeFailures(failed));
+        assertEquals(0, provider.getFailures(failed));
+        assertEquals(0, provider.getProbeFailures(InetSocketAddress.createUnresolved("server1", 2182)));
+    }
+
+    @Test
+    public void testUpdateServerList() {
+        List<InetSocketAddress> servers = servers(3);
+        AtomicLong nanoTime = new AtomicLong();
+        LatencyAwareHostProvider provider = provider(servers, nanoTime);
+        InetSocketAddress current = provider.next(0);
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+        provider.onConnected();
+        InetSocketAddress currentUnresolved = InetSocketAddress.createUnresolved(current.getHostString(), current.getPort());
+        double latency = provider.getLatencyMs(currentUnresolved);
+        assertEquals(5, latency);
+
+        // the current server is kept, with what is known of it
+        assertFalse(provider.updateServerList(servers, current));
+        assertEquals(latency, provider.getLatencyMs(currentUnresolved));
+
+        // the current server is removed
+        List<InetSocketAddress> others = new ArrayList<>(servers);
+        others.remove(currentUnresolved);
+        assertTrue(provider.updateServerList(others, current));
+        assertEquals(2, provider.size());
+        for (int i = 0; i < 10; i++) {
+            InetSocketAddress address = provider.next(0);
+            assertTrue(others.contains(InetSocketAddress.createUnresolved(address.getHostString(), address.getPort())));
+        }
+
+        // about a quarter of the clients move to a fourth server
+        int moved = 0;
+        for (int seed = 0; seed < 400; seed++) {
+            LatencyAwareHostProvider p = new LatencyAwareHostProvider(servers, RESOLVER, null, 0, seed);
+            InetSocketAddress address = p.next(0);
+            p.onConnected();
+            List<InetSocketAddress> more = new ArrayList<>(servers);
+            more.add(InetSocketAddress.createUnresolved("server3", 2184));
+            if (p.updateServerList(more, address)) {
+                moved++;
+                assertNotEquals(address.getPort(), p.next(0).getPort());
+            }
+        }
+        assertTrue(moved > 50 && moved < 150, moved + " clients moved");
+    }
+
+}
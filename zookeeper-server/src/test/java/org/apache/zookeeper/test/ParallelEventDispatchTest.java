@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZKClientConfig;
+import org.junit.jupiter.api.Test;
+
+public class ParallelEventDispatchTest extends ClientBase {
+
+    @Test
+    public void testCallbacksOrderedByPath() throws Exception {
+        ZKClientConfig config = new ZKClientConfig();
+        config.setProperty(ZKClientConfig.ZOOKEEPER_EVENT_THREADS, "4");
+        ZooKeeper zk = createZKClient(hostPort, CONNECTION_TIMEOUT, CONNECTION_TIMEOUT, config);
+        try {
+            int paths = 10;
+            int updates = 100;
+            for (int p = 0; p < paths; p++) {
+                zk.create("/p" + p, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+            Map<String, List<Integer>> versions = new ConcurrentHashMap<>();
+            CountDownLatch done = new CountDownLatch(paths * updates);
+            for (int i = 0; i < updates; i++) {
+                for (int p = 0; p < paths; p++) {
+                    zk.setData("/p" + p, new byte[0], -1, (rc, path, ctx, stat) -> {
+                        versions.computeIfAbsent(path, k -> new ArrayList<>()).add(stat.getVersion());
+                        done.countDown();
+                    }, null);
+                }
+            }
+            assertTrue(done.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+            for (int p = 0; p < paths; p++) {
+                List<Integer> list = versions.get("/p" + p);
+                for (int i = 0; i < updates; i++) {
+                    assertEquals(i + 1, list.get(i));
+                }
+            }
+
+            Map<String, Object> metrics = zk.getEventMetrics();
+            assertTrue(metrics.containsKey("event_queue_size"));
+            assertTrue((Long) metrics.get("cnt_event_dispatch_latency_ms") >= paths * updates);
+        } finally {
+            zk.close();
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.ZKClientConfig;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.ServerStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WriteBatchingTest extends ClientBase {
+
+    private static final int COUNT = 1000;
+
+    private ZooKeeper zk;
+
+    @BeforeEach
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        ZKClientConfig config = new ZKClientConfig();
+        config.setProperty(ZKClientConfig.ZOOKEEPER_WRITE_BATCH_SIZE, "100");
+        zk = createZKClient(hostPort, CONNECTION_TIMEOUT, CONNECTION_TIMEOUT, config);
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() throws Exception {
+        if (zk != null) {
+            zk.close();
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testBatchedWrites() throws Exception {
+        ServerStats stats = serverFactory.getZooKeeperServer().serverStats();
+        long packets = stats.getPacketsReceived();
+
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch created = new CountDownLatch(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            String path = "/node" + i;
+            if (i % 2 == 0) {
+                zk.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                    (rc, p, ctx, name) -> {
+                        results.add(rc + " " + name);
+                        created.countDown();
+                    }, null);
+            } else {
+                zk.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                    (rc, p, ctx, name, stat) -> {
+                        results.add(rc + " " + name);
+                        assertNotNull(stat);
+                        created.countDown();
+                    }, null);
+            }
+        }
+        assertTrue(created.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        CountDownLatch updated = new CountDownLatch(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            zk.setData("/node" + i, new byte[]{1}, 0, (rc, p, ctx, stat) -> {
+                results.add(rc + " " + p + " " + stat.getVersion());
+                updated.countDown();
+            }, null);
+        }
+        assertTrue(updated.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        CountDownLatch deleted = new CountDownLatch(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            zk.delete("/node" + i, 1, (rc, p, ctx) -> {
+                results.add(rc + " " + p);
+                deleted.countDown();
+            }, null);
+        }
+        assertTrue(deleted.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // the callbacks are called in the order of the requests
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            expected.add("0 /node" + i);
+        }
+        for (int i = 0; i < COUNT; i++) {
+            expected.add("0 /node" + i + " 1");
+        }
+        for (int i = 0; i < COUNT; i++) {
+            expected.add("0 /node" + i);
+        }
+        assertEquals(expected, results);
+        for (int i = 0; i < COUNT; i++) {
+            assertNull(zk.exists("/node" + i, false));
+        }
+        long received = stats.getPacketsReceived() - packets;
+        assertTrue(received < COUNT * 3 / 2, "the writes were not batched, " + received + " packets received");
+    }
+
+    @Test
+    public void testFailureInBatch() throws Exception {
+        zk.create("/dup", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(COUNT + 2);
+        for (int i = 0; i < COUNT; i++) {
+            String path = i == COUNT / 2 ? "/dup" : "/node" + i;
+            zk.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                (rc, p, ctx, name) -> {
+                    results.add(rc + " " + p);
+                    done.countDown();
+                }, null);
+        }
+        // a read is not sent before the writes queued before it
+        zk.exists("/node" + (COUNT - 1), false, (rc, p, ctx, stat) -> {
+            results.add(rc + " " + p + " " + (stat != null));
+            done.countDown();
+        }, null);
+        zk.sync("/", (rc, p, ctx) -> done.countDown(), null);
+        assertTrue(done.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            if (i == COUNT / 2) {
+                expected.add(Code.NODEEXISTS.intValue() + " /dup");
+            } else {
+                expected.add("0 /node" + i);
+            }
+        }
+        expected.add("0 /node" + (COUNT - 1) + " true");
+        assertEquals(expected, results);
+        Stat stat = new Stat();
+        zk.getData("/dup", false, stat);
+        assertEquals(0, stat.getVersion());
+        // the zookeeper node, /dup and the nodes created
+        assertEquals(COUNT + 1, zk.getChildren("/", false).size());
+    }
+
+}